@@ -0,0 +1,88 @@
+package uk.ac.bristol.star.cdf.record;
+
+import java.io.IOException;
+
+/**
+ * Buf which can read data values into an arbitrary position of
+ * a supplied array.
+ * The public entry points for these methods are the
+ * <code>readData*</code> static methods of {@link Bufs},
+ * which also work for Buf implementations without this capability.
+ *
+ * @author   Mark Taylor
+ * @since    17 Oct 2026
+ */
+interface ArrayReadBuf extends Buf {
+
+    /**
+     * Reads a sequence of byte values from this buf into an array.
+     *
+     * @param  offset  position sequence start in this buffer in bytes
+     * @param  count   number of byte values to read
+     * @param  array   array to receive values
+     * @param  arrayOffset  index of first element of array to be written
+     */
+    void readDataBytes( long offset, int count, byte[] array,
+                        int arrayOffset )
+            throws IOException;
+
+    /**
+     * Reads a sequence of short values from this buf into an array.
+     *
+     * @param  offset  position sequence start in this buffer in bytes
+     * @param  count   number of short values to read
+     * @param  array   array to receive values
+     * @param  arrayOffset  index of first element of array to be written
+     */
+    void readDataShorts( long offset, int count, short[] array,
+                         int arrayOffset )
+            throws IOException;
+
+    /**
+     * Reads a sequence of int values from this buf into an array.
+     *
+     * @param  offset  position sequence start in this buffer in bytes
+     * @param  count   number of int values to read
+     * @param  array   array to receive values
+     * @param  arrayOffset  index of first element of array to be written
+     */
+    void readDataInts( long offset, int count, int[] array,
+                       int arrayOffset )
+            throws IOException;
+
+    /**
+     * Reads a sequence of long integer values from this buf into an array.
+     *
+     * @param  offset  position sequence start in this buffer in bytes
+     * @param  count   number of long values to read
+     * @param  array   array to receive values
+     * @param  arrayOffset  index of first element of array to be written
+     */
+    void readDataLongs( long offset, int count, long[] array,
+                        int arrayOffset )
+            throws IOException;
+
+    /**
+     * Reads a sequence of float values from this buf into an array.
+     *
+     * @param  offset  position sequence start in this buffer in bytes
+     * @param  count   number of float values to read
+     * @param  array   array to receive values
+     * @param  arrayOffset  index of first element of array to be written
+     */
+    void readDataFloats( long offset, int count, float[] array,
+                         int arrayOffset )
+            throws IOException;
+
+    /**
+     * Reads a sequence of double values from this buf into an array.
+     *
+     * @param  offset  position sequence start in this buffer in bytes
+     * @param  count   number of double values to read
+     * @param  array   array to receive values
+     * @param  arrayOffset  index of first element of array to be written
+     */
+    void readDataDoubles( long offset, int count, double[] array,
+                          int arrayOffset )
+            throws IOException;
+}
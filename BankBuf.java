@@ -30,7 +30,7 @@ import java.util.logging.Logger;
  * @author   Mark Taylor
  * @since    18 Jun 2013
  */
-public abstract class BankBuf implements Buf {
+public abstract class BankBuf implements ArrayReadBuf {
 
     private final long size_;
     private boolean isBit64_;
@@ -141,41 +141,101 @@ public abstract class BankBuf implements Buf {
 
     public void readDataBytes( long offset, int count, byte[] array )
             throws IOException {
+        readDataBytes( offset, count, array, 0 );
+    }
+
+    public void readDataBytes( long offset, int count, byte[] array,
+                               int arrayOffset )
+            throws IOException {
         Bank bank = getBank( offset, count );
-        Bufs.readBytes( bank.dataBuffer_, bank.adjust( offset ), count, array );
+        Bufs.readBytes( bank.dataBuffer_, bank.adjust( offset ),
+                        count, array, arrayOffset );
     }
 
     public void readDataShorts( long offset, int count, short[] array )
             throws IOException {
+        readDataShorts( offset, count, array, 0 );
+    }
+
+    public void readDataShorts( long offset, int count, short[] array,
+                                int arrayOffset )
+            throws IOException {
         Bank bank = getBank( offset, count * 2 );
         Bufs.readShorts( bank.dataBuffer_, bank.adjust( offset ),
-                         count, array );
+                         count, array, arrayOffset );
     }
 
     public void readDataInts( long offset, int count, int[] array )
             throws IOException {
+        readDataInts( offset, count, array, 0 );
+    }
+
+    public void readDataInts( long offset, int count, int[] array,
+                              int arrayOffset )
+            throws IOException {
         Bank bank = getBank( offset, count * 4 );
-        Bufs.readInts( bank.dataBuffer_, bank.adjust( offset ), count, array );
+        Bufs.readInts( bank.dataBuffer_, bank.adjust( offset ),
+                       count, array, arrayOffset );
     }
 
     public void readDataLongs( long offset, int count, long[] array )
             throws IOException {
+        readDataLongs( offset, count, array, 0 );
+    }
+
+    public void readDataLongs( long offset, int count, long[] array,
+                               int arrayOffset )
+            throws IOException {
         Bank bank = getBank( offset, count * 8 );
-        Bufs.readLongs( bank.dataBuffer_, bank.adjust( offset ), count, array );
+        Bufs.readLongs( bank.dataBuffer_, bank.adjust( offset ),
+                        count, array, arrayOffset );
     }
 
     public void readDataFloats( long offset, int count, float[] array )
             throws IOException {
+        readDataFloats( offset, count, array, 0 );
+    }
+
+    public void readDataFloats( long offset, int count, float[] array,
+                                int arrayOffset )
+            throws IOException {
         Bank bank = getBank( offset, count * 4 );
         Bufs.readFloats( bank.dataBuffer_, bank.adjust( offset ),
-                         count, array );
+                         count, array, arrayOffset );
     }
 
     public void readDataDoubles( long offset, int count, double[] array )
             throws IOException {
+        readDataDoubles( offset, count, array, 0 );
+    }
+
+    public void readDataDoubles( long offset, int count, double[] array,
+                                 int arrayOffset )
+            throws IOException {
         Bank bank = getBank( offset, count * 8 );
         Bufs.readDoubles( bank.dataBuffer_, bank.adjust( offset ),
-                          count, array );
+                          count, array, arrayOffset );
+    }
+
+    /**
+     * Returns a read-only view of a range of bytes in this buf,
+     * if the range lies within a single bank.
+     *
+     * @param  offset  offset of first byte
+     * @param  count  number of bytes
+     * @return  view ordered for application data, or null if the range
+     *          straddles a bank boundary
+     * @see   Bufs#createDataView
+     */
+    ByteBuffer createDataView( long offset, int count ) throws IOException {
+
+        // Don't ask for the whole range, since for a straddled range
+        // getBank would copy it into a temporary bank.
+        Bank bank = getBank( offset, 1 );
+        int ioff = bank.adjust( offset );
+        return ioff + (long) count <= bank.size_
+             ? Bufs.readOnlySlice( bank.dataBuffer_, ioff, count )
+             : null;
     }
 
     public InputStream createInputStream( final long offset ) {
@@ -410,17 +470,19 @@ public abstract class BankBuf implements Buf {
                     int tmpOff = 0;
                     int n = (int) ( ends_[ ibank ] - offset );
                     while ( count > 0 ) {
-                    	ByteBuffer bbuf = banks_[ ibank ].byteBuffer_;
-                        synchronized ( bbuf ) {
-                            bbuf.position( bankOff );
-                            bbuf.get( tmp, tmpOff, n );
-                        }
+                        Bufs.positionedView( banks_[ ibank ].byteBuffer_,
+                                             bankOff )
+                            .get( tmp, tmpOff, n );
                         count -= n;
                         tmpOff += n;
                         bankOff = 0;
                         ibank++;
-                        n = (int) Math.min( count,
-                                            ends_[ ibank ] - starts_[ ibank ] );
+
+                        // Don't look at the next bank unless there is one.
+                        if ( count > 0 ) {
+                            n = (int) Math.min( count, ends_[ ibank ]
+                                                     - starts_[ ibank ] );
+                        }
                     }
                     return new Bank( ByteBuffer.wrap( tmp ), offset,
                                      isBigendian() );
@@ -514,11 +576,9 @@ public abstract class BankBuf implements Buf {
                 int tmpOff = 0;
                 int n = count - over;
                 while ( count > 0 ){
-                    ByteBuffer bbuf = getBankByIndex( ibank ).byteBuffer_;
-                    synchronized ( bbuf ){
-                        bbuf.position( bankOff );
-                        bbuf.get( tmp, tmpOff, n );
-                    }
+                    Bufs.positionedView( getBankByIndex( ibank ).byteBuffer_,
+                                         bankOff )
+                        .get( tmp, tmpOff, n );
                     count -= n;
                     tmpOff += n;
                     bankOff = 0;
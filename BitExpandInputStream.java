@@ -43,8 +43,11 @@ import java.io.InputStream;
 abstract class BitExpandInputStream extends InputStream {
 
     private final InputStream base_;
-    private int rack_;
-    private int mask_;
+    private final byte[] inBuf_;
+    private int inPos_;
+    private int inLeng_;
+    private long bits_;
+    private int nbits_;
     private boolean ended_;
 
     /** End of stream marker. */
@@ -57,7 +60,7 @@ abstract class BitExpandInputStream extends InputStream {
      */
     protected BitExpandInputStream( InputStream base ) {
         base_ = base;
-        mask_ = 0x80;
+        inBuf_ = new byte[ 4096 ];
     }
 
     @Override
@@ -85,6 +88,26 @@ abstract class BitExpandInputStream extends InputStream {
         }
     }
 
+    @Override
+    public int read( byte[] b, int off, int len ) throws IOException {
+        if ( len == 0 ) {
+            return 0;
+        }
+        if ( ended_ ) {
+            return -1;
+        }
+        int n = 0;
+        while ( n < len ) {
+            int token = readToken();
+            if ( token == END_OF_STREAM ) {
+                ended_ = true;
+                break;
+            }
+            b[ off + n++ ] = (byte) token;
+        }
+        return n == 0 ? -1 : n;
+    }
+
     /**
      * Reads a single uncompressed character.
      * The result may be either a byte value
@@ -103,15 +126,23 @@ abstract class BitExpandInputStream extends InputStream {
      * @return   true/false for next input bit 1/0
      */
     public boolean readBit() throws IOException {
-        if ( mask_ == 0x80 ) {
-            rack_ = read1( base_ );
-        }
-        int value = rack_ & mask_;
-        mask_ >>= 1;
-        if ( mask_ == 0 ) {
-            mask_ = 0x80;
+        return readBitValue() != 0;
+    }
+
+    /**
+     * Reads the next bit from the compressed base stream as an integer.
+     * This may be used in arithmetic to avoid branching on the result.
+     *
+     * @return   1/0 for next input bit 1/0
+     */
+    protected int readBitValue() throws IOException {
+        if ( nbits_ == 0 ) {
+            fillBits();
+            if ( nbits_ == 0 ) {
+                throw new EOFException();
+            }
         }
-        return value != 0;
+        return (int) ( bits_ >>> --nbits_ ) & 1;
     }
 
     /**
@@ -122,15 +153,60 @@ abstract class BitExpandInputStream extends InputStream {
      * @return  int containing bits
      */
     public int readBits( int bitCount ) throws IOException {
-        int mask = 1 << ( bitCount - 1 );
-        int value = 0;
-        while ( mask != 0 ) {
-            if ( readBit() ) {
-                value |= mask;
+        int value = peekBits( bitCount );
+        skipBits( bitCount );
+        return value;
+    }
+
+    /**
+     * Returns the next few bits from the compressed input stream
+     * without consuming them.
+     * If the stream ends before that many bits are available,
+     * the missing bits are given as zero.
+     *
+     * @param  bitCount  number of bits to examine, not more than 32
+     * @return  int containing bits in its least-significant end
+     */
+    protected int peekBits( int bitCount ) throws IOException {
+        if ( nbits_ < bitCount ) {
+            fillBits();
+        }
+        long mask = ( 1L << bitCount ) - 1;
+        return nbits_ >= bitCount
+             ? (int) ( ( bits_ >>> ( nbits_ - bitCount ) ) & mask )
+             : (int) ( ( bits_ << ( bitCount - nbits_ ) ) & mask );
+    }
+
+    /**
+     * Consumes bits from the compressed input stream.
+     * They must already have been examined using {@link #peekBits}.
+     *
+     * @param  bitCount  number of bits to consume
+     * @throws  EOFException  if the stream ended before that many bits
+     */
+    protected void skipBits( int bitCount ) throws EOFException {
+        if ( bitCount > nbits_ ) {
+            throw new EOFException();
+        }
+        nbits_ -= bitCount;
+    }
+
+    /**
+     * Tops up the bit buffer from the base stream,
+     * so that it contains at least 57 bits if that many are available.
+     */
+    private void fillBits() throws IOException {
+        while ( nbits_ <= 56 ) {
+            if ( inPos_ == inLeng_ ) {
+                inPos_ = 0;
+                inLeng_ = Math.max( 0, base_.read( inBuf_ ) );
+                if ( inLeng_ == 0 ) {
+                    return;
+                }
             }
-            mask >>= 1;
+            bits_ = ( bits_ << 8 ) | ( inBuf_[ inPos_++ ] & 0xff );
+            nbits_ += 8;
         }
-        return value;
     }
 
     /**
@@ -154,9 +230,12 @@ abstract class BitExpandInputStream extends InputStream {
      */
     public static class HuffmanInputStream extends BitExpandInputStream {
 
-        private final Node[] nodes_;
-        private final int iRoot_;
-        private boolean ended_;
+        private final int[] child0s_;
+        private final int[] child1s_;
+        private final int[] table_;
+
+        /** Number of bits decoded at once by table lookup. */
+        private static final int TABLE_BITS = 10;
 
         /**
          * Constructor.
@@ -165,21 +244,65 @@ abstract class BitExpandInputStream extends InputStream {
          */
         public HuffmanInputStream( InputStream base ) throws IOException {
             super( base );
-            nodes_ = inputCounts( base );
-            iRoot_ = buildTree( nodes_ );
+            Node[] nodes = inputCounts( base );
+            int iRoot = buildTree( nodes );
+            int nnode = nodes.length;
+            child0s_ = new int[ nnode ];
+            child1s_ = new int[ nnode ];
+            for ( int i = 0; i < nnode; i++ ) {
+                child0s_[ i ] = nodes[ i ].child0_;
+                child1s_[ i ] = nodes[ i ].child1_;
+            }
+            table_ = buildTable( iRoot, child0s_, child1s_ );
         }
 
         @Override
         protected int readToken() throws IOException {
-            int inode = iRoot_;
-            do {
-                Node node = nodes_[ inode ];
-                boolean bit = readBit();
-                inode = bit ? node.child1_ : node.child0_;
-            } while ( inode > END_OF_STREAM );
+
+            // Look up the next TABLE_BITS bits, which will usually
+            // give a whole code.  If the code is longer than that,
+            // finish walking the tree a bit at a time.
+            int entry = table_[ peekBits( TABLE_BITS ) ];
+            skipBits( entry >>> 16 );
+            int inode = entry & 0xffff;
+            while ( inode > END_OF_STREAM ) {
+                inode = readBit() ? child1s_[ inode ] : child0s_[ inode ];
+            }
             return inode;
         }
 
+        /**
+         * Constructs a lookup table for decoding multiple bits at once.
+         * The table has an entry for each possible value of the next
+         * TABLE_BITS input bits.  Each entry gives the number of bits
+         * consumed in the upper 16 bits, and the node arrived at
+         * in the lower 16 bits; that is a symbol if it is not greater
+         * than END_OF_STREAM, otherwise an internal node
+         * from which decoding must continue.
+         *
+         * @param  iRoot  index of root node
+         * @param  child0s  per-node index of child for input bit 0
+         * @param  child1s  per-node index of child for input bit 1
+         * @return  lookup table with 2^TABLE_BITS entries
+         */
+        private static int[] buildTable( int iRoot, int[] child0s,
+                                         int[] child1s ) {
+            int nent = 1 << TABLE_BITS;
+            int[] table = new int[ nent ];
+            for ( int ient = 0; ient < nent; ient++ ) {
+                int inode = iRoot;
+                int nbit = 0;
+                do {
+                    boolean bit =
+                        ( ( ient >> ( TABLE_BITS - 1 - nbit ) ) & 1 ) != 0;
+                    inode = bit ? child1s[ inode ] : child0s[ inode ];
+                    nbit++;
+                } while ( inode > END_OF_STREAM && nbit < TABLE_BITS );
+                table[ ient ] = ( nbit << 16 ) | inode;
+            }
+            return table;
+        }
+
         private static Node[] inputCounts( InputStream in ) throws IOException {
             Node[] nodes = new Node[ 514 ];
             for ( int i = 0; i < 514; i++ ) {
@@ -257,8 +380,14 @@ abstract class BitExpandInputStream extends InputStream {
             extends BitExpandInputStream {
 
         // Tree members.  This class acts as its own tree.
+        // The nodes are stored as parallel arrays indexed by node number.
+        // The child array gives, for an internal node, the index of
+        // its first child (the second is the next one along), and
+        // for a leaf node, the one's complement of its symbol value.
         private final int[] leafs_;
-        private final Node[] nodes_;
+        private final int[] child_;
+        private final int[] weight_;
+        private final int[] parent_;
         private int nextFreeNode_;
 
         private static final int ESCAPE = 257;
@@ -277,12 +406,13 @@ abstract class BitExpandInputStream extends InputStream {
 
             // Initialise the tree.
             leafs_ = new int[ SYMBOL_COUNT ];
-            nodes_ = new Node[ NODE_TABLE_COUNT ];
-            nodes_[ ROOT_NODE ] = new Node( ROOT_NODE + 1, false, 2, -1 );
-            nodes_[ ROOT_NODE + 1 ] = new Node( END_OF_STREAM, true, 1,
-                                                ROOT_NODE );
+            child_ = new int[ NODE_TABLE_COUNT ];
+            weight_ = new int[ NODE_TABLE_COUNT ];
+            parent_ = new int[ NODE_TABLE_COUNT ];
+            setNode( ROOT_NODE, ROOT_NODE + 1, 2, -1 );
+            setNode( ROOT_NODE + 1, ~END_OF_STREAM, 1, ROOT_NODE );
             leafs_[ END_OF_STREAM ] = ROOT_NODE + 1;
-            nodes_[ ROOT_NODE + 2 ] = new Node( ESCAPE, true, 1, ROOT_NODE );
+            setNode( ROOT_NODE + 2, ~ESCAPE, 1, ROOT_NODE );
             leafs_[ ESCAPE ] = ROOT_NODE + 2;
             nextFreeNode_ = ROOT_NODE + 3;
             for ( int i = 0; i < END_OF_STREAM; i++ ) {
@@ -293,12 +423,11 @@ abstract class BitExpandInputStream extends InputStream {
         @Override
         protected int readToken() throws IOException {
             int iCurrentNode = ROOT_NODE;
-            while ( ! nodes_[ iCurrentNode ].childIsLeaf_ ) {
-                iCurrentNode = nodes_[ iCurrentNode ].child_;
-                boolean bit = readBit();
-                iCurrentNode += bit ? 1 : 0;
+            int child;
+            while ( ( child = child_[ iCurrentNode ] ) >= 0 ) {
+                iCurrentNode = child + readBitValue();
             }
-            int c = nodes_[ iCurrentNode ].child_;
+            int c = ~child;
             if ( c == ESCAPE ) {
                 c = readBits( 8 );
                 addNewNode( c );
@@ -307,118 +436,112 @@ abstract class BitExpandInputStream extends InputStream {
             return c;
         }
 
+        private void setNode( int i, int child, int weight, int parent ) {
+            child_[ i ] = child;
+            weight_[ i ] = weight;
+            parent_[ i ] = parent;
+        }
+
         private void addNewNode( int c ) {
             int iLightestNode = nextFreeNode_ - 1;
             int iNewNode = nextFreeNode_;
             int iZeroWeightNode = nextFreeNode_ + 1;
             nextFreeNode_ += 2;
-            nodes_[ iNewNode ] = new Node( nodes_[ iLightestNode ] );
-            nodes_[ iNewNode ].parent_ = iLightestNode;
-            leafs_[ nodes_[ iNewNode ].child_ ] = iNewNode;
-            nodes_[ iLightestNode ] =
-                new Node( iNewNode, false, nodes_[ iLightestNode ].weight_,
-                                           nodes_[ iLightestNode ].parent_ );
-            nodes_[ iZeroWeightNode ] = new Node( c, true, 0, iLightestNode );
+            setNode( iNewNode, child_[ iLightestNode ],
+                     weight_[ iLightestNode ], iLightestNode );
+            leafs_[ ~child_[ iNewNode ] ] = iNewNode;
+            child_[ iLightestNode ] = iNewNode;
+            setNode( iZeroWeightNode, ~c, 0, iLightestNode );
             leafs_[ c ] = iZeroWeightNode;
         }
 
         private void updateModel( int c ) {
-            if ( nodes_[ ROOT_NODE ].weight_ == MAX_WEIGHT ) {
+            if ( weight_[ ROOT_NODE ] == MAX_WEIGHT ) {
                 rebuildTree();
             }
             int iCurrentNode = leafs_[ c ];
             while ( iCurrentNode != -1 ) {
-                nodes_[ iCurrentNode ].weight_++;
-                int iNewNode;
-                for ( iNewNode = iCurrentNode; iNewNode > ROOT_NODE;
-                      iNewNode-- ) {
-                    if ( nodes_[ iNewNode - 1 ].weight_ >=
-                         nodes_[ iCurrentNode ].weight_ ) {
-                        break;
+                int weight = ++weight_[ iCurrentNode ];
+
+                // Nodes are kept in order of non-increasing weight.
+                // If this one is now out of order, find the first node
+                // lighter than it by binary search, and swap with that.
+                if ( iCurrentNode > ROOT_NODE &&
+                     weight_[ iCurrentNode - 1 ] < weight ) {
+                    int lo = ROOT_NODE;
+                    int hi = iCurrentNode - 1;
+                    while ( lo < hi ) {
+                        int mid = ( lo + hi ) >>> 1;
+                        if ( weight_[ mid ] >= weight ) {
+                            lo = mid + 1;
+                        }
+                        else {
+                            hi = mid;
+                        }
                     }
+                    swapNodes( iCurrentNode, lo );
+                    iCurrentNode = lo;
                 }
-                if ( iCurrentNode != iNewNode ) {
-                    swapNodes( iCurrentNode, iNewNode );
-                    iCurrentNode = iNewNode;
-                }
-                iCurrentNode = nodes_[ iCurrentNode ].parent_;
+                iCurrentNode = parent_[ iCurrentNode ];
             }
         }
 
         private void swapNodes( int i, int j ) {
-            if ( nodes_[ i ].childIsLeaf_ ) {
-                leafs_[ nodes_[ i ].child_ ] = j;
+            int ci = child_[ i ];
+            int cj = child_[ j ];
+            if ( ci < 0 ) {
+                leafs_[ ~ci ] = j;
             }
             else {
-                nodes_[ nodes_[ i ].child_ ].parent_ = j;
-                nodes_[ nodes_[ i ].child_ + 1 ].parent_ = j;
+                parent_[ ci ] = j;
+                parent_[ ci + 1 ] = j;
             }
-            if ( nodes_[ j ].childIsLeaf_ ) {
-                leafs_[ nodes_[ j ].child_ ] = i;
+            if ( cj < 0 ) {
+                leafs_[ ~cj ] = i;
             }
             else {
-                nodes_[ nodes_[ j ].child_ ].parent_ = i;
-                nodes_[ nodes_[ j ].child_ + 1 ].parent_ = i;
+                parent_[ cj ] = i;
+                parent_[ cj + 1 ] = i;
             }
-            Node temp = new Node( nodes_[ i ] );
-            nodes_[ i ] = new Node( nodes_[ j ] );
-            nodes_[ i ].parent_ = temp.parent_;
-            temp.parent_ = nodes_[ j ].parent_;
-            nodes_[ j ] = temp;
+            child_[ i ] = cj;
+            child_[ j ] = ci;
+            int wi = weight_[ i ];
+            weight_[ i ] = weight_[ j ];
+            weight_[ j ] = wi;
         }
 
         private void rebuildTree() {
             int j = nextFreeNode_ - 1;
             for ( int i = j; i >= ROOT_NODE; i-- ) {
-                if ( nodes_[ i ].childIsLeaf_ ) {
-                    nodes_[ j ] = new Node( nodes_[ i ] );
-                    nodes_[ j ].weight_ = ( nodes_[ j ].weight_ + 1 ) / 2;
+                if ( child_[ i ] < 0 ) {
+                    setNode( j, child_[ i ], ( weight_[ i ] + 1 ) / 2,
+                             parent_[ i ] );
                     j--;
                 }
             }
 
             for ( int i = nextFreeNode_ - 2; j >= ROOT_NODE; i -= 2, j-- ) {
-                int k = i + 1;
-                nodes_[ j ].weight_ = nodes_[ i ].weight_ + nodes_[ k ].weight_;
-                int weight = nodes_[ j ].weight_;
-                nodes_[ j ].childIsLeaf_ = false;
-                for ( k = j + 1; weight < nodes_[ k ].weight_; k++ ) {
+                int weight = weight_[ i ] + weight_[ i + 1 ];
+                int k;
+                for ( k = j + 1; weight < weight_[ k ]; k++ ) {
                 }
                 k--;
-                System.arraycopy( nodes_, j + 1, nodes_, j, k - j );
-                nodes_[ k ] = new Node( i, false, weight, nodes_[ k ].parent_ );
+                System.arraycopy( child_, j + 1, child_, j, k - j );
+                System.arraycopy( weight_, j + 1, weight_, j, k - j );
+                System.arraycopy( parent_, j + 1, parent_, j, k - j );
+                child_[ k ] = i;
+                weight_[ k ] = weight;
             }
 
             for ( int i = nextFreeNode_ - 1; i >= ROOT_NODE; i-- ) {
-                if ( nodes_[ i ].childIsLeaf_ ) {
-                    int k = nodes_[ i ].child_;
-                    leafs_[ k ] = i;
+                int k = child_[ i ];
+                if ( k < 0 ) {
+                    leafs_[ ~k ] = i;
                 }
                 else {
-                    int k = nodes_[ i ].child_;
-                    nodes_[ k ].parent_ = nodes_[ k + 1 ].parent_ = i;
+                    parent_[ k ] = parent_[ k + 1 ] = i;
                 }
             }
         }
-
-        /**
-         * Data structure representing an Adaptive Huffman tree node.
-         */
-        private static class Node {
-            int child_;
-            boolean childIsLeaf_;
-            int weight_;
-            int parent_;
-            Node( int child, boolean childIsLeaf, int weight, int parent ) {
-                child_ = child;
-                childIsLeaf_ = childIsLeaf;
-                weight_ = weight;
-                parent_ = parent;
-            }
-            Node( Node node ) {
-                this( node.child_, node.childIsLeaf_, node.weight_,
-                      node.parent_ );
-            }
-        }
     }
 }
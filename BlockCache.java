@@ -0,0 +1,275 @@
+package uk.ac.bristol.star.cdf.record;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.logging.Logger;
+
+/**
+ * Keeps track of the memory used by uncompressed data blocks,
+ * discarding the least recently used ones when a byte budget is exceeded.
+ *
+ * <p>The data of compressed variable value records (CVVRs) is
+ * uncompressed on demand by {@link CompressedBlockBuf} instances,
+ * which register their uncompressed data with a cache of this type.
+ * When the total size of registered data exceeds the cache's budget,
+ * blocks are evicted (their uncompressed data is released, and will be
+ * uncompressed again if it is needed later) until it no longer does.
+ * The most recently loaded block is never evicted, so a single block
+ * larger than the budget can still be used.
+ *
+ * <p>Recency is approximated using a second-chance scheme:
+ * use of an already loaded block just sets a flag on that block,
+ * so that reads of cached data do not need to take any lock.
+ * A flagged block reaching the eviction end of the queue has its flag
+ * cleared and is moved to the other end instead of being evicted.
+ *
+ * <p>If an executor is installed using {@link #setExecutor},
+ * blocks can be uncompressed concurrently in the background.
+ * Blocks may be requested explicitly using
+ * {@link CompressedBlockBuf#prefetch}, and in addition, when a block
+ * is first used, a number of the blocks following it are prefetched,
+ * to speed up sequential scans.
+ *
+ * <p>Optionally, large GZIP-compressed blocks may be read without
+ * uncompressing them in full; see {@link #setSeekThreshold}.
+ *
+ * <p>A single default cache, used by all variables in all files,
+ * is available from {@link #getDefaultCache}.
+ * Its initial budget may be set using the
+ * {@value #BUDGET_PROP} system property.
+ *
+ * @author   Mark Taylor
+ * @since    17 Oct 2026
+ */
+public class BlockCache {
+
+    private final Map<CompressedBlockBuf,Long> blockMap_;
+    private long maxBytes_;
+    private long nbytes_;
+    private volatile ExecutorService executor_;
+    private volatile int prefetchCount_;
+    private volatile long seekThreshold_;
+    private static BlockCache dfltCache_;
+    private static final Logger logger_ =
+        Logger.getLogger( BlockCache.class.getName() );
+
+    /**
+     * Name of system property giving the budget in bytes of the
+     * default cache ({@value}).
+     */
+    public static final String BUDGET_PROP = "jcdf.blockcache.bytes";
+
+    /** Budget in bytes of the default cache if not otherwise specified. */
+    public static final long DFLT_BUDGET = 256L * 1024 * 1024;
+
+    /** Default number of following blocks to prefetch. */
+    public static final int DFLT_PREFETCH = 2;
+
+    /**
+     * Constructor.
+     *
+     * @param  maxBytes  budget in bytes for total uncompressed data size
+     */
+    public BlockCache( long maxBytes ) {
+        maxBytes_ = maxBytes;
+        blockMap_ = new LinkedHashMap<CompressedBlockBuf,Long>();
+        prefetchCount_ = DFLT_PREFETCH;
+        seekThreshold_ = Long.MAX_VALUE;
+    }
+
+    /**
+     * Returns the budget for total uncompressed data size.
+     *
+     * @return  budget in bytes
+     */
+    public synchronized long getMaxBytes() {
+        return maxBytes_;
+    }
+
+    /**
+     * Sets the budget for total uncompressed data size.
+     * If the new budget is smaller than the currently used size,
+     * blocks are evicted immediately.
+     *
+     * @param  maxBytes  budget in bytes
+     */
+    public synchronized void setMaxBytes( long maxBytes ) {
+        maxBytes_ = maxBytes;
+        evict( 0 );
+    }
+
+    /**
+     * Returns the total size of the uncompressed data currently
+     * held by blocks in this cache.
+     *
+     * @return  size in bytes
+     */
+    public synchronized long getCachedBytes() {
+        return nbytes_;
+    }
+
+    /**
+     * Sets the executor used to uncompress blocks in the background.
+     * If null, the default, no background uncompression is done,
+     * and blocks are only uncompressed by the threads that read them.
+     *
+     * <p>The executor is not shut down by this cache;
+     * that is the responsibility of the caller.
+     *
+     * @param  executor  executor service, or null
+     */
+    public void setExecutor( ExecutorService executor ) {
+        executor_ = executor;
+    }
+
+    /**
+     * Returns the executor used to uncompress blocks in the background.
+     *
+     * @return  executor service, or null
+     */
+    public ExecutorService getExecutor() {
+        return executor_;
+    }
+
+    /**
+     * Sets the number of blocks following a newly used one which will
+     * be prefetched, if an executor is installed.
+     *
+     * @param  prefetchCount  number of blocks to read ahead
+     */
+    public void setPrefetchCount( int prefetchCount ) {
+        prefetchCount_ = prefetchCount;
+    }
+
+    /**
+     * Returns the number of blocks following a newly used one which will
+     * be prefetched, if an executor is installed.
+     *
+     * @return  number of blocks to read ahead
+     */
+    public int getPrefetchCount() {
+        return prefetchCount_;
+    }
+
+    /**
+     * Sets the size above which GZIP-compressed blocks are read
+     * by seeking rather than by uncompressing them in full.
+     * Reads from such a block which is not already loaded
+     * only decode data from the nearest preceding checkpoint
+     * (see {@link SeekableGzipBuf}), which is much faster
+     * for sparse access to a few records of a large block,
+     * but slower for reading all of it.
+     * Memory used by the checkpoints is not counted against this
+     * cache's budget.
+     *
+     * <p>The default is {@link java.lang.Long#MAX_VALUE},
+     * which means blocks are always uncompressed in full.
+     *
+     * @param  seekThreshold  minimum uncompressed size in bytes
+     *                        of blocks to read by seeking
+     */
+    public void setSeekThreshold( long seekThreshold ) {
+        seekThreshold_ = seekThreshold;
+    }
+
+    /**
+     * Returns the size above which GZIP-compressed blocks are read
+     * by seeking rather than by uncompressing them in full.
+     *
+     * @return  minimum uncompressed size in bytes of blocks
+     *          to read by seeking
+     */
+    public long getSeekThreshold() {
+        return seekThreshold_;
+    }
+
+    /**
+     * Releases all the uncompressed data currently held.
+     */
+    public synchronized void clear() {
+        for ( CompressedBlockBuf block : blockMap_.keySet() ) {
+            block.release();
+        }
+        blockMap_.clear();
+        nbytes_ = 0;
+    }
+
+    /**
+     * Registers a block whose uncompressed data has just been loaded.
+     * This may cause other blocks to be evicted.
+     *
+     * @param  block  newly loaded block
+     * @param  size   size in bytes of its uncompressed data
+     */
+    synchronized void added( CompressedBlockBuf block, long size ) {
+        Long oldSize = blockMap_.put( block, Long.valueOf( size ) );
+        nbytes_ += size - ( oldSize == null ? 0 : oldSize.longValue() );
+        evict( 1 );
+    }
+
+    /**
+     * Evicts blocks until the budget is respected or only a given
+     * number of blocks remain.
+     *
+     * @param  nkeep  minimum number of (most recently added) blocks
+     *                to retain
+     */
+    private void evict( int nkeep ) {
+        while ( nbytes_ > maxBytes_ && blockMap_.size() > nkeep ) {
+            Iterator<Map.Entry<CompressedBlockBuf,Long>> it =
+                blockMap_.entrySet().iterator();
+            Map.Entry<CompressedBlockBuf,Long> entry = it.next();
+            CompressedBlockBuf block = entry.getKey();
+            Long size = entry.getValue();
+            it.remove();
+
+            // Give recently used blocks a second chance.
+            if ( block.clearUsed() ) {
+                blockMap_.put( block, size );
+            }
+            else {
+                nbytes_ -= size.longValue();
+                block.release();
+            }
+        }
+    }
+
+    /**
+     * Returns the default cache instance, which is shared between
+     * all variables in all files unless otherwise configured.
+     *
+     * @return  default cache
+     */
+    public static synchronized BlockCache getDefaultCache() {
+        if ( dfltCache_ == null ) {
+            dfltCache_ = new BlockCache( getDefaultBudget() );
+        }
+        return dfltCache_;
+    }
+
+    /**
+     * Determines the budget for the default cache.
+     *
+     * @return  budget in bytes
+     */
+    private static long getDefaultBudget() {
+        String txt;
+        try {
+            txt = System.getProperty( BUDGET_PROP );
+        }
+        catch ( SecurityException e ) {
+            return DFLT_BUDGET;
+        }
+        if ( txt != null && txt.trim().length() > 0 ) {
+            try {
+                return Long.parseLong( txt.trim() );
+            }
+            catch ( NumberFormatException e ) {
+                logger_.warning( "Bad value for " + BUDGET_PROP + ": " + txt );
+            }
+        }
+        return DFLT_BUDGET;
+    }
+}
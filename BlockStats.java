@@ -0,0 +1,413 @@
+package uk.ac.bristol.star.cdf;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.List;
+import uk.ac.bristol.star.cdf.record.RecordMap;
+
+/**
+ * Summary statistics for the blocks of stored data of a numeric variable,
+ * which can be used to avoid reading data that cannot match a
+ * range predicate.
+ *
+ * <p>A block is the run of records stored in a single
+ * Variable Values Record or Compressed Variable Values Record,
+ * that is a single {@link RecordMap} entry.
+ * For each block, the record range, the minimum and maximum values,
+ * and the number of fill values are recorded.
+ * Values equal to the fill value supplied at calculation time,
+ * and NaNs, count as fill and do not contribute to the minimum
+ * and maximum.
+ * Comparisons are done in double precision, so for instance
+ * very large INT8 or TIME_TT2000 values may be rounded.
+ *
+ * <p>Using {@link #getRecordRanges getRecordRanges}, a query
+ * like <code>flux &gt; 1e6</code> or a time window can be restricted
+ * to those records in blocks which might contain matching values.
+ * Other blocks need not be read, or in the case of compressed data,
+ * uncompressed.
+ *
+ * <p>Statistics only describe records actually stored in the file.
+ * Records in sparse regions, and all records of a variable without
+ * record variance, take values (pad values, previous values or
+ * a fixed value) which are not covered by any block.
+ *
+ * <p>Calculating the statistics requires reading all the data,
+ * but the result can be saved and restored, for instance using
+ * a {@link CdfIndex}.
+ *
+ * @author   Mark Taylor
+ * @since    17 Oct 2026
+ */
+public class BlockStats {
+
+    private final double fillValue_;
+    private final int[] firsts_;
+    private final int[] lasts_;
+    private final double[] mins_;
+    private final double[] maxs_;
+    private final long[] fillCounts_;
+
+    /** Maximum number of values read at once during calculation. */
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    /**
+     * Constructor.
+     *
+     * @param  fillValue  fill value
+     * @param  firsts   first record index of each block
+     * @param  lasts    last record index of each block
+     * @param  mins    minimum non-fill value in each block
+     * @param  maxs    maximum non-fill value in each block
+     * @param  fillCounts  number of fill values in each block
+     */
+    private BlockStats( double fillValue, int[] firsts, int[] lasts,
+                        double[] mins, double[] maxs, long[] fillCounts ) {
+        fillValue_ = fillValue;
+        firsts_ = firsts;
+        lasts_ = lasts;
+        mins_ = mins;
+        maxs_ = maxs;
+        fillCounts_ = fillCounts;
+    }
+
+    /**
+     * Returns the fill value used when calculating these statistics.
+     *
+     * @return  fill value, or NaN
+     */
+    public double getFillValue() {
+        return fillValue_;
+    }
+
+    /**
+     * Returns the number of blocks.
+     *
+     * @return  block count
+     */
+    public int getBlockCount() {
+        return firsts_.length;
+    }
+
+    /**
+     * Returns the index of the first record in a block.
+     *
+     * @param  ib  block index
+     * @return   first record index
+     */
+    public int getFirstRecord( int ib ) {
+        return firsts_[ ib ];
+    }
+
+    /**
+     * Returns the index of the last record in a block.
+     *
+     * @param  ib  block index
+     * @return   last record index
+     */
+    public int getLastRecord( int ib ) {
+        return lasts_[ ib ];
+    }
+
+    /**
+     * Returns the minimum non-fill value in a block.
+     *
+     * @param  ib  block index
+     * @return   minimum value, or positive infinity if there are
+     *           no non-fill values
+     */
+    public double getMin( int ib ) {
+        return mins_[ ib ];
+    }
+
+    /**
+     * Returns the maximum non-fill value in a block.
+     *
+     * @param  ib  block index
+     * @return   maximum value, or negative infinity if there are
+     *           no non-fill values
+     */
+    public double getMax( int ib ) {
+        return maxs_[ ib ];
+    }
+
+    /**
+     * Returns the number of fill values in a block.
+     *
+     * @param  ib  block index
+     * @return   count of values equal to the fill value or NaN
+     */
+    public long getFillCount( int ib ) {
+        return fillCounts_[ ib ];
+    }
+
+    /**
+     * Indicates whether a block might contain a non-fill value
+     * within a given range.
+     *
+     * @param  ib  block index
+     * @param  lo  lower bound (inclusive)
+     * @param  hi  upper bound (inclusive)
+     * @return   false if no value in the block is in range
+     */
+    public boolean mayContain( int ib, double lo, double hi ) {
+        return maxs_[ ib ] >= lo && mins_[ ib ] <= hi;
+    }
+
+    /**
+     * Returns the ranges of records in blocks which might contain
+     * non-fill values in a given range.
+     * Adjacent blocks are merged into a single range.
+     * All the stored records with values in range are in one of the
+     * returned ranges, but not all records in those ranges
+     * need be in range.
+     * Use infinite bounds for one-sided predicates.
+     *
+     * @param  lo  lower bound (inclusive)
+     * @param  hi  upper bound (inclusive)
+     * @return   array of 2-element (first, last) record index arrays,
+     *           in record order
+     */
+    public int[][] getRecordRanges( double lo, double hi ) {
+        List<int[]> ranges = new ArrayList<int[]>();
+        int[] range = null;
+        for ( int ib = 0; ib < firsts_.length; ib++ ) {
+            if ( mayContain( ib, lo, hi ) ) {
+                if ( range != null && range[ 1 ] + 1 == firsts_[ ib ] ) {
+                    range[ 1 ] = lasts_[ ib ];
+                }
+                else {
+                    range = new int[] { firsts_[ ib ], lasts_[ ib ] };
+                    ranges.add( range );
+                }
+            }
+        }
+        return ranges.toArray( new int[ 0 ][] );
+    }
+
+    /**
+     * Writes these statistics to a stream, from which they can be
+     * recovered using {@link #readStats readStats}.
+     *
+     * @param  out  destination stream
+     */
+    public void writeStats( DataOutput out ) throws IOException {
+        out.writeDouble( fillValue_ );
+        int nb = firsts_.length;
+        out.writeInt( nb );
+        for ( int ib = 0; ib < nb; ib++ ) {
+            out.writeInt( firsts_[ ib ] );
+            out.writeInt( lasts_[ ib ] );
+            out.writeDouble( mins_[ ib ] );
+            out.writeDouble( maxs_[ ib ] );
+            out.writeLong( fillCounts_[ ib ] );
+        }
+    }
+
+    /**
+     * Reads statistics written by {@link #writeStats writeStats}.
+     *
+     * @param  in  input stream
+     * @return  statistics
+     */
+    public static BlockStats readStats( DataInput in ) throws IOException {
+        double fillValue = in.readDouble();
+        int nb = in.readInt();
+        if ( nb < 0 ) {
+            throw new CdfFormatException( "Bad block count " + nb );
+        }
+        int[] firsts = new int[ nb ];
+        int[] lasts = new int[ nb ];
+        double[] mins = new double[ nb ];
+        double[] maxs = new double[ nb ];
+        long[] fillCounts = new long[ nb ];
+        for ( int ib = 0; ib < nb; ib++ ) {
+            firsts[ ib ] = in.readInt();
+            lasts[ ib ] = in.readInt();
+            mins[ ib ] = in.readDouble();
+            maxs[ ib ] = in.readDouble();
+            fillCounts[ ib ] = in.readLong();
+            if ( lasts[ ib ] < firsts[ ib ] ||
+                 ( ib > 0 && firsts[ ib ] <= lasts[ ib - 1 ] ) ) {
+                throw new CdfFormatException( "Bad block record range" );
+            }
+        }
+        return new BlockStats( fillValue, firsts, lasts, mins, maxs,
+                               fillCounts );
+    }
+
+    /**
+     * Indicates whether statistics can be calculated for a variable.
+     * This is the case for variables with single-element numeric
+     * data types, that is all except CHAR, UCHAR and EPOCH16.
+     *
+     * @param  var  variable
+     * @return   true iff <code>calculateStats</code> can be used
+     */
+    public static boolean isSupported( Variable var ) {
+        DataType dataType = var.getDataType();
+        Class<?> clazz = dataType.getArrayElementClass();
+        return dataType.getGroupSize() == 1
+            && clazz.isPrimitive()
+            && clazz != boolean.class
+            && clazz != char.class;
+    }
+
+    /**
+     * Calculates statistics for a variable by reading all its stored data.
+     *
+     * @param  var  variable
+     * @param  fillValue  value to be counted as fill, or NaN
+     * @return   statistics
+     * @throws  IllegalArgumentException  if the variable does not have
+     *          a supported data type
+     * @see   #isSupported
+     */
+    public static BlockStats calculateStats( Variable var, double fillValue )
+            throws IOException {
+        if ( ! isSupported( var ) ) {
+            throw new IllegalArgumentException( "Variable " + var.getName()
+                                              + " data type "
+                                              + var.getDataType()
+                                              + " not numeric" );
+        }
+        DataType dataType = var.getDataType();
+        RecordMap recMap = var.createRecordMapView();
+        int recLimit = var.getStoredRecordLimit();
+        int nval = Array.getLength( var.createRawValueArray() );
+        int chunkRecs = Math.max( 1, CHUNK_SIZE / Math.max( 1, nval ) );
+        Object work =
+            Array.newInstance( dataType.getArrayElementClass(),
+                               chunkRecs * nval );
+        List<int[]> ranges = new ArrayList<int[]>();
+        List<Accumulator> accs = new ArrayList<Accumulator>();
+        long irec = 0;
+        while ( irec < recLimit ) {
+            RecordMap.Entry entry = recMap.findEntry( (int) irec );
+            long nextRec = Math.min( recMap.getNextBlockStart( (int) irec ),
+                                     recLimit );
+            if ( entry != null ) {
+                Accumulator acc = new Accumulator( fillValue );
+                for ( long jrec = irec; jrec < nextRec; ) {
+                    int n = (int) Math.min( chunkRecs, nextRec - jrec );
+                    dataType.readValues( entry.getBuf(),
+                                         entry.getOffset( (int) jrec ),
+                                         1, work, 0, n * nval );
+                    acc.add( work, n * nval );
+                    jrec += n;
+                }
+                ranges.add( new int[] { (int) irec, (int) ( nextRec - 1 ) } );
+                accs.add( acc );
+            }
+            irec = nextRec;
+        }
+        int nb = ranges.size();
+        int[] firsts = new int[ nb ];
+        int[] lasts = new int[ nb ];
+        double[] mins = new double[ nb ];
+        double[] maxs = new double[ nb ];
+        long[] fillCounts = new long[ nb ];
+        for ( int ib = 0; ib < nb; ib++ ) {
+            firsts[ ib ] = ranges.get( ib )[ 0 ];
+            lasts[ ib ] = ranges.get( ib )[ 1 ];
+            Accumulator acc = accs.get( ib );
+            mins[ ib ] = acc.min_;
+            maxs[ ib ] = acc.max_;
+            fillCounts[ ib ] = acc.nfill_;
+        }
+        return new BlockStats( fillValue, firsts, lasts, mins, maxs,
+                               fillCounts );
+    }
+
+    /**
+     * Accumulates statistics for a single block.
+     */
+    private static class Accumulator {
+        final double fill_;
+        double min_;
+        double max_;
+        long nfill_;
+
+        /**
+         * Constructor.
+         *
+         * @param  fill  fill value
+         */
+        Accumulator( double fill ) {
+            fill_ = fill;
+            min_ = Double.POSITIVE_INFINITY;
+            max_ = Double.NEGATIVE_INFINITY;
+        }
+
+        /**
+         * Accumulates values from a primitive array.
+         *
+         * @param  array  numeric primitive array
+         * @param  n  number of elements to use
+         */
+        void add( Object array, int n ) {
+            if ( array instanceof double[] ) {
+                double[] a = (double[]) array;
+                for ( int i = 0; i < n; i++ ) {
+                    addValue( a[ i ] );
+                }
+            }
+            else if ( array instanceof float[] ) {
+                float[] a = (float[]) array;
+                for ( int i = 0; i < n; i++ ) {
+                    addValue( a[ i ] );
+                }
+            }
+            else if ( array instanceof long[] ) {
+                long[] a = (long[]) array;
+                for ( int i = 0; i < n; i++ ) {
+                    addValue( (double) a[ i ] );
+                }
+            }
+            else if ( array instanceof int[] ) {
+                int[] a = (int[]) array;
+                for ( int i = 0; i < n; i++ ) {
+                    addValue( a[ i ] );
+                }
+            }
+            else if ( array instanceof short[] ) {
+                short[] a = (short[]) array;
+                for ( int i = 0; i < n; i++ ) {
+                    addValue( a[ i ] );
+                }
+            }
+            else if ( array instanceof byte[] ) {
+                byte[] a = (byte[]) array;
+                for ( int i = 0; i < n; i++ ) {
+                    addValue( a[ i ] );
+                }
+            }
+            else {
+                throw new IllegalArgumentException( "Not numeric: "
+                                                  + array.getClass() );
+            }
+        }
+
+        /**
+         * Accumulates a single value.
+         *
+         * @param  v  value
+         */
+        private void addValue( double v ) {
+            if ( v == fill_ || Double.isNaN( v ) ) {
+                nfill_++;
+            }
+            else {
+                if ( v < min_ ) {
+                    min_ = v;
+                }
+                if ( v > max_ ) {
+                    max_ = v;
+                }
+            }
+        }
+    }
+}
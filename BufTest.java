@@ -6,15 +6,28 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import uk.ac.bristol.star.cdf.CdfFormatException;
 import uk.ac.bristol.star.cdf.record.BankBuf;
 import uk.ac.bristol.star.cdf.record.Buf;
+import uk.ac.bristol.star.cdf.record.Bufs;
+import uk.ac.bristol.star.cdf.record.Compression;
 import uk.ac.bristol.star.cdf.record.Pointer;
+import uk.ac.bristol.star.cdf.record.SeekableGzipBuf;
 import uk.ac.bristol.star.cdf.record.SimpleNioBuf;
+import uk.ac.bristol.star.cdf.record.WrapperBuf;
 
 public class BufTest {
 
@@ -55,6 +68,20 @@ public class BufTest {
         checkBuf( BankBuf.createMultiBankBuf( new ByteBuffer[] { buf1 },
                                               isBit64, isBigEndian ) );
 
+        // Reads into array offsets from a Buf implementation outside
+        // the library go through its own readData* methods.
+        final int[] nIntReads = new int[ 1 ];
+        checkBuf( new WrapperBuf( new SimpleNioBuf( buf1, isBit64,
+                                                    isBigEndian ) ) {
+            @Override
+            public void readDataInts( long offset, int count, int[] array )
+                    throws IOException {
+                nIntReads[ 0 ]++;
+                super.readDataInts( offset, count, array );
+            }
+        } );
+        assert nIntReads[ 0 ] == 2 * nn_;
+
         int[] banksizes =
             { 23, blk_ - 1, blk_ + 1, 49, blk_ * 4, blk_ * 2 + 2 };
         List<ByteBuffer> bblist = new ArrayList<ByteBuffer>();
@@ -102,6 +129,72 @@ public class BufTest {
         tmpFile.delete();
     }
 
+    // Checks that reads give correct results when the same Bufs are
+    // being read from multiple threads at once.
+    public void testConcurrentBufs() throws IOException, InterruptedException {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        DataOutputStream dout = new DataOutputStream( bout );
+        for ( int i = 0; i < nn_; i++ ) {
+            dout.writeByte( -i );
+            dout.writeByte( i );
+            dout.writeShort( -i );
+            dout.writeShort( i );
+            dout.writeInt( -i );
+            dout.writeInt( i );
+            dout.writeLong( -i );
+            dout.writeLong( i );
+            dout.writeFloat( -i );
+            dout.writeFloat( i );
+            dout.writeDouble( -i );
+            dout.writeDouble( i );
+        }
+        dout.close();
+        byte[] bytes = bout.toByteArray();
+        int nbyte = bytes.length;
+        int half = nbyte / 2 + 3;
+        ByteBuffer[] bbufs = new ByteBuffer[] {
+            ByteBuffer.wrap( bytes, 0, half ).slice(),
+            ByteBuffer.wrap( bytes, half, nbyte - half ).slice(),
+        };
+        ByteBuffer dbuf = ByteBuffer.allocateDirect( nbyte );
+        dbuf.put( bytes );
+        final Buf[] bufs = new Buf[] {
+            new SimpleNioBuf( ByteBuffer.wrap( bytes ), false, true ),
+            new SimpleNioBuf( dbuf, false, true ),
+            BankBuf.createMultiBankBuf( bbufs, false, true ),
+        };
+        int nthread = 8;
+        final int nloop = 200;
+        final List<Throwable> errors =
+            Collections.synchronizedList( new ArrayList<Throwable>() );
+        Thread[] threads = new Thread[ nthread ];
+        for ( int it = 0; it < nthread; it++ ) {
+            threads[ it ] = new Thread( "BufTest-" + it ) {
+                public void run() {
+                    try {
+                        for ( int il = 0; il < nloop; il++ ) {
+                            for ( Buf buf : bufs ) {
+                                checkBuf( buf );
+                            }
+                        }
+                    }
+                    catch ( Throwable e ) {
+                        errors.add( e );
+                    }
+                }
+            };
+        }
+        for ( Thread thread : threads ) {
+            thread.start();
+        }
+        for ( Thread thread : threads ) {
+            thread.join();
+        }
+        if ( errors.size() > 0 ) {
+            throw new AssertionError( "Concurrent read failures: " + errors );
+        }
+    }
+
     private void checkBuf( Buf buf ) throws IOException {
         assert buf.getLength() == nn_ * blk_;
         byte[] abytes = new byte[ 2 ];
@@ -118,12 +211,15 @@ public class BufTest {
             buf.readDataLongs( ioff + 14, 2, alongs );
             buf.readDataFloats( ioff + 30, 2, afloats );
             buf.readDataDoubles( ioff + 38, 2, adoubles );
+            Bufs.readDataInts( buf, ioff + 6, 2, aints, 2 );
             assert abytes[ 0 ] == -i;
             assert abytes[ 1 ] == i;
             assert ashorts[ 0 ] == -i;
             assert ashorts[ 1 ] == i;
             assert aints[ 0 ] == -i;
             assert aints[ 1 ] == i;
+            assert aints[ 2 ] == -i;
+            assert aints[ 3 ] == i;
             assert alongs[ 0 ] == -i;
             assert alongs[ 1 ] == i;
             assert afloats[ 0 ] == -i;
@@ -139,21 +235,290 @@ public class BufTest {
         assert buf.readUnsignedByte( p ) == 1;
     }
 
+    // Checks that the GZIP uncompression shortcut gives the same
+    // results as uncompressing via a GZIPInputStream.
+    public void testGzip() throws IOException {
+        Compression streamGzip = createStreamGzip();
+        int[] sizes = { 0, 1, 99, 70000, 300000 };
+        for ( int i = 0; i < sizes.length; i++ ) {
+            int usize = sizes[ i ];
+            byte[] udata = createCompressibleData( usize );
+            int pad = 23;
+            Buf zbuf = createGzipBuf( udata, pad );
+            Buf ubuf1 = Compression.GZIP.uncompress( zbuf, pad, usize );
+            Buf ubuf2 = streamGzip.uncompress( zbuf, pad, usize );
+            assert ubuf1.getLength() == usize;
+            assert ubuf2.getLength() == usize;
+            byte[] b1 = new byte[ usize ];
+            byte[] b2 = new byte[ usize ];
+            ubuf1.readDataBytes( 0, usize, b1 );
+            ubuf2.readDataBytes( 0, usize, b2 );
+            assert Arrays.equals( udata, b1 );
+            assert Arrays.equals( udata, b2 );
+        }
+        try {
+            Compression.GZIP.uncompress( createGzipBuf( new byte[ 10 ], 0 ),
+                                         0, 11 );
+            assert false;
+        }
+        catch ( IOException e ) {
+        }
+
+        // Damaged or truncated trailers are detected.
+        byte[] zdata = createGzipBytes( createCompressibleData( 999 ), 0,
+                                        Deflater.DEFAULT_COMPRESSION );
+        int nz = zdata.length;
+        List<byte[]> bads = new ArrayList<byte[]>();
+        for ( int ib = nz - 8; ib < nz; ib++ ) {
+            byte[] bad = zdata.clone();
+            bad[ ib ] ^= 0x10;
+            bads.add( bad );
+        }
+        for ( int nb = nz - 8; nb < nz; nb += 7 ) {
+            byte[] bad = new byte[ nb ];
+            System.arraycopy( zdata, 0, bad, 0, nb );
+            bads.add( bad );
+        }
+        for ( byte[] bad : bads ) {
+            Buf badBuf = new SimpleNioBuf( ByteBuffer.wrap( bad ), true, true );
+            try {
+                Compression.GZIP.uncompress( badBuf, 0, 999 );
+                assert false;
+            }
+            catch ( CdfFormatException e ) {
+            }
+        }
+        try {
+            Compression.GZIP.uncompress( createGzipBuf( new byte[ 10 ], 0 ),
+                                         0, 9 );
+            assert false;
+        }
+        catch ( CdfFormatException e ) {
+        }
+    }
+
+    public void testDataViews() throws IOException {
+        byte[] bytes = new byte[ 100 ];
+        for ( int i = 0; i < bytes.length; i++ ) {
+            bytes[ i ] = (byte) i;
+        }
+        ByteBuffer bbuf1 = ByteBuffer.wrap( bytes, 0, 60 ).slice();
+        ByteBuffer bbuf2 = ByteBuffer.wrap( bytes, 60, 40 ).slice();
+        Buf buf = BankBuf.createMultiBankBuf( new ByteBuffer[] { bbuf1,
+                                                                 bbuf2 },
+                                              false, true );
+
+        // Views within a bank share the buffer content.
+        ByteBuffer view1 = Bufs.createDataView( buf, 10, 50 );
+        ByteBuffer view2 = Bufs.createDataView( buf, 60, 40 );
+        assert view1.isReadOnly();
+        assert view1.remaining() == 50;
+        assert view2.remaining() == 40;
+        assert view1.get( 0 ) == 10;
+        assert view2.get( 39 ) == 99;
+        bytes[ 10 ] = -1;
+        bytes[ 99 ] = -2;
+        assert view1.get( 0 ) == -1;
+        assert view2.get( 39 ) == -2;
+
+        // Views straddling banks are not available.
+        assert Bufs.createDataView( buf, 50, 20 ) == null;
+        assert Bufs.createDataView( buf, 59, 2 ) == null;
+        assert Bufs.createDataView( buf, 0, 100 ) == null;
+    }
+
+    public void testSeekableGzip() throws IOException {
+        int usize = 1000000;
+        byte[] cdata = createCompressibleData( usize );
+        byte[] rdata = new byte[ usize ];
+        new Random( 55L ).nextBytes( rdata );
+        byte[] mdata = new byte[ usize ];
+        for ( int i = 0; i < usize; i += 100000 ) {
+            System.arraycopy( ( i / 100000 ) % 2 == 0 ? cdata : rdata, i,
+                              mdata, i, 100000 );
+        }
+        byte[][] datas = { cdata, rdata, mdata };
+        int[] levels = { 0, 1, 6, 9 };
+        for ( int id = 0; id < datas.length; id++ ) {
+            byte[] udata = datas[ id ];
+            for ( int il = 0; il < levels.length; il++ ) {
+                int pad = 7;
+                Buf zbuf = createGzipBuf( udata, pad, levels[ il ] );
+                checkSeekableGzip( zbuf, pad, udata );
+            }
+        }
+        SeekableGzipBuf sbuf =
+            new SeekableGzipBuf( createGzipBuf( new byte[ 10 ], 0 ), 0, 11,
+                                 4 );
+        try {
+            sbuf.readDataBytes( 10, 1, new byte[ 1 ] );
+            assert false;
+        }
+        catch ( IOException e ) {
+        }
+
+        // A damaged trailer is detected when the end of the data is read.
+        byte[] zdata = createGzipBytes( cdata, 0, 6 );
+        zdata[ zdata.length - 5 ] ^= 0x01;
+        sbuf = new SeekableGzipBuf( new SimpleNioBuf( ByteBuffer.wrap( zdata ),
+                                                      true, true ),
+                                    0, usize, 50000 );
+        sbuf.readDataBytes( 0, 100, new byte[ 100 ] );
+        try {
+            sbuf.readDataBytes( usize - 1, 1, new byte[ 1 ] );
+            assert false;
+        }
+        catch ( CdfFormatException e ) {
+        }
+    }
+
+    private void checkSeekableGzip( Buf zbuf, int pad, byte[] udata )
+            throws IOException {
+        int usize = udata.length;
+        SeekableGzipBuf sbuf =
+            new SeekableGzipBuf( zbuf, pad, usize, 50000 );
+        sbuf.setEncoding( false );
+        Random rnd = new Random( 99L );
+        for ( int i = 0; i < 200; i++ ) {
+            int count = rnd.nextInt( 3000 );
+            int off = rnd.nextInt( usize - count );
+            byte[] b = new byte[ count ];
+            sbuf.readDataBytes( off, count, b );
+            assert Arrays.equals( b, Arrays.copyOfRange( udata, off,
+                                                         off + count ) );
+        }
+        assert sbuf.getCheckpointCount() > 1;
+        int[] ints = new int[ 10 ];
+        sbuf.readDataInts( 600001, 10, ints );
+        ByteBuffer ubuf = ByteBuffer.wrap( udata );
+        ubuf.order( ByteOrder.LITTLE_ENDIAN );
+        int[] ints2 = new int[ 15 ];
+        Bufs.readDataInts( sbuf, 600001, 10, ints2, 5 );
+        for ( int i = 0; i < 10; i++ ) {
+            assert ints[ i ] == ubuf.getInt( 600001 + i * 4 );
+            assert ints2[ 5 + i ] == ints[ i ];
+        }
+        ubuf.order( ByteOrder.BIG_ENDIAN );
+        assert sbuf.readInt( new Pointer( 3 ) ) == ubuf.getInt( 3 );
+        for ( int i = 0; i < 100; i++ ) {
+            int off = rnd.nextInt( usize - 8 );
+            assert sbuf.readUnsignedByte( new Pointer( off ) )
+                == ( udata[ off ] & 0xff );
+            assert sbuf.readInt( new Pointer( off ) ) == ubuf.getInt( off );
+            sbuf.setBit64( true );
+            assert sbuf.readOffset( new Pointer( off ) ) == ubuf.getLong( off );
+            sbuf.setBit64( false );
+            assert sbuf.readOffset( new Pointer( off ) ) == ubuf.getInt( off );
+        }
+        byte[] all = new byte[ usize ];
+        InputStream in = sbuf.createInputStream( 0 );
+        for ( int n = 0; n < usize; ) {
+            n += in.read( all, n, usize - n );
+        }
+        assert in.read() < 0;
+        assert Arrays.equals( udata, all );
+    }
+
+    // Reports timings for GZIP uncompression using the stream-based
+    // and direct Inflater implementations.
+    public void benchGzip() throws IOException {
+        Compression streamGzip = createStreamGzip();
+        int[] sizes = { 4 * 1024, 256 * 1024, 16 * 1024 * 1024 };
+        for ( int i = 0; i < sizes.length; i++ ) {
+            int usize = sizes[ i ];
+            Buf zbuf = createGzipBuf( createCompressibleData( usize ), 0 );
+            int nrep = Math.max( 1, ( 256 * 1024 * 1024 ) / usize );
+            long tStream = 0;
+            long tDirect = 0;
+            for ( int iw = 0; iw < 3; iw++ ) {
+                long t0 = System.nanoTime();
+                for ( int ir = 0; ir < nrep; ir++ ) {
+                    streamGzip.uncompress( zbuf, 0, usize );
+                }
+                long t1 = System.nanoTime();
+                for ( int ir = 0; ir < nrep; ir++ ) {
+                    Compression.GZIP.uncompress( zbuf, 0, usize );
+                }
+                long t2 = System.nanoTime();
+                tStream = t1 - t0;
+                tDirect = t2 - t1;
+            }
+            System.out.println( "GZIP " + usize + " bytes:\t"
+                              + "stream " + tStream / nrep + "ns, "
+                              + "inflater " + tDirect / nrep + "ns, "
+                              + "speedup "
+                              + (float) tStream / (float) tDirect );
+        }
+    }
+
+    private static Compression createStreamGzip() {
+        return new Compression( "GZIP stream" ) {
+            public InputStream uncompressStream( InputStream in )
+                    throws IOException {
+                return new GZIPInputStream( in );
+            }
+        };
+    }
+
+    private static byte[] createCompressibleData( int n ) {
+        byte[] data = new byte[ n ];
+        Random rnd = new Random( 2301L + n );
+        for ( int i = 0; i < n; i++ ) {
+            data[ i ] = (byte) ( ( i / 16 ) + rnd.nextInt( 4 ) );
+        }
+        return data;
+    }
+
+    private static Buf createGzipBuf( byte[] udata, int pad )
+            throws IOException {
+        return createGzipBuf( udata, pad, Deflater.DEFAULT_COMPRESSION );
+    }
+
+    private static Buf createGzipBuf( byte[] udata, int pad, int level )
+            throws IOException {
+        return new SimpleNioBuf( ByteBuffer.wrap( createGzipBytes( udata, pad,
+                                                                   level ) ),
+                                 true, true );
+    }
+
+    private static byte[] createGzipBytes( byte[] udata, int pad,
+                                           final int level )
+            throws IOException {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        bout.write( new byte[ pad ] );
+        OutputStream zout = new GZIPOutputStream( bout ) {
+            {
+                def.setLevel( level );
+            }
+        };
+        zout.write( udata );
+        zout.close();
+        return bout.toByteArray();
+    }
+
     private static boolean checkAssertions() {
         assertionsOn_ = true;
         return true;
     }
 
-    private static void runTests() throws IOException {
+    private static void runTests() throws IOException, InterruptedException {
         assert checkAssertions();
         if ( ! assertionsOn_ ) {
             throw new RuntimeException( "Assertions disabled - bit pointless" );
         }
         BufTest test = new BufTest();
         test.testBufs();
+        test.testConcurrentBufs();
+        test.testGzip();
+        test.testDataViews();
+        test.testSeekableGzip();
     }
 
-    public static void main( String[] args ) throws IOException {
+    public static void main( String[] args )
+            throws IOException, InterruptedException {
         runTests();
+        if ( args.length > 0 && args[ 0 ].equals( "-bench" ) ) {
+            new BufTest().benchGzip();
+        }
     }
 }
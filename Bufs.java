@@ -1,6 +1,5 @@
 package uk.ac.bristol.star.cdf.record;
 
-import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
@@ -93,13 +92,7 @@ public class Bufs {
             throws IOException {
         logger_.config( "Uncompressing CDF data to new " + outSize
                       + "-byte buffer" );
-        InputStream uin =
-             compression
-            .uncompressStream( new BufferedInputStream(
-                                   inBuf.createInputStream( inOffset ) ) );
-        Buf ubuf = inBuf.fillNewBuf( outSize, uin );
-        uin.close();
-        return ubuf;
+        return compression.uncompress( inBuf, inOffset, outSize );
     }
 
     /**
@@ -122,9 +115,11 @@ public class Bufs {
     // single value or multiple values.  This is because NIO Buffer
     // classes have absolute read methods for scalar reads, but only
     // relative read methods for array reads (i.e. you need to position
-    // a pointer and then do the read).  For thread safety we need to
-    // synchronize in that case to make sure somebody else doesn't
-    // reposition before the read takes place.
+    // a pointer and then do the read).  For thread safety in that case
+    // we do the relative read on a private duplicate of the shared buffer,
+    // so that nobody else can reposition it before the read takes place.
+    // Duplicating is cheap (no data is copied) and means that concurrent
+    // readers of the same buffer do not contend for a lock.
     //
     // For the array reads, we also recast the ByteBuffer to a Buffer of
     // the appropriate type for the data being read.
@@ -132,8 +127,7 @@ public class Bufs {
     // Both these steps are taken on the assumption that the bulk reads
     // are more efficient than multiple byte reads perhaps followed by
     // bit manipulation where required.  The NIO javadocs suggest that
-    // assumption is true, but I haven't tested it.  Doing it the other
-    // way would avoid the need for synchronization.
+    // assumption is true, but I haven't tested it.
 
     /**
      * Utility method to read a fixed length ASCII string from an NIO buffer.
@@ -146,10 +140,7 @@ public class Bufs {
      */
     static String readAsciiString( ByteBuffer bbuf, int ioff, int nbyte ) {
         byte[] abuf = new byte[ nbyte ];
-        synchronized ( bbuf ) {
-            bbuf.position( ioff );
-            bbuf.get( abuf, 0, nbyte );
-        }
+        positionedView( bbuf, ioff ).get( abuf, 0, nbyte );
         StringBuffer sbuf = new StringBuffer( nbyte );
         for ( int i = 0; i < nbyte; i++ ) {
             byte b = abuf[ i ];
@@ -170,17 +161,16 @@ public class Bufs {
      * @param  bbuf  buffer
      * @param  ioff  offset into bbuf of data start
      * @param  count  number of values to read
-     * @param  a    array into which values will be read, starting at element 0
+     * @param  a    array into which values will be read
+     * @param  aoff  index of first element of a to be written
      */
-    static void readBytes( ByteBuffer bbuf, int ioff, int count, byte[] a ) {
+    static void readBytes( ByteBuffer bbuf, int ioff, int count,
+                           byte[] a, int aoff ) {
         if ( count == 1 ) {
-            a[ 0 ] = bbuf.get( ioff );
+            a[ aoff ] = bbuf.get( ioff );
         }
         else {
-            synchronized ( bbuf ) {
-                bbuf.position( ioff );
-                bbuf.get( a, 0, count );
-            }
+            positionedView( bbuf, ioff ).get( a, aoff, count );
         }
     }
 
@@ -191,17 +181,16 @@ public class Bufs {
      * @param  bbuf  buffer
      * @param  ioff  offset into bbuf of data start
      * @param  count  number of values to read
-     * @param  a    array into which values will be read, starting at element 0
+     * @param  a    array into which values will be read
+     * @param  aoff  index of first element of a to be written
      */
-    static void readShorts( ByteBuffer bbuf, int ioff, int count, short[] a ) {
+    static void readShorts( ByteBuffer bbuf, int ioff, int count,
+                            short[] a, int aoff ) {
         if ( count == 1 ) {
-            a[ 0 ] = bbuf.getShort( ioff );
+            a[ aoff ] = bbuf.getShort( ioff );
         }
         else {
-            synchronized ( bbuf ) {
-                bbuf.position( ioff );
-                bbuf.asShortBuffer().get( a, 0, count );
-            }
+            positionedView( bbuf, ioff ).asShortBuffer().get( a, aoff, count );
         }
     }
 
@@ -212,17 +201,16 @@ public class Bufs {
      * @param  bbuf  buffer
      * @param  ioff  offset into bbuf of data start
      * @param  count  number of values to read
-     * @param  a    array into which values will be read, starting at element 0
+     * @param  a    array into which values will be read
+     * @param  aoff  index of first element of a to be written
      */
-    static void readInts( ByteBuffer bbuf, int ioff, int count, int[] a ) {
+    static void readInts( ByteBuffer bbuf, int ioff, int count,
+                          int[] a, int aoff ) {
         if ( count == 1 ) {
-            a[ 0 ] = bbuf.getInt( ioff );
+            a[ aoff ] = bbuf.getInt( ioff );
         }
         else {
-            synchronized ( bbuf ) {
-                bbuf.position( ioff );
-                bbuf.asIntBuffer().get( a, 0, count );
-            }
+            positionedView( bbuf, ioff ).asIntBuffer().get( a, aoff, count );
         }
     }
 
@@ -233,17 +221,16 @@ public class Bufs {
      * @param  bbuf  buffer
      * @param  ioff  offset into bbuf of data start
      * @param  count  number of values to read
-     * @param  a    array into which values will be read, starting at element 0
+     * @param  a    array into which values will be read
+     * @param  aoff  index of first element of a to be written
      */
-    static void readLongs( ByteBuffer bbuf, int ioff, int count, long[] a ) {
+    static void readLongs( ByteBuffer bbuf, int ioff, int count,
+                           long[] a, int aoff ) {
         if ( count == 1 ) {
-            a[ 0 ] = bbuf.getLong( ioff );
+            a[ aoff ] = bbuf.getLong( ioff );
         }
         else {
-            synchronized ( bbuf ) {
-                bbuf.position( ioff );
-                bbuf.asLongBuffer().get( a, 0, count );
-            }
+            positionedView( bbuf, ioff ).asLongBuffer().get( a, aoff, count );
         }
     }
 
@@ -254,17 +241,16 @@ public class Bufs {
      * @param  bbuf  buffer
      * @param  ioff  offset into bbuf of data start
      * @param  count  number of values to read
-     * @param  a    array into which values will be read, starting at element 0
+     * @param  a    array into which values will be read
+     * @param  aoff  index of first element of a to be written
      */
-    static void readFloats( ByteBuffer bbuf, int ioff, int count, float[] a ) {
+    static void readFloats( ByteBuffer bbuf, int ioff, int count,
+                            float[] a, int aoff ) {
         if ( count == 1 ) {
-            a[ 0 ] = bbuf.getFloat( ioff );
+            a[ aoff ] = bbuf.getFloat( ioff );
         }
         else {
-            synchronized ( bbuf ) {
-                bbuf.position( ioff );
-                bbuf.asFloatBuffer().get( a, 0, count );
-            }
+            positionedView( bbuf, ioff ).asFloatBuffer().get( a, aoff, count );
         }
     }
 
@@ -275,19 +261,242 @@ public class Bufs {
      * @param  bbuf  buffer
      * @param  ioff  offset into bbuf of data start
      * @param  count  number of values to read
-     * @param  a    array into which values will be read, starting at element 0
+     * @param  a    array into which values will be read
+     * @param  aoff  index of first element of a to be written
      */
     static void readDoubles( ByteBuffer bbuf, int ioff, int count,
-                             double[] a ) {
+                             double[] a, int aoff ) {
         if ( count == 1 ) {
-            a[ 0 ] = bbuf.getDouble( ioff );
+            a[ aoff ] = bbuf.getDouble( ioff );
         }
         else {
-            synchronized ( bbuf ) {
-                bbuf.position( ioff );
-                bbuf.asDoubleBuffer().get( a, 0, count );
-            }
+            positionedView( bbuf, ioff ).asDoubleBuffer().get( a, aoff, count );
+        }
+    }
+
+    /**
+     * Reads a sequence of byte values from a buf into a given position
+     * of an array.
+     *
+     * @param  buf   buf
+     * @param  offset  position sequence start in the buf in bytes
+     * @param  count   number of byte values to read
+     * @param  array   array to receive values
+     * @param  arrayOffset  index of first element of array to be written
+     */
+    public static void readDataBytes( Buf buf, long offset, int count,
+                                      byte[] array, int arrayOffset )
+            throws IOException {
+        if ( buf instanceof ArrayReadBuf ) {
+            ((ArrayReadBuf) buf).readDataBytes( offset, count,
+                                                array, arrayOffset );
+        }
+        else if ( arrayOffset == 0 ) {
+            buf.readDataBytes( offset, count, array );
+        }
+        else {
+            byte[] a = new byte[ count ];
+            buf.readDataBytes( offset, count, a );
+            System.arraycopy( a, 0, array, arrayOffset, count );
+        }
+    }
+
+    /**
+     * Reads a sequence of short values from a buf into a given position
+     * of an array.
+     *
+     * @param  buf   buf
+     * @param  offset  position sequence start in the buf in bytes
+     * @param  count   number of short values to read
+     * @param  array   array to receive values
+     * @param  arrayOffset  index of first element of array to be written
+     */
+    public static void readDataShorts( Buf buf, long offset, int count,
+                                       short[] array, int arrayOffset )
+            throws IOException {
+        if ( buf instanceof ArrayReadBuf ) {
+            ((ArrayReadBuf) buf).readDataShorts( offset, count,
+                                                 array, arrayOffset );
+        }
+        else if ( arrayOffset == 0 ) {
+            buf.readDataShorts( offset, count, array );
+        }
+        else {
+            short[] a = new short[ count ];
+            buf.readDataShorts( offset, count, a );
+            System.arraycopy( a, 0, array, arrayOffset, count );
+        }
+    }
+
+    /**
+     * Reads a sequence of int values from a buf into a given position
+     * of an array.
+     *
+     * @param  buf   buf
+     * @param  offset  position sequence start in the buf in bytes
+     * @param  count   number of int values to read
+     * @param  array   array to receive values
+     * @param  arrayOffset  index of first element of array to be written
+     */
+    public static void readDataInts( Buf buf, long offset, int count,
+                                     int[] array, int arrayOffset )
+            throws IOException {
+        if ( buf instanceof ArrayReadBuf ) {
+            ((ArrayReadBuf) buf).readDataInts( offset, count,
+                                               array, arrayOffset );
+        }
+        else if ( arrayOffset == 0 ) {
+            buf.readDataInts( offset, count, array );
+        }
+        else {
+            int[] a = new int[ count ];
+            buf.readDataInts( offset, count, a );
+            System.arraycopy( a, 0, array, arrayOffset, count );
+        }
+    }
+
+    /**
+     * Reads a sequence of long integer values from a buf into a given
+     * position of an array.
+     *
+     * @param  buf   buf
+     * @param  offset  position sequence start in the buf in bytes
+     * @param  count   number of long values to read
+     * @param  array   array to receive values
+     * @param  arrayOffset  index of first element of array to be written
+     */
+    public static void readDataLongs( Buf buf, long offset, int count,
+                                      long[] array, int arrayOffset )
+            throws IOException {
+        if ( buf instanceof ArrayReadBuf ) {
+            ((ArrayReadBuf) buf).readDataLongs( offset, count,
+                                                array, arrayOffset );
+        }
+        else if ( arrayOffset == 0 ) {
+            buf.readDataLongs( offset, count, array );
         }
+        else {
+            long[] a = new long[ count ];
+            buf.readDataLongs( offset, count, a );
+            System.arraycopy( a, 0, array, arrayOffset, count );
+        }
+    }
+
+    /**
+     * Reads a sequence of float values from a buf into a given position
+     * of an array.
+     *
+     * @param  buf   buf
+     * @param  offset  position sequence start in the buf in bytes
+     * @param  count   number of float values to read
+     * @param  array   array to receive values
+     * @param  arrayOffset  index of first element of array to be written
+     */
+    public static void readDataFloats( Buf buf, long offset, int count,
+                                       float[] array, int arrayOffset )
+            throws IOException {
+        if ( buf instanceof ArrayReadBuf ) {
+            ((ArrayReadBuf) buf).readDataFloats( offset, count,
+                                                 array, arrayOffset );
+        }
+        else if ( arrayOffset == 0 ) {
+            buf.readDataFloats( offset, count, array );
+        }
+        else {
+            float[] a = new float[ count ];
+            buf.readDataFloats( offset, count, a );
+            System.arraycopy( a, 0, array, arrayOffset, count );
+        }
+    }
+
+    /**
+     * Reads a sequence of double values from a buf into a given position
+     * of an array.
+     *
+     * @param  buf   buf
+     * @param  offset  position sequence start in the buf in bytes
+     * @param  count   number of double values to read
+     * @param  array   array to receive values
+     * @param  arrayOffset  index of first element of array to be written
+     */
+    public static void readDataDoubles( Buf buf, long offset, int count,
+                                        double[] array, int arrayOffset )
+            throws IOException {
+        if ( buf instanceof ArrayReadBuf ) {
+            ((ArrayReadBuf) buf).readDataDoubles( offset, count,
+                                                  array, arrayOffset );
+        }
+        else if ( arrayOffset == 0 ) {
+            buf.readDataDoubles( offset, count, array );
+        }
+        else {
+            double[] a = new double[ count ];
+            buf.readDataDoubles( offset, count, a );
+            System.arraycopy( a, 0, array, arrayOffset, count );
+        }
+    }
+
+    /**
+     * Returns a read-only view of a range of bytes in a buf,
+     * if it can be provided without copying the data.
+     * This is possible for bufs backed by NIO buffers, including
+     * memory-mapped files, but not for instance for compressed data.
+     * The result has position zero, limit <code>count</code>,
+     * and the byte order of the buf's data encoding.
+     *
+     * <p>In the unusual case that the range straddles two of
+     * the buffers backing a multi-buffer buf, null is returned.
+     *
+     * @param  buf  buf
+     * @param  offset  offset into buf of first byte
+     * @param  count  number of bytes
+     * @return  read-only view of the bytes, or null if none is available
+     */
+    public static ByteBuffer createDataView( Buf buf, long offset, int count )
+            throws IOException {
+        if ( buf instanceof SimpleNioBuf ) {
+            return ((SimpleNioBuf) buf).createDataView( offset, count );
+        }
+        else if ( buf instanceof BankBuf ) {
+            return ((BankBuf) buf).createDataView( offset, count );
+        }
+        else {
+            return null;
+        }
+    }
+
+    /**
+     * Returns a read-only view of part of an NIO buffer.
+     * The content and byte order are shared with the original buffer.
+     *
+     * @param  bbuf  NIO buffer
+     * @param  ioff  offset of the first byte of the view
+     * @param  count  number of bytes in the view
+     * @return   read-only view with position zero and limit count
+     */
+    static ByteBuffer readOnlySlice( ByteBuffer bbuf, int ioff, int count ) {
+        ByteBuffer view = positionedView( bbuf, ioff );
+        view.limit( ioff + count );
+        return view.slice().asReadOnlyBuffer().order( bbuf.order() );
+    }
+
+    /**
+     * Returns a view of an NIO buffer with its own independent position,
+     * set to a given offset.
+     * The content and byte order are shared with the original buffer,
+     * but the position of the original is not affected,
+     * so this can safely be used for relative bulk reads
+     * from multiple threads concurrently.
+     *
+     * @param  bbuf  NIO buffer
+     * @param  ioff  required position of the returned view
+     * @return  new view of bbuf positioned at ioff
+     */
+    static ByteBuffer positionedView( ByteBuffer bbuf, int ioff ) {
+        ByteBuffer view = bbuf.duplicate();
+        view.order( bbuf.order() );
+        view.position( ioff );
+        return view;
     }
 
     /**
@@ -4,7 +4,11 @@ import java.io.IOException;
 import java.lang.reflect.Array;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import uk.ac.bristol.star.cdf.record.AttributeDescriptorRecord;
 import uk.ac.bristol.star.cdf.record.AttributeEntryDescriptorRecord;
 import uk.ac.bristol.star.cdf.record.Buf;
@@ -18,6 +22,9 @@ import uk.ac.bristol.star.cdf.record.VariableDescriptorRecord;
 /**
  * Provides all the data and metadata in a CDF file in a high-level
  * read-only easy to use form.
+ * All the variable and attribute metadata is read at construction time;
+ * if only a few items are required, {@link LazyCdfContent}
+ * may be cheaper.
  *
  * @author   Mark Taylor
  * @since    20 Jun 2013
@@ -28,6 +35,10 @@ public class CdfContent {
     private final GlobalAttribute[] globalAtts_;
     private final VariableAttribute[] variableAtts_;
     private final Variable[] variables_;
+    private final Map<String,Variable> varMap_;
+    private final Map<String,GlobalAttribute> gAttMap_;
+    private final Map<String,VariableAttribute> vAttMap_;
+    private final Map<String,Map<String,AttributeEntry>> varEntriesMap_;
 
     /**
      * Constructs a CdfContent from a CdfReader.
@@ -37,6 +48,21 @@ public class CdfContent {
      * @param  crdr  object which knows how to read CDF records
      */
     public CdfContent( CdfReader crdr ) throws IOException {
+        this( crdr, null );
+    }
+
+    /**
+     * Constructs a CdfContent from a CdfReader, optionally using
+     * a previously prepared index of the file's layout.
+     * If an index is supplied, variable descriptors are read from
+     * the positions it records, and variable record maps are
+     * taken from it rather than by walking the file's index records.
+     * The index must describe the same file as the reader.
+     *
+     * @param  crdr  object which knows how to read CDF records
+     * @param  index   index of the CDF, or null
+     */
+    public CdfContent( CdfReader crdr, CdfIndex index ) throws IOException {
 
         // Get basic information from reader.
         Buf buf = crdr.getBuf();
@@ -49,16 +75,17 @@ public class CdfContent {
                                      GlobalDescriptorRecord.class );
 
         // Store global format information.
-        boolean rowMajor = Record.hasBit( cdr.flags, 0 );
-        int[] rDimSizes = gdr.rDimSizes;
-        int leapSecondLastUpdated = gdr.leapSecondLastUpdated;
-        cdfInfo_ = new CdfInfo( rowMajor, rDimSizes, leapSecondLastUpdated );
+        cdfInfo_ = createCdfInfo( cdr, gdr );
 
         // Read the rVariable and zVariable records.
         VariableDescriptorRecord[] rvdrs =
-            walkVariableList( buf, recordFact, gdr.nrVars, gdr.rVdrHead );
+            readVariableList( buf, recordFact, gdr.nrVars, gdr.rVdrHead,
+                              index == null ? null
+                                            : index.getVdrOffsets( false ) );
         VariableDescriptorRecord[] zvdrs =
-            walkVariableList( buf, recordFact, gdr.nzVars, gdr.zVdrHead );
+            readVariableList( buf, recordFact, gdr.nzVars, gdr.zVdrHead,
+                              index == null ? null
+                                            : index.getVdrOffsets( true ) );
 
         // Collect the rVariables and zVariables into a single list.
         // Turn the rVariable and zVariable records into a single list of
@@ -66,7 +93,8 @@ public class CdfContent {
         VariableDescriptorRecord[] vdrs = arrayConcat( rvdrs, zvdrs );
         variables_ = new Variable[ vdrs.length ];
         for ( int iv = 0; iv < vdrs.length; iv++ ) {
-            variables_[ iv ] = new Variable( vdrs[ iv ], cdfInfo_, recordFact );
+            variables_[ iv ] =
+                new Variable( vdrs[ iv ], cdfInfo_, recordFact, index );
         }
 
         // Read the attributes records (global and variable attributes
@@ -81,28 +109,32 @@ public class CdfContent {
         List<VariableAttribute> vAttList = new ArrayList<VariableAttribute>();
         for ( int ia = 0; ia < adrs.length; ia++ ) {
             AttributeDescriptorRecord adr = adrs[ ia ];
-            AttributeEntry[] grEntries =
-                walkEntryList( buf, recordFact,
-                               adr.nGrEntries, adr.maxGrEntry,
-                               adr.agrEdrHead, cdfInfo_ );
-            AttributeEntry[] zEntries =
-                walkEntryList( buf, recordFact,
-                               adr.nZEntries, adr.maxZEntry,
-                               adr.azEdrHead, cdfInfo_ );
-            boolean isGlobal = Record.hasBit( adr.scope, 0 );
-            if ( isGlobal ) {
-                // grEntries are gEntries
-                AttributeEntry[] gEntries = arrayConcat( grEntries, zEntries );
-                gAttList.add( new GlobalAttribute( adr.name, gEntries ) );
+            if ( isGlobal( adr ) ) {
+                gAttList.add( readGlobalAttribute( buf, recordFact, adr,
+                                                   cdfInfo_ ) );
             }
             else {
-                // grEntries are rEntries
-                vAttList.add( new VariableAttribute( adr.name, grEntries,
-                                                     zEntries ) );
+                vAttList.add( readVariableAttribute( buf, recordFact, adr,
+                                                     cdfInfo_ ) );
             }
         }
         globalAtts_ = gAttList.toArray( new GlobalAttribute[ 0 ] );
         variableAtts_ = vAttList.toArray( new VariableAttribute[ 0 ] );
+
+        // Prepare name lookup maps.
+        varMap_ = new HashMap<String,Variable>();
+        for ( int iv = 0; iv < variables_.length; iv++ ) {
+            varMap_.put( variables_[ iv ].getName(), variables_[ iv ] );
+        }
+        gAttMap_ = new HashMap<String,GlobalAttribute>();
+        for ( int ia = 0; ia < globalAtts_.length; ia++ ) {
+            gAttMap_.put( globalAtts_[ ia ].getName(), globalAtts_[ ia ] );
+        }
+        vAttMap_ = new HashMap<String,VariableAttribute>();
+        for ( int ia = 0; ia < variableAtts_.length; ia++ ) {
+            vAttMap_.put( variableAtts_[ ia ].getName(), variableAtts_[ ia ] );
+        }
+        varEntriesMap_ = new HashMap<String,Map<String,AttributeEntry>>();
     }
 
     /**
@@ -132,6 +164,65 @@ public class CdfContent {
         return variables_;
     }
 
+    /**
+     * Returns the variable with a given name.
+     *
+     * @param  name  variable name
+     * @return  variable, or null if there is none with that name
+     */
+    public Variable getVariable( String name ) {
+        return varMap_.get( name );
+    }
+
+    /**
+     * Returns the global attribute with a given name.
+     *
+     * @param  name  attribute name
+     * @return  global attribute, or null if there is none with that name
+     */
+    public GlobalAttribute getGlobalAttribute( String name ) {
+        return gAttMap_.get( name );
+    }
+
+    /**
+     * Returns the variable attribute with a given name.
+     *
+     * @param  name  attribute name
+     * @return  variable attribute, or null if there is none with that name
+     */
+    public VariableAttribute getVariableAttribute( String name ) {
+        return vAttMap_.get( name );
+    }
+
+    /**
+     * Returns the entries that a given variable has for all the
+     * variable attributes, keyed by attribute name.
+     * Attributes for which the variable has no entry are not included.
+     * The map is assembled on first request for each variable.
+     *
+     * @param  variable  CDF variable from this CDF
+     * @return  unmodifiable map from attribute name to entry value,
+     *          in attribute order
+     */
+    public synchronized Map<String,AttributeEntry>
+            getVariableEntries( Variable variable ) {
+        String name = variable.getName();
+        Map<String,AttributeEntry> entryMap = varEntriesMap_.get( name );
+        if ( entryMap == null ) {
+            entryMap = new LinkedHashMap<String,AttributeEntry>();
+            for ( int ia = 0; ia < variableAtts_.length; ia++ ) {
+                VariableAttribute att = variableAtts_[ ia ];
+                AttributeEntry entry = att.getEntry( variable );
+                if ( entry != null ) {
+                    entryMap.put( att.getName(), entry );
+                }
+            }
+            entryMap = Collections.unmodifiableMap( entryMap );
+            varEntriesMap_.put( name, entryMap );
+        }
+        return entryMap;
+    }
+
     /**
      * Returns some global information about the CDF file.
      *
@@ -141,6 +232,107 @@ public class CdfContent {
         return cdfInfo_;
     }
 
+    /**
+     * Assembles global information about a CDF file from its descriptors.
+     *
+     * @param  cdr  CDF descriptor record
+     * @param  gdr  global descriptor record
+     * @return  CDF info
+     */
+    static CdfInfo createCdfInfo( CdfDescriptorRecord cdr,
+                                  GlobalDescriptorRecord gdr ) {
+        boolean rowMajor = Record.hasBit( cdr.flags, 0 );
+        int[] rDimSizes = gdr.rDimSizes;
+        int leapSecondLastUpdated = gdr.leapSecondLastUpdated;
+        return new CdfInfo( rowMajor, rDimSizes, leapSecondLastUpdated );
+    }
+
+    /**
+     * Indicates whether an attribute has global or variable scope.
+     *
+     * @param  adr  attribute descriptor record
+     * @return   true for global scope, false for variable scope
+     */
+    static boolean isGlobal( AttributeDescriptorRecord adr ) {
+        return Record.hasBit( adr.scope, 0 );
+    }
+
+    /**
+     * Reads the entries for an attribute with global scope.
+     *
+     * @param  buf  data buffer
+     * @param  recordFact  record factory
+     * @param  adr  attribute descriptor record
+     * @param  info  global information about the CDF file
+     * @return   global attribute
+     */
+    static GlobalAttribute
+            readGlobalAttribute( Buf buf, RecordFactory recordFact,
+                                 AttributeDescriptorRecord adr,
+                                 CdfInfo info ) throws IOException {
+        // grEntries are gEntries
+        AttributeEntry[] grEntries =
+            walkEntryList( buf, recordFact, adr.nGrEntries, adr.maxGrEntry,
+                           adr.agrEdrHead, info );
+        AttributeEntry[] zEntries =
+            walkEntryList( buf, recordFact, adr.nZEntries, adr.maxZEntry,
+                           adr.azEdrHead, info );
+        return new GlobalAttribute( adr.name,
+                                    arrayConcat( grEntries, zEntries ) );
+    }
+
+    /**
+     * Reads the entries for an attribute with variable scope.
+     *
+     * @param  buf  data buffer
+     * @param  recordFact  record factory
+     * @param  adr  attribute descriptor record
+     * @param  info  global information about the CDF file
+     * @return   variable attribute
+     */
+    static VariableAttribute
+            readVariableAttribute( Buf buf, RecordFactory recordFact,
+                                   AttributeDescriptorRecord adr,
+                                   CdfInfo info ) throws IOException {
+        // grEntries are rEntries
+        AttributeEntry[] rEntries =
+            walkEntryList( buf, recordFact, adr.nGrEntries, adr.maxGrEntry,
+                           adr.agrEdrHead, info );
+        AttributeEntry[] zEntries =
+            walkEntryList( buf, recordFact, adr.nZEntries, adr.maxZEntry,
+                           adr.azEdrHead, info );
+        return new VariableAttribute( adr.name, rEntries, zEntries );
+    }
+
+    /**
+     * Reads a list of Variable Descriptor Records, either from known
+     * positions or by following the linked list.
+     *
+     * @param  buf   data buffer
+     * @param  recordFact  record factory
+     * @param  nvar  number of VDRs in list
+     * @param  head  offset into buffer of first VDR
+     * @param  offsets  offsets into buffer of each VDR, or null
+     * @return  list of VDRs
+     */
+    static VariableDescriptorRecord[]
+            readVariableList( Buf buf, RecordFactory recordFact, int nvar,
+                              long head, long[] offsets ) throws IOException {
+        if ( offsets != null && offsets.length == nvar ) {
+            VariableDescriptorRecord[] vdrs =
+                new VariableDescriptorRecord[ nvar ];
+            for ( int iv = 0; iv < nvar; iv++ ) {
+                vdrs[ iv ] =
+                    recordFact.createRecord( buf, offsets[ iv ],
+                                             VariableDescriptorRecord.class );
+            }
+            return vdrs;
+        }
+        else {
+            return walkVariableList( buf, recordFact, nvar, head );
+        }
+    }
+
     /**
      * Follows a linked list of Variable Descriptor Records
      * and returns an array of them.
@@ -176,7 +368,7 @@ public class CdfContent {
      * @param  head  offset into buffer of first ADR
      * @return  list of ADRs
      */
-    private static AttributeDescriptorRecord[]
+    static AttributeDescriptorRecord[]
             walkAttributeList( Buf buf, RecordFactory recordFact,
                                int natt, long head ) throws IOException {
         AttributeDescriptorRecord[] adrs =
@@ -228,7 +420,7 @@ public class CdfContent {
      * @param  info  global information about the CDF file
      * @return   entry value
      */
-    private static AttributeEntry
+    static AttributeEntry
             readEntry( AttributeEntryDescriptorRecord aedr,
                        CdfInfo info ) throws IOException {
         DataType dataType = DataType.getDataType( aedr.dataType, info );
@@ -0,0 +1,443 @@
+package uk.ac.bristol.star.cdf;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+import uk.ac.bristol.star.cdf.record.RecordFactory;
+import uk.ac.bristol.star.cdf.record.RecordMap;
+import uk.ac.bristol.star.cdf.record.VariableDescriptorRecord;
+
+/**
+ * Persistent index of where a CDF file's variable descriptors and
+ * record data are stored, which can speed up subsequent opens
+ * of the same file.
+ *
+ * <p>Opening a CDF requires walking the linked lists of
+ * Variable Descriptor Records (VDRs), and reading a variable's data
+ * requires walking its tree of Variable Index Records (VXRs) and
+ * examining the data records they point to, which may be scattered
+ * throughout the file.
+ * An index records the position of each VDR and the resolved
+ * record map entries for each variable, and can be saved to
+ * a "sidecar" file alongside the CDF.
+ * A {@link CdfContent} constructed using an index reads each VDR
+ * directly from its recorded position, and its variables build their
+ * record maps from the index without reading any VXRs or data records.
+ * Optionally, the index may also hold {@link BlockStats} for
+ * numeric variables, available from {@link #getBlockStats getBlockStats}.
+ *
+ * <p>The index file records a format version and the size and
+ * modification time of the CDF file it describes, and ends with a
+ * checksum of its content.
+ * If any of these does not match, {@link #readIndex readIndex}
+ * returns null, so that a stale or damaged index is just ignored.
+ *
+ * <p>Typical usage is something like:
+ * <pre>
+ *     File indexFile = CdfIndex.getSidecarFile(cdfFile);
+ *     CdfIndex index = CdfIndex.readIndex(indexFile, cdfFile);
+ *     CdfContent content = new CdfContent(new CdfReader(cdfFile), index);
+ *     if (index == null) {
+ *         CdfIndex.createIndex(content).writeIndex(indexFile, cdfFile);
+ *     }
+ * </pre>
+ *
+ * @author   Mark Taylor
+ * @since    17 Oct 2026
+ */
+public class CdfIndex {
+
+    private final long[] rVdrOffsets_;
+    private final long[] zVdrOffsets_;
+    private final Map<Long,VarIndex> varMap_;
+
+    private static final int MAGIC = 0x4a434458;
+    private static final Logger logger_ =
+        Logger.getLogger( CdfIndex.class.getName() );
+
+    /** Version number of the index file format. */
+    public static final int FORMAT_VERSION = 2;
+
+    /** Name of the ISTP variable attribute giving the fill value. */
+    private static final String FILLVAL_ATT = "FILLVAL";
+
+    /** Filename suffix used by {@link #getSidecarFile getSidecarFile}. */
+    public static final String SIDECAR_SUFFIX = ".jcdfidx";
+
+    /**
+     * Constructor.
+     *
+     * @param  rVdrOffsets  file offsets of rVariable VDRs in order
+     * @param  zVdrOffsets  file offsets of zVariable VDRs in order
+     * @param  varMap   per-variable index information keyed by VDR offset
+     */
+    private CdfIndex( long[] rVdrOffsets, long[] zVdrOffsets,
+                      Map<Long,VarIndex> varMap ) {
+        rVdrOffsets_ = rVdrOffsets;
+        zVdrOffsets_ = zVdrOffsets;
+        varMap_ = varMap;
+    }
+
+    /**
+     * Returns the recorded file offsets of the Variable Descriptor Records
+     * for either rVariables or zVariables.
+     *
+     * @param  isZ  true for zVariables, false for rVariables
+     * @return   VDR offsets in list order
+     */
+    long[] getVdrOffsets( boolean isZ ) {
+        return isZ ? zVdrOffsets_ : rVdrOffsets_;
+    }
+
+    /**
+     * Returns a record map for a variable using the information
+     * in this index.
+     *
+     * @param  vdr  variable descriptor record
+     * @param  recFact  record factory
+     * @param  recSize  size in bytes of each variable value record
+     * @return  record map, or null if this index has no usable
+     *          information about the variable
+     */
+    RecordMap createRecordMap( VariableDescriptorRecord vdr,
+                               RecordFactory recFact, int recSize ) {
+        VarIndex vi = varMap_.get( Long.valueOf( vdr.getRecordOffset() ) );
+        if ( vi == null || ! vi.name_.equals( vdr.name ) ) {
+            logger_.warning( "No index entry for variable " + vdr.name );
+            return null;
+        }
+        try {
+            return RecordMap.readRecordMap(
+                       new DataInputStream(
+                           new ByteArrayInputStream( vi.entries_ ) ),
+                       vdr, recFact, recSize );
+        }
+        catch ( IOException e ) {
+            logger_.warning( "Bad index entry for variable " + vdr.name
+                           + ": " + e );
+            return null;
+        }
+    }
+
+    /**
+     * Returns the block statistics for a variable held in this index.
+     *
+     * @param  var  variable
+     * @return  block statistics, or null if this index has none
+     *          for the given variable
+     * @see   #createIndex(CdfContent,boolean)
+     */
+    public BlockStats getBlockStats( Variable var ) {
+        VariableDescriptorRecord vdr = var.getDescriptor();
+        VarIndex vi = varMap_.get( Long.valueOf( vdr.getRecordOffset() ) );
+        return vi != null && vi.name_.equals( vdr.name ) ? vi.stats_ : null;
+    }
+
+    /**
+     * Writes this index to a file.
+     * The data is written to a temporary file which is then renamed,
+     * so that a partially written index file is never visible.
+     *
+     * @param  indexFile  destination file
+     * @param  cdfFile   CDF file described by this index
+     */
+    public void writeIndex( File indexFile, File cdfFile )
+            throws IOException {
+        File dir = indexFile.getAbsoluteFile().getParentFile();
+        File tmpFile = File.createTempFile( "jcdf", ".tmp", dir );
+        try {
+            CheckedOutputStream cout =
+                new CheckedOutputStream( new FileOutputStream( tmpFile ),
+                                         new CRC32() );
+            DataOutputStream out =
+                new DataOutputStream( new BufferedOutputStream( cout ) );
+            try {
+                out.writeInt( MAGIC );
+                out.writeInt( FORMAT_VERSION );
+                out.writeLong( cdfFile.length() );
+                out.writeLong( cdfFile.lastModified() );
+                writeOffsets( out, rVdrOffsets_ );
+                writeOffsets( out, zVdrOffsets_ );
+                out.writeInt( varMap_.size() );
+                for ( Map.Entry<Long,VarIndex> entry : varMap_.entrySet() ) {
+                    VarIndex vi = entry.getValue();
+                    out.writeLong( entry.getKey().longValue() );
+                    out.writeUTF( vi.name_ );
+                    out.writeInt( vi.entries_.length );
+                    out.write( vi.entries_ );
+                    out.writeBoolean( vi.stats_ != null );
+                    if ( vi.stats_ != null ) {
+                        vi.stats_.writeStats( out );
+                    }
+                }
+                out.flush();
+                out.writeLong( cout.getChecksum().getValue() );
+            }
+            finally {
+                out.close();
+            }
+            indexFile.delete();
+            if ( ! tmpFile.renameTo( indexFile ) ) {
+                throw new IOException( "Failed to rename " + tmpFile
+                                     + " to " + indexFile );
+            }
+        }
+        finally {
+            if ( tmpFile.exists() ) {
+                tmpFile.delete();
+            }
+        }
+    }
+
+    /**
+     * Constructs an index for the variables in a CDF.
+     * This requires the record map of every variable to be read in full,
+     * so it may take some time for large files.
+     *
+     * @param  content  CDF content
+     * @return   new index
+     */
+    public static CdfIndex createIndex( CdfContent content )
+            throws IOException {
+        return createIndex( content, false );
+    }
+
+    /**
+     * Constructs an index for the variables in a CDF, optionally
+     * including block statistics for each numeric variable.
+     * Statistics use the fill value given by each variable's
+     * <code>FILLVAL</code> attribute, if it has one.
+     * Calculating statistics requires all the data to be read.
+     *
+     * @param  content  CDF content
+     * @param  includeStats  true to calculate block statistics
+     * @return   new index
+     */
+    public static CdfIndex createIndex( CdfContent content,
+                                        boolean includeStats )
+            throws IOException {
+        List<Long> rOffsets = new ArrayList<Long>();
+        List<Long> zOffsets = new ArrayList<Long>();
+        Map<Long,VarIndex> varMap = new HashMap<Long,VarIndex>();
+        Variable[] vars = content.getVariables();
+        for ( int iv = 0; iv < vars.length; iv++ ) {
+            Variable var = vars[ iv ];
+            Long vdrOffset =
+                Long.valueOf( var.getDescriptor().getRecordOffset() );
+            ( var.isZVariable() ? zOffsets : rOffsets ).add( vdrOffset );
+            ByteArrayOutputStream bout = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream( bout );
+            var.createRecordMapView().writeEntries( out );
+            out.close();
+            BlockStats stats =
+                  includeStats && BlockStats.isSupported( var )
+                ? BlockStats.calculateStats( var,
+                                             getFillValue( content, var ) )
+                : null;
+            varMap.put( vdrOffset,
+                        new VarIndex( var.getName(), bout.toByteArray(),
+                                      stats ) );
+        }
+        return new CdfIndex( toArray( rOffsets ), toArray( zOffsets ),
+                             varMap );
+    }
+
+    /**
+     * Reads an index from a file.
+     * If the file does not exist, or is not an up to date index for
+     * the given CDF file, null is returned.
+     *
+     * @param  indexFile  index file
+     * @param  cdfFile   CDF file that the index should describe
+     * @return   index, or null if no valid index is available
+     */
+    public static CdfIndex readIndex( File indexFile, File cdfFile ) {
+        if ( ! indexFile.isFile() ) {
+            return null;
+        }
+        try {
+            byte[] bytes = readBytes( indexFile );
+            int nb = bytes.length - 8;
+            if ( nb < 24 ) {
+                throw new CdfFormatException( "Index file too short" );
+            }
+            CRC32 crc = new CRC32();
+            crc.update( bytes, 0, nb );
+            DataInputStream in =
+                new DataInputStream( new ByteArrayInputStream( bytes ) );
+            in.skipBytes( nb );
+            if ( in.readLong() != crc.getValue() ) {
+                throw new CdfFormatException( "Index checksum mismatch" );
+            }
+            in = new DataInputStream(
+                     new ByteArrayInputStream( bytes, 0, nb ) );
+            if ( in.readInt() != MAGIC ) {
+                throw new CdfFormatException( "Not an index file" );
+            }
+            int version = in.readInt();
+            if ( version != FORMAT_VERSION ) {
+                logger_.config( "Ignoring index " + indexFile
+                              + " with format version " + version );
+                return null;
+            }
+            long leng = in.readLong();
+            long mtime = in.readLong();
+            if ( leng != cdfFile.length() || mtime != cdfFile.lastModified() ) {
+                logger_.config( "Ignoring out of date index " + indexFile );
+                return null;
+            }
+            long[] rVdrOffsets = readOffsets( in );
+            long[] zVdrOffsets = readOffsets( in );
+            int nvar = in.readInt();
+            Map<Long,VarIndex> varMap = new HashMap<Long,VarIndex>();
+            for ( int iv = 0; iv < nvar; iv++ ) {
+                Long vdrOffset = Long.valueOf( in.readLong() );
+                String name = in.readUTF();
+                byte[] entries = new byte[ in.readInt() ];
+                in.readFully( entries );
+                BlockStats stats = in.readBoolean()
+                                 ? BlockStats.readStats( in )
+                                 : null;
+                varMap.put( vdrOffset, new VarIndex( name, entries, stats ) );
+            }
+            logger_.config( "Using index " + indexFile );
+            return new CdfIndex( rVdrOffsets, zVdrOffsets, varMap );
+        }
+        catch ( IOException e ) {
+            logger_.warning( "Failed to read index " + indexFile + ": " + e );
+            return null;
+        }
+    }
+
+    /**
+     * Returns the conventional location of an index file
+     * alongside a given CDF file.
+     *
+     * @param  cdfFile  CDF file
+     * @return   index file in the same directory
+     */
+    public static File getSidecarFile( File cdfFile ) {
+        return new File( cdfFile.getPath() + SIDECAR_SUFFIX );
+    }
+
+    /**
+     * Returns the fill value declared for a variable.
+     *
+     * @param  content  CDF content
+     * @param  var   variable
+     * @return   numeric value of the FILLVAL attribute, or NaN
+     */
+    private static double getFillValue( CdfContent content, Variable var ) {
+        AttributeEntry entry =
+            content.getVariableEntries( var ).get( FILLVAL_ATT );
+        Object item = entry != null && entry.getItemCount() == 1
+                    ? entry.getItem( 0 )
+                    : null;
+        return item instanceof Number ? ((Number) item).doubleValue()
+                                      : Double.NaN;
+    }
+
+    /**
+     * Reads the whole content of a file.
+     *
+     * @param  file  file
+     * @return  byte array containing file content
+     */
+    private static byte[] readBytes( File file ) throws IOException {
+        long leng = file.length();
+        if ( leng > Integer.MAX_VALUE ) {
+            throw new CdfFormatException( "Index file too large" );
+        }
+        byte[] bytes = new byte[ (int) leng ];
+        DataInputStream in = new DataInputStream( new FileInputStream( file ) );
+        try {
+            in.readFully( bytes );
+        }
+        finally {
+            in.close();
+        }
+        return bytes;
+    }
+
+    /**
+     * Writes a counted array of offsets to a stream.
+     *
+     * @param  out  destination stream
+     * @param  offsets  offset array
+     */
+    private static void writeOffsets( DataOutputStream out, long[] offsets )
+            throws IOException {
+        out.writeInt( offsets.length );
+        for ( int i = 0; i < offsets.length; i++ ) {
+            out.writeLong( offsets[ i ] );
+        }
+    }
+
+    /**
+     * Reads a counted array of offsets from a stream.
+     *
+     * @param  in  input stream
+     * @return   offset array
+     */
+    private static long[] readOffsets( DataInputStream in )
+            throws IOException {
+        int n = in.readInt();
+        if ( n < 0 ) {
+            throw new CdfFormatException( "Bad offset count " + n );
+        }
+        long[] offsets = new long[ n ];
+        for ( int i = 0; i < n; i++ ) {
+            offsets[ i ] = in.readLong();
+        }
+        return offsets;
+    }
+
+    /**
+     * Turns a list of Longs into a primitive array.
+     *
+     * @param  list  list
+     * @return  array
+     */
+    private static long[] toArray( List<Long> list ) {
+        long[] array = new long[ list.size() ];
+        for ( int i = 0; i < array.length; i++ ) {
+            array[ i ] = list.get( i ).longValue();
+        }
+        return array;
+    }
+
+    /**
+     * Index information for a single variable.
+     */
+    private static class VarIndex {
+        final String name_;
+        final byte[] entries_;
+        final BlockStats stats_;
+
+        /**
+         * Constructor.
+         *
+         * @param  name  variable name
+         * @param  entries  serialized record map entry list
+         * @param  stats   block statistics, or null
+         */
+        VarIndex( String name, byte[] entries, BlockStats stats ) {
+            name_ = name;
+            entries_ = entries;
+            stats_ = stats;
+        }
+    }
+}
@@ -1,10 +1,16 @@
 package uk.ac.bristol.star.cdf;
 
+import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
+import java.io.EOFException;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.SequenceInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.logging.Logger;
 import uk.ac.bristol.star.cdf.record.Buf;
 import uk.ac.bristol.star.cdf.record.Bufs;
@@ -27,6 +33,9 @@ import uk.ac.bristol.star.cdf.record.RecordFactory;
  * Although only the magic numbers and CDR are read during construction,
  * in the case of a file-compressed CDF the whole thing is uncompressed,
  * so it could still be an expensive operation.
+ * The {@link #CdfReader(java.io.File,java.io.File)} constructor
+ * can be used to cache the uncompressed data on disk for
+ * subsequent opens of the same file.
  *
  * <p>For low-level access to the CDF internal records, use the
  * {@link #getCdr} method to get the CdfDescriptorRecord and use that
@@ -54,6 +63,49 @@ public class CdfReader {
      * @param   buf  buffer containing CDF file
      */
     public CdfReader( Buf buf ) throws IOException {
+        this( buf, null, null );
+    }
+
+    /**
+     * Constructs a CdfReader from a readable file containing its byte data.
+     *
+     * @param  file  CDF file
+     */
+    public CdfReader( File file ) throws IOException {
+        this( file, null );
+    }
+
+    /**
+     * Constructs a CdfReader from a readable file, optionally using
+     * a persistent cache for whole-file-compressed CDFs.
+     *
+     * <p>If <code>cacheDir</code> is non-null and the file uses
+     * whole-file compression, the uncompressed data is written to
+     * a file in that directory rather than to memory.
+     * The cache file is named using the source file's path,
+     * modification time and size, so that subsequent opens of
+     * the same unmodified file can use it directly without
+     * uncompressing anything.
+     * Superseded cache files for the same path are deleted.
+     * If the cache cannot be written, uncompression to memory is
+     * used instead.
+     *
+     * @param  file  CDF file
+     * @param  cacheDir  writable directory for uncompressed data,
+     *                   or null for no caching
+     */
+    public CdfReader( File file, File cacheDir ) throws IOException {
+        this( Bufs.createBuf( file, true, true ), file, cacheDir );
+    }
+
+    /**
+     * Constructor which does the work.
+     *
+     * @param   buf  buffer containing CDF file
+     * @param   file  file from which buf was read, or null
+     * @param   cacheDir  directory for uncompressed data cache, or null
+     */
+    private CdfReader( Buf buf, File file, File cacheDir ) throws IOException {
         Pointer ptr = new Pointer( 0 );
 
         // Read the CDF magic number bytes.
@@ -128,8 +180,15 @@ public class CdfReader {
                     return new SequenceInputStream( in1, in2 );
                 }
             };
-            buf = Bufs.uncompress( padCompress, buf, ccr.getDataOffset(),
-                                   ccr.uSize + prepad );
+            long uSize = ccr.uSize + prepad;
+            Buf ubuf = file != null && cacheDir != null
+                     ? readCache( padCompress, buf, ccr.getDataOffset(), uSize,
+                                  file, cacheDir )
+                     : null;
+            buf = ubuf != null
+                ? ubuf
+                : Bufs.uncompress( padCompress, buf, ccr.getDataOffset(),
+                                   uSize );
         }
         cdr_ = recordFactory_.createRecord( buf, offsetRec0,
                                             CdfDescriptorRecord.class );
@@ -149,15 +208,6 @@ public class CdfReader {
         buf_ = buf;
     }
 
-    /**
-     * Constructs a CdfReader from a readable file containing its byte data.
-     *
-     * @param  file  CDF file
-     */
-    public CdfReader( File file ) throws IOException {
-        this( Bufs.createBuf( file, true, true ) );
-    }
-
     /**
      * Returns the buffer containing the uncompressed record stream for
      * this reader's CDF file.
@@ -189,6 +239,127 @@ public class CdfReader {
         return cdr_;
     }
 
+    /**
+     * Returns a buffer containing the uncompressed data from a
+     * whole-file-compressed CDF, using a file in a cache directory.
+     * If a suitable cache file does not exist, it is written.
+     *
+     * @param  compress  compression
+     * @param  buf   buffer containing compressed data
+     * @param  offset  offset into buf of compressed data
+     * @param  uSize   size in bytes of uncompressed data
+     * @param  file  compressed CDF file
+     * @param  cacheDir  cache directory
+     * @return  buffer containing uncompressed data,
+     *          or null if the cache could not be used
+     */
+    private static Buf readCache( Compression compress, Buf buf, long offset,
+                                  long uSize, File file, File cacheDir ) {
+        try {
+            String prefix = "jcdf-" + hashPath( file ) + "-";
+            File cacheFile =
+                new File( cacheDir, prefix + file.lastModified() + "-"
+                                  + file.length() + ".cdfu" );
+            if ( cacheFile.isFile() && cacheFile.length() == uSize ) {
+                logger_.config( "Using cached uncompressed data "
+                              + cacheFile );
+            }
+            else {
+                File[] oldFiles = cacheDir.listFiles();
+                for ( int i = 0; oldFiles != null && i < oldFiles.length;
+                      i++ ) {
+                    if ( oldFiles[ i ].getName().startsWith( prefix ) ) {
+                        oldFiles[ i ].delete();
+                    }
+                }
+                writeCache( compress, buf, offset, uSize, cacheFile );
+            }
+            return Bufs.createBuf( cacheFile, buf.isBit64(),
+                                   buf.isBigendian() );
+        }
+        catch ( IOException e ) {
+            logger_.warning( "Failed to use uncompressed data cache in "
+                           + cacheDir + ": " + e );
+            return null;
+        }
+    }
+
+    /**
+     * Uncompresses data into a cache file.
+     * The data is written to a temporary file which is then renamed,
+     * so that a partially written cache file is never visible.
+     *
+     * @param  compress  compression
+     * @param  buf   buffer containing compressed data
+     * @param  offset  offset into buf of compressed data
+     * @param  uSize   size in bytes of uncompressed data
+     * @param  cacheFile  destination file
+     */
+    private static void writeCache( Compression compress, Buf buf,
+                                    long offset, long uSize, File cacheFile )
+            throws IOException {
+        logger_.config( "Uncompressing CDF data to cache file " + cacheFile );
+        File tmpFile = File.createTempFile( "jcdf", ".tmp",
+                                            cacheFile.getParentFile() );
+        try {
+            InputStream in =
+                compress.uncompressStream( new BufferedInputStream(
+                                               buf.createInputStream( offset )
+                                           ) );
+            OutputStream out = new FileOutputStream( tmpFile );
+            try {
+                byte[] b = new byte[ 64 * 1024 ];
+                long ntodo = uSize;
+                while ( ntodo > 0 ) {
+                    int n = in.read( b, 0, (int) Math.min( ntodo, b.length ) );
+                    if ( n < 0 ) {
+                        throw new EOFException( "Compressed data too short" );
+                    }
+                    out.write( b, 0, n );
+                    ntodo -= n;
+                }
+            }
+            finally {
+                out.close();
+                in.close();
+            }
+            boolean done = tmpFile.renameTo( cacheFile )
+                || ( cacheFile.isFile() && cacheFile.length() == uSize );
+            if ( ! done ) {
+                throw new IOException( "Failed to rename " + tmpFile
+                                     + " to " + cacheFile );
+            }
+        }
+        finally {
+            if ( tmpFile.exists() ) {
+                tmpFile.delete();
+            }
+        }
+    }
+
+    /**
+     * Returns a short string identifying the absolute location of a file.
+     *
+     * @param  file  file
+     * @return  hex string based on canonical path
+     */
+    private static String hashPath( File file ) throws IOException {
+        byte[] pathBytes = file.getCanonicalPath().getBytes( "UTF-8" );
+        byte[] digest;
+        try {
+            digest = MessageDigest.getInstance( "MD5" ).digest( pathBytes );
+        }
+        catch ( NoSuchAlgorithmException e ) {
+            throw (IOException) new IOException( "No MD5" ).initCause( e );
+        }
+        StringBuffer sbuf = new StringBuffer();
+        for ( int i = 0; i < 8; i++ ) {
+            sbuf.append( Integer.toHexString( ( digest[ i ] & 0xff ) | 0x100 )
+                                .substring( 1 ) );
+        }
+        return sbuf.toString();
+    }
+
     /**
      * Examines a byte array to see if it looks like the start of a CDF file.
      *
@@ -0,0 +1,578 @@
+package uk.ac.bristol.star.cdf.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import uk.ac.bristol.star.cdf.record.Buf;
+import uk.ac.bristol.star.cdf.record.Compression;
+import uk.ac.bristol.star.cdf.record.SimpleNioBuf;
+
+/**
+ * Tests the CDF-specific decompression implementations.
+ * Since there are no compressors in the library, this class contains
+ * simple compressors following the behaviour of the CDF C library,
+ * and checks that data survives a round trip.
+ * Run with the <code>-bench</code> flag, it also reports
+ * decompression throughput.
+ *
+ * @author   Mark Taylor
+ * @since    17 Oct 2026
+ */
+public class CompressTest {
+
+    private static boolean assertionsOn_;
+    private static final int END_OF_STREAM = 256;
+    private static final int[] SIZES = { 0, 1, 2, 77, 4096, 100000 };
+
+    private final Random random_ = new Random( 55501L );
+
+    public void testHuffman() throws IOException {
+
+        // Skip the empty case; the end-of-stream code then has zero
+        // length, which the CDF library's decompressor does not handle.
+        for ( int is = 1; is < SIZES.length; is++ ) {
+            for ( int id = 0; id < 4; id++ ) {
+                byte[] data = createData( SIZES[ is ], id );
+                byte[] zdata = huffmanCompress( data );
+                checkRoundTrip( Compression.HUFF, zdata, data );
+            }
+        }
+    }
+
+    public void testAdaptiveHuffman() throws IOException {
+        for ( int is = 0; is < SIZES.length; is++ ) {
+            for ( int id = 0; id < 4; id++ ) {
+                byte[] data = createData( SIZES[ is ], id );
+                byte[] zdata = new AdaptiveHuffmanCompressor().compress( data );
+                checkRoundTrip( Compression.AHUFF, zdata, data );
+            }
+        }
+
+        // Enough data to trigger tree rebuilds.
+        byte[] data = createData( 400000, 3 );
+        byte[] zdata = new AdaptiveHuffmanCompressor().compress( data );
+        checkRoundTrip( Compression.AHUFF, zdata, data );
+    }
+
+    public void testRunLength() throws IOException {
+        for ( int is = 0; is < SIZES.length; is++ ) {
+            for ( int id = 0; id < 4; id++ ) {
+                byte[] data = createData( SIZES[ is ], id );
+                byte[] zdata = runLengthCompress( data );
+                checkRoundTrip( Compression.RLE, zdata, data );
+                checkBufUncompress( Compression.RLE, zdata, data );
+            }
+        }
+
+        // Long zero runs straddling input chunk boundaries.
+        byte[] data = new byte[ 300001 ];
+        for ( int i = 0; i < data.length; i += 1 + random_.nextInt( 700 ) ) {
+            data[ i ] = (byte) ( 1 + random_.nextInt( 255 ) );
+        }
+        byte[] zdata = runLengthCompress( data );
+        checkRoundTrip( Compression.RLE, zdata, data );
+        checkBufUncompress( Compression.RLE, zdata, data );
+    }
+
+    /**
+     * Reports decompression throughput.
+     */
+    public void bench() throws IOException {
+        int n = 4 * 1024 * 1024;
+        for ( int id = 0; id < 4; id++ ) {
+            byte[] data = createData( n, id );
+            report( "HUFF", id, Compression.HUFF, huffmanCompress( data ), n );
+            report( "AHUFF", id, Compression.AHUFF,
+                    new AdaptiveHuffmanCompressor().compress( data ), n );
+            report( "RLE", id, Compression.RLE, runLengthCompress( data ),
+                    n );
+        }
+
+        // Compare the Buf-to-Buf RLE implementation with the default
+        // stream-based one.
+        Compression streamRle = new Compression( "RLE stream" ) {
+            public InputStream uncompressStream( InputStream in )
+                    throws IOException {
+                return Compression.RLE.uncompressStream( in );
+            }
+        };
+        for ( int id = 0; id < 4; id++ ) {
+            byte[] rdata = runLengthCompress( createData( n, id ) );
+            reportBuf( "RLE stream Buf", id, streamRle, rdata, n );
+            reportBuf( "RLE direct Buf", id, Compression.RLE, rdata, n );
+        }
+    }
+
+    private void report( String name, int id, Compression compress,
+                         byte[] zdata, int n )
+            throws IOException {
+        byte[] buf = new byte[ n ];
+        int nrep = 5;
+        long t = 0;
+        for ( int iw = 0; iw < 3; iw++ ) {
+            long t0 = System.nanoTime();
+            for ( int ir = 0; ir < nrep; ir++ ) {
+                readFully( compress.uncompressStream(
+                               new ByteArrayInputStream( zdata ) ), buf );
+            }
+            t = System.nanoTime() - t0;
+        }
+        double mbps = ( (double) n * nrep / ( 1024 * 1024 ) ) / ( t * 1e-9 );
+        System.out.println( name + " data type " + id + ":\t"
+                          + (float) mbps + " Mb/s" );
+    }
+
+    private void reportBuf( String name, int id, Compression compress,
+                            byte[] zdata, int n )
+            throws IOException {
+        Buf zbuf = new SimpleNioBuf( ByteBuffer.wrap( zdata ), true, true );
+        int nrep = 5;
+        long t = 0;
+        for ( int iw = 0; iw < 3; iw++ ) {
+            long t0 = System.nanoTime();
+            for ( int ir = 0; ir < nrep; ir++ ) {
+                compress.uncompress( zbuf, 0, n );
+            }
+            t = System.nanoTime() - t0;
+        }
+        double mbps = ( (double) n * nrep / ( 1024 * 1024 ) ) / ( t * 1e-9 );
+        System.out.println( name + " data type " + id + ":\t"
+                          + (float) mbps + " Mb/s" );
+    }
+
+    private static void checkBufUncompress( Compression compress,
+                                            byte[] zdata, byte[] data )
+            throws IOException {
+        int pad = 13;
+        byte[] pzdata = new byte[ pad + zdata.length ];
+        System.arraycopy( zdata, 0, pzdata, pad, zdata.length );
+        Buf zbuf = new SimpleNioBuf( ByteBuffer.wrap( pzdata ), true, true );
+        Buf ubuf = compress.uncompress( zbuf, pad, data.length );
+        assert ubuf.getLength() == data.length;
+        byte[] out = new byte[ data.length ];
+        ubuf.readDataBytes( 0, data.length, out );
+        assert Arrays.equals( data, out );
+        if ( data.length > 0 ) {
+            try {
+                Buf tbuf = new SimpleNioBuf( ByteBuffer.wrap( zdata ),
+                                             true, true );
+                compress.uncompress( tbuf, 0, data.length + 1 );
+                assert false;
+            }
+            catch ( IOException e ) {
+            }
+        }
+    }
+
+    private static void checkRoundTrip( Compression compress, byte[] zdata,
+                                        byte[] data )
+            throws IOException {
+
+        // Read in bulk.
+        InputStream in =
+            compress.uncompressStream( new ByteArrayInputStream( zdata ) );
+        byte[] out = new byte[ data.length ];
+        readFully( in, out );
+        assert in.read() < 0;
+        assert in.read( new byte[ 10 ], 0, 10 ) < 0;
+        assert Arrays.equals( data, out );
+
+        // Read a byte at a time.
+        in = compress.uncompressStream( new ByteArrayInputStream( zdata ) );
+        for ( int i = 0; i < data.length; i++ ) {
+            assert in.read() == ( data[ i ] & 0xff );
+        }
+        assert in.read() < 0;
+    }
+
+    private static void readFully( InputStream in, byte[] buf )
+            throws IOException {
+        int n = 0;
+        while ( n < buf.length ) {
+            int nr = in.read( buf, n, buf.length - n );
+            assert nr > 0;
+            n += nr;
+        }
+    }
+
+    /**
+     * Returns test data with various statistical properties.
+     *
+     * @param  n  byte count
+     * @param  type  0: uniform, 1: skewed so that some Huffman codes
+     *               are long, 2: mostly zeros, 3: few distinct values
+     */
+    private byte[] createData( int n, int type ) {
+        byte[] data = new byte[ n ];
+        for ( int i = 0; i < n; i++ ) {
+            final int v;
+            switch ( type ) {
+                case 0:
+                    v = random_.nextInt( 256 );
+                    break;
+                case 1:
+                    v = Math.min( Integer.numberOfTrailingZeros( random_
+                                                                .nextInt() ),
+                                  24 ) * 10;
+                    break;
+                case 2:
+                    v = random_.nextInt( 8 ) == 0 ? random_.nextInt( 256 ) : 0;
+                    break;
+                default:
+                    v = 'a' + random_.nextInt( 3 );
+            }
+            data[ i ] = (byte) v;
+        }
+        return data;
+    }
+
+    /**
+     * Compresses data in the form read by the RLE decompressor.
+     */
+    private static byte[] runLengthCompress( byte[] data ) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for ( int i = 0; i < data.length; ) {
+            if ( data[ i ] == 0 ) {
+                int n = 1;
+                while ( n < 256 && i + n < data.length &&
+                        data[ i + n ] == 0 ) {
+                    n++;
+                }
+                out.write( 0 );
+                out.write( n - 1 );
+                i += n;
+            }
+            else {
+                out.write( data[ i++ ] );
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Compresses data in the form read by the HUFF decompressor,
+     * which is the Huffman coding from "The Data Compression Book"
+     * (Mark Nelson, 1992) as used by the CDF C library.
+     */
+    private static byte[] huffmanCompress( byte[] data ) {
+
+        // Count and scale symbol frequencies.
+        long[] rawCounts = new long[ 256 ];
+        long maxCount = 0;
+        for ( int i = 0; i < data.length; i++ ) {
+            maxCount = Math.max( maxCount, ++rawCounts[ data[ i ] & 0xff ] );
+        }
+        long scale = maxCount / 255 + 1;
+        int[] counts = new int[ 514 ];
+        for ( int i = 0; i < 256; i++ ) {
+            counts[ i ] = (int) ( rawCounts[ i ] / scale );
+            if ( counts[ i ] == 0 && rawCounts[ i ] != 0 ) {
+                counts[ i ] = 1;
+            }
+        }
+
+        // Write the counts as runs of non-zero values.
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int first = 0;
+        while ( first < 255 && counts[ first ] == 0 ) {
+            first++;
+        }
+        do {
+            int last = first;
+            while ( last < 255 && counts[ last + 1 ] != 0 ) {
+                last++;
+            }
+            out.write( first );
+            out.write( last );
+            for ( int i = first; i <= last; i++ ) {
+                out.write( counts[ i ] );
+            }
+            first = last + 1;
+            while ( first < 256 && counts[ first ] == 0 ) {
+                first++;
+            }
+        } while ( first < 256 );
+        out.write( 0 );
+        counts[ END_OF_STREAM ] = 1;
+
+        // Build the tree in the same way as the decompressor.
+        int[] child0s = new int[ 514 ];
+        int[] child1s = new int[ 514 ];
+        counts[ 513 ] = Integer.MAX_VALUE;
+        int nextFree = END_OF_STREAM + 1;
+        while ( true ) {
+            int min1 = 513;
+            int min2 = 513;
+            for ( int i = 0; i < nextFree; i++ ) {
+                if ( counts[ i ] != 0 ) {
+                    if ( counts[ i ] < counts[ min1 ] ) {
+                        min2 = min1;
+                        min1 = i;
+                    }
+                    else if ( counts[ i ] < counts[ min2 ] ) {
+                        min2 = i;
+                    }
+                }
+            }
+            if ( min2 == 513 ) {
+                break;
+            }
+            counts[ nextFree ] = counts[ min1 ] + counts[ min2 ];
+            counts[ min1 ] = 0;
+            counts[ min2 ] = 0;
+            child0s[ nextFree ] = min1;
+            child1s[ nextFree ] = min2;
+            nextFree++;
+        }
+        int iRoot = nextFree - 1;
+
+        // Assign codes and write the data.
+        String[] codes = new String[ 257 ];
+        assignCodes( iRoot, "", child0s, child1s, codes );
+        BitWriter bout = new BitWriter( out );
+        for ( int i = 0; i < data.length; i++ ) {
+            bout.writeBits( codes[ data[ i ] & 0xff ] );
+        }
+        bout.writeBits( codes[ END_OF_STREAM ] );
+        bout.flush();
+        return out.toByteArray();
+    }
+
+    private static void assignCodes( int inode, String code, int[] child0s,
+                                     int[] child1s, String[] codes ) {
+        if ( inode <= END_OF_STREAM ) {
+            codes[ inode ] = code;
+        }
+        else {
+            assignCodes( child0s[ inode ], code + "0", child0s, child1s,
+                         codes );
+            assignCodes( child1s[ inode ], code + "1", child0s, child1s,
+                         codes );
+        }
+    }
+
+    /**
+     * Compresses data in the form read by the AHUFF decompressor,
+     * which is the adaptive Huffman coding from
+     * "The Data Compression Book" (Mark Nelson, 1992)
+     * as used by the CDF C library.
+     */
+    private static class AdaptiveHuffmanCompressor {
+
+        private static final int ESCAPE = 257;
+        private static final int SYMBOL_COUNT = 258;
+        private static final int NODE_COUNT = SYMBOL_COUNT * 2 - 1;
+        private static final int ROOT = 0;
+        private static final int MAX_WEIGHT = 0x8000;
+        private final int[] leafs_ = new int[ SYMBOL_COUNT ];
+        private final int[] child_ = new int[ NODE_COUNT ];
+        private final boolean[] isLeaf_ = new boolean[ NODE_COUNT ];
+        private final int[] weight_ = new int[ NODE_COUNT ];
+        private final int[] parent_ = new int[ NODE_COUNT ];
+        private int nextFree_;
+
+        AdaptiveHuffmanCompressor() {
+            Arrays.fill( leafs_, -1 );
+            setNode( ROOT, ROOT + 1, false, 2, -1 );
+            setNode( ROOT + 1, END_OF_STREAM, true, 1, ROOT );
+            setNode( ROOT + 2, ESCAPE, true, 1, ROOT );
+            leafs_[ END_OF_STREAM ] = ROOT + 1;
+            leafs_[ ESCAPE ] = ROOT + 2;
+            nextFree_ = ROOT + 3;
+        }
+
+        byte[] compress( byte[] data ) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            BitWriter bout = new BitWriter( out );
+            for ( int i = 0; i < data.length; i++ ) {
+                int c = data[ i ] & 0xff;
+                encodeSymbol( c, bout );
+                updateModel( c );
+            }
+            encodeSymbol( END_OF_STREAM, bout );
+            bout.flush();
+            return out.toByteArray();
+        }
+
+        private void encodeSymbol( int c, BitWriter bout ) {
+            StringBuffer code = new StringBuffer();
+            int inode = leafs_[ c ] >= 0 ? leafs_[ c ] : leafs_[ ESCAPE ];
+            while ( inode != ROOT ) {
+                code.insert( 0, ( inode & 1 ) == 0 ? '1' : '0' );
+                inode = parent_[ inode ];
+            }
+            bout.writeBits( code.toString() );
+            if ( leafs_[ c ] < 0 ) {
+                bout.writeBits( Integer.toBinaryString( c | 0x100 )
+                                       .substring( 1 ) );
+                addNewNode( c );
+            }
+        }
+
+        private void setNode( int i, int child, boolean isLeaf, int weight,
+                              int parent ) {
+            child_[ i ] = child;
+            isLeaf_[ i ] = isLeaf;
+            weight_[ i ] = weight;
+            parent_[ i ] = parent;
+        }
+
+        private void copyNode( int from, int to ) {
+            setNode( to, child_[ from ], isLeaf_[ from ], weight_[ from ],
+                     parent_[ from ] );
+        }
+
+        private void addNewNode( int c ) {
+            int lightest = nextFree_ - 1;
+            int newNode = nextFree_;
+            int zeroNode = nextFree_ + 1;
+            nextFree_ += 2;
+            copyNode( lightest, newNode );
+            parent_[ newNode ] = lightest;
+            leafs_[ child_[ newNode ] ] = newNode;
+            child_[ lightest ] = newNode;
+            isLeaf_[ lightest ] = false;
+            setNode( zeroNode, c, true, 0, lightest );
+            leafs_[ c ] = zeroNode;
+        }
+
+        private void updateModel( int c ) {
+            if ( weight_[ ROOT ] == MAX_WEIGHT ) {
+                rebuildTree();
+            }
+            int current = leafs_[ c ];
+            while ( current != -1 ) {
+                weight_[ current ]++;
+                int newNode = current;
+                while ( newNode > ROOT &&
+                        weight_[ newNode - 1 ] < weight_[ current ] ) {
+                    newNode--;
+                }
+                if ( current != newNode ) {
+                    swapNodes( current, newNode );
+                    current = newNode;
+                }
+                current = parent_[ current ];
+            }
+        }
+
+        private void swapNodes( int i, int j ) {
+            fixChildren( i, j );
+            fixChildren( j, i );
+            int iChild = child_[ i ];
+            boolean iIsLeaf = isLeaf_[ i ];
+            int iWeight = weight_[ i ];
+            setNode( i, child_[ j ], isLeaf_[ j ], weight_[ j ], parent_[ i ] );
+            setNode( j, iChild, iIsLeaf, iWeight, parent_[ j ] );
+        }
+
+        private void fixChildren( int i, int newParent ) {
+            if ( isLeaf_[ i ] ) {
+                leafs_[ child_[ i ] ] = newParent;
+            }
+            else {
+                parent_[ child_[ i ] ] = newParent;
+                parent_[ child_[ i ] + 1 ] = newParent;
+            }
+        }
+
+        private void rebuildTree() {
+            int j = nextFree_ - 1;
+            for ( int i = j; i >= ROOT; i-- ) {
+                if ( isLeaf_[ i ] ) {
+                    copyNode( i, j );
+                    weight_[ j ] = ( weight_[ j ] + 1 ) / 2;
+                    j--;
+                }
+            }
+            for ( int i = nextFree_ - 2; j >= ROOT; i -= 2, j-- ) {
+                int weight = weight_[ i ] + weight_[ i + 1 ];
+                int k = j + 1;
+                while ( k < nextFree_ && weight < weight_[ k ] ) {
+                    k++;
+                }
+                k--;
+                for ( int m = j; m < k; m++ ) {
+                    copyNode( m + 1, m );
+                }
+                setNode( k, i, false, weight, parent_[ k ] );
+            }
+            for ( int i = nextFree_ - 1; i >= ROOT; i-- ) {
+                if ( isLeaf_[ i ] ) {
+                    leafs_[ child_[ i ] ] = i;
+                }
+                else {
+                    parent_[ child_[ i ] ] = i;
+                    parent_[ child_[ i ] + 1 ] = i;
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes bits most significant first to a byte stream.
+     */
+    private static class BitWriter {
+        private final ByteArrayOutputStream out_;
+        private int rack_;
+        private int mask_;
+        BitWriter( ByteArrayOutputStream out ) {
+            out_ = out;
+            mask_ = 0x80;
+        }
+        void writeBit( boolean bit ) {
+            if ( bit ) {
+                rack_ |= mask_;
+            }
+            mask_ >>= 1;
+            if ( mask_ == 0 ) {
+                out_.write( rack_ );
+                rack_ = 0;
+                mask_ = 0x80;
+            }
+        }
+        void writeBits( String bits ) {
+            for ( int i = 0; i < bits.length(); i++ ) {
+                writeBit( bits.charAt( i ) == '1' );
+            }
+        }
+        void flush() {
+            if ( mask_ != 0x80 ) {
+                out_.write( rack_ );
+                rack_ = 0;
+                mask_ = 0x80;
+            }
+        }
+    }
+
+    private static boolean checkAssertions() {
+        assertionsOn_ = true;
+        return true;
+    }
+
+    private static void runTests() throws IOException {
+        assert checkAssertions();
+        if ( ! assertionsOn_ ) {
+            throw new RuntimeException( "Assertions disabled - bit pointless" );
+        }
+        CompressTest test = new CompressTest();
+        test.testHuffman();
+        test.testAdaptiveHuffman();
+        test.testRunLength();
+    }
+
+    /**
+     * Main method.  Runs tests; if the <code>-bench</code> flag is
+     * given, timings are reported as well.
+     */
+    public static void main( String[] args ) throws IOException {
+        runTests();
+        if ( args.length > 0 && args[ 0 ].equals( "-bench" ) ) {
+            new CompressTest().bench();
+        }
+    }
+}
@@ -0,0 +1,382 @@
+package uk.ac.bristol.star.cdf.record;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Buf implementation representing the uncompressed content of a
+ * block of compressed data in another Buf.
+ *
+ * <p>The data is not uncompressed until it is first needed.
+ * The uncompressed form is then registered with a {@link BlockCache},
+ * which may discard it later to keep memory usage within bounds,
+ * in which case it will be uncompressed again on next use.
+ *
+ * <p>If the data is GZIP-compressed and larger than the cache's
+ * {@link BlockCache#getSeekThreshold seek threshold},
+ * reads which do not find it in memory decode only the part required,
+ * using a {@link SeekableGzipBuf}, rather than uncompressing it all.
+ *
+ * <p>Blocks may be linked into a sequence, so that if the cache
+ * has an executor, using one block for the first time causes
+ * the following ones to be uncompressed in the background.
+ *
+ * @author   Mark Taylor
+ * @since    17 Oct 2026
+ */
+public class CompressedBlockBuf implements ArrayReadBuf {
+
+    private final Compression compression_;
+    private final Buf inBuf_;
+    private final long inOffset_;
+    private final long outSize_;
+    private final BlockCache cache_;
+    private volatile boolean isBit64_;
+    private volatile boolean isBigendian_;
+    private volatile Buf data_;
+    private volatile boolean used_;
+    private volatile boolean prefetched_;
+    private volatile boolean pending_;
+    private volatile CompressedBlockBuf next_;
+    private volatile SeekableGzipBuf seeker_;
+    private static final Logger logger_ =
+        Logger.getLogger( CompressedBlockBuf.class.getName() );
+
+    /**
+     * Constructor.
+     *
+     * @param  compression  compression format of the input data
+     * @param  inBuf   buffer containing the compressed data
+     * @param  inOffset  offset into <code>inBuf</code> of the start
+     *                   of the compressed data
+     * @param  outSize   byte count of the uncompressed data
+     * @param  cache   cache which will manage the uncompressed data
+     */
+    public CompressedBlockBuf( Compression compression, Buf inBuf,
+                               long inOffset, long outSize,
+                               BlockCache cache ) {
+        compression_ = compression;
+        inBuf_ = inBuf;
+        inOffset_ = inOffset;
+        outSize_ = outSize;
+        cache_ = cache;
+        isBit64_ = inBuf.isBit64();
+        isBigendian_ = inBuf.isBigendian();
+    }
+
+    /**
+     * Returns the offset into the input buffer of the compressed data.
+     *
+     * @return  compressed data offset
+     */
+    public long getInputOffset() {
+        return inOffset_;
+    }
+
+    /**
+     * Indicates whether the uncompressed data is currently held
+     * in memory.
+     *
+     * @return  true iff no uncompression is required to read data
+     */
+    public boolean isLoaded() {
+        return data_ != null;
+    }
+
+    /**
+     * Sets the block which follows this one in a sequence.
+     * It will be prefetched when this one is first used.
+     *
+     * @param  next  following block, or null
+     */
+    public void setNext( CompressedBlockBuf next ) {
+        next_ = next;
+    }
+
+    /**
+     * Requests that the data be uncompressed in the background
+     * if it is not already available.
+     * If the cache has no executor, this does nothing.
+     */
+    public void prefetch() {
+        if ( data_ == null && ! pending_ ) {
+            ExecutorService executor = cache_.getExecutor();
+            if ( executor != null ) {
+                pending_ = true;
+                try {
+                    executor.execute( new Runnable() {
+                        public void run() {
+                            try {
+                                load( true );
+                            }
+                            catch ( IOException e ) {
+                                logger_.log( Level.WARNING,
+                                             "Prefetch failed", e );
+                            }
+                            finally {
+                                pending_ = false;
+                            }
+                        }
+                    } );
+                }
+                catch ( RejectedExecutionException e ) {
+                    pending_ = false;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns a buffer containing the uncompressed data,
+     * uncompressing it if necessary.
+     *
+     * @return  uncompressed data buffer
+     */
+    private Buf getData() throws IOException {
+        Buf data = data_;
+        if ( data != null ) {
+            used_ = true;
+
+            // First use of a prefetched block; keep reading ahead.
+            if ( prefetched_ ) {
+                prefetched_ = false;
+                prefetchFollowing();
+            }
+            return data;
+        }
+        else if ( compression_ == Compression.GZIP &&
+                  outSize_ > cache_.getSeekThreshold() ) {
+            return getSeeker();
+        }
+        else {
+            data = load( false );
+            prefetchFollowing();
+            return data;
+        }
+    }
+
+    /**
+     * Returns a buffer which reads the data by seeking in the
+     * compressed stream, creating it if necessary.
+     * It is retained for the life of this block, so that its
+     * checkpoints can be reused.
+     *
+     * @return  seekable data buffer
+     */
+    private synchronized Buf getSeeker() throws IOException {
+        if ( seeker_ == null ) {
+            SeekableGzipBuf seeker =
+                new SeekableGzipBuf( inBuf_, inOffset_, outSize_,
+                                     SeekableGzipBuf.DFLT_SPAN );
+            seeker.setBit64( isBit64_ );
+            seeker.setEncoding( isBigendian_ );
+            seeker_ = seeker;
+        }
+        return seeker_;
+    }
+
+    /**
+     * Ensures that the uncompressed data is available.
+     *
+     * @param  isPrefetch  true if the data is being loaded in advance
+     *                     of use, false if it is required now
+     * @return  uncompressed data buffer
+     */
+    private Buf load( boolean isPrefetch ) throws IOException {
+
+        // Lock order is this block, then the cache.
+        synchronized ( this ) {
+            Buf data = data_;
+            if ( data == null ) {
+                data = Bufs.uncompress( compression_, inBuf_, inOffset_,
+                                        outSize_ );
+                data.setBit64( isBit64_ );
+                data.setEncoding( isBigendian_ );
+                data_ = data;
+                used_ = true;
+                prefetched_ = isPrefetch;
+                cache_.added( this, outSize_ );
+            }
+            else if ( ! isPrefetch ) {
+                prefetched_ = false;
+            }
+            return data;
+        }
+    }
+
+    /**
+     * Prefetches some of the blocks following this one in its sequence.
+     */
+    private void prefetchFollowing() {
+        if ( cache_.getExecutor() != null ) {
+            CompressedBlockBuf block = next_;
+            for ( int i = cache_.getPrefetchCount(); i > 0 && block != null;
+                  i-- ) {
+                block.prefetch();
+                block = block.next_;
+            }
+        }
+    }
+
+    /**
+     * Clears the recently used flag.  Called by the cache.
+     *
+     * @return  true iff the flag was set before this call
+     */
+    boolean clearUsed() {
+        boolean used = used_;
+        used_ = false;
+        return used;
+    }
+
+    /**
+     * Discards the uncompressed data.  Called by the cache.
+     */
+    void release() {
+        data_ = null;
+        used_ = false;
+        prefetched_ = false;
+    }
+
+    public long getLength() {
+        return outSize_;
+    }
+
+    public int readUnsignedByte( Pointer ptr ) throws IOException {
+        return getData().readUnsignedByte( ptr );
+    }
+
+    public int readInt( Pointer ptr ) throws IOException {
+        return getData().readInt( ptr );
+    }
+
+    public long readOffset( Pointer ptr ) throws IOException {
+        return getData().readOffset( ptr );
+    }
+
+    public String readAsciiString( Pointer ptr, int nbyte ) throws IOException {
+        return getData().readAsciiString( ptr, nbyte );
+    }
+
+    public synchronized void setBit64( boolean isBit64 ) {
+        isBit64_ = isBit64;
+        Buf data = data_;
+        if ( data != null ) {
+            data.setBit64( isBit64 );
+        }
+        if ( seeker_ != null ) {
+            seeker_.setBit64( isBit64 );
+        }
+    }
+
+    public boolean isBit64() {
+        return isBit64_;
+    }
+
+    public synchronized void setEncoding( boolean isBigendian ) {
+        isBigendian_ = isBigendian;
+        Buf data = data_;
+        if ( data != null ) {
+            data.setEncoding( isBigendian );
+        }
+        if ( seeker_ != null ) {
+            seeker_.setEncoding( isBigendian );
+        }
+    }
+
+    public boolean isBigendian() {
+        return isBigendian_;
+    }
+
+    public void readDataBytes( long offset, int count, byte[] array )
+            throws IOException {
+        readDataBytes( offset, count, array, 0 );
+    }
+
+    public void readDataBytes( long offset, int count, byte[] array,
+                               int arrayOffset )
+            throws IOException {
+        Bufs.readDataBytes( getData(), offset, count, array, arrayOffset );
+    }
+
+    public void readDataShorts( long offset, int count, short[] array )
+            throws IOException {
+        readDataShorts( offset, count, array, 0 );
+    }
+
+    public void readDataShorts( long offset, int count, short[] array,
+                                int arrayOffset )
+            throws IOException {
+        Bufs.readDataShorts( getData(), offset, count, array, arrayOffset );
+    }
+
+    public void readDataInts( long offset, int count, int[] array )
+            throws IOException {
+        readDataInts( offset, count, array, 0 );
+    }
+
+    public void readDataInts( long offset, int count, int[] array,
+                              int arrayOffset )
+            throws IOException {
+        Bufs.readDataInts( getData(), offset, count, array, arrayOffset );
+    }
+
+    public void readDataLongs( long offset, int count, long[] array )
+            throws IOException {
+        readDataLongs( offset, count, array, 0 );
+    }
+
+    public void readDataLongs( long offset, int count, long[] array,
+                               int arrayOffset )
+            throws IOException {
+        Bufs.readDataLongs( getData(), offset, count, array, arrayOffset );
+    }
+
+    public void readDataFloats( long offset, int count, float[] array )
+            throws IOException {
+        readDataFloats( offset, count, array, 0 );
+    }
+
+    public void readDataFloats( long offset, int count, float[] array,
+                                int arrayOffset )
+            throws IOException {
+        Bufs.readDataFloats( getData(), offset, count, array, arrayOffset );
+    }
+
+    public void readDataDoubles( long offset, int count, double[] array )
+            throws IOException {
+        readDataDoubles( offset, count, array, 0 );
+    }
+
+    public void readDataDoubles( long offset, int count, double[] array,
+                                 int arrayOffset )
+            throws IOException {
+        Bufs.readDataDoubles( getData(), offset, count, array, arrayOffset );
+    }
+
+    public InputStream createInputStream( long offset ) {
+        final Buf data;
+        try {
+            data = getData();
+        }
+
+        // This method can't throw an IOException, so defer reporting
+        // any failure until the stream is read.
+        catch ( final IOException e ) {
+            return new InputStream() {
+                public int read() throws IOException {
+                    throw e;
+                }
+            };
+        }
+        return data.createInputStream( offset );
+    }
+
+    public Buf fillNewBuf( long count, InputStream in ) throws IOException {
+        return inBuf_.fillNewBuf( count, in );
+    }
+}
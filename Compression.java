@@ -1,5 +1,6 @@
 package uk.ac.bristol.star.cdf.record;
 
+import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.zip.GZIPInputStream;
@@ -26,6 +27,14 @@ public abstract class Compression {
                 throws IOException {
             return new RunLengthInputStream( in, (byte) 0 );
         }
+        @Override
+        public Buf uncompress( Buf inBuf, long inOffset, long outSize )
+                throws IOException {
+            return outSize <= Integer.MAX_VALUE
+                 ? RunLengthInputStream.uncompress( inBuf, inOffset,
+                                                    (int) outSize, (byte) 0 )
+                 : super.uncompress( inBuf, inOffset, outSize );
+        }
     };
 
     /** Huffman encoding. */
@@ -50,6 +59,13 @@ public abstract class Compression {
                 throws IOException {
             return new GZIPInputStream( in );
         }
+        @Override
+        public Buf uncompress( Buf inBuf, long inOffset, long outSize )
+                throws IOException {
+            return outSize <= Integer.MAX_VALUE
+                 ? GzipInflater.inflate( inBuf, inOffset, (int) outSize )
+                 : super.uncompress( inBuf, inOffset, outSize );
+        }
     };
 
     private final String name_;
@@ -73,6 +89,29 @@ public abstract class Compression {
     public abstract InputStream uncompressStream( InputStream in )
             throws IOException;
 
+    /**
+     * Uncompresses part of an input Buf into a new Buf.
+     * The default implementation reads the output of
+     * {@link #uncompressStream}; subclasses may override it
+     * to do the same job more efficiently.
+     *
+     * @param  inBuf   buffer containing input compressed data
+     * @param  inOffset   offset into <code>inBuf</code> at which the
+     *                    compressed data starts
+     * @param   outSize  byte count of the uncompressed data
+     * @return   new buffer of size <code>outSize</code> containing
+     *           uncompressed data
+     */
+    public Buf uncompress( Buf inBuf, long inOffset, long outSize )
+            throws IOException {
+        InputStream uin =
+            uncompressStream( new BufferedInputStream(
+                                  inBuf.createInputStream( inOffset ) ) );
+        Buf ubuf = inBuf.fillNewBuf( outSize, uin );
+        uin.close();
+        return ubuf;
+    }
+
     /**
      * Returns this compression format's name.
      *
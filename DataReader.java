@@ -56,6 +56,37 @@ public class DataReader {
         dataType_.readValues( buf, offset, nelPerItem_, valueArray, nItem_ );
     }
 
+    /**
+     * Reads the values for a contiguous sequence of records from a
+     * data buffer into part of an array.
+     * The array is laid out as a concatenation of the arrays that
+     * would be filled by <code>readValue</code> for each record in turn.
+     *
+     * @param  buf  data buffer
+     * @param  offset  byte offset into buf of data start for the first record
+     * @param  nrec  number of records to read
+     * @param  valueArray   array into which results will be read;
+     *                      element type as for <code>createValueArray</code>
+     * @param  irecArray  index in units of records at which to start
+     *                    writing into <code>valueArray</code>
+     */
+    public void readValues( Buf buf, long offset, int nrec,
+                            Object valueArray, int irecArray )
+            throws IOException {
+        dataType_.readValues( buf, offset, nelPerItem_, valueArray,
+                              irecArray * getValueArraySize(), nrec * nItem_ );
+    }
+
+    /**
+     * Returns the number of elements in the array that holds the
+     * value for a single record.
+     *
+     * @return  length of array returned by <code>createValueArray</code>
+     */
+    public int getValueArraySize() {
+        return nItem_ * dataType_.getGroupSize();
+    }
+
     /**
      * Returns the size in bytes of one record as stored in the data buffer.
      *
@@ -3,6 +3,7 @@ package uk.ac.bristol.star.cdf;
 import java.io.IOException;
 import java.lang.reflect.Array;
 import uk.ac.bristol.star.cdf.record.Buf;
+import uk.ac.bristol.star.cdf.record.Bufs;
 import uk.ac.bristol.star.cdf.record.Pointer;
 
 /**
@@ -180,8 +181,28 @@ public abstract class DataType {
      * @param   valueArray  array to receive result data
      * @param   count  number of items to read
      */
+    public void readValues( Buf buf, long offset, int nelPerItem,
+                            Object valueArray, int count )
+            throws IOException {
+        readValues( buf, offset, nelPerItem, valueArray, 0, count );
+    }
+
+    /**
+     * Reads data of this data type from a buffer into part of an
+     * appropriately typed value array.
+     *
+     * @param   buf  data buffer
+     * @param   offset  byte offset into buffer at which data starts
+     * @param   nelPerItem  number of elements per item;
+     *                      usually 1, but may not be for strings
+     * @param   valueArray  array to receive result data
+     * @param   arrayIndex  index of first element of valueArray to be written;
+     *                      see {@link #getArrayIndex getArrayIndex}
+     * @param   count  number of items to read
+     */
     public abstract void readValues( Buf buf, long offset, int nelPerItem,
-                                     Object valueArray, int count )
+                                     Object valueArray, int arrayIndex,
+                                     int count )
             throws IOException;
 
     /** 
@@ -292,8 +313,9 @@ public abstract class DataType {
             super( name, 1, 1, byte.class, Byte.class );
         }
         public void readValues( Buf buf, long offset, int nelPerItem,
-                                Object array, int n ) throws IOException {
-            buf.readDataBytes( offset, n, (byte[]) array );
+                                Object array, int ia, int n )
+                throws IOException {
+            Bufs.readDataBytes( buf, offset, n, (byte[]) array, ia );
         }
         public Object getScalar( Object array, int index ) {
             return Byte.valueOf( ((byte[]) array)[ index ] );
@@ -308,8 +330,9 @@ public abstract class DataType {
             super( name, 2, 1, short.class, Short.class );
         }
         public void readValues( Buf buf, long offset, int nelPerItem,
-                                Object array, int n ) throws IOException {
-            buf.readDataShorts( offset, n, (short[]) array );
+                                Object array, int ia, int n )
+                throws IOException {
+            Bufs.readDataShorts( buf, offset, n, (short[]) array, ia );
         }
         public Object getScalar( Object array, int index ) {
             return Short.valueOf( ((short[]) array)[ index ] );
@@ -324,8 +347,9 @@ public abstract class DataType {
             super( name, 4, 1, int.class, Integer.class );
         }
         public void readValues( Buf buf, long offset, int nelPerItem,
-                                Object array, int n ) throws IOException {
-            buf.readDataInts( offset, n, (int[]) array );
+                                Object array, int ia, int n )
+                throws IOException {
+            Bufs.readDataInts( buf, offset, n, (int[]) array, ia );
         }
         public Object getScalar( Object array, int index ) {
             return Integer.valueOf( ((int[]) array)[ index ] );
@@ -340,8 +364,9 @@ public abstract class DataType {
             super( name, 8, 1, long.class, Long.class );
         }
         public void readValues( Buf buf, long offset, int nelPerItem,
-                                Object array, int n ) throws IOException {
-            buf.readDataLongs( offset, n, (long[]) array );
+                                Object array, int ia, int n )
+                throws IOException {
+            Bufs.readDataLongs( buf, offset, n, (long[]) array, ia );
         }
         public Object getScalar( Object array, int index ) {
             return Long.valueOf( ((long[]) array)[ index ] );
@@ -358,11 +383,12 @@ public abstract class DataType {
             super( name, 1, 1, short.class, Short.class );
         }
         public void readValues( Buf buf, long offset, int nelPerItem,
-                                Object array, int n ) throws IOException {
+                                Object array, int ia, int n )
+                throws IOException {
             Pointer ptr = new Pointer( offset );
             short[] sarray = (short[]) array;
             for ( int i = 0; i < n; i++ ) {
-                sarray[ i ] = (short) buf.readUnsignedByte( ptr );
+                sarray[ ia + i ] = (short) buf.readUnsignedByte( ptr );
             }
         }
         public Object getScalar( Object array, int index ) {
@@ -380,15 +406,16 @@ public abstract class DataType {
             super( name, 2, 1, int.class, Integer.class );
         }
         public void readValues( Buf buf, long offset, int nelPerItem,
-                                Object array, int n ) throws IOException {
+                                Object array, int ia, int n )
+                throws IOException {
             Pointer ptr = new Pointer( offset );
             int[] iarray = (int[]) array;
             boolean bigend = buf.isBigendian();
             for ( int i = 0; i < n; i++ ) {
                 int b0 = buf.readUnsignedByte( ptr );
                 int b1 = buf.readUnsignedByte( ptr );
-                iarray[ i ] = bigend ? b1 | ( b0 << 8 )
-                                     : b0 | ( b1 << 8 );
+                iarray[ ia + i ] = bigend ? b1 | ( b0 << 8 )
+                                          : b0 | ( b1 << 8 );
             }
         }
         public Object getScalar( Object array, int index ) {
@@ -406,7 +433,8 @@ public abstract class DataType {
             super( name, 4, 1, long.class, Long.class );
         }
         public void readValues( Buf buf, long offset, int nelPerItem,
-                                Object array, int n ) throws IOException {
+                                Object array, int ia, int n )
+                throws IOException {
             Pointer ptr = new Pointer( offset );
             long[] larray = (long[]) array;
             boolean bigend = buf.isBigendian();
@@ -415,9 +443,9 @@ public abstract class DataType {
                 long b1 = buf.readUnsignedByte( ptr );
                 long b2 = buf.readUnsignedByte( ptr );
                 long b3 = buf.readUnsignedByte( ptr );
-                larray[ i ] = bigend
-                            ? b3 | ( b2 << 8 ) | ( b1 << 16 ) | ( b0 << 24 )
-                            : b0 | ( b1 << 8 ) | ( b2 << 16 ) | ( b3 << 24 );
+                larray[ ia + i ] =
+                      bigend ? b3 | ( b2 << 8 ) | ( b1 << 16 ) | ( b0 << 24 )
+                             : b0 | ( b1 << 8 ) | ( b2 << 16 ) | ( b3 << 24 );
             }
         }
         public Object getScalar( Object array, int index ) {
@@ -433,8 +461,9 @@ public abstract class DataType {
             super( name, 4, 1, float.class, Float.class );
         }
         public void readValues( Buf buf, long offset, int nelPerItem,
-                                Object array, int n ) throws IOException {
-            buf.readDataFloats( offset, n, (float[]) array );
+                                Object array, int ia, int n )
+                throws IOException {
+            Bufs.readDataFloats( buf, offset, n, (float[]) array, ia );
         }
         public Object getScalar( Object array, int index ) {
             return Float.valueOf( ((float[]) array)[ index ] );
@@ -449,8 +478,9 @@ public abstract class DataType {
             super( name, 8, 1, double.class, Double.class );
         }
         public void readValues( Buf buf, long offset, int nelPerItem,
-                                Object array, int n ) throws IOException {
-            buf.readDataDoubles( offset, n, (double[]) array );
+                                Object array, int ia, int n )
+                throws IOException {
+            Bufs.readDataDoubles( buf, offset, n, (double[]) array, ia );
         }
         public Object getScalar( Object array, int index ) {
             return Double.valueOf( ((double[]) array)[ index ] );
@@ -510,14 +540,15 @@ public abstract class DataType {
                    new String[] { null }, true );
         }
         public void readValues( Buf buf, long offset, int nelPerItem,
-                                Object array, int n ) throws IOException {
+                                Object array, int ia, int n )
+                throws IOException {
             String[] sarray = (String[]) array;
             byte[] cbuf = new byte[ nelPerItem * n ];
             buf.readDataBytes( offset, nelPerItem * n, cbuf );
             for ( int i = 0; i < n; i++ ) {
                 @SuppressWarnings("deprecation")
                 String s = new String( cbuf, i * nelPerItem, nelPerItem );
-                sarray[ i ] = s;
+                sarray[ ia + i ] = s;
             }
         }
         public Object getScalar( Object array, int index ) {
@@ -553,8 +584,9 @@ public abstract class DataType {
             super( name, 16, 2, double.class, double[].class );
         }
         public void readValues( Buf buf, long offset, int nelPerItem,
-                                Object array, int n ) throws IOException {
-            buf.readDataDoubles( offset, n * 2, (double[]) array );
+                                Object array, int ia, int n )
+                throws IOException {
+            Bufs.readDataDoubles( buf, offset, n * 2, (double[]) array, ia );
         }
         public Object getScalar( Object array, int index ) {
             double[] darray = (double[]) array;
@@ -0,0 +1,495 @@
+package uk.ac.bristol.star.cdf.record;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Arrays;
+import uk.ac.bristol.star.cdf.CdfFormatException;
+
+/**
+ * Decoder for raw DEFLATE data (RFC 1951) which works a block at a time.
+ *
+ * <p>Unlike {@link java.util.zip.Inflater}, this can start decoding
+ * at any block boundary in the compressed stream, given the bit offset
+ * of that boundary and the 32kbyte of output preceding it.
+ * That makes it possible to resume decoding from checkpoints
+ * recorded on an earlier pass, which is what
+ * {@link SeekableGzipBuf} does.
+ *
+ * <p>Output is accumulated in an array, which is preceded by
+ * the window supplied at construction time.
+ *
+ * @author   Mark Taylor
+ * @since    17 Oct 2026
+ */
+class DeflateDecoder {
+
+    private final Buf inBuf_;
+    private final long inLeng_;
+    private final byte[] chunk_;
+    private int chunkPos_;
+    private int chunkLeng_;
+    private long readPos_;
+    private int nPad_;
+    private long bitBuf_;
+    private int bitCount_;
+    private final int outStart_;
+    private byte[] out_;
+    private int outPos_;
+
+    /** Maximum distance of a back reference, and hence window size. */
+    public static final int WINDOW_SIZE = 32 * 1024;
+
+    private static final int CHUNK = 16 * 1024;
+    private static final int MAX_BITS = 15;
+    private static final int FAST_BITS = 10;
+
+    private static final int[] LENGTH_BASE = {
+        3, 4, 5, 6, 7, 8, 9, 10, 11, 13, 15, 17, 19, 23, 27, 31,
+        35, 43, 51, 59, 67, 83, 99, 115, 131, 163, 195, 227, 258,
+    };
+    private static final int[] LENGTH_EXTRA = {
+        0, 0, 0, 0, 0, 0, 0, 0, 1, 1, 1, 1, 2, 2, 2, 2,
+        3, 3, 3, 3, 4, 4, 4, 4, 5, 5, 5, 5, 0,
+    };
+    private static final int[] DIST_BASE = {
+        1, 2, 3, 4, 5, 7, 9, 13, 17, 25, 33, 49, 65, 97, 129, 193,
+        257, 385, 513, 769, 1025, 1537, 2049, 3073, 4097, 6145,
+        8193, 12289, 16385, 24577,
+    };
+    private static final int[] DIST_EXTRA = {
+        0, 0, 0, 0, 1, 1, 2, 2, 3, 3, 4, 4, 5, 5, 6, 6,
+        7, 7, 8, 8, 9, 9, 10, 10, 11, 11, 12, 12, 13, 13,
+    };
+    private static final int[] CODE_LENGTH_ORDER = {
+        16, 17, 18, 0, 8, 7, 9, 6, 10, 5, 11, 4, 12, 3, 13, 2, 14, 1, 15,
+    };
+
+    private static final Huffman FIXED_LITERALS;
+    private static final Huffman FIXED_DISTANCES;
+    static {
+        int[] lengths = new int[ 288 ];
+        for ( int i = 0; i < 288; i++ ) {
+            lengths[ i ] = i < 144 ? 8 : i < 256 ? 9 : i < 280 ? 7 : 8;
+        }
+        int[] dlengths = new int[ 30 ];
+        for ( int i = 0; i < 30; i++ ) {
+            dlengths[ i ] = 5;
+        }
+        try {
+            FIXED_LITERALS = new Huffman( lengths, 0, 288 );
+            FIXED_DISTANCES = new Huffman( dlengths, 0, 30 );
+        }
+        catch ( CdfFormatException e ) {
+            throw new AssertionError( e );
+        }
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param  inBuf  buffer containing compressed data
+     * @param  bitOffset  offset in bits into <code>inBuf</code>
+     *                    of the start of a DEFLATE block
+     * @param  window   uncompressed data immediately preceding the
+     *                  block, at most {@link #WINDOW_SIZE} bytes
+     *                  of which will be used
+     */
+    public DeflateDecoder( Buf inBuf, long bitOffset, byte[] window )
+            throws IOException {
+        inBuf_ = inBuf;
+        inLeng_ = inBuf.getLength();
+        chunk_ = new byte[ CHUNK ];
+        readPos_ = bitOffset >> 3;
+        int nw = Math.min( window.length, WINDOW_SIZE );
+        out_ = new byte[ nw + 64 * 1024 ];
+        System.arraycopy( window, window.length - nw, out_, 0, nw );
+        outStart_ = nw;
+        outPos_ = nw;
+        skipBits( (int) ( bitOffset & 7 ) );
+    }
+
+    /**
+     * Returns the current position in the compressed data.
+     * Between calls to {@link #decodeBlock} this is a block boundary.
+     *
+     * @return  offset in bits into the input buffer
+     */
+    public long getBitOffset() {
+        return ( readPos_ - ( chunkLeng_ - chunkPos_ ) ) * 8 - bitCount_;
+    }
+
+    /**
+     * Returns the array into which output is written.
+     * Output starts at index {@link #getOutputStart} and ends
+     * before index {@link #getOutputEnd}; it is preceded by the
+     * supplied window.
+     * The array may be replaced by a larger one as decoding proceeds.
+     *
+     * @return  output array
+     */
+    public byte[] getOutputArray() {
+        return out_;
+    }
+
+    /**
+     * Returns the index in the output array at which output starts.
+     *
+     * @return  output start index
+     */
+    public int getOutputStart() {
+        return outStart_;
+    }
+
+    /**
+     * Returns the index in the output array at which output ends.
+     *
+     * @return  output end index
+     */
+    public int getOutputEnd() {
+        return outPos_;
+    }
+
+    /**
+     * Returns a copy of the uncompressed data immediately preceding
+     * the current position, suitable for resuming decoding from here.
+     *
+     * @return  window array, at most {@link #WINDOW_SIZE} bytes
+     */
+    public byte[] getWindow() {
+        int nw = Math.min( outPos_, WINDOW_SIZE );
+        byte[] window = new byte[ nw ];
+        System.arraycopy( out_, outPos_ - nw, window, 0, nw );
+        return window;
+    }
+
+    /**
+     * Decodes a single DEFLATE block, appending its content to the output.
+     *
+     * @return  true iff the block was marked as the final one
+     */
+    public boolean decodeBlock() throws IOException {
+        boolean isFinal = getBits( 1 ) == 1;
+        int type = getBits( 2 );
+        switch ( type ) {
+            case 0:
+                decodeStored();
+                break;
+            case 1:
+                decodeHuffman( FIXED_LITERALS, FIXED_DISTANCES );
+                break;
+            case 2:
+                decodeDynamic();
+                break;
+            default:
+                throw new CdfFormatException( "Bad DEFLATE block type" );
+        }
+        if ( nPad_ > 0 && getBitOffset() > inLeng_ * 8 ) {
+            throw new EOFException( "GZIP data truncated" );
+        }
+        return isFinal;
+    }
+
+    /**
+     * Decodes the body of an uncompressed block.
+     */
+    private void decodeStored() throws IOException {
+        skipBits( bitCount_ & 7 );
+        int leng = getBits( 16 );
+        int nleng = getBits( 16 );
+        if ( ( leng ^ 0xffff ) != nleng ) {
+            throw new CdfFormatException( "Bad DEFLATE stored block length" );
+        }
+        ensureOutput( leng );
+
+        // Use any whole bytes left in the bit buffer first.
+        while ( leng > 0 && bitCount_ > 0 ) {
+            out_[ outPos_++ ] = (byte) getBits( 8 );
+            leng--;
+        }
+        while ( leng > 0 ) {
+            if ( chunkPos_ == chunkLeng_ ) {
+                fillChunk();
+            }
+            int n = Math.min( leng, chunkLeng_ - chunkPos_ );
+            System.arraycopy( chunk_, chunkPos_, out_, outPos_, n );
+            chunkPos_ += n;
+            outPos_ += n;
+            leng -= n;
+        }
+    }
+
+    /**
+     * Decodes the header and body of a block with dynamic Huffman codes.
+     */
+    private void decodeDynamic() throws IOException {
+        int nlen = getBits( 5 ) + 257;
+        int ndist = getBits( 5 ) + 1;
+        int ncode = getBits( 4 ) + 4;
+        if ( nlen > 286 || ndist > 30 ) {
+            throw new CdfFormatException( "Bad DEFLATE code counts" );
+        }
+        int[] lengths = new int[ 19 ];
+        for ( int i = 0; i < ncode; i++ ) {
+            lengths[ CODE_LENGTH_ORDER[ i ] ] = getBits( 3 );
+        }
+        Huffman lencode = new Huffman( lengths, 0, 19 );
+        lengths = new int[ nlen + ndist ];
+        int i = 0;
+        while ( i < nlen + ndist ) {
+            int sym = decodeSymbol( lencode );
+            if ( sym < 16 ) {
+                lengths[ i++ ] = sym;
+            }
+            else {
+                int len = 0;
+                int rep;
+                if ( sym == 16 ) {
+                    if ( i == 0 ) {
+                        throw new CdfFormatException( "Bad DEFLATE lengths" );
+                    }
+                    len = lengths[ i - 1 ];
+                    rep = 3 + getBits( 2 );
+                }
+                else if ( sym == 17 ) {
+                    rep = 3 + getBits( 3 );
+                }
+                else {
+                    rep = 11 + getBits( 7 );
+                }
+                if ( i + rep > nlen + ndist ) {
+                    throw new CdfFormatException( "Bad DEFLATE lengths" );
+                }
+                while ( rep-- > 0 ) {
+                    lengths[ i++ ] = len;
+                }
+            }
+        }
+        if ( lengths[ 256 ] == 0 ) {
+            throw new CdfFormatException( "No DEFLATE end of block code" );
+        }
+        decodeHuffman( new Huffman( lengths, 0, nlen ),
+                       new Huffman( lengths, nlen, ndist ) );
+    }
+
+    /**
+     * Decodes the body of a Huffman-coded block.
+     *
+     * @param  lencode  literal/length code
+     * @param  distcode  distance code
+     */
+    private void decodeHuffman( Huffman lencode, Huffman distcode )
+            throws IOException {
+        while ( true ) {
+            int sym = decodeSymbol( lencode );
+            if ( sym < 256 ) {
+                if ( outPos_ == out_.length ) {
+                    ensureOutput( 1 );
+                }
+                out_[ outPos_++ ] = (byte) sym;
+            }
+            else if ( sym == 256 ) {
+                return;
+            }
+            else {
+                sym -= 257;
+                if ( sym >= 29 ) {
+                    throw new CdfFormatException( "Bad DEFLATE length code" );
+                }
+                int len = LENGTH_BASE[ sym ] + getBits( LENGTH_EXTRA[ sym ] );
+                int dsym = decodeSymbol( distcode );
+                if ( dsym >= 30 ) {
+                    throw new CdfFormatException( "Bad DEFLATE distance code" );
+                }
+                int dist = DIST_BASE[ dsym ] + getBits( DIST_EXTRA[ dsym ] );
+                if ( dist > outPos_ ) {
+                    throw new CdfFormatException( "DEFLATE distance too far" );
+                }
+                ensureOutput( len );
+                int from = outPos_ - dist;
+                if ( dist >= len ) {
+                    System.arraycopy( out_, from, out_, outPos_, len );
+                    outPos_ += len;
+                }
+                else {
+                    for ( int k = 0; k < len; k++ ) {
+                        out_[ outPos_++ ] = out_[ from++ ];
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads one Huffman-coded symbol.
+     *
+     * @param  h  code
+     * @return  symbol
+     */
+    private int decodeSymbol( Huffman h ) throws IOException {
+        needBits( MAX_BITS );
+        int entry = h.fast_[ (int) bitBuf_ & ( ( 1 << FAST_BITS ) - 1 ) ];
+        if ( entry != 0 ) {
+            skipBits( entry >>> 16 );
+            return entry & 0xffff;
+        }
+
+        // Long code: walk the canonical code one bit at a time.
+        int code = 0;
+        int first = 0;
+        int index = 0;
+        for ( int len = 1; len <= MAX_BITS; len++ ) {
+            code |= (int) ( bitBuf_ >>> ( len - 1 ) ) & 1;
+            int count = h.count_[ len ];
+            if ( code - first < count ) {
+                skipBits( len );
+                return h.symbol_[ index + code - first ];
+            }
+            index += count;
+            first += count;
+            first <<= 1;
+            code <<= 1;
+        }
+        throw new CdfFormatException( "Bad DEFLATE Huffman code" );
+    }
+
+    /**
+     * Reads a number of bits from the input, least significant first.
+     *
+     * @param  nbit  bit count, in the range 0..16
+     * @return  value
+     */
+    private int getBits( int nbit ) throws IOException {
+        needBits( nbit );
+        int value = (int) bitBuf_ & ( ( 1 << nbit ) - 1 );
+        bitBuf_ >>>= nbit;
+        bitCount_ -= nbit;
+        return value;
+    }
+
+    /**
+     * Discards a number of bits from the input.
+     *
+     * @param  nbit  bit count, no more than 32
+     */
+    private void skipBits( int nbit ) throws IOException {
+        needBits( nbit );
+        bitBuf_ >>>= nbit;
+        bitCount_ -= nbit;
+    }
+
+    /**
+     * Ensures that the bit buffer holds at least a given number of bits.
+     * Beyond the end of the input, zero bits are supplied;
+     * {@link #decodeBlock} checks that they are not actually used.
+     *
+     * @param  nbit  bit count, no more than 56
+     */
+    private void needBits( int nbit ) throws IOException {
+        while ( bitCount_ < nbit ) {
+            if ( chunkPos_ == chunkLeng_ ) {
+                fillChunk();
+            }
+            bitBuf_ |= ( chunk_[ chunkPos_++ ] & 0xffL ) << bitCount_;
+            bitCount_ += 8;
+        }
+    }
+
+    /**
+     * Refills the input chunk from the input buffer.
+     * At the end of the input, a few bytes of padding are supplied.
+     */
+    private void fillChunk() throws IOException {
+        int n = (int) Math.min( CHUNK, inLeng_ - readPos_ );
+        if ( n > 0 ) {
+            inBuf_.readDataBytes( readPos_, n, chunk_ );
+            readPos_ += n;
+        }
+        else if ( nPad_ < 8 ) {
+            n = 8 - nPad_;
+            Arrays.fill( chunk_, 0, n, (byte) 0 );
+            nPad_ += n;
+            readPos_ += n;
+        }
+        else {
+            throw new EOFException( "GZIP data truncated" );
+        }
+        chunkPos_ = 0;
+        chunkLeng_ = n;
+    }
+
+    /**
+     * Ensures there is room in the output array for a given number
+     * of additional bytes.
+     *
+     * @param  n  byte count
+     */
+    private void ensureOutput( int n ) {
+        if ( outPos_ + n > out_.length ) {
+            int size = Math.max( out_.length * 2, outPos_ + n );
+            byte[] out = new byte[ size ];
+            System.arraycopy( out_, 0, out, 0, outPos_ );
+            out_ = out;
+        }
+    }
+
+    /**
+     * Canonical Huffman code, with a lookup table for short codes.
+     */
+    private static class Huffman {
+        final int[] count_;
+        final int[] symbol_;
+        final int[] fast_;
+
+        /**
+         * Constructor.
+         *
+         * @param  lengths  array of code lengths, 0 for unused symbols
+         * @param  off   index into <code>lengths</code> of symbol 0
+         * @param  n    number of symbols
+         */
+        Huffman( int[] lengths, int off, int n ) throws CdfFormatException {
+            count_ = new int[ MAX_BITS + 1 ];
+            symbol_ = new int[ n ];
+            fast_ = new int[ 1 << FAST_BITS ];
+            for ( int i = 0; i < n; i++ ) {
+                count_[ lengths[ off + i ] ]++;
+            }
+            count_[ 0 ] = 0;
+            int left = 1;
+            for ( int len = 1; len <= MAX_BITS; len++ ) {
+                left <<= 1;
+                left -= count_[ len ];
+                if ( left < 0 ) {
+                    throw new CdfFormatException( "Bad DEFLATE code lengths" );
+                }
+            }
+
+            // Symbols sorted by code length, then by value.
+            int[] offs = new int[ MAX_BITS + 2 ];
+            for ( int len = 1; len <= MAX_BITS; len++ ) {
+                offs[ len + 1 ] = offs[ len ] + count_[ len ];
+            }
+            for ( int i = 0; i < n; i++ ) {
+                int len = lengths[ off + i ];
+                if ( len != 0 ) {
+                    symbol_[ offs[ len ]++ ] = i;
+                }
+            }
+
+            // Lookup table indexed by the next FAST_BITS input bits,
+            // which hold short codes in bit-reversed order.
+            int code = 0;
+            int k = 0;
+            for ( int len = 1; len <= FAST_BITS; len++ ) {
+                for ( int j = 0; j < count_[ len ]; j++ ) {
+                    int rev = Integer.reverse( code++ ) >>> ( 32 - len );
+                    int entry = ( len << 16 ) | symbol_[ k++ ];
+                    for ( int i = rev; i < 1 << FAST_BITS; i += 1 << len ) {
+                        fast_[ i ] = entry;
+                    }
+                }
+                code <<= 1;
+            }
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package uk.ac.bristol.star.cdf;
 
+import java.nio.ByteBuffer;
 import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
@@ -44,6 +45,25 @@ public class EpochFormatter {
     /** 0 A.D. in Unix milliseconds as used by EPOCH/EPOCH16 data types. */
     public static final long AD0_UNIX_MILLIS = getAd0UnixMillis();
 
+    /**
+     * Number of characters in a formatted TIME_TT2000 value ({@value}).
+     * This is the number written by the
+     * {@link #formatTimeTt2000(long,char[],int)} methods.
+     */
+    public static final int TT2000_LENG = 29;
+
+    private static final String TT2000_PAD_TXT =
+        "9999-12-31T23:59:59.999999999";
+    private static final String TT2000_MIN_TXT =
+        "0000-01-01T00:00:00.000000000";
+    private static final ThreadLocal<char[]> TT2000_SCRATCH =
+            new ThreadLocal<char[]>() {
+        @Override
+        protected char[] initialValue() {
+            return new char[ TT2000_LENG ];
+        }
+    };
+
     /**
      * Constructs a formatter without leap second awareness.
      */
@@ -149,13 +169,13 @@ public class EpochFormatter {
         // Special case - see "Variable Pad Values" section
         // (sec 2.3.20 at v3.4, and footnote) of CDF Users Guide.
         if ( timeTt2k == Long.MIN_VALUE ) {
-            return "9999-12-31T23:59:59.999999999";
+            return TT2000_PAD_TXT;
         }
 
         // Second special case - not sure if this is documented, but
         // advised by Michael Liu in email to MBT 12 Aug 2013.
         else if ( timeTt2k == Long.MIN_VALUE + 1 ) {
-            return "0000-01-01T00:00:00.000000000";
+            return TT2000_MIN_TXT;
         }
 
         // Split the raw long value into a millisecond base and
@@ -168,25 +188,7 @@ public class EpochFormatter {
         }
 
         // Get the appropriate TT scaler object for this epoch.
-        int scalerIndex = getScalerIndex( tt2kMillis );
-        if ( scalerIndex > iMaxValidTtScaler_ ) {
-            String msg = new StringBuffer()
-               .append( "CDF TIME_TT2000 date formatting failed" )
-               .append( " - library leap second table known to be out of date" )
-               .append( " with respect to data." )
-               .append( " Update " )
-               .append( TtScaler.LEAP_FILE_ENV )
-               .append( " environment variable to point at file" )
-               .append( " http://cdf.gsfc.nasa.gov/html/CDFLeapSeconds.txt" )
-               .toString();
-            if ( FAIL_ON_LEAP_ERROR ) {
-                throw new RuntimeException( msg );
-            }
-            else {
-                logger_.log( Level.SEVERE, msg );
-            }
-        }
-        TtScaler scaler = TT_SCALERS[ scalerIndex ];
+        TtScaler scaler = getValidScaler( tt2kMillis );
 
         // Use it to convert to Unix time, which is UTC.
         long unixMillis = (long) scaler.tt2kToUnixMillis( tt2kMillis );
@@ -215,6 +217,156 @@ public class EpochFormatter {
         return txt + prePadWithZeros( plusNanos, 6 );
     }
 
+    /**
+     * Formats a CDF TIME_TT2000 value as an ISO-8601 date into a
+     * supplied character array.
+     * The output is the same as that of {@link #formatTimeTt2000(long)},
+     * but the date is calculated and written directly without using
+     * a DateFormat, so that no objects are created.
+     * This is suitable for formatting large numbers of values.
+     *
+     * @param  timeTt2k  TIME_TT2000 value
+     * @param  buf   destination array, with at least
+     *               {@link #TT2000_LENG} elements from <code>off</code>
+     * @param  off   index into <code>buf</code> of first character to write
+     * @return  number of characters written, always {@link #TT2000_LENG}
+     */
+    public int formatTimeTt2000( long timeTt2k, char[] buf, int off ) {
+
+        // Special cases as for the String-returning method.
+        if ( timeTt2k == Long.MIN_VALUE ) {
+            TT2000_PAD_TXT.getChars( 0, TT2000_LENG, buf, off );
+            return TT2000_LENG;
+        }
+        else if ( timeTt2k == Long.MIN_VALUE + 1 ) {
+            TT2000_MIN_TXT.getChars( 0, TT2000_LENG, buf, off );
+            return TT2000_LENG;
+        }
+
+        // Convert to Unix milliseconds just as for the String-returning
+        // method, including the step back by a second during
+        // a leap second.
+        long tt2kMillis = TtScaler.floorDiv( timeTt2k, 1000000 );
+        int plusNanos = (int) ( timeTt2k - tt2kMillis * 1000000 );
+        TtScaler scaler = getValidScaler( tt2kMillis );
+        long unixMillis = (long) scaler.tt2kToUnixMillis( tt2kMillis );
+        boolean isLeap = scaler.millisIntoLeapSecond( tt2kMillis ) >= 0;
+        if ( isLeap ) {
+            unixMillis -= 1000;
+        }
+
+        // Split into day number and time of day.
+        long unixSec = TtScaler.floorDiv( unixMillis, 1000 );
+        int millis = (int) ( unixMillis - unixSec * 1000 );
+        long unixDay = TtScaler.floorDiv( unixSec, 86400 );
+        int secOfDay = (int) ( unixSec - unixDay * 86400 );
+        int hour = secOfDay / 3600;
+        int min = secOfDay / 60 % 60;
+        int sec = secOfDay % 60;
+        if ( isLeap && sec == 59 ) {
+            sec = 60;
+        }
+
+        // Convert day number to proleptic Gregorian calendar date.
+        // This follows the days-to-civil algorithm of H. Hinnant,
+        // working in 400-year eras starting at 0000-03-01.
+        // TIME_TT2000 covers only dates well after the Gregorian reform,
+        // so this gives the same results as java.util.GregorianCalendar.
+        long z = unixDay + 719468;
+        long era = ( z >= 0 ? z : z - 146096 ) / 146097;
+        int doe = (int) ( z - era * 146097 );
+        int yoe = ( doe - doe / 1460 + doe / 36524 - doe / 146096 ) / 365;
+        int doy = doe - ( 365 * yoe + yoe / 4 - yoe / 100 );
+        int mp = ( 5 * doy + 2 ) / 153;
+        int day = doy - ( 153 * mp + 2 ) / 5 + 1;
+        int month = mp < 10 ? mp + 3 : mp - 9;
+        int year = (int) ( era * 400 + yoe ) + ( month <= 2 ? 1 : 0 );
+
+        // Write yyyy-MM-ddTHH:mm:ss.SSSnnnnnn.
+        int i = off;
+        i = writeDigits( year, 4, buf, i );
+        buf[ i++ ] = '-';
+        i = writeDigits( month, 2, buf, i );
+        buf[ i++ ] = '-';
+        i = writeDigits( day, 2, buf, i );
+        buf[ i++ ] = 'T';
+        i = writeDigits( hour, 2, buf, i );
+        buf[ i++ ] = ':';
+        i = writeDigits( min, 2, buf, i );
+        buf[ i++ ] = ':';
+        i = writeDigits( sec, 2, buf, i );
+        buf[ i++ ] = '.';
+        i = writeDigits( millis, 3, buf, i );
+        i = writeDigits( plusNanos, 6, buf, i );
+        assert i - off == TT2000_LENG;
+        return TT2000_LENG;
+    }
+
+    /**
+     * Formats a CDF TIME_TT2000 value as an ISO-8601 date,
+     * appending it to a supplied StringBuilder.
+     * No objects are created, unless the builder needs to grow.
+     *
+     * @param  timeTt2k  TIME_TT2000 value
+     * @param  sbuf   destination buffer
+     * @see   #formatTimeTt2000(long,char[],int)
+     */
+    public void formatTimeTt2000( long timeTt2k, StringBuilder sbuf ) {
+        char[] buf = TT2000_SCRATCH.get();
+        sbuf.append( buf, 0, formatTimeTt2000( timeTt2k, buf, 0 ) );
+    }
+
+    /**
+     * Formats a CDF TIME_TT2000 value as an ISO-8601 date,
+     * writing it as ASCII bytes to a supplied buffer
+     * at its current position.
+     * No objects are created.
+     *
+     * @param  timeTt2k  TIME_TT2000 value
+     * @param  bbuf   destination buffer, with at least
+     *                {@link #TT2000_LENG} bytes remaining
+     * @see   #formatTimeTt2000(long,char[],int)
+     */
+    public void formatTimeTt2000( long timeTt2k, ByteBuffer bbuf ) {
+        char[] buf = TT2000_SCRATCH.get();
+        int n = formatTimeTt2000( timeTt2k, buf, 0 );
+        for ( int i = 0; i < n; i++ ) {
+            bbuf.put( (byte) buf[ i ] );
+        }
+    }
+
+    /**
+     * Returns the TtScaler instance that is valid for a given time,
+     * checking that it is not beyond the range known to be valid
+     * for the data.
+     * If it is, depending on the value of {@link #FAIL_ON_LEAP_ERROR},
+     * a RuntimeException is thrown or a message is logged.
+     *
+     * @param  tt2kMillis  TT time since J2000 in milliseconds
+     * @return  scaler
+     */
+    private TtScaler getValidScaler( long tt2kMillis ) {
+        int scalerIndex = getScalerIndex( tt2kMillis );
+        if ( scalerIndex > iMaxValidTtScaler_ ) {
+            String msg = new StringBuffer()
+               .append( "CDF TIME_TT2000 date formatting failed" )
+               .append( " - library leap second table known to be out of date" )
+               .append( " with respect to data." )
+               .append( " Update " )
+               .append( TtScaler.LEAP_FILE_ENV )
+               .append( " environment variable to point at file" )
+               .append( " http://cdf.gsfc.nasa.gov/html/CDFLeapSeconds.txt" )
+               .toString();
+            if ( FAIL_ON_LEAP_ERROR ) {
+                throw new RuntimeException( msg );
+            }
+            else {
+                logger_.log( Level.SEVERE, msg );
+            }
+        }
+        return TT_SCALERS[ scalerIndex ];
+    }
+
     /**
      * Returns the index into the TT_SCALERS array of the TtScaler
      * instance that is valid for a given time.
@@ -280,6 +432,25 @@ public class EpochFormatter {
         return ad0 + fudge;
     }
 
+    /**
+     * Writes a non-negative integer as a fixed number of decimal digits,
+     * padded with leading zeros, into a character array.
+     *
+     * @param  value  value, less than 10^ndigit
+     * @param  ndigit  number of digits to write
+     * @param  buf   destination array
+     * @param  off   index into <code>buf</code> of first digit
+     * @return   index into <code>buf</code> following last digit
+     */
+    private static int writeDigits( int value, int ndigit, char[] buf,
+                                    int off ) {
+        for ( int i = off + ndigit - 1; i >= off; i-- ) {
+            buf[ i ] = (char) ( '0' + value % 10 );
+            value /= 10;
+        }
+        return off + ndigit;
+    }
+
     /**
      * Pads a numeric value with zeros to return a fixed length string
      * representing a given numeric value.
@@ -1,17 +1,52 @@
 package uk.ac.bristol.star.cdf.test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
 import uk.ac.bristol.star.cdf.AttributeEntry;
+import uk.ac.bristol.star.cdf.BlockStats;
+import uk.ac.bristol.star.cdf.ByteVariableReader;
 import uk.ac.bristol.star.cdf.CdfContent;
+import uk.ac.bristol.star.cdf.CdfIndex;
 import uk.ac.bristol.star.cdf.CdfReader;
+import uk.ac.bristol.star.cdf.DoubleVariableReader;
+import uk.ac.bristol.star.cdf.FloatVariableReader;
 import uk.ac.bristol.star.cdf.GlobalAttribute;
+import uk.ac.bristol.star.cdf.IntVariableReader;
+import uk.ac.bristol.star.cdf.LazyCdfContent;
+import uk.ac.bristol.star.cdf.LongVariableReader;
+import uk.ac.bristol.star.cdf.PrimitiveVariableReader;
+import uk.ac.bristol.star.cdf.RecordView;
+import uk.ac.bristol.star.cdf.ShortVariableReader;
 import uk.ac.bristol.star.cdf.Variable;
 import uk.ac.bristol.star.cdf.VariableAttribute;
 import uk.ac.bristol.star.cdf.EpochFormatter;
+import uk.ac.bristol.star.cdf.record.BlockCache;
+import uk.ac.bristol.star.cdf.record.Bufs;
+import uk.ac.bristol.star.cdf.record.CompressedBlockBuf;
+import uk.ac.bristol.star.cdf.record.Record;
+import uk.ac.bristol.star.cdf.record.RecordMap;
 
 /**
  * Tests the contents of three of the example files
@@ -75,6 +110,60 @@ public class ExampleTest {
         assert sideways[ 2 ] == 40;
         assert sideways[ 10 ] == 1;
         assert sideways[ 199 ] == 199;
+
+        Variable imageFork = vars[ 2 ].fork();
+        assert imageFork != vars[ 2 ];
+        assert imageFork.getName().equals( vars[ 2 ].getName() );
+        for ( int irec = 0; irec < 4; irec++ ) {
+            assert Arrays.equals( (int[]) readShapedRecord( imageFork, irec,
+                                                            false ),
+                                  (int[]) readShapedRecord( vars[ 2 ], irec,
+                                                            false ) );
+        }
+        assert readShapedRecord( vars[ 0 ].fork(), 1, true )
+              .equals( new Integer( 24 ) );
+
+        int[] images = new int[ 3 * 200 ];
+        vars[ 2 ].readRawRecords( 0, 3, images );
+        assert Arrays.equals( images, intSequence( 0, 1, 600 ) );
+        for ( int iv = 0; iv < vars.length; iv++ ) {
+            checkRawRecords( vars[ iv ], 0, 4 );
+            checkRawRecords( vars[ iv ], 1, 2 );
+        }
+
+        int[] slab = (int[]) vars[ 2 ].readHyperSlab( 1, 2, 1,
+                                                      new int[] { 2, 3 },
+                                                      new int[] { 1, 2 },
+                                                      new int[] { 1, 5 },
+                                                      true );
+        assert Arrays.equals( slab, new int[] { 243, 248, 443, 448 } );
+        checkHyperSlab( vars[ 1 ], 0, 1, 1, new int[] { 10 },
+                        new int[] { 20 }, new int[] { 7 } );
+        checkHyperSlab( vars[ 2 ], 0, 4, 2, new int[] { 1, 0 },
+                        new int[] { 3, 20 }, new int[] { 3, 1 } );
+        checkHyperSlab( vars[ 2 ], 1, 3, 1, new int[] { 0, 2 },
+                        new int[] { 10, 4 }, new int[] { 1, 4 } );
+
+        // Selections whose record indices or output size overflow an int
+        // are rejected.
+        int[] dimSizes = vars[ 2 ].getShaper().getDimSizes();
+        int[] zeros = new int[ dimSizes.length ];
+        int[] ones = new int[ dimSizes.length ];
+        Arrays.fill( ones, 1 );
+        try {
+            vars[ 2 ].readHyperSlab( 1, 2, Integer.MAX_VALUE,
+                                     zeros, ones, ones, true );
+            assert false;
+        }
+        catch ( IllegalArgumentException e ) {
+        }
+        try {
+            vars[ 2 ].readHyperSlab( 0, Integer.MAX_VALUE / 10, 1,
+                                     zeros, dimSizes, ones, true );
+            assert false;
+        }
+        catch ( IllegalArgumentException e ) {
+        }
     }
 
     public void testExample2( File ex2file ) throws IOException {
@@ -153,7 +242,1026 @@ public class ExampleTest {
     }
 
     public void testTest( File testFile ) throws IOException {
-        CdfContent content = new CdfContent( new CdfReader( testFile ) );
+        testTestContent( new CdfContent( new CdfReader( testFile ) ) );
+    }
+
+    /**
+     * Writes a whole-file GZIP-compressed copy of test.cdf and checks
+     * it reads the same, with and without an uncompressed data cache.
+     */
+    public void testFileCompressed( File testFile ) throws IOException {
+        File dir = File.createTempFile( "jcdftest", "" );
+        dir.delete();
+        dir.mkdir();
+        File zFile = new File( dir, "testz.cdf" );
+        File cacheDir = new File( dir, "cache" );
+        cacheDir.mkdir();
+        try {
+            writeFileCompressed( testFile, zFile );
+            testTestContent( new CdfContent( new CdfReader( zFile ) ) );
+            assert cacheDir.listFiles().length == 0;
+            testTestContent( new CdfContent( new CdfReader( zFile,
+                                                            cacheDir ) ) );
+            File[] cacheFiles = cacheDir.listFiles();
+            assert cacheFiles.length == 1;
+            assert cacheFiles[ 0 ].length() == testFile.length();
+            long mtime = cacheFiles[ 0 ].lastModified();
+            testTestContent( new CdfContent( new CdfReader( zFile,
+                                                            cacheDir ) ) );
+            assert cacheDir.listFiles().length == 1;
+            assert cacheFiles[ 0 ].lastModified() == mtime;
+        }
+        finally {
+            File[] cacheFiles = cacheDir.listFiles();
+            for ( int i = 0; cacheFiles != null && i < cacheFiles.length;
+                  i++ ) {
+                cacheFiles[ i ].delete();
+            }
+            cacheDir.delete();
+            zFile.delete();
+            dir.delete();
+        }
+    }
+
+    /**
+     * Grafts a large randomly structured VXR tree, with sparse gaps,
+     * nested VXRs and VXR chains, onto a variable in test.cdf,
+     * and checks that the lazily built record map gives the right
+     * answers for it.
+     */
+    public void testLazyRecordMap( File testFile ) throws IOException {
+        checkLazyRecordMap( testFile, false );
+        checkLazyRecordMap( testFile, true );
+    }
+
+    /**
+     * Does the work for testLazyRecordMap.
+     * If interleave is true, the VXRs in a chain index interleaved
+     * sets of entries, which defeats the lazy reading.
+     */
+    private void checkLazyRecordMap( File testFile, boolean interleave )
+            throws IOException {
+        Graft graft = readGraft( testFile );
+        long vxrHeadPos = graft.vdrOffset_ + 16;
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream( bout );
+        out.write( graft.bytes_ );
+
+        // Write VVRs with random lengths and gaps between them.
+        Random rnd = new Random( 23L );
+        int recSize = 3;
+        List<long[]> leaves = new ArrayList<long[]>();
+        int irec = rnd.nextInt( 4 );
+        while ( leaves.size() < 2000 ) {
+            int nrec = 1 + rnd.nextInt( 6 );
+            leaves.add( new long[] { irec, irec + nrec - 1,
+                                     out.size() } );
+            out.writeLong( 12 + nrec * recSize );
+            out.writeInt( 7 );  // VVR
+            out.write( new byte[ nrec * recSize ] );
+            irec += nrec + ( rnd.nextInt( 4 ) == 0 ? rnd.nextInt( 5 ) : 0 );
+        }
+
+        // Build levels of VXRs over them, in shuffled order.
+        List<long[]> items = leaves;
+        while ( items.size() > 10 ) {
+            List<long[]> parents = new ArrayList<long[]>();
+            for ( int i = 0; i < items.size(); ) {
+                int n = Math.min( items.size() - i, 1 + rnd.nextInt( 15 ) );
+                List<long[]> group = items.subList( i, i + n );
+                parents.add( new long[] { group.get( 0 )[ 0 ],
+                                          group.get( n - 1 )[ 1 ],
+                                          writeVxrChain( out, group, rnd,
+                                                         interleave ) } );
+                i += n;
+            }
+            items = parents;
+        }
+        long head = writeVxrChain( out, items, rnd, interleave );
+        out.close();
+        byte[] bytes = bout.toByteArray();
+        ByteBuffer.wrap( bytes ).putLong( (int) vxrHeadPos, head );
+
+        CdfReader rdr =
+            new CdfReader( Bufs.createBuf( ByteBuffer.wrap( bytes ),
+                                           true, true ) );
+        Variable var = new CdfContent( rdr ).getVariables()[ 0 ];
+        RecordMap map =
+            RecordMap.createRecordMap( var.getDescriptor(),
+                                       rdr.getRecordFactory(), recSize );
+        assert interleave || map.getKnownEntryCount() == 0;
+        int nrec = irec + 10;
+        for ( int i = 0; i < 20; i++ ) {
+            checkRecordMap( map, leaves, rnd.nextInt( nrec ), recSize );
+        }
+        assert map.getKnownEntryCount() > 0;
+        assert interleave || map.getKnownEntryCount() < leaves.size() / 2;
+        RecordMap view = map.createView();
+        for ( int ir = 0; ir < nrec; ir++ ) {
+            checkRecordMap( view, leaves, ir, recSize );
+        }
+        assert map.getKnownEntryCount() == leaves.size();
+
+        // The index-based methods read the whole tree,
+        // and number the entries in record order.
+        RecordMap map2 =
+            RecordMap.createRecordMap( var.getDescriptor(),
+                                       rdr.getRecordFactory(), recSize );
+        assert map2.getEntryCount() == leaves.size();
+        assert map2.getKnownEntryCount() == leaves.size();
+        for ( int ir = 0; ir < nrec; ir++ ) {
+            checkIndexedRecordMap( map2, leaves, ir, recSize );
+        }
+
+        // Check that a map recreated from its serialized entries
+        // gives the same answers.
+        ByteArrayOutputStream mout = new ByteArrayOutputStream();
+        DataOutputStream dout = new DataOutputStream( mout );
+        map.writeEntries( dout );
+        dout.close();
+        RecordMap map3 =
+            RecordMap.readRecordMap(
+                new DataInputStream(
+                    new ByteArrayInputStream( mout.toByteArray() ) ),
+                var.getDescriptor(), rdr.getRecordFactory(), recSize );
+        assert map3.getEntryCount() == leaves.size();
+        for ( int ir = 0; ir < nrec; ir++ ) {
+            checkRecordMap( map3, leaves, ir, recSize );
+            checkIndexedRecordMap( map3, leaves, ir, recSize );
+        }
+    }
+
+    /**
+     * Grafts a GZIP-compressed variable whose blocks are indexed by
+     * two chained VXRs onto a variable in test.cdf, and checks that
+     * reading the last block of the first VXR reads ahead into the
+     * first block of the second.
+     */
+    public void testCompressedReadAhead( File testFile ) throws IOException {
+        Graft graft = readGraft( testFile );
+        long vdrPos = graft.vdrOffset_;
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream( bout );
+        out.write( graft.bytes_ );
+
+        // CPR.
+        long cprPos = out.size();
+        out.writeLong( 8 + 4 + 4 + 4 + 4 + 4 );
+        out.writeInt( 11 );  // CPR
+        out.writeInt( 5 );   // GZIP
+        out.writeInt( 0 );
+        out.writeInt( 1 );
+        out.writeInt( 6 );
+
+        // CVVRs, each holding 4 records.
+        int recSize = 8;
+        int nrecBlock = 4;
+        int nblock = 6;
+        long[] cvvrPos = new long[ nblock ];
+        for ( int ib = 0; ib < nblock; ib++ ) {
+            ByteArrayOutputStream zbuf = new ByteArrayOutputStream();
+            OutputStream zout = new GZIPOutputStream( zbuf );
+            zout.write( new byte[ nrecBlock * recSize ] );
+            zout.close();
+            byte[] zBytes = zbuf.toByteArray();
+            cvvrPos[ ib ] = out.size();
+            out.writeLong( 8 + 4 + 4 + 8 + zBytes.length );
+            out.writeInt( 13 );  // CVVR
+            out.writeInt( 0 );
+            out.writeLong( zBytes.length );
+            out.write( zBytes );
+        }
+
+        // Two chained VXRs, each indexing half the blocks.
+        int nhalf = nblock / 2;
+        long next = 0;
+        for ( int iv = 1; iv >= 0; iv-- ) {
+            long pos = out.size();
+            out.writeLong( 12 + 8 + 4 + 4 + nhalf * 16 );
+            out.writeInt( 6 );  // VXR
+            out.writeLong( next );
+            out.writeInt( nhalf );
+            out.writeInt( nhalf );
+            for ( int ie = 0; ie < nhalf; ie++ ) {
+                out.writeInt( ( iv * nhalf + ie ) * nrecBlock );
+            }
+            for ( int ie = 0; ie < nhalf; ie++ ) {
+                out.writeInt( ( iv * nhalf + ie + 1 ) * nrecBlock - 1 );
+            }
+            for ( int ie = 0; ie < nhalf; ie++ ) {
+                out.writeLong( cvvrPos[ iv * nhalf + ie ] );
+            }
+            next = pos;
+        }
+        out.close();
+        byte[] bytes = bout.toByteArray();
+        ByteBuffer bbuf = ByteBuffer.wrap( bytes );
+        bbuf.putLong( (int) vdrPos + 16, next );
+        int flagsPos = (int) vdrPos + 32;
+        bbuf.putInt( flagsPos, bbuf.getInt( flagsPos ) | 4 );
+        bbuf.putLong( (int) vdrPos + 60, cprPos );
+
+        CdfReader rdr =
+            new CdfReader( Bufs.createBuf( ByteBuffer.wrap( bytes ),
+                                           true, true ) );
+        Variable var = new CdfContent( rdr ).getVariables()[ 0 ];
+        RecordMap map =
+            RecordMap.createRecordMap( var.getDescriptor(),
+                                       rdr.getRecordFactory(), recSize );
+        BlockCache cache = BlockCache.getDefaultCache();
+        ExecutorService executor = Executors.newFixedThreadPool( 2 );
+        int prefetchCount = cache.getPrefetchCount();
+        cache.setExecutor( executor );
+        cache.setPrefetchCount( 1 );
+        try {
+            int lastRec = nhalf * nrecBlock - 1;
+            RecordMap.Entry entry0 = map.findEntry( lastRec );
+            entry0.getBuf()
+                  .readDataBytes( entry0.getOffset( lastRec ), recSize,
+                                  new byte[ recSize ] );
+        }
+        finally {
+            cache.setExecutor( null );
+            cache.setPrefetchCount( prefetchCount );
+            executor.shutdown();
+        }
+        try {
+            executor.awaitTermination( 10, TimeUnit.SECONDS );
+        }
+        catch ( InterruptedException e ) {
+            throw new RuntimeException( e );
+        }
+        RecordMap.Entry entry1 = map.findEntry( nhalf * nrecBlock );
+        assert ((CompressedBlockBuf) entry1.getBuf()).isLoaded();
+        RecordMap.Entry entry2 = map.findEntry( ( nhalf + 1 ) * nrecBlock );
+        assert ! ((CompressedBlockBuf) entry2.getBuf()).isLoaded();
+    }
+
+    /**
+     * Writes a sidecar index for a copy of test.cdf, and checks that
+     * it is used when valid and ignored when not.
+     */
+    public void testIndex( File testFile ) throws IOException {
+        File dir = File.createTempFile( "jcdftest", "" );
+        dir.delete();
+        dir.mkdir();
+        File cdfFile = new File( dir, "test.cdf" );
+        File indexFile = CdfIndex.getSidecarFile( cdfFile );
+        try {
+            byte[] cdfBytes = readBytes( testFile );
+            OutputStream out = new FileOutputStream( cdfFile );
+            out.write( cdfBytes );
+            out.close();
+            assert CdfIndex.readIndex( indexFile, cdfFile ) == null;
+            CdfContent content = new CdfContent( new CdfReader( cdfFile ) );
+            CdfIndex.createIndex( content, true )
+                    .writeIndex( indexFile, cdfFile );
+            CdfIndex index = CdfIndex.readIndex( indexFile, cdfFile );
+            assert index != null;
+            CdfContent icontent =
+                new CdfContent( new CdfReader( cdfFile ), index );
+            testTestContent( icontent );
+            Variable[] vars = content.getVariables();
+            Variable[] ivars = icontent.getVariables();
+            assert ivars.length == vars.length;
+            for ( int iv = 0; iv < vars.length; iv++ ) {
+                assert ivars[ iv ].getName().equals( vars[ iv ].getName() );
+                BlockStats stats = index.getBlockStats( vars[ iv ] );
+                assert ( stats != null )
+                    == BlockStats.isSupported( vars[ iv ] );
+                if ( stats != null ) {
+                    checkBlockStats( vars[ iv ], stats );
+                }
+                for ( int ir = 0; ir < vars[ iv ].getRecordCount(); ir++ ) {
+                    assert Arrays.deepEquals(
+                               new Object[] {
+                                   readShapedRecord( vars[ iv ], ir ) },
+                               new Object[] {
+                                   readShapedRecord( ivars[ iv ], ir ) } );
+                }
+            }
+
+            // A damaged index is ignored.
+            byte[] indexBytes = readBytes( indexFile );
+            indexBytes[ indexBytes.length / 2 ] ^= 0x01;
+            out = new FileOutputStream( indexFile );
+            out.write( indexBytes );
+            out.close();
+            Logger.getLogger( "uk.ac.bristol.star.cdf" )
+                  .setLevel( Level.SEVERE );
+            try {
+                assert CdfIndex.readIndex( indexFile, cdfFile ) == null;
+            }
+            finally {
+                Logger.getLogger( "uk.ac.bristol.star.cdf" ).setLevel( null );
+            }
+
+            // So is one for a modified file.
+            CdfIndex.createIndex( content ).writeIndex( indexFile, cdfFile );
+            assert CdfIndex.readIndex( indexFile, cdfFile ) != null;
+            cdfFile.setLastModified( cdfFile.lastModified() - 10000 );
+            assert CdfIndex.readIndex( indexFile, cdfFile ) == null;
+        }
+        finally {
+            indexFile.delete();
+            cdfFile.delete();
+            dir.delete();
+        }
+    }
+
+    /**
+     * Checks that a LazyCdfContent gives the same answers as a CdfContent.
+     */
+    public void testLazyContent( File file ) throws IOException {
+        CdfContent content = new CdfContent( new CdfReader( file ) );
+        LazyCdfContent lazy = new LazyCdfContent( new CdfReader( file ) );
+        assert lazy.getVariable( "no such variable" ) == null;
+        assert lazy.getGlobalAttribute( "no such attribute" ) == null;
+        assert lazy.getVariableEntry( "no such attribute", "no such variable" )
+            == null;
+
+        Variable[] vars = content.getVariables();
+        VariableAttribute[] vatts = content.getVariableAttributes();
+        String[] varNames = lazy.getVariableNames();
+        String[] vattNames = lazy.getVariableAttributeNames();
+        assert varNames.length == vars.length;
+        assert vattNames.length == vatts.length;
+        for ( int iv = 0; iv < vars.length; iv++ ) {
+            Variable var = vars[ iv ];
+            assert varNames[ iv ].equals( var.getName() );
+            Variable lvar = lazy.getVariable( var.getName() );
+            assert lvar == lazy.getVariable( var.getName() );
+            assert lvar.getSummary().equals( var.getSummary() );
+            for ( int ir = 0; ir < var.getRecordCount(); ir++ ) {
+                assert Arrays.deepEquals(
+                           new Object[] { readShapedRecord( var, ir ) },
+                           new Object[] { readShapedRecord( lvar, ir ) } );
+            }
+            for ( int ia = 0; ia < vatts.length; ia++ ) {
+                assert vattNames[ ia ].equals( vatts[ ia ].getName() );
+                checkSameEntry( vatts[ ia ].getEntry( var ),
+                                lazy.getVariableEntry( vattNames[ ia ],
+                                                       varNames[ iv ] ) );
+            }
+        }
+        for ( int ia = 0; ia < vatts.length; ia++ ) {
+            VariableAttribute latt =
+                lazy.getVariableAttribute( vattNames[ ia ] );
+            for ( int iv = 0; iv < vars.length; iv++ ) {
+                checkSameEntry( vatts[ ia ].getEntry( vars[ iv ] ),
+                                latt.getEntry( vars[ iv ] ) );
+            }
+        }
+
+        GlobalAttribute[] gatts = content.getGlobalAttributes();
+        String[] gattNames = lazy.getGlobalAttributeNames();
+        assert gattNames.length == gatts.length;
+        for ( int ia = 0; ia < gatts.length; ia++ ) {
+            assert gattNames[ ia ].equals( gatts[ ia ].getName() );
+            AttributeEntry[] entries = gatts[ ia ].getEntries();
+            AttributeEntry[] lentries =
+                lazy.getGlobalAttribute( gattNames[ ia ] ).getEntries();
+            assert lentries.length == entries.length;
+            for ( int ie = 0; ie < entries.length; ie++ ) {
+                checkSameEntry( entries[ ie ], lentries[ ie ] );
+            }
+        }
+    }
+
+    /**
+     * Checks the name lookup methods of CdfContent.
+     */
+    public void testNameLookup( File file ) throws IOException {
+        CdfContent content = new CdfContent( new CdfReader( file ) );
+        assert content.getVariable( "no such variable" ) == null;
+        assert content.getGlobalAttribute( "no such attribute" ) == null;
+        assert content.getVariableAttribute( "no such attribute" ) == null;
+        Variable[] vars = content.getVariables();
+        VariableAttribute[] vatts = content.getVariableAttributes();
+        for ( int iv = 0; iv < vars.length; iv++ ) {
+            Variable var = vars[ iv ];
+            assert content.getVariable( var.getName() ) == var;
+            Map<String,AttributeEntry> entries =
+                content.getVariableEntries( var );
+            assert content.getVariableEntries( var.fork() ) == entries;
+            int nent = 0;
+            for ( int ia = 0; ia < vatts.length; ia++ ) {
+                VariableAttribute vatt = vatts[ ia ];
+                assert content.getVariableAttribute( vatt.getName() ) == vatt;
+                AttributeEntry entry = vatt.getEntry( var );
+                assert entries.get( vatt.getName() ) == entry;
+                if ( entry != null ) {
+                    nent++;
+                }
+            }
+            assert entries.size() == nent;
+        }
+        GlobalAttribute[] gatts = content.getGlobalAttributes();
+        for ( int ia = 0; ia < gatts.length; ia++ ) {
+            assert content.getGlobalAttribute( gatts[ ia ].getName() )
+                == gatts[ ia ];
+        }
+    }
+
+    /**
+     * Checks block statistics against the data.
+     */
+    public void testBlockStats( File file ) throws IOException {
+        Variable[] vars =
+            new CdfContent( new CdfReader( file ) ).getVariables();
+        int nstat = 0;
+        for ( int iv = 0; iv < vars.length; iv++ ) {
+            Variable var = vars[ iv ];
+            if ( BlockStats.isSupported( var ) ) {
+                nstat++;
+                Object work = var.createRawValueArray();
+                var.readRawRecord( 0, work );
+                double fill = ((Number) Array.get( work, 0 )).doubleValue();
+                checkBlockStats( var, BlockStats.calculateStats( var, fill ) );
+                BlockStats stats =
+                    BlockStats.calculateStats( var, Double.NaN );
+                checkBlockStats( var, stats );
+                ByteArrayOutputStream bout = new ByteArrayOutputStream();
+                DataOutputStream out = new DataOutputStream( bout );
+                stats.writeStats( out );
+                out.close();
+                BlockStats stats2 =
+                    BlockStats.readStats(
+                        new DataInputStream(
+                            new ByteArrayInputStream( bout.toByteArray() ) ) );
+                checkBlockStats( var, stats2 );
+            }
+            else {
+                try {
+                    BlockStats.calculateStats( var, Double.NaN );
+                    assert false;
+                }
+                catch ( IllegalArgumentException e ) {
+                }
+            }
+        }
+        assert nstat > 0;
+    }
+
+    /**
+     * Checks record views for the variables in a file.
+     * If expectAll is true, every uncompressed variable whose stored
+     * representation matches its java one must provide views.
+     */
+    public void testRecordViews( File file, boolean expectAll )
+            throws IOException {
+        Variable[] vars =
+            new CdfContent( new CdfReader( file ) ).getVariables();
+        int nview = 0;
+        for ( int iv = 0; iv < vars.length; iv++ ) {
+            Variable var = vars[ iv ];
+            RecordView[] views = var.getRecordViews( null );
+            Class<?> clazz = var.getDataType().getArrayElementClass();
+            int elSize = clazz == byte.class ? 1
+                       : clazz == short.class ? 2
+                       : clazz == int.class || clazz == float.class ? 4
+                       : clazz == long.class || clazz == double.class ? 8
+                       : -1;
+            boolean isViewable = elSize > 0
+                              && var.getDataType().getByteCount()
+                              == var.getDataType().getGroupSize() * elSize
+                              && ! Record.hasBit( var.getDescriptor().flags,
+                                                  2 );
+            if ( views == null ) {
+                assert ! ( expectAll && isViewable ) : var.getName();
+                continue;
+            }
+            nview += views.length;
+            int nval = Array.getLength( var.createRawValueArray() );
+            int nrec = var.getRecordCount();
+
+            // The views cover exactly the stored records.
+            boolean[] covered = new boolean[ nrec ];
+            for ( int ir = 0; ir < views.length; ir++ ) {
+                RecordView view = views[ ir ];
+                assert view.getElementClass() == clazz;
+                assert view.getValuesPerRecord() == nval;
+                assert view.getRecordCount() > 0;
+                assert ir == 0 ||
+                       view.getFirstRecord()
+                       >= views[ ir - 1 ].getFirstRecord()
+                        + views[ ir - 1 ].getRecordCount();
+                for ( int jr = 0; jr < view.getRecordCount(); jr++ ) {
+                    covered[ view.getFirstRecord() + jr ] = true;
+                }
+            }
+            for ( int irec = 0; irec < nrec; irec++ ) {
+                assert covered[ irec ] == var.hasRecord( irec );
+            }
+
+            // The views contain the same values as the records.
+            Object work = var.createRawValueArray();
+            for ( int ir = 0; ir < views.length; ir++ ) {
+                RecordView view = views[ ir ];
+                Object varray =
+                    Array.newInstance( clazz, view.getRecordCount() * nval );
+                if ( clazz == byte.class ) {
+                    view.getByteBuffer().get( (byte[]) varray );
+                }
+                else if ( clazz == short.class ) {
+                    view.asShortBuffer().get( (short[]) varray );
+                }
+                else if ( clazz == int.class ) {
+                    view.asIntBuffer().get( (int[]) varray );
+                }
+                else if ( clazz == long.class ) {
+                    view.asLongBuffer().get( (long[]) varray );
+                }
+                else if ( clazz == float.class ) {
+                    view.asFloatBuffer().get( (float[]) varray );
+                }
+                else if ( clazz == double.class ) {
+                    view.asDoubleBuffer().get( (double[]) varray );
+                }
+                else {
+                    assert false;
+                }
+                for ( int jr = 0; jr < view.getRecordCount(); jr++ ) {
+                    var.readRawRecord( view.getFirstRecord() + jr, work );
+                    for ( int i = 0; i < nval; i++ ) {
+                        assert Array.get( work, i )
+                              .equals( Array.get( varray, jr * nval + i ) );
+                    }
+                }
+                assert view.getByteBuffer().isReadOnly();
+                try {
+                    if ( clazz == double.class ) {
+                        view.asFloatBuffer();
+                    }
+                    else {
+                        view.asDoubleBuffer();
+                    }
+                    assert false;
+                }
+                catch ( UnsupportedOperationException e ) {
+                }
+            }
+
+            // Views are only available in the file's byte order.
+            if ( views.length > 0 ) {
+                ByteOrder order = views[ 0 ].getByteBuffer().order();
+                ByteOrder otherOrder = order == ByteOrder.BIG_ENDIAN
+                                     ? ByteOrder.LITTLE_ENDIAN
+                                     : ByteOrder.BIG_ENDIAN;
+                assert var.getRecordViews( order ) != null;
+                assert var.getRecordViews( otherOrder ) == null;
+            }
+        }
+        assert nview > 0;
+    }
+
+    private static void checkBlockStats( Variable var, BlockStats stats )
+            throws IOException {
+        int nval = Array.getLength( var.createRawValueArray() );
+        double fill = stats.getFillValue();
+        List<double[]> recValues = new ArrayList<double[]>();
+        int nb = stats.getBlockCount();
+        for ( int ib = 0; ib < nb; ib++ ) {
+            int first = stats.getFirstRecord( ib );
+            int nrec = stats.getLastRecord( ib ) - first + 1;
+            assert ib == 0 || first > stats.getLastRecord( ib - 1 );
+            Object array = Array.newInstance( var.getDataType()
+                                                 .getArrayElementClass(),
+                                              nrec * nval );
+            var.readRawRecords( first, nrec, array );
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            int nfill = 0;
+            for ( int i = 0; i < nrec * nval; i++ ) {
+                double v = ((Number) Array.get( array, i )).doubleValue();
+                if ( v == fill || Double.isNaN( v ) ) {
+                    nfill++;
+                }
+                else {
+                    min = Math.min( min, v );
+                    max = Math.max( max, v );
+                    recValues.add( new double[] { first + i / nval, v } );
+                }
+            }
+            assert stats.getMin( ib ) == min;
+            assert stats.getMax( ib ) == max;
+            assert stats.getFillCount( ib ) == nfill;
+        }
+
+        // Every record with a value in range is in some returned range.
+        for ( double[] recValue : recValues ) {
+            int irec = (int) recValue[ 0 ];
+            double v = recValue[ 1 ];
+            boolean found = false;
+            for ( int[] range : stats.getRecordRanges( v, v ) ) {
+                found = found || ( irec >= range[ 0 ] && irec <= range[ 1 ] );
+            }
+            assert found;
+        }
+        assert stats.getRecordRanges( Double.POSITIVE_INFINITY,
+                                      Double.POSITIVE_INFINITY ).length == 0;
+    }
+
+    /**
+     * Checks record searches by time against a linear scan.
+     */
+    public void testRecordRange( File file ) throws IOException {
+        CdfContent content = new CdfContent( new CdfReader( file ) );
+        Variable[] vars = content.getVariables();
+        int ntime = 0;
+        for ( int iv = 0; iv < vars.length; iv++ ) {
+            Variable var = vars[ iv ];
+            String tname = var.getDataType().getName();
+            if ( ! tname.equals( "EPOCH" ) &&
+                 ! tname.equals( "EPOCH16" ) &&
+                 ! tname.equals( "TIME_TT2000" ) ) {
+                try {
+                    var.findRecordRange( new long[ 1 ], new long[ 1 ] );
+                    assert false;
+                }
+                catch ( IllegalArgumentException e ) {
+                }
+                continue;
+            }
+
+            // Search results are undefined if the times are not in order.
+            if ( isTimeOrdered( var ) ) {
+                ntime++;
+                checkRecordRanges( var );
+            }
+        }
+
+        // The values of test.cdf's EPOCH variable ep are not in order,
+        // so only ep16 (EPOCH16) and tt2000 (TIME_TT2000) are checked here;
+        // testEpochRecordRange checks EPOCH searches.
+        assert ntime == 2;
+    }
+
+    /**
+     * Points the EPOCH variable ep in test.cdf at two new VVRs holding
+     * ordered values, and checks record searches on it.
+     */
+    public void testEpochRecordRange( File testFile ) throws IOException {
+        boolean isBigendian =
+            new CdfReader( testFile ).getBuf().isBigendian();
+        Graft graft = readGraft( testFile, "ep" );
+        int vdrPos = (int) graft.vdrOffset_;
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream( bout );
+        out.write( graft.bytes_ );
+
+        // Records 0-2 and 3-5 are stored in separate VVRs,
+        // with equal times either side of the join.
+        double t0 = 63087829567100.0;
+        double[] values = { t0, t0 + 1000, t0 + 2000,
+                            t0 + 2000, t0 + 3000, t0 + 5000 };
+        long[] vvrOffsets = new long[ 2 ];
+        for ( int iv = 0; iv < 2; iv++ ) {
+            vvrOffsets[ iv ] = out.size();
+            out.writeLong( 12 + 3 * 8 );
+            out.writeInt( 7 );  // VVR
+            ByteBuffer vbuf = ByteBuffer.allocate( 3 * 8 );
+            vbuf.order( isBigendian ? ByteOrder.BIG_ENDIAN
+                                    : ByteOrder.LITTLE_ENDIAN );
+            for ( int ir = 0; ir < 3; ir++ ) {
+                vbuf.putDouble( values[ iv * 3 + ir ] );
+            }
+            out.write( vbuf.array() );
+        }
+        long vxrOffset = out.size();
+        out.writeLong( 12 + 8 + 4 + 4 + 2 * 16 );
+        out.writeInt( 6 );  // VXR
+        out.writeLong( 0 );
+        out.writeInt( 2 );
+        out.writeInt( 2 );
+        out.writeInt( 0 );
+        out.writeInt( 3 );
+        out.writeInt( 2 );
+        out.writeInt( 5 );
+        out.writeLong( vvrOffsets[ 0 ] );
+        out.writeLong( vvrOffsets[ 1 ] );
+        out.close();
+        ByteBuffer bbuf = ByteBuffer.wrap( bout.toByteArray() );
+        bbuf.putInt( vdrPos + 12, 5 );           // maxRec
+        bbuf.putLong( vdrPos + 16, vxrOffset );  // vxrHead
+        bbuf.putLong( vdrPos + 24, vxrOffset );  // vxrTail
+
+        Variable var =
+            new CdfContent( new CdfReader( Bufs.createBuf( bbuf, true,
+                                                           true ) ) )
+           .getVariable( "ep" );
+        assert "EPOCH".equals( var.getDataType().getName() );
+        assert var.getRecordCount() == 6;
+        assert isTimeOrdered( var );
+        double[] work = new double[ 1 ];
+        var.readRawRecord( 4, work );
+        assert work[ 0 ] == values[ 4 ];
+        checkRecordRanges( var );
+    }
+
+    /**
+     * Indicates whether the values of a scalar time variable are
+     * monotonically non-decreasing.
+     */
+    private static boolean isTimeOrdered( Variable var ) throws IOException {
+        Object tPrev = null;
+        for ( int irec = 0; irec < var.getRecordCount(); irec++ ) {
+            Object t = var.createRawValueArray();
+            var.readRawRecord( irec, t );
+            if ( tPrev != null && compareTimes( tPrev, t ) > 0 ) {
+                return false;
+            }
+            tPrev = t;
+        }
+        return true;
+    }
+
+    /**
+     * Checks record searches on a scalar time variable with ordered
+     * values against a linear scan, for bounds at, between and beyond
+     * the stored values and for a range of sampling steps.
+     */
+    private static void checkRecordRanges( Variable var ) throws IOException {
+        int nrec = var.getRecordCount();
+        List<Object> bounds = new ArrayList<Object>();
+        for ( int irec = 0; irec < nrec; irec++ ) {
+            Object t = var.createRawValueArray();
+            var.readRawRecord( irec, t );
+            bounds.add( t );
+            for ( int d = -1; d <= 1; d += 2 ) {
+                Object t1 = var.createRawValueArray();
+                System.arraycopy( t, 0, t1, 0, Array.getLength( t ) );
+                if ( t1 instanceof long[] ) {
+                    ((long[]) t1)[ 0 ] += d;
+                }
+                else {
+                    double[] dt1 = (double[]) t1;
+                    dt1[ dt1.length - 1 ] += d;
+                }
+                bounds.add( t1 );
+            }
+        }
+        for ( int step = 0; step <= nrec + 1; step++ ) {
+            Variable svar = var.fork();
+            svar.indexRecordTimes( step );
+            for ( Object t0 : bounds ) {
+                for ( Object t1 : bounds ) {
+                    checkRecordRange( svar, t0, t1 );
+                }
+            }
+        }
+    }
+
+    private static void checkRecordRange( Variable var, Object t0, Object t1 )
+            throws IOException {
+        int first = -1;
+        int last = -1;
+        for ( int irec = 0; irec < var.getRecordCount(); irec++ ) {
+            Object t = var.createRawValueArray();
+            var.readRawRecord( irec, t );
+            if ( compareTimes( t, t0 ) >= 0 && compareTimes( t, t1 ) <= 0 ) {
+                if ( first < 0 ) {
+                    first = irec;
+                }
+                last = irec;
+            }
+        }
+        int[] range = var.findRecordRange( t0, t1 );
+        if ( first < 0 ) {
+            assert range == null;
+        }
+        else {
+            assert range[ 0 ] == first && range[ 1 ] == last;
+        }
+    }
+
+    private static int compareTimes( Object t1, Object t2 ) {
+        if ( t1 instanceof long[] ) {
+            long l1 = ((long[]) t1)[ 0 ];
+            long l2 = ((long[]) t2)[ 0 ];
+            return l1 < l2 ? -1 : ( l1 > l2 ? 1 : 0 );
+        }
+        else {
+            double[] d1 = (double[]) t1;
+            double[] d2 = (double[]) t2;
+            int cmp = Double.compare( d1[ 0 ], d2[ 0 ] );
+            return cmp != 0 || d1.length == 1
+                 ? cmp
+                 : Double.compare( d1[ 1 ], d2[ 1 ] );
+        }
+    }
+
+    private static void checkSameEntry( AttributeEntry e1,
+                                        AttributeEntry e2 ) {
+        if ( e1 == null ) {
+            assert e2 == null;
+        }
+        else {
+            assert Arrays.deepEquals( new Object[] { e1.getShapedValue() },
+                                      new Object[] { e2.getShapedValue() } );
+        }
+    }
+
+    /**
+     * Reads the whole content of a file.
+     */
+    private static byte[] readBytes( File file ) throws IOException {
+        byte[] bytes = new byte[ (int) file.length() ];
+        DataInputStream in = new DataInputStream( new FileInputStream( file ) );
+        in.readFully( bytes );
+        in.close();
+        return bytes;
+    }
+
+    /**
+     * Reads a CDF file as the base for a test that grafts new records
+     * onto the end of it and patches the first variable's VDR to use them.
+     */
+    private static Graft readGraft( File file ) throws IOException {
+        Variable var0 =
+            new CdfContent( new CdfReader( file ) ).getVariables()[ 0 ];
+        return readGraft( file, var0.getName() );
+    }
+
+    /**
+     * Reads a CDF file as the base for a test that grafts new records
+     * onto the end of it and patches a named variable's VDR to use them.
+     */
+    private static Graft readGraft( File file, String varName )
+            throws IOException {
+        Variable var =
+            new CdfContent( new CdfReader( file ) ).getVariable( varName );
+        return new Graft( readBytes( file ),
+                          var.getDescriptor().getContentOffset() );
+    }
+
+    /**
+     * Content of a CDF file to be grafted onto.
+     */
+    private static class Graft {
+        final byte[] bytes_;
+        final long vdrOffset_;
+
+        /**
+         * Constructor.
+         *
+         * @param  bytes  file content
+         * @param  vdrOffset  offset of the grafted variable's VDR content
+         */
+        Graft( byte[] bytes, long vdrOffset ) {
+            bytes_ = bytes;
+            vdrOffset_ = vdrOffset;
+        }
+    }
+
+    /**
+     * Writes a chain of one or more VXRs referencing a list of items.
+     *
+     * @return  offset of first VXR in chain
+     */
+    private static long writeVxrChain( DataOutputStream out,
+                                       List<long[]> items, Random rnd,
+                                       boolean interleave )
+            throws IOException {
+        List<long[]> shuffled = new ArrayList<long[]>( items );
+        if ( interleave ) {
+            Collections.shuffle( shuffled, rnd );
+        }
+        int nitem = shuffled.size();
+        int nvxr = Math.min( nitem, 1 + rnd.nextInt( 2 ) );
+        long next = 0;
+        for ( int iv = nvxr - 1; iv >= 0; iv-- ) {
+            List<long[]> vitems =
+                new ArrayList<long[]>(
+                    shuffled.subList( iv * nitem / nvxr,
+                                      ( iv + 1 ) * nitem / nvxr ) );
+            Collections.shuffle( vitems, rnd );
+            int nused = vitems.size();
+            int nent = nused + rnd.nextInt( 2 );
+            long pos = out.size();
+            out.writeLong( 12 + 8 + 4 + 4 + nent * 16 );
+            out.writeInt( 6 );  // VXR
+            out.writeLong( next );
+            out.writeInt( nent );
+            out.writeInt( nused );
+            for ( int k = 0; k < 3; k++ ) {
+                for ( int ie = 0; ie < nent; ie++ ) {
+                    long value = ie < nused ? vitems.get( ie )[ k ] : -1;
+                    if ( k < 2 ) {
+                        out.writeInt( (int) value );
+                    }
+                    else {
+                        out.writeLong( value );
+                    }
+                }
+            }
+            next = pos;
+        }
+        return next;
+    }
+
+    /**
+     * Checks a lazy record map lookup against a list of
+     * (first,last,vvrOffset) triples.
+     */
+    private static void checkRecordMap( RecordMap map, List<long[]> leaves,
+                                        int irec, int recSize )
+            throws IOException {
+        int il = getLeafIndex( leaves, irec );
+        RecordMap.Entry entry = map.findEntry( irec );
+        RecordMap.Entry prev = map.findEntryAtOrBefore( irec );
+        long nextStart = map.getNextBlockStart( irec );
+        if ( il >= 0 && irec <= leaves.get( il )[ 1 ] ) {
+            long[] leaf = leaves.get( il );
+            assert entry != null;
+            assert prev == entry;
+            assert entry.getFirstRecord() == leaf[ 0 ];
+            assert entry.getLastRecord() == leaf[ 1 ];
+            assert entry.getOffset( irec )
+                == leaf[ 2 ] + 12 + ( irec - leaf[ 0 ] ) * recSize;
+            assert nextStart == leaf[ 1 ] + 1;
+        }
+        else {
+            assert entry == null;
+            if ( il < 0 ) {
+                assert prev == null;
+            }
+            else {
+                assert prev.getLastRecord() == leaves.get( il )[ 1 ];
+            }
+            assert nextStart == ( il + 1 < leaves.size()
+                                  ? leaves.get( il + 1 )[ 0 ]
+                                  : Integer.MAX_VALUE + 1L );
+        }
+    }
+
+    /**
+     * Checks a record map's index-based lookup against a list of
+     * (first,last,vvrOffset) triples.  Entry indices are in record order.
+     */
+    private static void checkIndexedRecordMap( RecordMap map,
+                                               List<long[]> leaves,
+                                               int irec, int recSize ) {
+        int il = getLeafIndex( leaves, irec );
+        int ient = map.getEntryIndex( irec );
+        if ( il >= 0 && irec <= leaves.get( il )[ 1 ] ) {
+            long[] leaf = leaves.get( il );
+            assert ient == il;
+            assert map.getFirstRecord( ient ) == leaf[ 0 ];
+            assert map.getLastRecord( ient ) == leaf[ 1 ];
+            assert map.getOffset( ient, irec )
+                == leaf[ 2 ] + 12 + ( irec - leaf[ 0 ] ) * recSize;
+        }
+        else {
+            assert ient == -il - 2;
+        }
+    }
+
+    /**
+     * Returns the index of the last triple in a list starting at or
+     * before a given record, or -1 if there is none.
+     */
+    private static int getLeafIndex( List<long[]> leaves, int irec ) {
+        int il = -1;
+        while ( il + 1 < leaves.size() && leaves.get( il + 1 )[ 0 ] <= irec ) {
+            il++;
+        }
+        return il;
+    }
+
+    /**
+     * Writes a whole-file GZIP-compressed version of an uncompressed
+     * V3 CDF file.
+     */
+    private static void writeFileCompressed( File inFile, File outFile )
+            throws IOException {
+        byte[] inBytes = readBytes( inFile );
+        ByteArrayOutputStream zbuf = new ByteArrayOutputStream();
+        OutputStream zout = new GZIPOutputStream( zbuf );
+        zout.write( inBytes, 8, inBytes.length - 8 );
+        zout.close();
+        byte[] zBytes = zbuf.toByteArray();
+        DataOutputStream out =
+            new DataOutputStream( new FileOutputStream( outFile ) );
+        out.writeInt( 0xcdf30001 );
+        out.writeInt( 0xcccc0001 );
+        long ccrSize = 8 + 4 + 8 + 8 + 4 + zBytes.length;
+        out.writeLong( ccrSize );
+        out.writeInt( 10 );  // CCR
+        out.writeLong( 8 + ccrSize );
+        out.writeLong( inBytes.length - 8 );
+        out.writeInt( 0 );
+        out.write( zBytes );
+        out.writeLong( 8 + 4 + 4 + 4 + 4 + 4 );
+        out.writeInt( 11 );  // CPR
+        out.writeInt( 5 );   // GZIP
+        out.writeInt( 0 );
+        out.writeInt( 1 );
+        out.writeInt( 6 );
+        out.close();
+    }
+
+    private void testTestContent( CdfContent content ) throws IOException {
 
         GlobalAttribute[] gatts = content.getGlobalAttributes();
         assert gatts.length == 5;
@@ -268,6 +1376,270 @@ public class ExampleTest {
         assert "2015-07-01T00:00:00.123456789"
               .equals( epf.formatTimeTt2000( (Long)
                                              readShapedRecord( ttVar, 3 ) ) );
+
+        for ( int iv = 0; iv < vars.length; iv++ ) {
+            Variable var = vars[ iv ];
+            int nrec = var.getRecordCount();
+            checkRawRecords( var, 0, nrec + 2 );
+            checkRawRecords( var, nrec / 2, nrec / 2 + 3 );
+            int[] dimSizes = var.getShaper().getDimSizes();
+            int ndim = dimSizes.length;
+            int[] starts = new int[ ndim ];
+            int[] steps = new int[ ndim ];
+            Arrays.fill( steps, 1 );
+            checkHyperSlab( var, 0, nrec + 1, 1, starts, dimSizes, steps );
+            int[] counts = new int[ ndim ];
+            for ( int idim = 0; idim < ndim; idim++ ) {
+                starts[ idim ] = dimSizes[ idim ] > 1 ? 1 : 0;
+                counts[ idim ] = ( dimSizes[ idim ] - starts[ idim ] + 1 ) / 2;
+                steps[ idim ] = 2;
+            }
+            checkHyperSlab( var, 1, nrec / 2, 2, starts, counts, steps );
+            checkTypedReader( var, nrec + 2 );
+            checkShapeInto( var, nrec + 2 );
+        }
+    }
+
+    /**
+     * Checks that reading shaped records into a supplied array gives
+     * the same results as reading them into new objects.
+     */
+    private void checkShapeInto( Variable var, int nrec ) throws IOException {
+        Object work = var.createRawValueArray();
+        Class<?> shapeClazz = var.getShaper().getShapeClass();
+        for ( int im = 0; im < 2; im++ ) {
+            boolean rowMajor = im == 0;
+            Object out = null;
+            for ( int irec = 0; irec < nrec; irec++ ) {
+                Object shaped = var.readShapedRecord( irec, rowMajor, work );
+                if ( out == null && shapeClazz.isArray() && shaped != null ) {
+                    out = Array.newInstance( shapeClazz.getComponentType(),
+                                             Array.getLength( shaped ) );
+                }
+                Object shaped2 =
+                    var.readShapedRecord( irec, rowMajor, work, out );
+                if ( shaped == null ) {
+                    assert shaped2 == null;
+                }
+                else if ( shapeClazz.isArray() ) {
+                    assert shaped2 == out;
+                    int n = Array.getLength( shaped );
+                    assert Array.getLength( shaped2 ) == n;
+                    for ( int i = 0; i < n; i++ ) {
+                        Object v1 = Array.get( shaped, i );
+                        Object v2 = Array.get( shaped2, i );
+                        assert v1 == null ? v2 == null : v1.equals( v2 );
+                    }
+                }
+                else {
+                    assert shaped.equals( shaped2 );
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks that the primitive typed reader appropriate for a variable,
+     * if any, gives the same results as reading raw records.
+     */
+    private void checkTypedReader( Variable var, int nrec )
+            throws IOException {
+        Class<?> clazz = var.getDataType().getArrayElementClass();
+        Object work = var.createRawValueArray();
+        int nel = Array.getLength( work );
+        int off = 3;
+        Object dst = Array.newInstance( clazz, off + nel );
+        PrimitiveVariableReader rdr;
+        if ( clazz == byte.class ) {
+            rdr = new ByteVariableReader( var );
+        }
+        else if ( clazz == short.class ) {
+            rdr = new ShortVariableReader( var );
+        }
+        else if ( clazz == int.class ) {
+            rdr = new IntVariableReader( var );
+        }
+        else if ( clazz == long.class ) {
+            rdr = new LongVariableReader( var );
+        }
+        else if ( clazz == float.class ) {
+            rdr = new FloatVariableReader( var );
+        }
+        else if ( clazz == double.class ) {
+            rdr = new DoubleVariableReader( var );
+        }
+        else {
+            try {
+                new DoubleVariableReader( var );
+                assert false;
+            }
+            catch ( IllegalArgumentException e ) {
+            }
+            return;
+        }
+        assert rdr.getValueCount() == nel;
+        for ( int irec = 0; irec < nrec; irec++ ) {
+            if ( rdr instanceof ByteVariableReader ) {
+                ((ByteVariableReader) rdr).readBytes( irec, (byte[]) dst, off );
+            }
+            else if ( rdr instanceof ShortVariableReader ) {
+                ((ShortVariableReader) rdr)
+                                      .readShorts( irec, (short[]) dst, off );
+            }
+            else if ( rdr instanceof IntVariableReader ) {
+                ((IntVariableReader) rdr).readInts( irec, (int[]) dst, off );
+            }
+            else if ( rdr instanceof LongVariableReader ) {
+                ((LongVariableReader) rdr).readLongs( irec, (long[]) dst, off );
+            }
+            else if ( rdr instanceof FloatVariableReader ) {
+                ((FloatVariableReader) rdr)
+                                      .readFloats( irec, (float[]) dst, off );
+            }
+            else {
+                ((DoubleVariableReader) rdr)
+                                      .readDoubles( irec, (double[]) dst, off );
+            }
+            var.readRawRecord( irec, work );
+            for ( int iel = 0; iel < nel; iel++ ) {
+                assert Array.get( work, iel )
+                      .equals( Array.get( dst, off + iel ) );
+            }
+        }
+    }
+
+    /**
+     * Checks that a hyperslab read gives the same result as picking
+     * the corresponding elements out of whole records read one at a time.
+     */
+    private void checkHyperSlab( Variable var, int recStart, int recCount,
+                                 int recInterval, int[] dimStarts,
+                                 int[] dimCounts, int[] dimIntervals )
+            throws IOException {
+        Object work = var.createRawValueArray();
+        int grp = var.getDataType().getGroupSize();
+        int ndim = dimStarts.length;
+        int nItem = 1;
+        for ( int idim = 0; idim < ndim; idim++ ) {
+            nItem *= dimCounts[ idim ];
+        }
+        for ( int im = 0; im < 2; im++ ) {
+            boolean rowMajor = im == 0;
+            Object slab = var.readHyperSlab( recStart, recCount, recInterval,
+                                             dimStarts, dimCounts,
+                                             dimIntervals, rowMajor );
+            assert Array.getLength( slab ) == recCount * nItem * grp;
+            int iout = 0;
+            for ( int ir = 0; ir < recCount; ir++ ) {
+                var.readRawRecord( recStart + ir * recInterval, work );
+                int[] icoords = new int[ ndim ];
+                int[] coords = new int[ ndim ];
+                for ( int ix = 0; ix < nItem; ix++ ) {
+                    for ( int idim = 0; idim < ndim; idim++ ) {
+                        coords[ idim ] = dimStarts[ idim ]
+                                       + icoords[ idim ] * dimIntervals[ idim ];
+                    }
+                    int iraw = var.getShaper().getArrayIndex( coords );
+                    for ( int ig = 0; ig < grp; ig++ ) {
+                        Object v1 = Array.get( work, iraw + ig );
+                        Object vs = Array.get( slab, iout++ );
+                        assert v1 == null ? vs == null : v1.equals( vs );
+                    }
+                    for ( int i = 0; i < ndim; i++ ) {
+                        int jdim = rowMajor ? ndim - i - 1 : i;
+                        if ( ++icoords[ jdim ] < dimCounts[ jdim ] ) {
+                            break;
+                        }
+                        icoords[ jdim ] = 0;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Points the Time variable in example1.cdf at two new VVRs with
+     * a gap between them and gives it previous-record sparseness,
+     * then checks that records in the gap take the value of the last
+     * record before it.
+     */
+    public void testPreviousSparse( File ex1file ) throws IOException {
+        Graft graft = readGraft( ex1file );
+        int vdrPos = (int) graft.vdrOffset_;
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream( bout );
+        out.write( graft.bytes_ );
+
+        // Records 0-1 and 4-5 are stored, 2-3 are not.
+        // The INT4 values used read the same in either byte order.
+        int[] values = { 0x01010101, 0x02020202, 0x04040404, 0x05050505 };
+        long[] vvrOffsets = new long[ 2 ];
+        for ( int iv = 0; iv < 2; iv++ ) {
+            vvrOffsets[ iv ] = out.size();
+            out.writeLong( 12 + 2 * 4 );
+            out.writeInt( 7 );  // VVR
+            out.writeInt( values[ iv * 2 + 0 ] );
+            out.writeInt( values[ iv * 2 + 1 ] );
+        }
+        long vxrOffset = out.size();
+        out.writeLong( 12 + 8 + 4 + 4 + 2 * 16 );
+        out.writeInt( 6 );  // VXR
+        out.writeLong( 0 );
+        out.writeInt( 2 );
+        out.writeInt( 2 );
+        out.writeInt( 0 );
+        out.writeInt( 4 );
+        out.writeInt( 1 );
+        out.writeInt( 5 );
+        out.writeLong( vvrOffsets[ 0 ] );
+        out.writeLong( vvrOffsets[ 1 ] );
+        out.close();
+        ByteBuffer bbuf = ByteBuffer.wrap( bout.toByteArray() );
+        bbuf.putInt( vdrPos + 12, 5 );           // maxRec
+        bbuf.putLong( vdrPos + 16, vxrOffset );  // vxrHead
+        bbuf.putLong( vdrPos + 24, vxrOffset );  // vxrTail
+        bbuf.putInt( vdrPos + 36, 2 );           // sRecords: previous
+
+        Variable var =
+            new CdfContent( new CdfReader( Bufs.createBuf( bbuf, true,
+                                                           true ) ) )
+           .getVariables()[ 0 ];
+        assert "Time".equals( var.getName() );
+        assert var.getRecordCount() == 6;
+        int[] expected = { values[ 0 ], values[ 1 ], values[ 1 ],
+                           values[ 1 ], values[ 2 ], values[ 3 ] };
+        for ( int ir = 0; ir < 6; ir++ ) {
+            assert var.hasRecord( ir ) == ( ir < 2 || ir > 3 );
+            assert ((Integer) readShapedRecord( var, ir )).intValue()
+                == expected[ ir ];
+        }
+        int[] work = new int[ 1 ];
+        var.readRawRecord( 3, work );
+        assert work[ 0 ] == values[ 1 ];
+        int[] bulk = new int[ 6 ];
+        var.readRawRecords( 0, 6, bulk );
+        assert Arrays.equals( expected, bulk );
+    }
+
+    /**
+     * Checks that a bulk read of raw records gives the same result
+     * as reading them one at a time.
+     */
+    private void checkRawRecords( Variable var, int firstRec, int count )
+            throws IOException {
+        Object work = var.createRawValueArray();
+        int nel = Array.getLength( work );
+        Object bulk = Array.newInstance( work.getClass().getComponentType(),
+                                         nel * count );
+        var.readRawRecords( firstRec, count, bulk );
+        for ( int i = 0; i < count; i++ ) {
+            var.readRawRecord( firstRec + i, work );
+            for ( int iel = 0; iel < nel; iel++ ) {
+                Object v1 = Array.get( work, iel );
+                Object vn = Array.get( bulk, i * nel + iel );
+                assert v1 == null ? vn == null : v1.equals( vn );
+            }
+        }
     }
 
     private Object readShapedRecord( Variable var, int irec, boolean rowMajor )
@@ -313,6 +1685,66 @@ public class ExampleTest {
     }
 
 
+    /**
+     * Reruns the test.cdf tests with a tiny uncompressed block budget,
+     * so that compressed blocks keep getting discarded and reloaded.
+     */
+    public void testBlockCache( File testFile ) throws IOException {
+        BlockCache cache = BlockCache.getDefaultCache();
+        long budget = cache.getMaxBytes();
+        cache.clear();
+        assert cache.getCachedBytes() == 0;
+        try {
+            cache.setMaxBytes( 1 );
+            testTest( testFile );
+
+            // The most recently loaded block is always retained.
+            assert cache.getCachedBytes() > 0;
+            cache.setMaxBytes( 0 );
+            assert cache.getCachedBytes() == 0;
+        }
+        finally {
+            cache.setMaxBytes( budget );
+        }
+
+        // Read GZIP blocks by seeking rather than uncompressing them.
+        long seekThresh = cache.getSeekThreshold();
+        cache.setSeekThreshold( 0 );
+        try {
+            cache.clear();
+            testTest( testFile );
+            assert cache.getCachedBytes() == 0;
+        }
+        finally {
+            cache.setSeekThreshold( seekThresh );
+        }
+
+        // Uncompress blocks in the background, both on request and
+        // by read-ahead during reads.
+        ExecutorService executor = Executors.newFixedThreadPool( 4 );
+        cache.setExecutor( executor );
+        try {
+            cache.clear();
+            Variable[] vars =
+                new CdfContent( new CdfReader( testFile ) ).getVariables();
+            for ( int iv = 0; iv < vars.length; iv++ ) {
+                vars[ iv ].prefetchRecords( 0, vars[ iv ].getRecordCount() );
+            }
+            testTest( testFile );
+        }
+        finally {
+            cache.setExecutor( null );
+            executor.shutdown();
+        }
+        try {
+            executor.awaitTermination( 10, TimeUnit.SECONDS );
+        }
+        catch ( InterruptedException e ) {
+            throw new RuntimeException( e );
+        }
+        assert cache.getCachedBytes() > 0;
+    }
+
     /**
      * Main method.  Run with locations of the following files from the
      * NASA CDF software distribution as arguments:
@@ -349,7 +1781,25 @@ public class ExampleTest {
         }
         ExampleTest extest = new ExampleTest();
         extest.testExample1( ex1 );
+        extest.testPreviousSparse( ex1 );
         extest.testExample2( ex2 );
         extest.testTest( test );
+        extest.testBlockCache( test );
+        extest.testFileCompressed( test );
+        extest.testLazyRecordMap( test );
+        extest.testCompressedReadAhead( test );
+        extest.testIndex( test );
+        extest.testLazyContent( ex1 );
+        extest.testLazyContent( ex2 );
+        extest.testLazyContent( test );
+        extest.testNameLookup( ex1 );
+        extest.testNameLookup( test );
+        extest.testRecordRange( test );
+        extest.testEpochRecordRange( test );
+        extest.testBlockStats( ex1 );
+        extest.testBlockStats( test );
+        extest.testRecordViews( ex1, true );
+        extest.testRecordViews( ex2, true );
+        extest.testRecordViews( test, false );
     }
 }
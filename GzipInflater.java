@@ -0,0 +1,198 @@
+package uk.ac.bristol.star.cdf.record;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import uk.ac.bristol.star.cdf.CdfFormatException;
+
+/**
+ * Uncompresses GZIP data from a Buf by driving an Inflater directly.
+ *
+ * <p>This does the same job as reading from a
+ * {@link java.util.zip.GZIPInputStream} wrapped round the buffer's
+ * input stream, but avoids the intermediate stream layers and most
+ * of the associated copying: compressed bytes are transferred
+ * from the input buffer straight into the inflater's input array,
+ * and uncompressed bytes from the inflater's output array
+ * straight into the output buffer.
+ * As with the stream, the CRC-32 and size recorded in the GZIP trailer
+ * are checked against the uncompressed data.
+ *
+ * @author   Mark Taylor
+ * @since    17 Oct 2026
+ */
+class GzipInflater {
+
+    private static final int CHUNK = 64 * 1024;
+
+    // GZIP header flag bits, from RFC 1952.
+    private static final int FHCRC = 0x02;
+    private static final int FEXTRA = 0x04;
+    private static final int FNAME = 0x08;
+    private static final int FCOMMENT = 0x10;
+
+    /**
+     * Private constructor prevents instantiation.
+     */
+    private GzipInflater() {
+    }
+
+    /**
+     * Uncompresses GZIP data into a new buffer.
+     *
+     * @param  inBuf   buffer containing GZIP-format data
+     * @param  inOffset   offset into <code>inBuf</code> at which the
+     *                    GZIP data starts
+     * @param  outSize  byte count of the uncompressed data
+     * @return   new buffer of size <code>outSize</code> containing
+     *           uncompressed data
+     */
+    static Buf inflate( Buf inBuf, long inOffset, int outSize )
+            throws IOException {
+        long pos = skipHeader( inBuf, inOffset );
+        long inLeng = inBuf.getLength();
+        ByteBuffer outBuf = ByteBuffer.allocateDirect( outSize );
+        byte[] inChunk = new byte[ CHUNK ];
+        byte[] outChunk = new byte[ Math.max( 1, Math.min( CHUNK, outSize ) ) ];
+        CRC32 crc = new CRC32();
+        Inflater inflater = new Inflater( true );
+        try {
+            while ( outBuf.hasRemaining() || ! inflater.finished() ) {
+                if ( inflater.needsInput() ) {
+                    int nin = (int) Math.min( CHUNK, inLeng - pos );
+                    if ( nin <= 0 ) {
+                        throw new EOFException( "GZIP data truncated" );
+                    }
+                    inBuf.readDataBytes( pos, nin, inChunk );
+                    pos += nin;
+                    inflater.setInput( inChunk, 0, nin );
+                }
+
+                // Once the expected output is complete, keep going
+                // to the end of the deflate stream, so that the trailer
+                // can be located; any further output is an error.
+                int nout =
+                    inflater.inflate( outChunk, 0,
+                                      outBuf.hasRemaining()
+                                          ? Math.min( outChunk.length,
+                                                      outBuf.remaining() )
+                                          : outChunk.length );
+                if ( nout > outBuf.remaining() ) {
+                    throw new CdfFormatException( "GZIP data longer than "
+                                                + outSize + " bytes" );
+                }
+                outBuf.put( outChunk, 0, nout );
+                crc.update( outChunk, 0, nout );
+                if ( nout == 0 && outBuf.hasRemaining() &&
+                     ( inflater.finished() || inflater.needsDictionary() ) ) {
+                    throw new EOFException( "GZIP data ended after "
+                                          + outBuf.position() + " of "
+                                          + outSize + " bytes" );
+                }
+            }
+            checkTrailer( inBuf, pos - inflater.getRemaining(),
+                          crc.getValue(), outSize );
+        }
+        catch ( DataFormatException e ) {
+            throw new CdfFormatException( "Bad GZIP data", e );
+        }
+        finally {
+            inflater.end();
+        }
+        return Bufs.createBuf( outBuf, inBuf.isBit64(), inBuf.isBigendian() );
+    }
+
+    /**
+     * Checks the trailer of a GZIP member against the values
+     * calculated from its uncompressed data.
+     *
+     * @param  buf  buffer containing GZIP data
+     * @param  offset  offset of the 8-byte trailer, immediately following
+     *                 the deflate data
+     * @param  crc   CRC-32 of the uncompressed data
+     * @param  size  number of bytes of uncompressed data
+     * @throws  CdfFormatException  if the trailer is absent or
+     *          does not match
+     */
+    static void checkTrailer( Buf buf, long offset, long crc, long size )
+            throws IOException {
+        if ( offset + 8 > buf.getLength() ) {
+            throw new CdfFormatException( "GZIP trailer truncated" );
+        }
+        Pointer ptr = new Pointer( offset );
+        long tcrc = readUnsignedLittleInt( buf, ptr );
+        long tsize = readUnsignedLittleInt( buf, ptr );
+        if ( tcrc != crc ) {
+            throw new CdfFormatException( "GZIP CRC mismatch (0x"
+                                        + Long.toHexString( tcrc ) + " != 0x"
+                                        + Long.toHexString( crc ) + ")" );
+        }
+        if ( tsize != ( size & 0xffffffffL ) ) {
+            throw new CdfFormatException( "GZIP size mismatch (" + tsize
+                                        + " != " + size + " mod 2^32)" );
+        }
+    }
+
+    /**
+     * Reads a GZIP member header.
+     *
+     * @param  buf  buffer
+     * @param  offset  offset of start of GZIP header
+     * @return  offset of start of deflate data following header
+     */
+    static long skipHeader( Buf buf, long offset )
+            throws IOException {
+        Pointer ptr = new Pointer( offset );
+        int id1 = buf.readUnsignedByte( ptr );
+        int id2 = buf.readUnsignedByte( ptr );
+        int cm = buf.readUnsignedByte( ptr );
+        if ( id1 != 0x1f || id2 != 0x8b ) {
+            throw new CdfFormatException( "Not in GZIP format" );
+        }
+        if ( cm != 8 ) {
+            throw new CdfFormatException( "Unsupported GZIP compression method "
+                                        + cm );
+        }
+        int flags = buf.readUnsignedByte( ptr );
+
+        // Skip MTIME, XFL, OS.
+        ptr.getAndIncrement( 6 );
+        if ( ( flags & FEXTRA ) != 0 ) {
+            int xlen = buf.readUnsignedByte( ptr )
+                     | ( buf.readUnsignedByte( ptr ) << 8 );
+            ptr.getAndIncrement( xlen );
+        }
+        if ( ( flags & FNAME ) != 0 ) {
+            while ( buf.readUnsignedByte( ptr ) != 0 ) {
+            }
+        }
+        if ( ( flags & FCOMMENT ) != 0 ) {
+            while ( buf.readUnsignedByte( ptr ) != 0 ) {
+            }
+        }
+        if ( ( flags & FHCRC ) != 0 ) {
+            ptr.getAndIncrement( 2 );
+        }
+        return ptr.get();
+    }
+
+    /**
+     * Reads a little-endian unsigned 4-byte integer, as used in the
+     * GZIP trailer.
+     *
+     * @param  buf  buffer
+     * @param  ptr  pointer, moved on 4 bytes
+     * @return   value in the range 0..2^32-1
+     */
+    private static long readUnsignedLittleInt( Buf buf, Pointer ptr )
+            throws IOException {
+        long value = 0;
+        for ( int i = 0; i < 4; i++ ) {
+            value |= ( (long) buf.readUnsignedByte( ptr ) ) << ( 8 * i );
+        }
+        return value;
+    }
+}
@@ -0,0 +1,59 @@
+package uk.ac.bristol.star.cdf;
+
+import java.io.IOException;
+import uk.ac.bristol.star.cdf.record.Bufs;
+import uk.ac.bristol.star.cdf.record.RecordMap;
+
+/**
+ * Reads the raw record values of a variable into a <code>int[]</code> array.
+ * This can be used for variables with data types that are read as
+ * int values, that is INT4 and UINT2.
+ *
+ * @author   Mark Taylor
+ * @since    17 Oct 2026
+ */
+public class IntVariableReader extends PrimitiveVariableReader {
+
+    private final int[] work_;
+
+    /**
+     * Constructor.
+     *
+     * @param  var  variable whose values will be read
+     * @throws  IllegalArgumentException  if the variable's values
+     *          are not of type int
+     */
+    public IntVariableReader( Variable var ) throws IOException {
+        super( var, int.class, 4 );
+        work_ = new int[ getValueCount() ];
+    }
+
+    /**
+     * Reads the raw values of a record into part of a supplied array.
+     * The values written are the same as those written by
+     * {@link Variable#readRawRecord Variable.readRawRecord}.
+     *
+     * @param  irec  record index
+     * @param  dst  destination array
+     * @param  off  index of the first element of <code>dst</code>
+     *              to be written; <code>getValueCount()</code>
+     *              elements are written
+     */
+    public void readInts( int irec, int[] dst, int off )
+            throws IOException {
+        RecordMap.Entry entry = getStoredEntry( irec );
+        if ( entry != null ) {
+            if ( isDirect() ) {
+                Bufs.readDataInts( entry.getBuf(), entry.getOffset( irec ),
+                                   work_.length, dst, off );
+            }
+            else {
+                readConverted( entry, irec, dst, off );
+            }
+        }
+        else {
+            getVariable().readRawRecord( irec, work_ );
+            System.arraycopy( work_, 0, dst, off, work_.length );
+        }
+    }
+}
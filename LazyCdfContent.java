@@ -0,0 +1,248 @@
+package uk.ac.bristol.star.cdf;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import uk.ac.bristol.star.cdf.record.AttributeDescriptorRecord;
+import uk.ac.bristol.star.cdf.record.AttributeEntryDescriptorRecord;
+import uk.ac.bristol.star.cdf.record.Buf;
+import uk.ac.bristol.star.cdf.record.CdfDescriptorRecord;
+import uk.ac.bristol.star.cdf.record.GlobalDescriptorRecord;
+import uk.ac.bristol.star.cdf.record.RecordFactory;
+import uk.ac.bristol.star.cdf.record.VariableDescriptorRecord;
+
+/**
+ * Provides the data and metadata in a CDF file, reading items
+ * by name only when they are requested.
+ *
+ * <p>This offers much the same information as {@link CdfContent},
+ * but is cheaper to construct if only a few of the items in a file
+ * are required.
+ * Construction only reads the lists of variable and attribute
+ * descriptor records, to find out the names.
+ * A {@link Variable} object, which may involve reading and shaping
+ * its pad value, is only constructed when it is first requested,
+ * and attribute entries are only read when the attribute,
+ * or an entry for a particular variable, is requested.
+ * Requested items are retained, so that subsequent requests
+ * for the same item are cheap.
+ *
+ * @author   Mark Taylor
+ * @since    17 Oct 2026
+ */
+public class LazyCdfContent {
+
+    private final Buf buf_;
+    private final RecordFactory recFact_;
+    private final CdfIndex index_;
+    private final CdfInfo cdfInfo_;
+    private final Map<String,VariableDescriptorRecord> vdrMap_;
+    private final Map<String,AttributeDescriptorRecord> gAdrMap_;
+    private final Map<String,AttributeDescriptorRecord> vAdrMap_;
+    private final Map<String,Variable> varMap_;
+    private final Map<String,GlobalAttribute> gAttMap_;
+    private final Map<String,VariableAttribute> vAttMap_;
+
+    /**
+     * Constructs a LazyCdfContent from a CdfReader.
+     *
+     * @param  crdr  object which knows how to read CDF records
+     */
+    public LazyCdfContent( CdfReader crdr ) throws IOException {
+        this( crdr, null );
+    }
+
+    /**
+     * Constructs a LazyCdfContent from a CdfReader, optionally using
+     * a previously prepared index of the file's layout.
+     *
+     * @param  crdr  object which knows how to read CDF records
+     * @param  index   index of the CDF, or null
+     * @see   CdfContent#CdfContent(CdfReader,CdfIndex)
+     */
+    public LazyCdfContent( CdfReader crdr, CdfIndex index )
+            throws IOException {
+        buf_ = crdr.getBuf();
+        recFact_ = crdr.getRecordFactory();
+        index_ = index;
+        CdfDescriptorRecord cdr = crdr.getCdr();
+        GlobalDescriptorRecord gdr =
+            recFact_.createRecord( buf_, cdr.gdrOffset,
+                                   GlobalDescriptorRecord.class );
+        cdfInfo_ = CdfContent.createCdfInfo( cdr, gdr );
+
+        // Index the rVariable and zVariable descriptors by name.
+        vdrMap_ = new LinkedHashMap<String,VariableDescriptorRecord>();
+        long[] rOffsets = index == null ? null : index.getVdrOffsets( false );
+        long[] zOffsets = index == null ? null : index.getVdrOffsets( true );
+        addVdrs( CdfContent.readVariableList( buf_, recFact_, gdr.nrVars,
+                                              gdr.rVdrHead, rOffsets ) );
+        addVdrs( CdfContent.readVariableList( buf_, recFact_, gdr.nzVars,
+                                              gdr.zVdrHead, zOffsets ) );
+
+        // Index the global and variable attribute descriptors by name.
+        gAdrMap_ = new LinkedHashMap<String,AttributeDescriptorRecord>();
+        vAdrMap_ = new LinkedHashMap<String,AttributeDescriptorRecord>();
+        AttributeDescriptorRecord[] adrs =
+            CdfContent.walkAttributeList( buf_, recFact_, gdr.numAttr,
+                                          gdr.adrHead );
+        for ( int ia = 0; ia < adrs.length; ia++ ) {
+            AttributeDescriptorRecord adr = adrs[ ia ];
+            ( CdfContent.isGlobal( adr ) ? gAdrMap_ : vAdrMap_ )
+                .put( adr.name, adr );
+        }
+
+        varMap_ = new HashMap<String,Variable>();
+        gAttMap_ = new HashMap<String,GlobalAttribute>();
+        vAttMap_ = new HashMap<String,VariableAttribute>();
+    }
+
+    /**
+     * Returns some global information about the CDF file.
+     *
+     * @return  CDF info
+     */
+    public CdfInfo getCdfInfo() {
+        return cdfInfo_;
+    }
+
+    /**
+     * Returns the names of the variables, in order.
+     *
+     * @return  variable name array
+     */
+    public String[] getVariableNames() {
+        return vdrMap_.keySet().toArray( new String[ 0 ] );
+    }
+
+    /**
+     * Returns the names of the global attributes, in order.
+     *
+     * @return  global attribute name array
+     */
+    public String[] getGlobalAttributeNames() {
+        return gAdrMap_.keySet().toArray( new String[ 0 ] );
+    }
+
+    /**
+     * Returns the names of the variable attributes, in order.
+     *
+     * @return  variable attribute name array
+     */
+    public String[] getVariableAttributeNames() {
+        return vAdrMap_.keySet().toArray( new String[ 0 ] );
+    }
+
+    /**
+     * Returns the variable with a given name.
+     *
+     * @param  name  variable name
+     * @return  variable, or null if there is none with that name
+     */
+    public synchronized Variable getVariable( String name )
+            throws IOException {
+        Variable var = varMap_.get( name );
+        if ( var == null ) {
+            VariableDescriptorRecord vdr = vdrMap_.get( name );
+            if ( vdr != null ) {
+                var = new Variable( vdr, cdfInfo_, recFact_, index_ );
+                varMap_.put( name, var );
+            }
+        }
+        return var;
+    }
+
+    /**
+     * Returns the global attribute with a given name.
+     *
+     * @param  name  attribute name
+     * @return  global attribute, or null if there is none with that name
+     */
+    public synchronized GlobalAttribute getGlobalAttribute( String name )
+            throws IOException {
+        GlobalAttribute att = gAttMap_.get( name );
+        if ( att == null ) {
+            AttributeDescriptorRecord adr = gAdrMap_.get( name );
+            if ( adr != null ) {
+                att = CdfContent.readGlobalAttribute( buf_, recFact_, adr,
+                                                      cdfInfo_ );
+                gAttMap_.put( name, att );
+            }
+        }
+        return att;
+    }
+
+    /**
+     * Returns the variable attribute with a given name.
+     * This reads the attribute's entries for all variables;
+     * if only a few are required, {@link #getVariableEntry getVariableEntry}
+     * may be more efficient.
+     *
+     * @param  name  attribute name
+     * @return  variable attribute, or null if there is none with that name
+     */
+    public synchronized VariableAttribute getVariableAttribute( String name )
+            throws IOException {
+        VariableAttribute att = vAttMap_.get( name );
+        if ( att == null ) {
+            AttributeDescriptorRecord adr = vAdrMap_.get( name );
+            if ( adr != null ) {
+                att = CdfContent.readVariableAttribute( buf_, recFact_, adr,
+                                                        cdfInfo_ );
+                vAttMap_.put( name, att );
+            }
+        }
+        return att;
+    }
+
+    /**
+     * Returns the entry that a given variable has for a given
+     * variable attribute.
+     * If the attribute has already been read it is used,
+     * otherwise only the required entry value is read.
+     *
+     * @param  attName  variable attribute name
+     * @param  varName  variable name
+     * @return   entry value, or null if the attribute or variable does
+     *           not exist or the variable has no entry for the attribute
+     */
+    public AttributeEntry getVariableEntry( String attName, String varName )
+            throws IOException {
+        AttributeDescriptorRecord adr = vAdrMap_.get( attName );
+        VariableDescriptorRecord vdr = vdrMap_.get( varName );
+        if ( adr == null || vdr == null ) {
+            return null;
+        }
+        synchronized ( this ) {
+            VariableAttribute att = vAttMap_.get( attName );
+            if ( att != null ) {
+                return att.getEntry( getVariable( varName ) );
+            }
+        }
+        boolean isZ = vdr.getRecordType() == 8;
+        int nent = isZ ? adr.nZEntries : adr.nGrEntries;
+        long off = isZ ? adr.azEdrHead : adr.agrEdrHead;
+        for ( int ie = 0; ie < nent; ie++ ) {
+            AttributeEntryDescriptorRecord aedr =
+                recFact_.createRecord( buf_, off,
+                                       AttributeEntryDescriptorRecord.class );
+            if ( aedr.num == vdr.num ) {
+                return CdfContent.readEntry( aedr, cdfInfo_ );
+            }
+            off = aedr.aedrNext;
+        }
+        return null;
+    }
+
+    /**
+     * Adds variable descriptor records to the name map.
+     *
+     * @param  vdrs  variable descriptor records
+     */
+    private void addVdrs( VariableDescriptorRecord[] vdrs ) {
+        for ( int iv = 0; iv < vdrs.length; iv++ ) {
+            vdrMap_.put( vdrs[ iv ].name, vdrs[ iv ] );
+        }
+    }
+}
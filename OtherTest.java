@@ -1,10 +1,14 @@
 package uk.ac.bristol.star.cdf.test;
 
 import java.lang.reflect.Method;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Random;
 import uk.ac.bristol.star.cdf.TtScaler;
 import uk.ac.bristol.star.cdf.EpochFormatter;
 import uk.ac.bristol.star.cdf.util.LogUtil;
@@ -95,6 +99,194 @@ public class OtherTest {
         checkWithNasa( 9223370000000000000L );
     }
 
+    public void testFastTtFormatter() {
+        checkFastTt( Long.MIN_VALUE );
+        checkFastTt( Long.MIN_VALUE + 1 );
+        checkFastTt( Long.MIN_VALUE / 2 );
+        checkFastTt( Long.MAX_VALUE / 2 );
+        checkFastTt( 9223370000000000000L );
+        checkFastTt( 284040065307456789L );
+
+        // Dense sample over the range where most data is,
+        // with some arbitrary nanosecond parts.
+        Random rnd = new Random( 2026L );
+        long step = 3L * 60 * 60 * 1000000000L + 1234567;
+        for ( long t = -1400000000000000000L; t < 3200000000000000000L;
+              t += step ) {
+            checkFastTt( t );
+            checkFastTt( t + rnd.nextInt( 1000000000 ) );
+        }
+
+        // Every scaler boundary, and every millisecond through and
+        // around each leap second.
+        TtScaler[] scalers = TtScaler.getTtScalers();
+        int nleap = 0;
+        for ( int i = 1; i < scalers.length; i++ ) {
+            long from = scalers[ i ].getFromTt2kMillis();
+            long to = scalers[ i ].getToTt2kMillis();
+            for ( long ms = from - 2; ms <= from + 2; ms++ ) {
+                checkFastTt( ms * 1000000 );
+                checkFastTt( ms * 1000000 - 1 );
+                checkFastTt( ms * 1000000 + 999999 );
+            }
+            if ( to - from == 1000 ) {
+                nleap++;
+                for ( long ms = from - 1500; ms <= to + 1500; ms++ ) {
+                    checkFastTt( ms * 1000000 + rnd.nextInt( 1000000 ) );
+                }
+            }
+        }
+        assert nleap >= 27;
+    }
+
+    private void checkFastTt( long tt2kNanos ) {
+        String txt = epf_.formatTimeTt2000( tt2kNanos );
+        int leng = EpochFormatter.TT2000_LENG;
+        char[] cbuf = new char[ leng + 3 ];
+        int nc = epf_.formatTimeTt2000( tt2kNanos, cbuf, 2 );
+        assert nc == leng;
+        assert txt.equals( new String( cbuf, 2, leng ) )
+             : txt + " != " + new String( cbuf, 2, leng );
+        StringBuilder sbuf = new StringBuilder( "x" );
+        epf_.formatTimeTt2000( tt2kNanos, sbuf );
+        assert sbuf.toString().equals( "x" + txt );
+        ByteBuffer bbuf = ByteBuffer.allocate( leng + 1 );
+        bbuf.put( (byte) 'y' );
+        epf_.formatTimeTt2000( tt2kNanos, bbuf );
+        assert bbuf.position() == leng + 1;
+        for ( int i = 0; i < leng; i++ ) {
+            assert bbuf.get( i + 1 ) == txt.charAt( i );
+        }
+    }
+
+    public void testUnixNanos() {
+        TtScaler[] scalers = TtScaler.getTtScalers();
+        Random rnd = new Random( 23L );
+        List<Long> list = new ArrayList<Long>();
+        list.add( Long.valueOf( Long.MIN_VALUE ) );
+        list.add( Long.valueOf( Long.MIN_VALUE + 1 ) );
+        long step = 7L * 60 * 60 * 1000000000L + 7654321;
+        for ( long t = -2000000000000000000L; t < 3200000000000000000L;
+              t += step ) {
+            list.add( Long.valueOf( t + rnd.nextInt( 1000000000 ) ) );
+        }
+        int nleap = 0;
+        for ( int i = 1; i < scalers.length; i++ ) {
+            long from = scalers[ i ].getFromTt2kMillis();
+            long to = scalers[ i ].getToTt2kMillis();
+            for ( long ms = from - 1; ms <= from + 1; ms++ ) {
+                list.add( Long.valueOf( ms * 1000000 - 1 ) );
+                list.add( Long.valueOf( ms * 1000000 ) );
+            }
+            if ( to - from == 1000 ) {
+                nleap++;
+                for ( long ms = from - 1200; ms <= to + 1200; ms += 7 ) {
+                    list.add( Long.valueOf( ms * 1000000
+                                            + rnd.nextInt( 1000000 ) ) );
+                }
+            }
+        }
+        assert nleap >= 27;
+
+        // Scalers after the first one-second step (at the start of 1972)
+        // have integer UTC offsets.
+        long ms1972 = Long.MAX_VALUE;
+        for ( int i = scalers.length - 1; i > 0; i-- ) {
+            if ( scalers[ i ].getToTt2kMillis()
+               - scalers[ i ].getFromTt2kMillis() == 1000 ) {
+                ms1972 = scalers[ i ].getToTt2kMillis();
+            }
+        }
+        int n = list.size();
+        long[] tts = new long[ n ];
+        for ( int i = 0; i < n; i++ ) {
+            tts[ i ] = list.get( i ).longValue();
+        }
+        Arrays.sort( tts );
+
+        // Convert in bulk, sorted and shuffled (in place).
+        long[] unixes = new long[ n + 1 ];
+        TtScaler.tt2kToUnixNanos( tts, unixes, n );
+        int[] perm = new int[ n ];
+        for ( int i = 0; i < n; i++ ) {
+            perm[ i ] = i;
+        }
+        for ( int i = n - 1; i > 0; i-- ) {
+            int j = rnd.nextInt( i + 1 );
+            int p = perm[ i ];
+            perm[ i ] = perm[ j ];
+            perm[ j ] = p;
+        }
+        long[] shuffledUnixes = new long[ n ];
+        for ( int i = 0; i < n; i++ ) {
+            shuffledUnixes[ i ] = tts[ perm[ i ] ];
+        }
+        TtScaler.tt2kToUnixNanos( shuffledUnixes, shuffledUnixes, n );
+        long[] backs = new long[ n ];
+        TtScaler.unixNanosToTt2k( unixes, backs, n );
+        long[] shuffledBacks = new long[ n ];
+        TtScaler.unixNanosToTt2k( shuffledUnixes, shuffledBacks, n );
+
+        int[] iperm = new int[ n ];
+        for ( int i = 0; i < n; i++ ) {
+            iperm[ perm[ i ] ] = i;
+        }
+        int is = 0;
+        long[] one = new long[ 1 ];
+        BigDecimal million = BigDecimal.valueOf( 1000000 );
+        for ( int i = 0; i < n; i++ ) {
+            long tt = tts[ i ];
+            int js = iperm[ i ];
+            assert shuffledUnixes[ js ] == unixes[ i ];
+            assert shuffledBacks[ js ] == backs[ i ];
+            long unix = unixes[ i ];
+            if ( tt == Long.MIN_VALUE || tt == Long.MIN_VALUE + 1 ) {
+                assert unix == tt;
+                continue;
+            }
+            long ms = BigDecimal.valueOf( tt )
+                     .divide( million, RoundingMode.FLOOR ).longValue();
+            is = TtScaler.getScalerIndex( ms, scalers, is );
+            TtScaler scaler = scalers[ is ];
+            assert unix == scaler.tt2kToUnixNanos( tt );
+
+            // Agrees with the millisecond conversion.
+            long subNanos = tt - ms * 1000000;
+            double unixMillis = scaler.tt2kToUnixMillis( ms );
+            long expected = Math.round( unixMillis ) * 1000000 + subNanos;
+            if ( ms >= ms1972 ) {
+                assert unix == expected;
+            }
+            else {
+                assert Math.abs( unix - ( unixMillis * 1e6 + subNanos ) )
+                       < 1000;
+            }
+
+            // Bulk conversion of a single value gives the same result.
+            one[ 0 ] = unix;
+            TtScaler.unixNanosToTt2k( one, one, 1 );
+            assert backs[ i ] == one[ 0 ];
+
+            // Round trip is exact since 1972, except that a leap second
+            // maps to the following one.
+            if ( ms >= ms1972 ) {
+                long dt = scaler.millisIntoLeapSecond( ms ) >= 0
+                        ? 1000000000L
+                        : 0;
+                assert backs[ i ] == tt + dt;
+            }
+            else {
+
+                // Before 1972 there are Unix times which correspond
+                // to more than one TT time, but the result should map
+                // back to the same Unix time (to within rounding).
+                one[ 0 ] = backs[ i ];
+                TtScaler.tt2kToUnixNanos( one, one, 1 );
+                assert Math.abs( one[ 0 ] - unix ) <= 1;
+            }
+        }
+    }
+
     private void checkWithNasa( long tt2kNanos ) {
         assert epf_.formatTimeTt2000( tt2kNanos )
               .equals( nasaFormatTimeTt2000( tt2kNanos ) )
@@ -159,6 +351,8 @@ public class OtherTest {
         OtherTest test = new OtherTest();
         test.testTtScaler();
         test.testTtFormatter();
+        test.testFastTtFormatter();
+        test.testUnixNanos();
     }
 
     private static String reportFormats( long tt2kNanos ) {
@@ -0,0 +1,128 @@
+package uk.ac.bristol.star.cdf;
+
+import java.io.IOException;
+import java.lang.reflect.Array;
+import uk.ac.bristol.star.cdf.record.RecordMap;
+
+/**
+ * Superclass for objects which read the raw record values of a variable
+ * into a caller-supplied array of a fixed primitive type.
+ *
+ * <p>Concrete subclasses provide a monomorphic read method
+ * for a particular array type, for instance
+ * {@link DoubleVariableReader#readDoubles DoubleVariableReader.readDoubles}.
+ * For records actually stored in the file, the values are transferred
+ * directly from the data buffer into the destination array,
+ * without any intermediate workspace, boxing or reflection.
+ * The results are the same as those from
+ * {@link Variable#readRawRecord Variable.readRawRecord}.
+ *
+ * <p>Instances of this class keep some state and are not thread-safe.
+ * To read the same variable from multiple threads, use
+ * a separate reader in each thread.
+ *
+ * @author   Mark Taylor
+ * @since    17 Oct 2026
+ */
+public abstract class PrimitiveVariableReader {
+
+    private final Variable var_;
+    private final RecordMap recMap_;
+    private final int recLimit_;
+    private final DataType dataType_;
+    private final int nelPerItem_;
+    private final int nItem_;
+    private final int nval_;
+    private final boolean isDirect_;
+
+    /**
+     * Constructor.
+     *
+     * @param  var  variable whose values will be read
+     * @param  elementClass  primitive class of the array elements
+     *                       to be read; must match the variable's data type
+     * @param  elementSize  size in bytes of a java value of
+     *                      <code>elementClass</code>
+     * @throws  IllegalArgumentException  if the variable's data type
+     *          is not read as elements of the required type
+     */
+    protected PrimitiveVariableReader( Variable var, Class<?> elementClass,
+                                       int elementSize )
+            throws IOException {
+        var_ = var;
+        dataType_ = var.getDataType();
+        if ( dataType_.getArrayElementClass() != elementClass ) {
+            throw new IllegalArgumentException( "Variable " + var.getName()
+                                              + " data type " + dataType_
+                                              + " not read as "
+                                              + elementClass );
+        }
+        recMap_ = var.createRecordMapView();
+        recLimit_ = var.getStoredRecordLimit();
+        nelPerItem_ = var.getDescriptor().numElems;
+        nItem_ = var.getShaper().getRawItemCount();
+        nval_ = Array.getLength( var.createRawValueArray() );
+
+        // The data can be copied straight from the buffer if the
+        // file representation has the same size as the java one;
+        // otherwise (unsigned types) it has to be converted.
+        isDirect_ = dataType_.getByteCount()
+                 == dataType_.getGroupSize() * elementSize;
+    }
+
+    /**
+     * Returns the variable read by this reader.
+     *
+     * @return  variable
+     */
+    public Variable getVariable() {
+        return var_;
+    }
+
+    /**
+     * Returns the number of array elements written for each record read.
+     *
+     * @return  length of a raw value array for one record
+     */
+    public int getValueCount() {
+        return nval_;
+    }
+
+    /**
+     * Returns the record map entry from which the given
+     * record's data should be read directly.
+     *
+     * @param  irec  record index
+     * @return  entry, or null if the record must be read
+     *          by the variable's <code>readRawRecord</code> method
+     */
+    RecordMap.Entry getStoredEntry( int irec ) throws IOException {
+        return irec < recLimit_ ? recMap_.findEntry( irec ) : null;
+    }
+
+    /**
+     * Indicates whether stored values can be transferred directly
+     * from the data buffer using the <code>Buf.readData*</code>
+     * method matching the element type.
+     *
+     * @return  true for direct reads, false if conversion is required
+     */
+    boolean isDirect() {
+        return isDirect_;
+    }
+
+    /**
+     * Reads the values of a stored record using the data type's
+     * general read method, converting them as required.
+     *
+     * @param  entry  entry as returned by getStoredEntry
+     * @param  irec  record index
+     * @param  dst  destination array
+     * @param  off  index of first element of dst to be written
+     */
+    void readConverted( RecordMap.Entry entry, int irec, Object dst, int off )
+            throws IOException {
+        dataType_.readValues( entry.getBuf(), entry.getOffset( irec ),
+                              nelPerItem_, dst, off, nItem_ );
+    }
+}
@@ -49,6 +49,15 @@ public abstract class Record {
     }
 
    
+    /**
+     * Returns the offset into its buffer at which this record starts.
+     *
+     * @return  record start offset
+     */
+    public long getRecordOffset() {
+        return plan_.getStart();
+    }
+
     /**
      * Returns the size of the record in bytes.
      *
@@ -1,8 +1,11 @@
 package uk.ac.bristol.star.cdf.record;
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
 import uk.ac.bristol.star.cdf.CdfFormatException;
 
@@ -18,60 +21,97 @@ import uk.ac.bristol.star.cdf.CdfFormatException;
  *          ? readBuffer(recMap.getBuf(ient), recMap.getOffset(ient,irec))
  *          : NO_STORED_VALUE;
  * </pre>
- *       
+ *
+ * <p>The map is built lazily.  Only the top-level linked list of
+ * Variable Index Records (VXRs) is read up front.
+ * The records that a VXR's entries point to, which may be data records
+ * or subordinate VXRs, are read only when a record in that VXR's range
+ * is first looked up.
+ * For variables with very large VXR trees, this means that reading a few
+ * records does not require the whole tree to be walked first.
+ *
+ * <p>An entry is one contiguous block of stored records.
+ * The index-based methods ({@link #getEntryCount getEntryCount},
+ * {@link #getEntryIndex getEntryIndex}, {@link #getBuf getBuf} etc)
+ * number the entries in record order, as they always have;
+ * the first use of any of them reads the whole tree.
+ * Since these methods do not declare <code>IOException</code>,
+ * a failure to read the tree at that point is rethrown as
+ * an unchecked exception.
+ *
+ * <p>To read records without walking the whole tree,
+ * use {@link #findEntry findEntry},
+ * {@link #findEntryAtOrBefore findEntryAtOrBefore} and
+ * {@link #getNextBlockStart getNextBlockStart} instead.
+ * These return {@link Entry} objects rather than indices,
+ * and read only the parts of the tree required.
+ *
+ * <p>Where the data is compressed, the blocks are linked in record order
+ * so that they can be uncompressed ahead of use
+ * (see {@link CompressedBlockBuf#setNext}).
+ * Links are made within each VXR when it is read,
+ * and from the last block of a VXR to the first block of the one
+ * following it when a record in the former is first looked up.
  *
  * @author   Mark Taylor
  * @since    21 Jun 2013
  */
 public class RecordMap {
 
-    private final int nent_;
-    private final int[] firsts_;
-    private final int[] lasts_;
-    private final Buf[] bufs_;
-    private final long[] offsets_;
-    private final int recSize_;
-    private Block lastBlock_;
+    private final Tree tree_;
+    private volatile Block lastBlock_;
+
+    /** Record type code of a Variable Values Record. */
+    private static final int VVR_TYPE = 7;
+
+    /** Record type code of a Compressed Variable Values Record. */
+    private static final int CVVR_TYPE = 13;
 
     /**
      * Constructor.
      *
-     * @param   array of entries containing stored variable record blocks,
-     *          need not be sorted
-     * @param   recSize   size of each variable record in bytes
+     * @param  tree  lazily populated index tree
      */
-    private RecordMap( Entry[] entries, int recSize ) {
-        recSize_ = recSize;
-
-        // Sort entries into order of record data.
-        Arrays.sort( entries );
-
-        // Store the entry information in a convenient form.
-        nent_ = entries.length;
-        firsts_ = new int[ nent_ ];
-        lasts_ = new int[ nent_ ];
-        bufs_ = new Buf[ nent_ ];
-        offsets_ = new long[ nent_ ];
-        for ( int ie = 0; ie < nent_; ie++ ) {
-            Entry entry = entries[ ie ];
-            firsts_[ ie ] = entry.first_;
-            lasts_[ ie ] = entry.last_;
-            bufs_[ ie ] = entry.buf_;
-            offsets_[ ie ] = entry.offset_;
-        }
+    private RecordMap( Tree tree ) {
+        tree_ = tree;
+        lastBlock_ = new Block( null, false, 0, -1 );
+    }
 
-        // Initialise the most recently used block value
-        lastBlock_ = nent_ > 0 ? calculateBlock( 0 )
-                               : new Block( -1, -1, -1 );
+    /**
+     * Returns a new map which shares this one's entries,
+     * but maintains its own record lookup state.
+     * This is cheap, since none of the VXR tree is re-read.
+     * Although a RecordMap may be used from multiple threads,
+     * giving each thread its own view avoids contention for the
+     * internal state.
+     *
+     * @return  new view of this map
+     */
+    public RecordMap createView() {
+        RecordMap view = new RecordMap( tree_ );
+        view.lastBlock_ = lastBlock_;
+        return view;
     }
 
     /**
      * Returns the number of entries managed by this map.
+     * This requires the whole tree to be read, if it has not been already.
      *
      * @return   entry count
      */
     public int getEntryCount() {
-        return nent_;
+        return getSortedLeaves().length;
+    }
+
+    /**
+     * Returns the number of entries that have been read so far.
+     * Since the tree is read lazily, this may increase as records
+     * are looked up; it does not itself cause any of the tree to be read.
+     *
+     * @return   number of entries read so far
+     */
+    public int getKnownEntryCount() {
+        return tree_.nleaf_;
     }
 
     /**
@@ -86,26 +126,123 @@ public class RecordMap {
      * <p>If non-negative, the result can be used with the
      * <code>getBuf</code> and <code>getOffset</code> methods.
      *
+     * <p>This requires the whole tree to be read, if it has not been
+     * already.
+     *
      * @param  irec  record index
      * @return  index of entry covering <code>irec</code>, or a negative
      *          value if no entry covers it
      */
     public int getEntryIndex( int irec ) {
+        getSortedLeaves();
+        Block block;
+        try {
+            block = getBlock( irec );
+        }
+        catch ( IOException e ) {
+            throw new RuntimeException( "Error reading VXR tree", e );
+        }
+        Leaf leaf = block.leaf_;
+        if ( block.isStored_ ) {
+            return leaf.index_;
+        }
+        else {
+            return leaf == null ? -1 : -leaf.index_ - 2;
+        }
+    }
 
-        // There's a good chance that the answer is the same as the last
-        // time somebody asked, so first of all do the cheap test to find
-        // out if that's the case.  If so, return the cached one.
-        // Otherwise, do the work to find out the right answer.
-        // Although this may be called from multiple threads it's harmless
-        // since Block instances are immutable and having the wrong value
-        // has only performance not correctness implications.
-        Block block = lastBlock_;
-        if ( ! block.contains( irec ) ) {
-            block = calculateBlock( irec );
-            lastBlock_ = block;
+    /**
+     * Returns the entry containing a given record.
+     * Only the parts of the tree required are read.
+     *
+     * @param  irec  record index
+     * @return  entry covering <code>irec</code>,
+     *          or null if no entry covers it
+     */
+    public Entry findEntry( int irec ) throws IOException {
+        Block block = getBlock( irec );
+        return block.isStored_ ? block.leaf_.entry_ : null;
+    }
+
+    /**
+     * Returns the entry containing a given record, or if no entry
+     * contains it, the last entry before it.
+     * Only the parts of the tree required are read.
+     *
+     * @param  irec  record index
+     * @return  entry covering <code>irec</code>, or the entry preceding
+     *          the sparse region containing it,
+     *          or null if no records at or before <code>irec</code>
+     *          are stored
+     */
+    public Entry findEntryAtOrBefore( int irec ) throws IOException {
+        Leaf leaf = getBlock( irec ).leaf_;
+        return leaf == null ? null : leaf.entry_;
+    }
+
+    /**
+     * Returns the index of the first record after a given one
+     * which is not in the same block.
+     * A block is either the range of records covered by a single entry,
+     * or a range of records between entries which none covers.
+     * All the records in a block therefore give the same result
+     * from {@link #findEntry}.
+     * Only the parts of the tree required are read.
+     *
+     * @param  irec  record index
+     * @return  index of the first record after the block containing
+     *          <code>irec</code>; may be greater than
+     *          <code>Integer.MAX_VALUE</code>
+     */
+    public long getNextBlockStart( int irec ) throws IOException {
+        return getBlock( irec ).high_ + 1L;
+    }
+
+    /**
+     * Returns the index of the first record stored in a given entry.
+     *
+     * @param  ient  non-negative entry index
+     * @return  first record index covered by entry
+     */
+    public int getFirstRecord( int ient ) {
+        return getSortedLeaves()[ ient ].entry_.first_;
+    }
+
+    /**
+     * Returns the index of the last record stored in a given entry.
+     *
+     * @param  ient  non-negative entry index
+     * @return  last record index covered by entry
+     */
+    public int getLastRecord( int ient ) {
+        return getSortedLeaves()[ ient ].entry_.last_;
+    }
+
+    /**
+     * Requests background uncompression of any compressed blocks
+     * containing data for a given range of records.
+     * This only has an effect if the compressed blocks are managed by
+     * a {@link BlockCache} with an executor.
+     * Since the blocks are uncompressed concurrently,
+     * this can be used to spread the work of uncompressing
+     * a large variable over multiple cores.
+     *
+     * @param  firstRec  index of first record
+     * @param  count   number of records
+     */
+    public void prefetchRecords( int firstRec, int count )
+            throws IOException {
+        long lastRec = firstRec + (long) count - 1;
+        for ( long irec = firstRec; irec <= lastRec; ) {
+            Block block = getBlock( (int) irec );
+            if ( block.isStored_ ) {
+                Buf buf = block.leaf_.entry_.buf_;
+                if ( buf instanceof CompressedBlockBuf ) {
+                    ((CompressedBlockBuf) buf).prefetch();
+                }
+            }
+            irec = block.high_ + 1L;
         }
-        assert block.contains( irec );
-        return block.ient_;
     }
 
     /**
@@ -118,7 +255,7 @@ public class RecordMap {
      * @see   #getEntryIndex
      */
     public Buf getBuf( int ient ) {
-        return bufs_[ ient ];
+        return getSortedLeaves()[ ient ].entry_.buf_;
     }
 
     /**
@@ -134,8 +271,7 @@ public class RecordMap {
      * @see   #getEntryIndex
      */
     public long getOffset( int ient, int irec ) {
-        assert irec >= firsts_[ ient ] && irec <= lasts_[ ient ];
-        return offsets_[ ient ] + ( irec - firsts_[ ient ] ) * recSize_;
+        return getSortedLeaves()[ ient ].entry_.getOffset( irec );
     }
 
     /**
@@ -145,74 +281,162 @@ public class RecordMap {
      * @return  offset into ient's buffer of ient's final record
      */
     public long getFinalOffsetInEntry( int ient ) {
-        return offsets_[ ient ]
-             + ( lasts_[ ient ] - firsts_[ ient ] + 1 ) * recSize_;
+        return getSortedLeaves()[ ient ].entry_.getFinalOffset();
     }
 
     /**
-     * Examines this map's lookup tables to determine the block covering
-     * a given record.
+     * Writes a compact description of all this map's entries to a stream,
+     * from which an equivalent map can be recreated without reading
+     * the VXR tree using {@link #readRecordMap readRecordMap}.
+     * This requires the whole tree to be read, if it has not been already.
      *
-     * @param  irec   record index
-     * @return   block containing irec
+     * <p>The output is an int giving the entry count, followed by
+     * each entry in record order, written as the first and last record
+     * indices (ints), the record type of the data record (byte),
+     * and the file offset of the record data (long).
+     *
+     * @param  out  destination stream
      */
-    private Block calculateBlock( int irec ) {
-
-        // Look for the record in the first-record-of-entry list.
-        int firstIndex = binarySearch( firsts_, irec );
-
-        // If found, irec is in the corresponding block.
-        if ( firstIndex >= 0 ) {
-            return new Block( firstIndex,
-                              firsts_[ firstIndex ], lasts_[ firstIndex ] );
+    public void writeEntries( DataOutput out ) throws IOException {
+        Leaf[] leaves = tree_.readSortedLeaves();
+        out.writeInt( leaves.length );
+        for ( Leaf leaf : leaves ) {
+            Entry entry = leaf.entry_;
+            out.writeInt( entry.first_ );
+            out.writeInt( entry.last_ );
+            if ( entry.buf_ instanceof CompressedBlockBuf ) {
+                out.writeByte( CVVR_TYPE );
+                out.writeLong( ((CompressedBlockBuf) entry.buf_)
+                              .getInputOffset() );
+            }
+            else {
+                out.writeByte( VVR_TYPE );
+                out.writeLong( entry.offset_ );
+            }
         }
+    }
 
-        // If it's located before the start, it's in a sparse block
-        // before the first actual record.
-        else if ( firstIndex == -1 ) {
-            return new Block( -firstIndex - 2, 0, firsts_[ 0 ] - 1 );
+    /**
+     * Returns all the leaves in record order, reading the whole tree
+     * if necessary.  Read errors are rethrown unchecked, since this
+     * is used by methods that have never declared IOException.
+     *
+     * @return  leaves sorted by record index
+     */
+    private Leaf[] getSortedLeaves() {
+        Leaf[] leaves = tree_.sorted_;
+        if ( leaves != null ) {
+            return leaves;
         }
-
-        // Otherwise, record the first entry it's after the start of.
-        else {
-            firstIndex = -2 - firstIndex;
+        try {
+            return tree_.readSortedLeaves();
+        }
+        catch ( IOException e ) {
+            throw new RuntimeException( "Error reading VXR tree", e );
         }
+    }
 
-        // Look for the record in the last-record-of-entry list.
-        int lastIndex = binarySearch( lasts_, irec );
+    /**
+     * Returns the block containing a given record.
+     *
+     * @param  irec  record index
+     * @return  block containing irec
+     */
+    private Block getBlock( int irec ) throws IOException {
 
-        // If found, irec is in the corresponding block.
-        if ( lastIndex >= 0 ) {
-            return new Block( lastIndex,
-                              firsts_[ lastIndex ], lasts_[ lastIndex ] );
+        // There's a good chance that the answer is the same as the last
+        // time somebody asked, so first of all do the cheap test to find
+        // out if that's the case.  If so, return the cached one.
+        // Otherwise, do the work to find out the right answer.
+        // Although this may be called from multiple threads it's harmless
+        // since Block instances are immutable and having the wrong value
+        // has only performance not correctness implications.
+        Block block = lastBlock_;
+        if ( ! block.contains( irec ) ) {
+            block = calculateBlock( irec );
+            lastBlock_ = block;
         }
+        assert block.contains( irec );
+        return block;
+    }
 
-        // If it's located after the end, it's in a sparse block
-        // after the last actual record.
-        else if ( lastIndex == - nent_ - 1 ) {
-            return new Block( lastIndex,
-                              lasts_[ nent_ - 1 ], Integer.MAX_VALUE );
+    /**
+     * Descends the index tree to determine the block covering
+     * a given record, reading parts of the tree as required.
+     *
+     * @param  irec   record index
+     * @return   block containing irec
+     */
+    private Block calculateBlock( int irec ) throws IOException {
+        Group group = tree_.root_;
+        if ( group == null ) {
+            return new Block( null, false, 0, Integer.MAX_VALUE );
         }
+        int low = 0;
+        int high = Integer.MAX_VALUE;
+        Item prev = null;
+        Item following = null;
+        while ( true ) {
+            Item[] items = group.getItems( tree_ );
 
-        // Otherwise, record the last entry it's before the end of.
-        else {
-            lastIndex = -1 - lastIndex;
-        }
+            // Find the last item starting at or before the record.
+            int lo = -1;
+            int hi = items.length - 1;
+            while ( lo < hi ) {
+                int mid = ( lo + hi + 1 ) >>> 1;
+                if ( items[ mid ].first_ <= irec ) {
+                    lo = mid;
+                }
+                else {
+                    hi = mid - 1;
+                }
+            }
+            int ic = lo;
+            Item before = ic > 0 ? items[ ic - 1 ] : prev;
+            int afterFirst = ic + 1 < items.length ? items[ ic + 1 ].first_
+                                                   : -1;
 
-        // If it's after the first record and before the last record
-        // of a single block, that's the one.
-        if ( firstIndex == lastIndex ) {
-            return new Block( firstIndex,
-                              firsts_[ firstIndex ], lasts_[ firstIndex ] );
-        }
+            // If the record is within an item, it's either an actual
+            // entry, or a subtree that has to be searched in its turn.
+            if ( ic >= 0 && irec <= items[ ic ].last_ ) {
+                Item item = items[ ic ];
+                if ( item instanceof Leaf ) {
+                    if ( tree_.compress_ != Compression.NONE &&
+                         ! group.followingLinked_ ) {
+                        group.linkFollowing( following, tree_ );
+                    }
+                    return new Block( (Leaf) item, true,
+                                      item.first_, item.last_ );
+                }
+                else {
+                    if ( before != null ) {
+                        low = Math.max( low, before.last_ + 1 );
+                    }
+                    if ( afterFirst >= 0 ) {
+                        high = Math.min( high, afterFirst - 1 );
+                    }
+                    prev = before;
+                    if ( ic + 1 < items.length ) {
+                        following = items[ ic + 1 ];
+                    }
+                    group = (Group) item;
+                }
+            }
 
-        // Otherwise, it's in a sparse block between
-        // the end of the entry it's after the first record of, and
-        // the start of the entry it's before the last record of.
-        else {
-            return new Block( -firstIndex - 2,
-                              lasts_[ firstIndex ] + 1,
-                              firsts_[ lastIndex ] - 1 );
+            // Otherwise, it's in a sparse block between items.
+            else {
+                Item prevItem = ic >= 0 ? items[ ic ] : prev;
+                if ( ic >= 0 ) {
+                    low = Math.max( low, items[ ic ].last_ + 1 );
+                }
+                if ( afterFirst >= 0 ) {
+                    high = Math.min( high, afterFirst - 1 );
+                }
+                Leaf prevLeaf = prevItem == null
+                              ? null
+                              : prevItem.getLastLeaf( tree_ );
+                return new Block( prevLeaf, false, low, high );
+            }
         }
     }
 
@@ -230,20 +454,72 @@ public class RecordMap {
             throws IOException {
         Compression compress = getCompression( vdr, recFact );
         Buf buf = vdr.getBuf();
+        Tree tree = new Tree( buf, recFact, recSize, compress );
+        tree.root_ = tree.createChain( vdr.vxrHead );
+        return new RecordMap( tree );
+    }
 
-        // Walk the entry linked list to assemble a list of entries.
-        List<Entry> entryList = new ArrayList<Entry>();
-        for ( long vxrOffset = vdr.vxrHead; vxrOffset != 0; ) {
-            VariableIndexRecord vxr =
-                recFact.createRecord( buf, vxrOffset,
-                                      VariableIndexRecord.class );
-            readEntries( vxr, buf, recFact, recSize, compress, entryList );
-            vxrOffset = vxr.vxrNext;
+    /**
+     * Returns a record map for a given variable whose entries are read
+     * from a stream written by {@link #writeEntries writeEntries},
+     * rather than from the variable's VXR tree.
+     * No records other than the variable's Compressed Parameters Record,
+     * if any, are read from the data buffer.
+     *
+     * @param  in   stream positioned at the start of the entry list
+     * @param  vdr  variable descriptor record
+     * @param  recFact  record factory
+     * @param  recSize  size in bytes of each variable value record
+     * @return  record map
+     * @throws  IOException  if the stream does not contain
+     *                       a valid entry list
+     */
+    public static RecordMap readRecordMap( DataInput in,
+                                           VariableDescriptorRecord vdr,
+                                           RecordFactory recFact,
+                                           int recSize )
+            throws IOException {
+        Compression compress = getCompression( vdr, recFact );
+        Buf buf = vdr.getBuf();
+        Tree tree = new Tree( buf, recFact, recSize, compress );
+        int nent = in.readInt();
+        if ( nent < 0 ) {
+            throw new IOException( "Bad entry count " + nent );
         }
-        Entry[] entries = entryList.toArray( new Entry[ 0 ] );
-
-        // Make a RecordMap out of it.
-        return new RecordMap( entries, recSize );
+        Item[] items = new Item[ nent ];
+        CompressedBlockBuf prevBlock = null;
+        for ( int ie = 0; ie < nent; ie++ ) {
+            int first = in.readInt();
+            int last = in.readInt();
+            int recType = in.readByte();
+            long offset = in.readLong();
+            if ( last < first ||
+                 ( ie > 0 && first <= items[ ie - 1 ].last_ ) ) {
+                throw new IOException( "Bad record range " + first + ".."
+                                     + last + " for entry " + ie );
+            }
+            if ( recType == VVR_TYPE ) {
+                items[ ie ] = tree.addLeaf( first, last, buf, offset );
+            }
+            else if ( recType == CVVR_TYPE ) {
+                long uncompressedSize = ( last - first + 1 ) * (long) recSize;
+                CompressedBlockBuf block =
+                    new CompressedBlockBuf( compress, buf, offset,
+                                            uncompressedSize,
+                                            BlockCache.getDefaultCache() );
+                if ( prevBlock != null ) {
+                    prevBlock.setNext( block );
+                }
+                prevBlock = block;
+                items[ ie ] = tree.addLeaf( first, last, block, 0L );
+            }
+            else {
+                throw new IOException( "Bad record type " + recType
+                                     + " for entry " + ie );
+            }
+        }
+        tree.root_ = nent > 0 ? new Group( items ) : null;
+        return new RecordMap( tree );
     }
 
     /**
@@ -269,53 +545,210 @@ public class RecordMap {
     }
 
     /**
-     * Reads the list of Entries from a Variable Index Record
-     * into a supplied list.
-     *
-     * @param  vxr  variable index record
-     * @param  buf  data buffer containing vxr
-     * @param  recFact  record factory
-     * @param  recSize  size in bytes of each variable value record
-     * @param  compress  compression type
-     * @param   list  list into which any entries found are added
+     * Describes a contiguous block of stored records for a variable,
+     * as returned by the lazy lookup methods of a RecordMap.
      */
-    private static void readEntries( VariableIndexRecord vxr, Buf buf,
-                                     RecordFactory recFact, int recSize,
-                                     Compression compress, List<Entry> list )
-            throws IOException {
+    public static class Entry {
+        private final int first_;
+        private final int last_;
+        private final Buf buf_;
+        private final long offset_;
+        private final int recSize_;
 
-        // Go through each entry in the VXR.
-        // Each one may be a VVR, a CVVR, or a subordinate VXR
-        // (the format document is not very explicit about this, but it
-        // seems to be what happens).
-        // The only way to know which each entry is, is to examine
-        // the record type value for each one (the RecordFactory takes
-        // care of this by creating the right class).
-        int nent = vxr.nUsedEntries;
-        for ( int ie = 0; ie < nent; ie++ ) {
-            int first = vxr.first[ ie ];
-            int last = vxr.last[ ie ];
-            Record rec = recFact.createRecord( buf, vxr.offset[ ie ] );
+        /**
+         * Constructor.
+         *
+         * @param  first  index of first record in this entry
+         * @param  last   index of last record (inclusive) in this entry
+         * @param  buf    buffer containing the data
+         * @param  offset  byte offset into buffer at which the record block
+         *                 starts
+         * @param  recSize  size in bytes of each variable value record
+         */
+        Entry( int first, int last, Buf buf, long offset, int recSize ) {
+            first_ = first;
+            last_ = last;
+            buf_ = buf;
+            offset_ = offset;
+            recSize_ = recSize;
+        }
+
+        /**
+         * Returns the index of the first record stored in this entry.
+         *
+         * @return  first record index
+         */
+        public int getFirstRecord() {
+            return first_;
+        }
+
+        /**
+         * Returns the index of the last record stored in this entry.
+         *
+         * @return  last record index (inclusive)
+         */
+        public int getLastRecord() {
+            return last_;
+        }
+
+        /**
+         * Returns the data buffer for this entry.
+         *
+         * @return  buf
+         */
+        public Buf getBuf() {
+            return buf_;
+        }
+
+        /**
+         * Returns the byte offset for a record in this entry.
+         *
+         * @param  irec  record index, which must be covered by this entry
+         * @return  offset into this entry's buffer at which
+         *          <code>irec</code> can be found
+         */
+        public long getOffset( int irec ) {
+            assert irec >= first_ && irec <= last_;
+            return offset_ + ( irec - first_ ) * (long) recSize_;
+        }
+
+        /**
+         * Returns the offset of the last record in this entry.
+         *
+         * @return  offset into this entry's buffer of its final record
+         */
+        public long getFinalOffset() {
+            return offset_ + ( last_ - first_ ) * (long) recSize_;
+        }
+    }
+
+    /**
+     * Holds the state shared between all views of a record map:
+     * the partially read index tree.
+     */
+    private static class Tree {
+        final Buf buf_;
+        final RecordFactory recFact_;
+        final int recSize_;
+        final Compression compress_;
+        Group root_;
+        volatile int nleaf_;
+        volatile Leaf[] sorted_;
+
+        /**
+         * Constructor.
+         *
+         * @param  buf  data buffer
+         * @param  recFact  record factory
+         * @param  recSize  size in bytes of each variable value record
+         * @param  compress  compression type
+         */
+        Tree( Buf buf, RecordFactory recFact, int recSize,
+              Compression compress ) {
+            buf_ = buf;
+            recFact_ = recFact;
+            recSize_ = recSize;
+            compress_ = compress;
+        }
+
+        /**
+         * Returns all the leaves in record order, reading any unread
+         * parts of the tree, and numbers them accordingly.
+         *
+         * @return  leaves sorted by record index
+         */
+        synchronized Leaf[] readSortedLeaves() throws IOException {
+            if ( sorted_ == null ) {
+                List<Leaf> list = new ArrayList<Leaf>();
+                if ( root_ != null ) {
+                    addLeaves( root_, this, list );
+                }
+                Leaf[] leaves = list.toArray( new Leaf[ 0 ] );
+                for ( int i = 0; i < leaves.length; i++ ) {
+                    leaves[ i ].index_ = i;
+                }
+                sorted_ = leaves;
+            }
+            return sorted_;
+        }
+
+        /**
+         * Reads a linked list of VXRs into a group with one
+         * unread subgroup per VXR.
+         *
+         * @param  vxrOffset  file offset of first VXR in list, or 0
+         * @return  group, or null if there are no entries
+         */
+        Group createChain( long vxrOffset ) throws IOException {
+            List<Item> list = new ArrayList<Item>();
+            while ( vxrOffset != 0 ) {
+                VariableIndexRecord vxr =
+                    recFact_.createRecord( buf_, vxrOffset,
+                                           VariableIndexRecord.class );
+                Group group = createVxrGroup( vxr );
+                if ( group != null ) {
+                    list.add( group );
+                }
+                vxrOffset = vxr.vxrNext;
+            }
+            return list.size() > 0 ? new Group( arrangeItems( list ) )
+                                   : null;
+        }
+
+        /**
+         * Creates a group whose items are the entries of a single VXR.
+         * The records the entries point to are not read until required.
+         *
+         * @param  vxr  variable index record
+         * @return  group, or null if there are no entries
+         */
+        Group createVxrGroup( VariableIndexRecord vxr ) {
+            int nent = vxr.nUsedEntries;
+            return nent > 0
+                 ? new Group( vxr.first, vxr.last, vxr.offset, nent )
+                 : null;
+        }
 
-            // VVR: turn it directly into a new Entry and add to the list.
+        /**
+         * Reads the record pointed to by a VXR entry and turns it into
+         * an item.
+         *
+         * @param  first  index of first record covered by entry
+         * @param  last   index of last record (inclusive) covered by entry
+         * @param  offset  file offset of record pointed to by entry
+         * @return  item, or null if there are no entries
+         */
+        Item readItem( int first, int last, long offset ) throws IOException {
+
+            // Each entry in a VXR may be a VVR, a CVVR, or a subordinate
+            // VXR (the format document is not very explicit about this,
+            // but it seems to be what happens).
+            // The only way to know which each entry is, is to examine
+            // the record type value for each one (the RecordFactory takes
+            // care of this by creating the right class).
+            Record rec = recFact_.createRecord( buf_, offset );
+
+            // VVR: turn it directly into a new entry.
             if ( rec instanceof VariableValuesRecord ) {
                 VariableValuesRecord vvr = (VariableValuesRecord) rec;
-                list.add( new Entry( first, last, buf,
-                                     vvr.getRecordsOffset() ) );
+                return addLeaf( first, last, buf_, vvr.getRecordsOffset() );
             }
 
-            // CVVR: uncompress and turn it into a new Entry and add to list.
+            // CVVR: turn it into a new entry which will uncompress
+            // its data when required.
             else if ( rec instanceof CompressedVariableValuesRecord ) {
                 CompressedVariableValuesRecord cvvr =
                     (CompressedVariableValuesRecord) rec;
-                int uncompressedSize = ( last - first + 1 ) * recSize;
-                Buf cBuf = Bufs.uncompress( compress, buf, cvvr.getDataOffset(),
-                                            uncompressedSize );
-                list.add( new Entry( first, last, cBuf, 0L ) );
+                long uncompressedSize = ( last - first + 1 ) * (long) recSize_;
+                Buf cBuf =
+                    new CompressedBlockBuf( compress_, buf_,
+                                            cvvr.getDataOffset(),
+                                            uncompressedSize,
+                                            BlockCache.getDefaultCache() );
+                return addLeaf( first, last, cBuf, 0L );
             }
 
             // VXR: this is a reference to another sub-tree of entries.
-            // Handle it with a recursive call to this routine.
             else if ( rec instanceof VariableIndexRecord ) {
 
                 // Amazingly, it's necessary to walk both the subtree of
@@ -325,15 +758,17 @@ public class RecordMap {
                 // seen at least one file where it happens
                 // (STEREO_STA_L1_MAG_20070708_V03.cdf).
                 VariableIndexRecord subVxr = (VariableIndexRecord) rec;
-                readEntries( subVxr, buf, recFact, recSize, compress, list );
-                for ( long nextVxrOff = subVxr.vxrNext; nextVxrOff != 0; ) {
-                    VariableIndexRecord nextVxr =
-                        recFact.createRecord( buf, nextVxrOff,
-                                              VariableIndexRecord.class );
-                    readEntries( nextVxr, buf, recFact, recSize, compress,
-                                 list );
-                    nextVxrOff = nextVxr.vxrNext;
+                List<Item> list = new ArrayList<Item>();
+                Group group = createVxrGroup( subVxr );
+                if ( group != null ) {
+                    list.add( group );
                 }
+                Group chain = createChain( subVxr.vxrNext );
+                if ( chain != null ) {
+                    list.add( chain );
+                }
+                return list.size() > 0 ? new Group( arrangeItems( list ) )
+                                       : null;
             }
 
             // Some other record type - no ideas.
@@ -346,60 +781,278 @@ public class RecordMap {
                 throw new CdfFormatException( msg );
             }
         }
+
+        /**
+         * Sorts a list of sibling items into record order.
+         * Normally the items cover disjoint record ranges,
+         * but that is not guaranteed, for instance the VXRs in a linked
+         * list may index interleaved sets of entries.
+         * In that case the overlapping groups are replaced by their
+         * contents, so that a simple search of the result works.
+         *
+         * @param  list  items
+         * @return  sorted array of items with disjoint ranges
+         */
+        Item[] arrangeItems( List<Item> list ) throws IOException {
+            Item[] items = sortItems( list.toArray( new Item[ 0 ] ) );
+            for ( int i = 1; i < items.length; i++ ) {
+                Item item0 = items[ i - 1 ];
+                Item item1 = items[ i ];
+                if ( item1.first_ <= item0.last_ &&
+                     ( item0 instanceof Group || item1 instanceof Group ) ) {
+                    List<Item> expanded = new ArrayList<Item>();
+                    for ( int j = 0; j < items.length; j++ ) {
+                        Item item = items[ j ];
+                        if ( ( j == i - 1 || j == i ) &&
+                             item instanceof Group ) {
+                            Item[] subItems = ((Group) item).getItems( this );
+                            expanded.addAll( Arrays.asList( subItems ) );
+                        }
+                        else {
+                            expanded.add( item );
+                        }
+                    }
+                    return arrangeItems( expanded );
+                }
+            }
+            return items;
+        }
+
+        /**
+         * Creates a new entry.
+         *
+         * @param  first  index of first record in entry
+         * @param  last   index of last record (inclusive) in entry
+         * @param  buf    buffer containing the data
+         * @param  offset  byte offset into buffer at which the record block
+         *                 starts
+         * @return  new leaf
+         */
+        synchronized Leaf addLeaf( int first, int last, Buf buf,
+                                   long offset ) {
+            nleaf_++;
+            return new Leaf( new Entry( first, last, buf, offset,
+                                        recSize_ ) );
+        }
     }
 
     /**
-     * Represents an entry in a Variable Index Record.
-     * It records the position and extent of a contiguous block of
-     * variable values (a Variable Values Record) for its variable.
-     *
-     * <p>Note that following the usage in VXR fields, the first and
-     * last values are inclusive, so the number of records represented
-     * by this entry is <code>last-first+1</code>.
+     * Node of the index tree covering a contiguous range of records.
+     * Ranges are inclusive, following the usage in VXR fields.
      */
-    private static class Entry implements Comparable<Entry> {
-        private final int first_;
-        private final int last_;
-        private final Buf buf_;
-        private final long offset_;
+    private static abstract class Item {
+        final int first_;
+        final int last_;
 
         /**
          * Constructor.
          *
-         * @param  first  index of first record in this entry
-         * @param  last   index of last record (inclusive) in this entry
-         * @param  buf    buffer containing the data
-         * @param  offset  byte offset into buffer at which the record block
-         *                 starts
+         * @param  first  index of first record covered
+         * @param  last   index of last record (inclusive) covered
          */
-        Entry( int first, int last, Buf buf, long offset ) {
+        Item( int first, int last ) {
             first_ = first;
             last_ = last;
-            buf_ = buf;
-            offset_ = offset;
         }
 
         /**
-         * Compares this entry to another on the basis of record indices.
+         * Returns the entry covering the lowest records in this item.
+         *
+         * @param  tree  tree to which this item belongs
+         * @return  first leaf, or null if there is none
+         */
+        abstract Leaf getFirstLeaf( Tree tree ) throws IOException;
+
+        /**
+         * Returns the entry covering the highest records in this item.
+         *
+         * @param  tree  tree to which this item belongs
+         * @return  last leaf, or null if there is none
+         */
+        abstract Leaf getLastLeaf( Tree tree ) throws IOException;
+    }
+
+    /**
+     * Item representing an actual entry.
+     * Its index in record order is assigned when the whole tree is read.
+     */
+    private static class Leaf extends Item {
+        final Entry entry_;
+        int index_;
+
+        /**
+         * Constructor.
+         *
+         * @param  entry  entry
+         */
+        Leaf( Entry entry ) {
+            super( entry.first_, entry.last_ );
+            entry_ = entry;
+            index_ = -1;
+        }
+
+        Leaf getFirstLeaf( Tree tree ) {
+            return this;
+        }
+
+        Leaf getLastLeaf( Tree tree ) {
+            return this;
+        }
+    }
+
+    /**
+     * Item containing a sorted list of other items.
+     * If constructed from VXR entries, the records the entries point to
+     * are only read when the list is first requested.
+     */
+    private static class Group extends Item {
+        private final int nent_;
+        private int[] firsts_;
+        private int[] lasts_;
+        private long[] offsets_;
+        private volatile Item[] items_;
+        volatile boolean followingLinked_;
+
+        /**
+         * Constructs a group from existing items.
+         *
+         * @param  items  non-empty array of items, sorted and disjoint
+         */
+        Group( Item[] items ) {
+            super( getFirst( items ), getLast( items ) );
+            nent_ = items.length;
+            items_ = items;
+        }
+
+        /**
+         * Constructs a group from VXR entries, which will be read
+         * when required.
+         *
+         * @param  firsts  first record index for each entry
+         * @param  lasts   last record index for each entry
+         * @param  offsets  file offset of record for each entry
+         * @param  nent   number of entries used, greater than zero
+         */
+        Group( int[] firsts, int[] lasts, long[] offsets, int nent ) {
+            super( min( firsts, nent ), max( lasts, nent ) );
+            nent_ = nent;
+            firsts_ = firsts;
+            lasts_ = lasts;
+            offsets_ = offsets;
+        }
+
+        /**
+         * Returns the items in this group, sorted by record index.
+         * The first call may require records to be read.
+         *
+         * @param  tree  tree to which this group belongs
+         * @return  items
+         */
+        Item[] getItems( Tree tree ) throws IOException {
+            Item[] items = items_;
+            return items == null ? readItems( tree ) : items;
+        }
+
+        /**
+         * Reads the records pointed to by this group's entries.
+         *
+         * @param  tree  tree to which this group belongs
+         * @return  items
+         */
+        private synchronized Item[] readItems( Tree tree ) throws IOException {
+            if ( items_ == null ) {
+                List<Item> list = new ArrayList<Item>();
+                for ( int ie = 0; ie < nent_; ie++ ) {
+                    Item item = tree.readItem( firsts_[ ie ], lasts_[ ie ],
+                                               offsets_[ ie ] );
+                    if ( item != null ) {
+                        list.add( item );
+                    }
+                }
+                Item[] items = tree.arrangeItems( list );
+
+                // Link compressed blocks in order, so they can be read ahead.
+                CompressedBlockBuf prevBlock = null;
+                for ( int i = 0; i < items.length; i++ ) {
+                    Item item = items[ i ];
+                    if ( item instanceof Leaf &&
+                         ((Leaf) item).entry_.buf_
+                         instanceof CompressedBlockBuf ) {
+                        CompressedBlockBuf block =
+                            (CompressedBlockBuf) ((Leaf) item).entry_.buf_;
+                        if ( prevBlock != null ) {
+                            prevBlock.setNext( block );
+                        }
+                        prevBlock = block;
+                    }
+                }
+                firsts_ = null;
+                lasts_ = null;
+                offsets_ = null;
+                items_ = items;
+            }
+            return items_;
+        }
+
+        /**
+         * Links the last compressed block of this group to the first
+         * compressed block of the item that follows it in record order,
+         * so that read-ahead can continue across VXR boundaries.
+         *
+         * @param  following  item following this one, or null
+         * @param  tree  tree to which this group belongs
          */
-        public int compareTo( Entry other ) {
-            return this.first_ - other.first_;
+        synchronized void linkFollowing( Item following, Tree tree )
+                throws IOException {
+            if ( ! followingLinked_ ) {
+                if ( following != null ) {
+                    Leaf last = getLastLeaf( tree );
+                    Leaf next = following.getFirstLeaf( tree );
+                    if ( last != null && next != null &&
+                         last.entry_.buf_ instanceof CompressedBlockBuf &&
+                         next.entry_.buf_ instanceof CompressedBlockBuf ) {
+                        ((CompressedBlockBuf) last.entry_.buf_)
+                           .setNext( (CompressedBlockBuf) next.entry_.buf_ );
+                    }
+                }
+                followingLinked_ = true;
+            }
+        }
+
+        Leaf getFirstLeaf( Tree tree ) throws IOException {
+            Item[] items = getItems( tree );
+            for ( int i = 0; i < items.length; i++ ) {
+                Leaf leaf = items[ i ].getFirstLeaf( tree );
+                if ( leaf != null ) {
+                    return leaf;
+                }
+            }
+            return null;
+        }
+
+        Leaf getLastLeaf( Tree tree ) throws IOException {
+            Item[] items = getItems( tree );
+            for ( int i = items.length - 1; i >= 0; i-- ) {
+                Leaf leaf = items[ i ].getLastLeaf( tree );
+                if ( leaf != null ) {
+                    return leaf;
+                }
+            }
+            return null;
         }
     }
 
     /**
      * Represents a block of records, that is a contiguous sequence of records.
-     * This may corrrespond to an actual data-bearing Entry, or it may
+     * This may corrrespond to an actual data-bearing entry, or it may
      * correspond to a gap where no Entry exists, before the first entry,
      * or after the last, or between entries if the records are sparse.
      *
-     * <p>The <code>ient</code> member gives the index of the corresponding
-     * Entry.
-     * If there is no corresponding entry (the record is in a sparse
-     * region), the value is <code>(-fr-2)</code>, where <code>fr</code>
-     * is the index of the previous entry.
-     * A value of -1 indicates that the requested record is
-     * in a sparse region before the first stored record.
+     * <p>If the block is stored, the <code>leaf</code> member is the
+     * corresponding entry.
+     * If not (the block is a sparse region), it is the entry
+     * preceding the block, or null if the block precedes the
+     * first stored record.
      *
      * <p>Note that following the usage in VXR fields, the low and
      * high values are inclusive, so the number of records represented
@@ -407,20 +1060,23 @@ public class RecordMap {
      *
      */
     private static class Block {
-        final int ient_;
+        final Leaf leaf_;
+        final boolean isStored_;
         final int low_;
         final int high_;
 
         /**
          * Constructor.
          *
-         * @param   ient  index of Entry containing this block's data;
-         *                negative value means sparse
+         * @param   leaf  entry containing this block's data if stored,
+         *                otherwise entry preceding this block, or null
+         * @param   isStored  true if this block's records are stored
          * @param   low   lowest record index contained in this block
          * @param   high  highest record index contained in this block
          */
-        Block( int ient, int low, int high ) {
-            ient_ = ient;
+        Block( Leaf leaf, boolean isStored, int low, int high ) {
+            leaf_ = leaf;
+            isStored_ = isStored;
             low_ = low;
             high_ = high;
         }
@@ -437,34 +1093,95 @@ public class RecordMap {
     }
 
     /**
-     * Performs a binary search on an array.
-     * Calls Arrays.binarySearch to do the work.
+     * Sorts an array of items into order of record index.
      *
-     * @param  array   array in ascending sorted order
-     * @param  key   value to search for
-     * @return  index of the search key, if it is contained in the list;
-     *          otherwise, (-(insertion point) - 1). 
-     * @see   java.util.Arrays#binarySearch(int[],int)
+     * @param  items  items
+     * @return  the same array, sorted in place
      */
-    private static int binarySearch( int[] array, int key ) {
-        assert isSorted( array );
-        return Arrays.binarySearch( array, key );
+    private static Item[] sortItems( Item[] items ) {
+        Arrays.sort( items, new Comparator<Item>() {
+            public int compare( Item i1, Item i2 ) {
+                return i1.first_ - i2.first_;
+            }
+        } );
+        return items;
     }
 
     /**
-     * Determines whether an integer array is currently sorted in
-     * ascending (well, non-descending) order.
+     * Appends all the leaves below a given item to a list, in record order.
+     * Any unread parts of the tree are read.
      *
-     * @param  values  array
-     * @return  true iff sorted
+     * @param  item  item
+     * @param  tree  tree to which the item belongs
+     * @param  leaves  list to which leaves are added
      */
-    private static boolean isSorted( int[] values ) {
-        int nval = values.length;
-        for ( int i = 1; i < nval; i++ ) {
-            if ( values[ i ] < values[ i - 1 ] ) {
-                return false;
+    private static void addLeaves( Item item, Tree tree, List<Leaf> leaves )
+            throws IOException {
+        if ( item instanceof Leaf ) {
+            leaves.add( (Leaf) item );
+        }
+        else {
+            for ( Item child : ((Group) item).getItems( tree ) ) {
+                addLeaves( child, tree, leaves );
             }
         }
-        return true;
+    }
+
+    /**
+     * Returns the lowest first record index of a non-empty array of items.
+     *
+     * @param  items  items
+     * @return  first record covered by any item
+     */
+    private static int getFirst( Item[] items ) {
+        int first = Integer.MAX_VALUE;
+        for ( int i = 0; i < items.length; i++ ) {
+            first = Math.min( first, items[ i ].first_ );
+        }
+        return first;
+    }
+
+    /**
+     * Returns the highest last record index of a non-empty array of items.
+     *
+     * @param  items  items
+     * @return  last record covered by any item
+     */
+    private static int getLast( Item[] items ) {
+        int last = Integer.MIN_VALUE;
+        for ( int i = 0; i < items.length; i++ ) {
+            last = Math.max( last, items[ i ].last_ );
+        }
+        return last;
+    }
+
+    /**
+     * Returns the minimum of the first few elements of an array.
+     *
+     * @param  values  array
+     * @param  n   number of elements to consider, greater than zero
+     * @return  minimum value
+     */
+    private static int min( int[] values, int n ) {
+        int min = Integer.MAX_VALUE;
+        for ( int i = 0; i < n; i++ ) {
+            min = Math.min( min, values[ i ] );
+        }
+        return min;
+    }
+
+    /**
+     * Returns the maximum of the first few elements of an array.
+     *
+     * @param  values  array
+     * @param  n   number of elements to consider, greater than zero
+     * @return  maximum value
+     */
+    private static int max( int[] values, int n ) {
+        int max = Integer.MIN_VALUE;
+        for ( int i = 0; i < n; i++ ) {
+            max = Math.max( max, values[ i ] );
+        }
+        return max;
     }
 }
@@ -29,6 +29,15 @@ public class RecordPlan {
         buf_ = buf;
     }
 
+    /**
+     * Returns the offset into the buffer at which the record starts.
+     *
+     * @return  record start offset
+     */
+    public long getStart() {
+        return start_;
+    }
+
     /**
      * Returns the size of the record in bytes.
      *
@@ -0,0 +1,183 @@
+package uk.ac.bristol.star.cdf;
+
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * Read-only view of the stored data for a contiguous run of a
+ * variable's records.
+ * The view is backed directly by the bytes of the file, which are
+ * typically memory-mapped, so no data is copied or converted.
+ * Values appear in the order they are stored, which is the same as
+ * the order of a raw value array filled by
+ * {@link Variable#readRawRecords Variable.readRawRecords}.
+ *
+ * <p>Instances are obtained from
+ * {@link Variable#getRecordViews Variable.getRecordViews}.
+ * Each <code>as*Buffer</code> method returns a new buffer with its own
+ * position and limit, so instances may be used from multiple threads.
+ *
+ * @author   Mark Taylor
+ * @since    17 Oct 2026
+ */
+public class RecordView {
+
+    private final int firstRec_;
+    private final int recCount_;
+    private final int nval_;
+    private final Class<?> elementClass_;
+    private final ByteBuffer bbuf_;
+
+    /**
+     * Constructor.
+     *
+     * @param  firstRec  index of the first record in the view
+     * @param  recCount  number of records in the view
+     * @param  nval  number of primitive values per record
+     * @param  elementClass  primitive class of the values
+     * @param  bbuf  read-only buffer containing the record data,
+     *               with position zero and the correct byte order
+     */
+    RecordView( int firstRec, int recCount, int nval, Class<?> elementClass,
+                ByteBuffer bbuf ) {
+        firstRec_ = firstRec;
+        recCount_ = recCount;
+        nval_ = nval;
+        elementClass_ = elementClass;
+        bbuf_ = bbuf;
+    }
+
+    /**
+     * Returns the index of the first record in this view.
+     *
+     * @return  first record index
+     */
+    public int getFirstRecord() {
+        return firstRec_;
+    }
+
+    /**
+     * Returns the number of records in this view.
+     *
+     * @return  record count
+     */
+    public int getRecordCount() {
+        return recCount_;
+    }
+
+    /**
+     * Returns the number of primitive values stored for each record.
+     * This is the length of the array returned by
+     * {@link Variable#createRawValueArray}.
+     *
+     * @return  values per record
+     */
+    public int getValuesPerRecord() {
+        return nval_;
+    }
+
+    /**
+     * Returns the primitive type of the values in this view.
+     * This determines which of the <code>as*Buffer</code> methods
+     * may be used.
+     *
+     * @return  primitive class, for instance <code>double.class</code>
+     */
+    public Class<?> getElementClass() {
+        return elementClass_;
+    }
+
+    /**
+     * Returns a read-only byte buffer containing the data.
+     *
+     * @return  new byte buffer with position zero
+     */
+    public ByteBuffer getByteBuffer() {
+        return bbuf_.duplicate().order( bbuf_.order() );
+    }
+
+    /**
+     * Returns a view of the data as shorts.
+     *
+     * @return  new short buffer
+     * @throws  UnsupportedOperationException  if the element class
+     *          is not <code>short</code>
+     */
+    public ShortBuffer asShortBuffer() {
+        checkType( short.class );
+        return getByteBuffer().asShortBuffer();
+    }
+
+    /**
+     * Returns a view of the data as ints.
+     *
+     * @return  new int buffer
+     * @throws  UnsupportedOperationException  if the element class
+     *          is not <code>int</code>
+     */
+    public IntBuffer asIntBuffer() {
+        checkType( int.class );
+        return getByteBuffer().asIntBuffer();
+    }
+
+    /**
+     * Returns a view of the data as longs.
+     *
+     * @return  new long buffer
+     * @throws  UnsupportedOperationException  if the element class
+     *          is not <code>long</code>
+     */
+    public LongBuffer asLongBuffer() {
+        checkType( long.class );
+        return getByteBuffer().asLongBuffer();
+    }
+
+    /**
+     * Returns a view of the data as floats.
+     *
+     * @return  new float buffer
+     * @throws  UnsupportedOperationException  if the element class
+     *          is not <code>float</code>
+     */
+    public FloatBuffer asFloatBuffer() {
+        checkType( float.class );
+        return getByteBuffer().asFloatBuffer();
+    }
+
+    /**
+     * Returns a view of the data as doubles.
+     *
+     * @return  new double buffer
+     * @throws  UnsupportedOperationException  if the element class
+     *          is not <code>double</code>
+     */
+    public DoubleBuffer asDoubleBuffer() {
+        checkType( double.class );
+        return getByteBuffer().asDoubleBuffer();
+    }
+
+    @Override
+    public String toString() {
+        return "records " + firstRec_ + "-" + ( firstRec_ + recCount_ - 1 )
+             + " (" + elementClass_.getName() + "[" + nval_ + "])";
+    }
+
+    /**
+     * Checks that the values in this view are of a given type.
+     *
+     * @param  clazz  required element class
+     * @throws  UnsupportedOperationException  if not
+     */
+    private void checkType( Class<?> clazz ) {
+        if ( clazz != elementClass_ ) {
+            throw new UnsupportedOperationException( "Values are "
+                                                   + elementClass_.getName()
+                                                   + " not "
+                                                   + clazz.getName() );
+        }
+    }
+}
@@ -1,7 +1,10 @@
 package uk.ac.bristol.star.cdf.record;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import uk.ac.bristol.star.cdf.CdfFormatException;
 
 /**
@@ -31,8 +34,13 @@ class RunLengthInputStream extends InputStream {
 
     private final InputStream base_;
     private final int rleVal_;
+    private final byte[] buf_;
+    private int pos_;
+    private int leng_;
     private int vCount_;
 
+    private static final int CHUNK = 64 * 1024;
+
     /**
      * Constructor.
      *
@@ -43,6 +51,7 @@ class RunLengthInputStream extends InputStream {
     public RunLengthInputStream( InputStream base, byte rleVal ) {
         base_ = base;
         rleVal_ = rleVal & 0xff;
+        buf_ = new byte[ 4096 ];
     } 
 
     @Override
@@ -52,16 +61,10 @@ class RunLengthInputStream extends InputStream {
             return rleVal_;
         }
         else {
-            int b = base_.read();
+            int b = readBase();
             if ( b == rleVal_ ) {
-                int c = base_.read();
-                if ( c >= 0 ) {
-                    vCount_ = c;
-                    return rleVal_;
-                }
-                else {
-                    throw new CdfFormatException( "Bad RLE data" );
-                }
+                vCount_ = readCount();
+                return rleVal_;
             }
             else {
                 return b;
@@ -69,9 +72,53 @@ class RunLengthInputStream extends InputStream {
         }
     }
 
+    @Override
+    public int read( byte[] b, int off, int len ) throws IOException {
+        if ( len == 0 ) {
+            return 0;
+        }
+        byte v = (byte) rleVal_;
+        int n = 0;
+        while ( n < len ) {
+
+            // Expand any pending run.
+            if ( vCount_ > 0 ) {
+                int k = Math.min( vCount_, len - n );
+                Arrays.fill( b, off + n, off + n + k, v );
+                vCount_ -= k;
+                n += k;
+            }
+            else if ( pos_ == leng_ && ! fillBuffer() ) {
+                break;
+            }
+
+            // Start a new run.
+            else if ( buf_[ pos_ ] == v ) {
+                pos_++;
+                vCount_ = readCount();
+                b[ off + n++ ] = v;
+            }
+
+            // Copy literal bytes up to the next run or the end of
+            // the buffered input.
+            else {
+                int start = pos_;
+                int end = Math.min( leng_, start + len - n );
+                int p = start + 1;
+                while ( p < end && buf_[ p ] != v ) {
+                    p++;
+                }
+                System.arraycopy( buf_, start, b, off + n, p - start );
+                n += p - start;
+                pos_ = p;
+            }
+        }
+        return n == 0 ? -1 : n;
+    }
+
     @Override
     public int available() throws IOException {
-        return base_.available() + vCount_;
+        return base_.available() + ( leng_ - pos_ ) + vCount_;
     }
 
     @Override
@@ -83,4 +130,169 @@ class RunLengthInputStream extends InputStream {
     public boolean markSupported() {
         return false;
     }
+
+    /**
+     * Reads the next compressed byte.
+     *
+     * @return  byte value in the range 0--255, or -1 at end of stream
+     */
+    private int readBase() throws IOException {
+        return pos_ < leng_ || fillBuffer() ? buf_[ pos_++ ] & 0xff : -1;
+    }
+
+    /**
+     * Reads the count byte following a run marker.
+     *
+     * @return  number of additional run bytes
+     */
+    private int readCount() throws IOException {
+        int c = readBase();
+        if ( c >= 0 ) {
+            return c;
+        }
+        else {
+            throw new CdfFormatException( "Bad RLE data" );
+        }
+    }
+
+    /**
+     * Refills the internal buffer from the base stream.
+     *
+     * @return  true if some bytes were read, false at end of stream
+     */
+    private boolean fillBuffer() throws IOException {
+        pos_ = 0;
+        leng_ = Math.max( 0, base_.read( buf_ ) );
+        return leng_ > 0;
+    }
+
+    /**
+     * Uncompresses RLE data from a Buf into a new buffer.
+     * This does the same as reading from an instance of this class,
+     * but without the stream overheads.
+     *
+     * @param  inBuf   buffer containing RLE-compressed data
+     * @param  inOffset   offset into <code>inBuf</code> at which the
+     *                    compressed data starts
+     * @param  outSize  byte count of the uncompressed data
+     * @param  rleVal  the byte value whose run lengths are compressed
+     * @return   new buffer of size <code>outSize</code> containing
+     *           uncompressed data
+     */
+    static Buf uncompress( Buf inBuf, long inOffset, int outSize,
+                           byte rleVal )
+            throws IOException {
+        ByteBuffer outBuf = ByteBuffer.allocateDirect( outSize );
+        byte[] chunk = new byte[ CHUNK ];
+        ByteBuffer inChunk = ByteBuffer.wrap( chunk );
+        inChunk.limit( 0 );
+        ByteBuffer stage = ByteBuffer.allocate( Math.min( CHUNK, outSize ) );
+        long pos = inOffset;
+        long inLeng = inBuf.getLength();
+        while ( outBuf.hasRemaining() ) {
+
+            // Top up the input chunk, retaining any unused bytes.
+            inChunk.compact();
+            int nin = (int) Math.min( inChunk.remaining(), inLeng - pos );
+            Bufs.readDataBytes( inBuf, pos, nin, chunk, inChunk.position() );
+            pos += nin;
+            inChunk.position( inChunk.position() + nin );
+            inChunk.flip();
+
+            // Decode into a staging buffer and copy it to the output.
+            stage.clear();
+            stage.limit( Math.min( stage.capacity(), outBuf.remaining() ) );
+            decode( inChunk, stage, rleVal );
+            stage.flip();
+            if ( stage.hasRemaining() ) {
+                outBuf.put( stage );
+            }
+
+            // No progress.  If the next item is a run which overflows
+            // the required output, use what is needed.
+            else if ( inChunk.remaining() >= 2 &&
+                      inChunk.get( inChunk.position() ) == rleVal ) {
+                while ( outBuf.hasRemaining() ) {
+                    outBuf.put( rleVal );
+                }
+            }
+            else if ( nin == 0 ) {
+                throw new EOFException( "RLE data truncated" );
+            }
+        }
+        return Bufs.createBuf( outBuf, inBuf.isBit64(), inBuf.isBigendian() );
+    }
+
+    /**
+     * Decodes RLE data from one NIO buffer to another.
+     * Decoding proceeds from the current position of each buffer,
+     * advancing both positions, until the next item in the input buffer
+     * is incomplete or will not fit in the output buffer.
+     * Since a run expands to at most 256 bytes, progress is always
+     * possible if there are complete input items and
+     * at least that much space in the output buffer.
+     *
+     * @param  in  input buffer containing RLE-compressed data
+     * @param  out  output buffer for uncompressed data
+     * @param  rleVal  the byte value whose run lengths are compressed
+     */
+    static void decode( ByteBuffer in, ByteBuffer out, byte rleVal ) {
+        int ip = in.position();
+        int ilim = in.limit();
+        int op = out.position();
+        int olim = out.limit();
+
+        // Work with the backing arrays if there are any.
+        if ( in.hasArray() && out.hasArray() ) {
+            byte[] ia = in.array();
+            int ioff = in.arrayOffset();
+            byte[] oa = out.array();
+            int ooff = out.arrayOffset();
+            while ( op < olim && ip < ilim ) {
+                byte b = ia[ ioff + ip ];
+                if ( b == rleVal ) {
+                    if ( ip + 1 == ilim ) {
+                        break;
+                    }
+                    int count = 1 + ( ia[ ioff + ip + 1 ] & 0xff );
+                    if ( count > olim - op ) {
+                        break;
+                    }
+                    Arrays.fill( oa, ooff + op, ooff + op + count, rleVal );
+                    op += count;
+                    ip += 2;
+                }
+                else {
+                    oa[ ooff + op++ ] = b;
+                    ip++;
+                }
+            }
+        }
+
+        // Otherwise use the buffer access methods.
+        else {
+            while ( op < olim && ip < ilim ) {
+                byte b = in.get( ip );
+                if ( b == rleVal ) {
+                    if ( ip + 1 == ilim ) {
+                        break;
+                    }
+                    int count = 1 + ( in.get( ip + 1 ) & 0xff );
+                    if ( count > olim - op ) {
+                        break;
+                    }
+                    for ( int i = 0; i < count; i++ ) {
+                        out.put( op++, rleVal );
+                    }
+                    ip += 2;
+                }
+                else {
+                    out.put( op++, b );
+                    ip++;
+                }
+            }
+        }
+        in.position( ip );
+        out.position( op );
+    }
 }
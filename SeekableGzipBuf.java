@@ -0,0 +1,491 @@
+package uk.ac.bristol.star.cdf.record;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import uk.ac.bristol.star.cdf.CdfFormatException;
+
+/**
+ * Buf implementation giving random access to the uncompressed content
+ * of GZIP data without uncompressing all of it.
+ *
+ * <p>As the data is decoded, checkpoints are recorded at DEFLATE
+ * block boundaries roughly every <code>span</code> bytes of output.
+ * Each checkpoint holds the position in the compressed stream and
+ * the preceding 32kbyte of uncompressed data, which is everything
+ * needed to resume decoding from that point.
+ * A read then only has to decode from the nearest checkpoint before
+ * the requested data, rather than from the start of the stream.
+ * This is the technique used by the <code>zran.c</code> example in
+ * the zlib distribution.
+ *
+ * <p>Checkpoints are created on demand, so a read beyond the last
+ * checkpoint so far has to decode the intervening data once.
+ * The most recently decoded span is retained,
+ * so that nearby reads are cheap.
+ * The memory used is therefore about 32kbyte per checkpoint
+ * plus one span.
+ *
+ * <p>A CRC-32 is accumulated as data is decoded for the first time,
+ * and once the end of the stream has been reached it is checked,
+ * along with the data size, against the GZIP trailer.
+ *
+ * @author   Mark Taylor
+ * @since    17 Oct 2026
+ */
+public class SeekableGzipBuf implements ArrayReadBuf {
+
+    private final Buf inBuf_;
+    private final long outSize_;
+    private final long span_;
+    private final List<Checkpoint> checkpoints_;
+    private volatile boolean isBit64_;
+    private volatile boolean isBigendian_;
+    private final CRC32 crc_;
+    private long crcOut_;
+    private boolean isTrailerChecked_;
+    private long endOut_;
+    private volatile Segment segment_;
+
+    /** Default output spacing in bytes between checkpoints. */
+    public static final long DFLT_SPAN = 1024 * 1024;
+
+    /**
+     * Constructor.
+     *
+     * @param  inBuf   buffer containing GZIP-format data
+     * @param  inOffset  offset into <code>inBuf</code> of the start
+     *                   of the GZIP data
+     * @param  outSize   byte count of the uncompressed data
+     * @param  span    approximate number of uncompressed bytes
+     *                 between checkpoints
+     */
+    public SeekableGzipBuf( Buf inBuf, long inOffset, long outSize,
+                            long span )
+            throws IOException {
+        if ( span <= 0 ) {
+            throw new IllegalArgumentException( "Bad span " + span );
+        }
+        inBuf_ = inBuf;
+        outSize_ = outSize;
+        span_ = span;
+        isBit64_ = inBuf.isBit64();
+        isBigendian_ = inBuf.isBigendian();
+        checkpoints_ = new ArrayList<Checkpoint>();
+        long start = GzipInflater.skipHeader( inBuf, inOffset );
+        checkpoints_.add( new Checkpoint( 0, start * 8, new byte[ 0 ] ) );
+        crc_ = new CRC32();
+        endOut_ = -1;
+    }
+
+    /**
+     * Returns the number of checkpoints recorded so far.
+     *
+     * @return  checkpoint count, including one at the start of the data
+     */
+    public synchronized int getCheckpointCount() {
+        return checkpoints_.size();
+    }
+
+    /**
+     * Copies uncompressed bytes into an array.
+     *
+     * @param  offset  offset into the uncompressed data
+     * @param  count   number of bytes to copy
+     * @param  array   destination array
+     * @param  arrayOffset   index into <code>array</code> of first
+     *                       byte to write
+     */
+    public void readBytes( long offset, int count, byte[] array,
+                           int arrayOffset )
+            throws IOException {
+        checkRange( offset, count );
+        while ( count > 0 ) {
+            Segment seg = findSegment( offset );
+            int ioff = (int) ( offset - seg.outOffset_ );
+            int n = Math.min( count, seg.leng_ - ioff );
+            System.arraycopy( seg.data_, seg.start_ + ioff,
+                              array, arrayOffset, n );
+            offset += n;
+            arrayOffset += n;
+            count -= n;
+        }
+    }
+
+    /**
+     * Reads a big-endian integer from the uncompressed data.
+     * This avoids allocating workspace, and in the usual case that
+     * the bytes are in the most recently decoded segment,
+     * does not require synchronization.
+     *
+     * @param  offset  offset into the uncompressed data
+     * @param  nbyte   number of bytes, at most 8
+     * @return   value
+     */
+    private long readBigEndian( long offset, int nbyte ) throws IOException {
+        checkRange( offset, nbyte );
+        Segment seg = findSegment( offset );
+        long value = 0;
+        for ( int i = 0; i < nbyte; i++ ) {
+            long off = offset + i;
+            if ( ! seg.contains( off ) ) {
+                seg = findSegment( off );
+            }
+            value = ( value << 8 )
+                  | ( seg.data_[ seg.start_ + (int) ( off - seg.outOffset_ ) ]
+                      & 0xff );
+        }
+        return value;
+    }
+
+    /**
+     * Checks that a range lies within the uncompressed data.
+     *
+     * @param  offset  offset into the uncompressed data
+     * @param  count   number of bytes
+     * @throws  EOFException  if not
+     */
+    private void checkRange( long offset, int count ) throws EOFException {
+        if ( offset < 0 || offset + count > outSize_ ) {
+            throw new EOFException( "Read beyond end of data" );
+        }
+    }
+
+    /**
+     * Returns a decoded segment containing a given offset.
+     * Segments are immutable, so if the most recently decoded one
+     * will do, it is returned without synchronization.
+     *
+     * @param  offset  offset into the uncompressed data
+     * @return   segment containing <code>offset</code>
+     */
+    private Segment findSegment( long offset ) throws IOException {
+        Segment seg = segment_;
+        if ( seg != null && seg.contains( offset ) ) {
+            return seg;
+        }
+        synchronized ( this ) {
+            return getSegment( offset );
+        }
+    }
+
+    /**
+     * Decodes a segment containing a given offset.
+     * Must be called with this object's monitor held.
+     *
+     * @param  offset  offset into the uncompressed data
+     * @return   segment containing <code>offset</code>
+     */
+    private Segment getSegment( long offset ) throws IOException {
+        Segment seg = segment_;
+        if ( seg != null && seg.contains( offset ) ) {
+            return seg;
+        }
+
+        // Find the last checkpoint at or before the requested offset.
+        int lo = 0;
+        int hi = checkpoints_.size() - 1;
+        while ( lo < hi ) {
+            int mid = ( lo + hi + 1 ) >>> 1;
+            if ( checkpoints_.get( mid ).outOffset_ <= offset ) {
+                lo = mid;
+            }
+            else {
+                hi = mid - 1;
+            }
+        }
+
+        // Decode from there, adding new checkpoints if we are
+        // beyond the last one.
+        for ( int ic = lo; ic < checkpoints_.size(); ic++ ) {
+            Checkpoint cp = checkpoints_.get( ic );
+            boolean isLast = ic == checkpoints_.size() - 1;
+            long stopOut = isLast ? cp.outOffset_ + span_
+                                  : checkpoints_.get( ic + 1 ).outOffset_;
+            DeflateDecoder decoder =
+                new DeflateDecoder( inBuf_, cp.bitOffset_, cp.window_ );
+            boolean isFinal = false;
+            while ( ! isFinal &&
+                    cp.outOffset_ + decoder.getOutputEnd()
+                                  - decoder.getOutputStart() < stopOut ) {
+                isFinal = decoder.decodeBlock();
+            }
+
+            // If all the expected data has been decoded, read on to
+            // the end of the deflate stream, so that the trailer
+            // can be located.
+            if ( isLast ) {
+                while ( ! isFinal &&
+                        cp.outOffset_ + decoder.getOutputEnd()
+                                      - decoder.getOutputStart()
+                        >= outSize_ ) {
+                    isFinal = decoder.decodeBlock();
+                }
+            }
+            int start = decoder.getOutputStart();
+            int leng = decoder.getOutputEnd() - start;
+            seg = new Segment( cp.outOffset_, decoder.getOutputArray(),
+                               start, leng );
+            long nextOut = cp.outOffset_ + leng;
+            if ( isLast ) {
+                if ( cp.outOffset_ == crcOut_ ) {
+                    crc_.update( seg.data_, start, leng );
+                    crcOut_ = nextOut;
+                }
+                if ( isFinal ) {
+                    if ( nextOut > outSize_ ) {
+                        throw new CdfFormatException( "GZIP data longer than "
+                                                    + outSize_ + " bytes" );
+                    }
+                    if ( ! isTrailerChecked_ && crcOut_ == nextOut ) {
+                        long trailerOff = ( decoder.getBitOffset() + 7 ) / 8;
+                        GzipInflater.checkTrailer( inBuf_, trailerOff,
+                                                   crc_.getValue(), nextOut );
+                        isTrailerChecked_ = true;
+                    }
+                    endOut_ = nextOut;
+                }
+                else {
+                    checkpoints_.add( new Checkpoint( nextOut,
+                                                      decoder.getBitOffset(),
+                                                      decoder.getWindow() ) );
+                }
+            }
+            if ( seg.contains( offset ) ) {
+                segment_ = seg;
+                return seg;
+            }
+            else if ( endOut_ >= 0 && nextOut >= endOut_ ) {
+                break;
+            }
+        }
+        throw new EOFException( "GZIP data ended after " + endOut_ + " of "
+                              + outSize_ + " bytes" );
+    }
+
+    /**
+     * Returns a buffer containing a range of the uncompressed data.
+     *
+     * @param  offset  offset into the uncompressed data
+     * @param  nbyte   number of bytes
+     * @return  new buffer with position zero, ordered for application data
+     */
+    private ByteBuffer readBuffer( long offset, int nbyte )
+            throws IOException {
+        checkRange( offset, nbyte );
+        Segment seg = nbyte > 0 ? findSegment( offset ) : null;
+        ByteBuffer bbuf;
+
+        // If the range is all in one segment, use its data directly.
+        if ( seg != null && seg.contains( offset + nbyte - 1 ) ) {
+            int ioff = seg.start_ + (int) ( offset - seg.outOffset_ );
+            bbuf = ByteBuffer.wrap( seg.data_, ioff, nbyte ).slice();
+        }
+        else {
+            byte[] array = new byte[ nbyte ];
+            readBytes( offset, nbyte, array, 0 );
+            bbuf = ByteBuffer.wrap( array );
+        }
+        return bbuf.order( isBigendian_ ? ByteOrder.BIG_ENDIAN
+                                        : ByteOrder.LITTLE_ENDIAN );
+    }
+
+    public long getLength() {
+        return outSize_;
+    }
+
+    public int readUnsignedByte( Pointer ptr ) throws IOException {
+        return (int) readBigEndian( ptr.getAndIncrement( 1 ), 1 );
+    }
+
+    public int readInt( Pointer ptr ) throws IOException {
+        return (int) readBigEndian( ptr.getAndIncrement( 4 ), 4 );
+    }
+
+    public long readOffset( Pointer ptr ) throws IOException {
+        return isBit64_ ? readBigEndian( ptr.getAndIncrement( 8 ), 8 )
+                        : (long) (int) readBigEndian( ptr.getAndIncrement( 4 ),
+                                                      4 );
+    }
+
+    public String readAsciiString( Pointer ptr, int nbyte )
+            throws IOException {
+        byte[] b = new byte[ nbyte ];
+        readBytes( ptr.getAndIncrement( nbyte ), nbyte, b, 0 );
+        return Bufs.readAsciiString( ByteBuffer.wrap( b ), 0, nbyte );
+    }
+
+    public void setBit64( boolean isBit64 ) {
+        isBit64_ = isBit64;
+    }
+
+    public boolean isBit64() {
+        return isBit64_;
+    }
+
+    public void setEncoding( boolean isBigendian ) {
+        isBigendian_ = isBigendian;
+    }
+
+    public boolean isBigendian() {
+        return isBigendian_;
+    }
+
+    public void readDataBytes( long offset, int count, byte[] array )
+            throws IOException {
+        readDataBytes( offset, count, array, 0 );
+    }
+
+    public void readDataBytes( long offset, int count, byte[] array,
+                               int arrayOffset )
+            throws IOException {
+        readBytes( offset, count, array, arrayOffset );
+    }
+
+    public void readDataShorts( long offset, int count, short[] array )
+            throws IOException {
+        readDataShorts( offset, count, array, 0 );
+    }
+
+    public void readDataShorts( long offset, int count, short[] array,
+                                int arrayOffset )
+            throws IOException {
+        Bufs.readShorts( readBuffer( offset, count * 2 ), 0, count,
+                         array, arrayOffset );
+    }
+
+    public void readDataInts( long offset, int count, int[] array )
+            throws IOException {
+        readDataInts( offset, count, array, 0 );
+    }
+
+    public void readDataInts( long offset, int count, int[] array,
+                              int arrayOffset )
+            throws IOException {
+        Bufs.readInts( readBuffer( offset, count * 4 ), 0, count,
+                       array, arrayOffset );
+    }
+
+    public void readDataLongs( long offset, int count, long[] array )
+            throws IOException {
+        readDataLongs( offset, count, array, 0 );
+    }
+
+    public void readDataLongs( long offset, int count, long[] array,
+                               int arrayOffset )
+            throws IOException {
+        Bufs.readLongs( readBuffer( offset, count * 8 ), 0, count,
+                        array, arrayOffset );
+    }
+
+    public void readDataFloats( long offset, int count, float[] array )
+            throws IOException {
+        readDataFloats( offset, count, array, 0 );
+    }
+
+    public void readDataFloats( long offset, int count, float[] array,
+                                int arrayOffset )
+            throws IOException {
+        Bufs.readFloats( readBuffer( offset, count * 4 ), 0, count,
+                         array, arrayOffset );
+    }
+
+    public void readDataDoubles( long offset, int count, double[] array )
+            throws IOException {
+        readDataDoubles( offset, count, array, 0 );
+    }
+
+    public void readDataDoubles( long offset, int count, double[] array,
+                                 int arrayOffset )
+            throws IOException {
+        Bufs.readDoubles( readBuffer( offset, count * 8 ), 0, count,
+                          array, arrayOffset );
+    }
+
+    public InputStream createInputStream( final long offset ) {
+        return new InputStream() {
+            private long pos_ = offset;
+            @Override
+            public int read() throws IOException {
+                byte[] b = new byte[ 1 ];
+                return read( b, 0, 1 ) == 1 ? b[ 0 ] & 0xff : -1;
+            }
+            @Override
+            public int read( byte[] b, int off, int len ) throws IOException {
+                int n = (int) Math.min( len, outSize_ - pos_ );
+                if ( n <= 0 ) {
+                    return len == 0 ? 0 : -1;
+                }
+                readBytes( pos_, n, b, off );
+                pos_ += n;
+                return n;
+            }
+        };
+    }
+
+    public Buf fillNewBuf( long count, InputStream in ) throws IOException {
+        return inBuf_.fillNewBuf( count, in );
+    }
+
+    /**
+     * Records the state required to resume decoding at a block boundary.
+     */
+    private static class Checkpoint {
+        final long outOffset_;
+        final long bitOffset_;
+        final byte[] window_;
+
+        /**
+         * Constructor.
+         *
+         * @param  outOffset  offset into uncompressed data
+         * @param  bitOffset  offset in bits into compressed buffer
+         * @param  window   uncompressed data preceding this point
+         */
+        Checkpoint( long outOffset, long bitOffset, byte[] window ) {
+            outOffset_ = outOffset;
+            bitOffset_ = bitOffset;
+            window_ = window;
+        }
+    }
+
+    /**
+     * Holds a contiguous range of decoded data.
+     */
+    private static class Segment {
+        final long outOffset_;
+        final byte[] data_;
+        final int start_;
+        final int leng_;
+
+        /**
+         * Constructor.
+         *
+         * @param  outOffset  offset into uncompressed data of first byte
+         * @param  data   array containing the data
+         * @param  start  index into <code>data</code> of first byte
+         * @param  leng   number of bytes
+         */
+        Segment( long outOffset, byte[] data, int start, int leng ) {
+            outOffset_ = outOffset;
+            data_ = data;
+            start_ = start;
+            leng_ = leng;
+        }
+
+        /**
+         * Indicates whether this segment contains a given offset.
+         *
+         * @param  offset  offset into uncompressed data
+         * @return  true iff the byte at <code>offset</code> is present
+         */
+        boolean contains( long offset ) {
+            return offset >= outOffset_ && offset < outOffset_ + leng_;
+        }
+    }
+}
@@ -15,6 +15,8 @@ public abstract class Shaper {
 
     private final int[] dimSizes_;
     private final boolean[] dimVarys_;
+    private volatile int[] rowMajorGather_;
+    private volatile int[] colMajorGather_;
 
     /**
      * Constructor.
@@ -77,6 +79,30 @@ public abstract class Shaper {
      */
     public abstract Object shape( Object rawValue, boolean rowMajor );
 
+    /**
+     * Takes a raw value array and writes its contents in the notional
+     * shape for this shaper into a supplied array.
+     * This does the same job as {@link #shape shape}, but without
+     * allocating a new output object, so is suitable for use in
+     * loops over many records.
+     *
+     * <p>If the {@link #getShapeClass shape class} is an array type,
+     * <code>out</code> must be an array of that type and the same
+     * length as the result of <code>shape</code>;
+     * it is populated and returned.
+     * Otherwise (for scalar values) <code>out</code> is ignored and
+     * the scalar value is returned.
+     *
+     * @param   rawValue  input raw value array
+     * @param   rowMajor  required majority for result;
+     *                    true for row major, false for column major
+     * @param   out   array to receive result, or null if the result
+     *                is not an array
+     * @return  <code>out</code>, or the scalar result
+     */
+    public abstract Object shapeInto( Object rawValue, boolean rowMajor,
+                                      Object out );
+
     /**
      * Returns the index into the raw value array at which the value for
      * the given element of the notional array can be found.
@@ -86,6 +112,61 @@ public abstract class Shaper {
      */
     public abstract int getArrayIndex( int[] coords );
 
+    /**
+     * Returns a table giving the position in the raw value array
+     * of each item in the shaped array.
+     * Element <code>i</code> of the result is the index into the raw
+     * value array of the first element of the <code>i</code>'th item
+     * of the shaped array, when shaped with the given majority.
+     * So shaping is just a matter of gathering raw items
+     * in the order given by this table.
+     *
+     * <p>The table is calculated on first use and then cached,
+     * so the same array is returned each time.  It must not be modified.
+     *
+     * @param   rowMajor  majority of shaped array;
+     *                    true for row major, false for column major
+     * @return  gather index array with one element per shaped item
+     */
+    public int[] getGatherIndex( boolean rowMajor ) {
+        int[] gather = rowMajor ? rowMajorGather_ : colMajorGather_;
+        if ( gather == null ) {
+            gather = createGatherIndex( rowMajor );
+            if ( rowMajor ) {
+                rowMajorGather_ = gather;
+            }
+            else {
+                colMajorGather_ = gather;
+            }
+        }
+        return gather;
+    }
+
+    /**
+     * Calculates the gather index for a given majority.
+     *
+     * @param   rowMajor  majority of shaped array
+     * @return  new gather index array
+     * @see     #getGatherIndex
+     */
+    private int[] createGatherIndex( boolean rowMajor ) {
+        int ndim = dimSizes_.length;
+        int nitem = getShapedItemCount();
+        int[] gather = new int[ nitem ];
+        int[] coords = new int[ ndim ];
+        for ( int ix = 0; ix < nitem; ix++ ) {
+            gather[ ix ] = getArrayIndex( coords );
+            for ( int i = 0; i < ndim; i++ ) {
+                int jdim = rowMajor ? ndim - i - 1 : i;
+                if ( ++coords[ jdim ] < dimSizes_[ jdim ] ) {
+                    break;
+                }
+                coords[ jdim ] = 0;
+            }
+        }
+        return gather;
+    }
+
     /**
      * Returns an appropriate shaper instance.
      *
@@ -131,6 +212,7 @@ public abstract class Shaper {
      */
     private static class ScalarShaper extends Shaper {
         private final DataType dataType_;
+        private final boolean isArray_;
 
         /**
          * Constructor.
@@ -140,6 +222,7 @@ public abstract class Shaper {
         ScalarShaper( DataType dataType ) {
             super( new int[ 0 ], new boolean[ 0 ] );
             dataType_ = dataType;
+            isArray_ = dataType.getScalarClass().isArray();
         }
         public int getRawItemCount() {
             return 1;
@@ -153,6 +236,17 @@ public abstract class Shaper {
         public Object shape( Object rawValue, boolean rowMajor ) {
             return dataType_.getScalar( rawValue, 0 );
         }
+        public Object shapeInto( Object rawValue, boolean rowMajor,
+                                 Object out ) {
+            if ( isArray_ ) {
+                System.arraycopy( rawValue, 0, out, 0,
+                                  dataType_.getGroupSize() );
+                return out;
+            }
+            else {
+                return dataType_.getScalar( rawValue, 0 );
+            }
+        }
         public int getArrayIndex( int[] coords ) {
             for ( int i = 0; i < coords.length; i++ ) {
                 if ( coords[ i ] != 0 ) {
@@ -198,11 +292,15 @@ public abstract class Shaper {
             return shapeClass_;
         }
         public Object shape( Object rawValue, boolean rowMajor ) {
-            Object out = Array.newInstance( dataType_.getArrayElementClass(),
-                                            itemCount_ );
 
             // Contract requires that we return a new object.
-            System.arraycopy( rawValue, 0, out, 0, itemCount_ );
+            Object out = Array.newInstance( dataType_.getArrayElementClass(),
+                                            itemCount_ * step_ );
+            return shapeInto( rawValue, rowMajor, out );
+        }
+        public Object shapeInto( Object rawValue, boolean rowMajor,
+                                 Object out ) {
+            System.arraycopy( rawValue, 0, out, 0, itemCount_ * step_ );
             return out;
         }
         public int getArrayIndex( int[] coords ) {
@@ -217,7 +315,6 @@ public abstract class Shaper {
     private static class GeneralShaper extends Shaper {
 
         private final DataType dataType_;
-        private final int[] dimSizes_;
         private final boolean rowMajor_;
         private final int ndim_;
         private final int rawItemCount_;
@@ -239,7 +336,6 @@ public abstract class Shaper {
                        boolean rowMajor ) {
             super( dimSizes, dimVarys );
             dataType_ = dataType;
-            dimSizes_ = dimSizes;
             rowMajor_ = rowMajor;
             ndim_ = dimSizes.length;
 
@@ -287,18 +383,20 @@ public abstract class Shaper {
         public Object shape( Object rawValue, boolean rowMajor ) {
             Object out = Array.newInstance( dataType_.getArrayElementClass(),
                                             shapedItemCount_ * itemSize_ );
-            int[] coords = new int[ ndim_ ];
-            Arrays.fill( coords, -1 );
-            for ( int ix = 0; ix < shapedItemCount_; ix++ ) {
-                for ( int idim = 0; idim < ndim_; idim++ ) {
-                    int jdim = rowMajor ? ndim_ - idim - 1 : idim;
-                    coords[ jdim ] = ( coords[ jdim ] + 1 ) % dimSizes_[ jdim ];
-                    if ( coords[ jdim ] != 0 ) {
-                        break;
-                    }
+            return shapeInto( rawValue, rowMajor, out );
+        }
+
+        public Object shapeInto( Object rawValue, boolean rowMajor,
+                                 Object out ) {
+            int[] gather = getGatherIndex( rowMajor );
+            if ( itemSize_ == 1 ) {
+                gather( rawValue, gather, out );
+            }
+            else {
+                for ( int ix = 0; ix < shapedItemCount_; ix++ ) {
+                    System.arraycopy( rawValue, gather[ ix ],
+                                      out, ix * itemSize_, itemSize_ );
                 }
-                System.arraycopy( rawValue, getArrayIndex( coords ),
-                                  out, ix * itemSize_, itemSize_ );
             }
             return out;
         }
@@ -312,6 +410,7 @@ public abstract class Shaper {
 
         private final DataType dataType_;
         private final boolean rowMajor_;
+        private final Transposer transposer_;
 
         /**
          * Constructor.
@@ -327,6 +426,9 @@ public abstract class Shaper {
                    rowMajor );
             dataType_ = dataType;
             rowMajor_ = rowMajor;
+            transposer_ = dataType.getGroupSize() == 1
+                        ? new Transposer( dimSizes, rowMajor )
+                        : null;
         }
 
         public Object shape( Object rawValue, boolean rowMajor ) {
@@ -339,14 +441,28 @@ public abstract class Shaper {
                 return out;
             }
             else {
-                // Probably there's a more efficient way to do this -
-                // it's an n-dimensional generalisation of transposing
-                // a matrix (though don't forget to keep units of
-                // groupSize intact).
                 return super.shape( rawValue, rowMajor );
             }
         }
 
+        public Object shapeInto( Object rawValue, boolean rowMajor,
+                                 Object out ) {
+            if ( rowMajor == rowMajor_ ) {
+                System.arraycopy( rawValue, 0, out, 0,
+                                  Array.getLength( rawValue ) );
+                return out;
+            }
+            else if ( transposer_ != null ) {
+                transposer_.transpose( rawValue, out );
+                return out;
+            }
+            else {
+                // Multi-element items (EPOCH16) are rare enough that
+                // the general coordinate walk will do.
+                return super.shapeInto( rawValue, rowMajor, out );
+            }
+        }
+
         /**
          * Utility method that returns a boolean array of a given size
          * populated with true values.
@@ -361,6 +477,365 @@ public abstract class Shaper {
         }
     }
 
+    /**
+     * Reverses the majority of an n-dimensional array of single-element
+     * items, that is an n-dimensional generalisation of a matrix transpose.
+     *
+     * <p>The dimension which is fastest-varying in the output (A)
+     * is slowest-varying in the input, and the dimension which is
+     * fastest-varying in the input (Z) is slowest-varying in the output.
+     * For each combination of coordinates along the other dimensions,
+     * the A-Z plane is copied in square tiles, so that both reads
+     * (along Z) and writes (along A) stay within a small number of
+     * cache lines.  All offsets are precomputed at construction time,
+     * and there are loops specialised for each primitive array type.
+     */
+    private static class Transposer {
+
+        private static final int BLOCK = 32;
+        private final int na_;
+        private final int nz_;
+        private final int rawStrideA_;
+        private final int outStrideZ_;
+        private final int[] midRawOffsets_;
+        private final int[] midOutOffsets_;
+
+        /**
+         * Constructor.
+         *
+         * @param  dimSizes  dimensions of array, at least 2
+         * @param  rowMajor  majority of input array; output is the other one
+         */
+        Transposer( int[] dimSizes, boolean rowMajor ) {
+            int ndim = dimSizes.length;
+            int[] rawStrides = new int[ ndim ];
+            int[] outStrides = new int[ ndim ];
+            int rawStride = 1;
+            int outStride = 1;
+            for ( int i = 0; i < ndim; i++ ) {
+                int jraw = rowMajor ? ndim - i - 1 : i;
+                int jout = rowMajor ? i : ndim - i - 1;
+                rawStrides[ jraw ] = rawStride;
+                outStrides[ jout ] = outStride;
+                rawStride *= dimSizes[ jraw ];
+                outStride *= dimSizes[ jout ];
+            }
+            int ia = rowMajor ? 0 : ndim - 1;
+            int iz = rowMajor ? ndim - 1 : 0;
+            na_ = dimSizes[ ia ];
+            nz_ = dimSizes[ iz ];
+            rawStrideA_ = rawStrides[ ia ];
+            outStrideZ_ = outStrides[ iz ];
+
+            // Tabulate offsets for each position along the middle
+            // dimensions (just one position for 2-d arrays).
+            int nmid = 1;
+            for ( int idim = 1; idim < ndim - 1; idim++ ) {
+                nmid *= dimSizes[ idim ];
+            }
+            midRawOffsets_ = new int[ nmid ];
+            midOutOffsets_ = new int[ nmid ];
+            int[] coords = new int[ ndim ];
+            for ( int im = 0; im < nmid; im++ ) {
+                int rawOff = 0;
+                int outOff = 0;
+                for ( int idim = 1; idim < ndim - 1; idim++ ) {
+                    rawOff += coords[ idim ] * rawStrides[ idim ];
+                    outOff += coords[ idim ] * outStrides[ idim ];
+                }
+                midRawOffsets_[ im ] = rawOff;
+                midOutOffsets_[ im ] = outOff;
+                for ( int idim = 1; idim < ndim - 1; idim++ ) {
+                    if ( ++coords[ idim ] < dimSizes[ idim ] ) {
+                        break;
+                    }
+                    coords[ idim ] = 0;
+                }
+            }
+        }
+
+        /**
+         * Transposes an array of any supported type.
+         *
+         * @param  in  input array
+         * @param  out  output array of the same type and length
+         */
+        void transpose( Object in, Object out ) {
+            if ( in instanceof double[] ) {
+                transpose( (double[]) in, (double[]) out );
+            }
+            else if ( in instanceof float[] ) {
+                transpose( (float[]) in, (float[]) out );
+            }
+            else if ( in instanceof long[] ) {
+                transpose( (long[]) in, (long[]) out );
+            }
+            else if ( in instanceof int[] ) {
+                transpose( (int[]) in, (int[]) out );
+            }
+            else if ( in instanceof short[] ) {
+                transpose( (short[]) in, (short[]) out );
+            }
+            else if ( in instanceof byte[] ) {
+                transpose( (byte[]) in, (byte[]) out );
+            }
+            else {
+                transpose( (Object[]) in, (Object[]) out );
+            }
+        }
+
+        /**
+         * Transposes a double array.
+         *
+         * @param  in  input array
+         * @param  out  output array
+         */
+        void transpose( double[] in, double[] out ) {
+            for ( int im = 0; im < midRawOffsets_.length; im++ ) {
+                int rawBase = midRawOffsets_[ im ];
+                int outBase = midOutOffsets_[ im ];
+                for ( int z0 = 0; z0 < nz_; z0 += BLOCK ) {
+                    int z1 = Math.min( z0 + BLOCK, nz_ );
+                    for ( int a0 = 0; a0 < na_; a0 += BLOCK ) {
+                        int a1 = Math.min( a0 + BLOCK, na_ );
+                        for ( int z = z0; z < z1; z++ ) {
+                            int ir = rawBase + z + a0 * rawStrideA_;
+                            int io = outBase + z * outStrideZ_ + a0;
+                            for ( int a = a0; a < a1; a++ ) {
+                                out[ io++ ] = in[ ir ];
+                                ir += rawStrideA_;
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        /**
+         * Transposes a float array.
+         *
+         * @param  in  input array
+         * @param  out  output array
+         */
+        void transpose( float[] in, float[] out ) {
+            for ( int im = 0; im < midRawOffsets_.length; im++ ) {
+                int rawBase = midRawOffsets_[ im ];
+                int outBase = midOutOffsets_[ im ];
+                for ( int z0 = 0; z0 < nz_; z0 += BLOCK ) {
+                    int z1 = Math.min( z0 + BLOCK, nz_ );
+                    for ( int a0 = 0; a0 < na_; a0 += BLOCK ) {
+                        int a1 = Math.min( a0 + BLOCK, na_ );
+                        for ( int z = z0; z < z1; z++ ) {
+                            int ir = rawBase + z + a0 * rawStrideA_;
+                            int io = outBase + z * outStrideZ_ + a0;
+                            for ( int a = a0; a < a1; a++ ) {
+                                out[ io++ ] = in[ ir ];
+                                ir += rawStrideA_;
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        /**
+         * Transposes a long array.
+         *
+         * @param  in  input array
+         * @param  out  output array
+         */
+        void transpose( long[] in, long[] out ) {
+            for ( int im = 0; im < midRawOffsets_.length; im++ ) {
+                int rawBase = midRawOffsets_[ im ];
+                int outBase = midOutOffsets_[ im ];
+                for ( int z0 = 0; z0 < nz_; z0 += BLOCK ) {
+                    int z1 = Math.min( z0 + BLOCK, nz_ );
+                    for ( int a0 = 0; a0 < na_; a0 += BLOCK ) {
+                        int a1 = Math.min( a0 + BLOCK, na_ );
+                        for ( int z = z0; z < z1; z++ ) {
+                            int ir = rawBase + z + a0 * rawStrideA_;
+                            int io = outBase + z * outStrideZ_ + a0;
+                            for ( int a = a0; a < a1; a++ ) {
+                                out[ io++ ] = in[ ir ];
+                                ir += rawStrideA_;
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        /**
+         * Transposes an int array.
+         *
+         * @param  in  input array
+         * @param  out  output array
+         */
+        void transpose( int[] in, int[] out ) {
+            for ( int im = 0; im < midRawOffsets_.length; im++ ) {
+                int rawBase = midRawOffsets_[ im ];
+                int outBase = midOutOffsets_[ im ];
+                for ( int z0 = 0; z0 < nz_; z0 += BLOCK ) {
+                    int z1 = Math.min( z0 + BLOCK, nz_ );
+                    for ( int a0 = 0; a0 < na_; a0 += BLOCK ) {
+                        int a1 = Math.min( a0 + BLOCK, na_ );
+                        for ( int z = z0; z < z1; z++ ) {
+                            int ir = rawBase + z + a0 * rawStrideA_;
+                            int io = outBase + z * outStrideZ_ + a0;
+                            for ( int a = a0; a < a1; a++ ) {
+                                out[ io++ ] = in[ ir ];
+                                ir += rawStrideA_;
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        /**
+         * Transposes a short array.
+         *
+         * @param  in  input array
+         * @param  out  output array
+         */
+        void transpose( short[] in, short[] out ) {
+            for ( int im = 0; im < midRawOffsets_.length; im++ ) {
+                int rawBase = midRawOffsets_[ im ];
+                int outBase = midOutOffsets_[ im ];
+                for ( int z0 = 0; z0 < nz_; z0 += BLOCK ) {
+                    int z1 = Math.min( z0 + BLOCK, nz_ );
+                    for ( int a0 = 0; a0 < na_; a0 += BLOCK ) {
+                        int a1 = Math.min( a0 + BLOCK, na_ );
+                        for ( int z = z0; z < z1; z++ ) {
+                            int ir = rawBase + z + a0 * rawStrideA_;
+                            int io = outBase + z * outStrideZ_ + a0;
+                            for ( int a = a0; a < a1; a++ ) {
+                                out[ io++ ] = in[ ir ];
+                                ir += rawStrideA_;
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        /**
+         * Transposes a byte array.
+         *
+         * @param  in  input array
+         * @param  out  output array
+         */
+        void transpose( byte[] in, byte[] out ) {
+            for ( int im = 0; im < midRawOffsets_.length; im++ ) {
+                int rawBase = midRawOffsets_[ im ];
+                int outBase = midOutOffsets_[ im ];
+                for ( int z0 = 0; z0 < nz_; z0 += BLOCK ) {
+                    int z1 = Math.min( z0 + BLOCK, nz_ );
+                    for ( int a0 = 0; a0 < na_; a0 += BLOCK ) {
+                        int a1 = Math.min( a0 + BLOCK, na_ );
+                        for ( int z = z0; z < z1; z++ ) {
+                            int ir = rawBase + z + a0 * rawStrideA_;
+                            int io = outBase + z * outStrideZ_ + a0;
+                            for ( int a = a0; a < a1; a++ ) {
+                                out[ io++ ] = in[ ir ];
+                                ir += rawStrideA_;
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        /**
+         * Transposes an Object array.
+         *
+         * @param  in  input array
+         * @param  out  output array
+         */
+        void transpose( Object[] in, Object[] out ) {
+            for ( int im = 0; im < midRawOffsets_.length; im++ ) {
+                int rawBase = midRawOffsets_[ im ];
+                int outBase = midOutOffsets_[ im ];
+                for ( int z0 = 0; z0 < nz_; z0 += BLOCK ) {
+                    int z1 = Math.min( z0 + BLOCK, nz_ );
+                    for ( int a0 = 0; a0 < na_; a0 += BLOCK ) {
+                        int a1 = Math.min( a0 + BLOCK, na_ );
+                        for ( int z = z0; z < z1; z++ ) {
+                            int ir = rawBase + z + a0 * rawStrideA_;
+                            int io = outBase + z * outStrideZ_ + a0;
+                            for ( int a = a0; a < a1; a++ ) {
+                                out[ io++ ] = in[ ir ];
+                                ir += rawStrideA_;
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Copies single-element items from an input array to an output array
+     * in the order given by an index array, so that
+     * <code>out[i]=in[index[i]]</code>.
+     *
+     * @param  in  input array
+     * @param  index  index array, same length as output
+     * @param  out  output array, same type as input
+     */
+    private static void gather( Object in, int[] index, Object out ) {
+        int n = index.length;
+        if ( in instanceof double[] ) {
+            double[] a = (double[]) in;
+            double[] b = (double[]) out;
+            for ( int i = 0; i < n; i++ ) {
+                b[ i ] = a[ index[ i ] ];
+            }
+        }
+        else if ( in instanceof float[] ) {
+            float[] a = (float[]) in;
+            float[] b = (float[]) out;
+            for ( int i = 0; i < n; i++ ) {
+                b[ i ] = a[ index[ i ] ];
+            }
+        }
+        else if ( in instanceof long[] ) {
+            long[] a = (long[]) in;
+            long[] b = (long[]) out;
+            for ( int i = 0; i < n; i++ ) {
+                b[ i ] = a[ index[ i ] ];
+            }
+        }
+        else if ( in instanceof int[] ) {
+            int[] a = (int[]) in;
+            int[] b = (int[]) out;
+            for ( int i = 0; i < n; i++ ) {
+                b[ i ] = a[ index[ i ] ];
+            }
+        }
+        else if ( in instanceof short[] ) {
+            short[] a = (short[]) in;
+            short[] b = (short[]) out;
+            for ( int i = 0; i < n; i++ ) {
+                b[ i ] = a[ index[ i ] ];
+            }
+        }
+        else if ( in instanceof byte[] ) {
+            byte[] a = (byte[]) in;
+            byte[] b = (byte[]) out;
+            for ( int i = 0; i < n; i++ ) {
+                b[ i ] = a[ index[ i ] ];
+            }
+        }
+        else {
+            Object[] a = (Object[]) in;
+            Object[] b = (Object[]) out;
+            for ( int i = 0; i < n; i++ ) {
+                b[ i ] = a[ index[ i ] ];
+            }
+        }
+    }
+
     /**
      * Returns the array class corresponding to a given scalar class.
      *
@@ -0,0 +1,248 @@
+package uk.ac.bristol.star.cdf.test;
+
+import java.lang.reflect.Array;
+import java.util.Arrays;
+import java.util.Random;
+import uk.ac.bristol.star.cdf.DataType;
+import uk.ac.bristol.star.cdf.Shaper;
+
+/**
+ * Tests array reshaping, in particular majority switching.
+ * Run with the <code>-bench</code> flag, it also reports timings
+ * for majority switching compared with a simple element-by-element
+ * coordinate walk.
+ *
+ * @author   Mark Taylor
+ * @since    17 Oct 2026
+ */
+public class ShaperTest {
+
+    private static boolean assertionsOn_;
+    private static final int[][] SHAPES = {
+        { 2, 3 }, { 7, 5 }, { 33, 65 }, { 100, 1 }, { 1, 40 },
+        { 2, 3, 4 }, { 32, 64, 5 }, { 35, 3, 70 },
+        { 2, 3, 4, 5 }, { 1, 40, 1, 33 },
+    };
+    private static final DataType[] TYPES = {
+        DataType.INT1, DataType.INT2, DataType.INT4, DataType.INT8,
+        DataType.REAL4, DataType.REAL8, DataType.EPOCH16, DataType.CHAR,
+    };
+
+    private final Random random_ = new Random( 230001L );
+
+    public void testTranspose() {
+        for ( int it = 0; it < TYPES.length; it++ ) {
+            for ( int is = 0; is < SHAPES.length; is++ ) {
+                for ( int im = 0; im < 2; im++ ) {
+                    checkTranspose( TYPES[ it ], SHAPES[ is ], im == 0 );
+                }
+            }
+        }
+    }
+
+    public void testGeneral() {
+        boolean[][] varys = {
+            { true, false }, { false, true },
+            { true, false, true }, { false, true, false },
+            { false, true, true, false },
+        };
+        int[][] shapes = { { 4, 3 }, { 5, 7 }, { 3, 4, 5 }, { 2, 6, 3 },
+                           { 2, 3, 4, 2 } };
+        for ( int it = 0; it < TYPES.length; it++ ) {
+            for ( int is = 0; is < shapes.length; is++ ) {
+                for ( int im = 0; im < 2; im++ ) {
+                    checkGeneral( TYPES[ it ], shapes[ is ], varys[ is ],
+                                  im == 0 );
+                }
+            }
+        }
+    }
+
+    private void checkGeneral( DataType dataType, int[] dimSizes,
+                               boolean[] dimVarys, boolean rowMajor ) {
+        Shaper shaper =
+            Shaper.createShaper( dataType, dimSizes, dimVarys, rowMajor );
+        Object raw = createRawArray( dataType, shaper.getRawItemCount() );
+        for ( int im = 0; im < 2; im++ ) {
+            boolean outRowMajor = im == 0;
+            int[] gather = shaper.getGatherIndex( outRowMajor );
+            assert gather.length == shaper.getShapedItemCount();
+            assert shaper.getGatherIndex( outRowMajor ) == gather;
+            Object expected = coordinateWalk( shaper, raw, outRowMajor );
+            assertArrayEquals( expected, shaper.shape( raw, outRowMajor ) );
+            Object out = Array.newInstance( dataType.getArrayElementClass(),
+                                            Array.getLength( expected ) );
+            shaper.shapeInto( raw, outRowMajor, out );
+            assertArrayEquals( expected, out );
+        }
+    }
+
+    private void checkTranspose( DataType dataType, int[] dimSizes,
+                                 boolean rowMajor ) {
+        Shaper shaper = Shaper.createShaper( dataType, dimSizes,
+                                             trueArray( dimSizes.length ),
+                                             rowMajor );
+        Object raw = createRawArray( dataType, shaper.getRawItemCount() );
+        Object expected = coordinateWalk( shaper, raw, ! rowMajor );
+        Object shaped = shaper.shape( raw, ! rowMajor );
+        assertArrayEquals( expected, shaped );
+        Object out = Array.newInstance( dataType.getArrayElementClass(),
+                                        Array.getLength( shaped ) );
+        assert shaper.shapeInto( raw, ! rowMajor, out ) == out;
+        assertArrayEquals( expected, out );
+        assertArrayEquals( raw, shaper.shape( raw, rowMajor ) );
+    }
+
+    /**
+     * Reports timings for majority switching of 2-d and 3-d arrays.
+     */
+    public void benchTranspose() {
+        int[][] shapes = { { 64, 32 }, { 512, 512 }, { 32, 64, 16 },
+                           { 128, 64, 64 } };
+        DataType[] types = { DataType.REAL8, DataType.REAL4, DataType.INT2 };
+        for ( int it = 0; it < types.length; it++ ) {
+            DataType dataType = types[ it ];
+            for ( int is = 0; is < shapes.length; is++ ) {
+                int[] dimSizes = shapes[ is ];
+                Shaper shaper =
+                    Shaper.createShaper( dataType, dimSizes,
+                                         trueArray( dimSizes.length ), false );
+                int nel = shaper.getRawItemCount();
+                Object raw = createRawArray( dataType, nel );
+                Object out = Array.newInstance( dataType
+                                               .getArrayElementClass(), nel );
+                int nrep = Math.max( 1, 20000000 / nel );
+                long tWalk = 0;
+                long tShape = 0;
+                for ( int iw = 0; iw < 3; iw++ ) {
+                    long t0 = System.nanoTime();
+                    for ( int ir = 0; ir < nrep; ir++ ) {
+                        coordinateWalk( shaper, raw, true );
+                    }
+                    long t1 = System.nanoTime();
+                    for ( int ir = 0; ir < nrep; ir++ ) {
+                        shaper.shapeInto( raw, true, out );
+                    }
+                    long t2 = System.nanoTime();
+                    tWalk = t1 - t0;
+                    tShape = t2 - t1;
+                }
+                StringBuffer sbuf = new StringBuffer()
+                    .append( dataType )
+                    .append( ' ' )
+                    .append( Arrays.toString( dimSizes ) )
+                    .append( ":\t" )
+                    .append( "walk " )
+                    .append( tWalk / nrep )
+                    .append( "ns, " )
+                    .append( "transpose " )
+                    .append( tShape / nrep )
+                    .append( "ns, " )
+                    .append( "speedup " )
+                    .append( (float) tWalk / (float) tShape );
+                System.out.println( sbuf.toString() );
+            }
+        }
+    }
+
+    /**
+     * Reference implementation of reshaping, which looks up the raw
+     * array position of each output item using the shaper's
+     * getArrayIndex method.
+     */
+    private static Object coordinateWalk( Shaper shaper, Object raw,
+                                          boolean rowMajor ) {
+        int[] dimSizes = shaper.getDimSizes();
+        int ndim = dimSizes.length;
+        int nitem = shaper.getShapedItemCount();
+        int grp = Array.getLength( raw ) / shaper.getRawItemCount();
+        Object out = Array.newInstance( raw.getClass().getComponentType(),
+                                        nitem * grp );
+        int[] coords = new int[ ndim ];
+        for ( int ix = 0; ix < nitem; ix++ ) {
+            System.arraycopy( raw, shaper.getArrayIndex( coords ),
+                              out, ix * grp, grp );
+            for ( int i = 0; i < ndim; i++ ) {
+                int jdim = rowMajor ? ndim - i - 1 : i;
+                if ( ++coords[ jdim ] < dimSizes[ jdim ] ) {
+                    break;
+                }
+                coords[ jdim ] = 0;
+            }
+        }
+        return out;
+    }
+
+    private Object createRawArray( DataType dataType, int nitem ) {
+        int n = nitem * dataType.getGroupSize();
+        Class<?> clazz = dataType.getArrayElementClass();
+        Object array = Array.newInstance( clazz, n );
+        for ( int i = 0; i < n; i++ ) {
+            int v = random_.nextInt();
+            final Object value;
+            if ( clazz == byte.class ) {
+                value = Byte.valueOf( (byte) v );
+            }
+            else if ( clazz == short.class ) {
+                value = Short.valueOf( (short) v );
+            }
+            else if ( clazz == int.class ) {
+                value = Integer.valueOf( v );
+            }
+            else if ( clazz == long.class ) {
+                value = Long.valueOf( v * 31L );
+            }
+            else if ( clazz == float.class ) {
+                value = Float.valueOf( v * 0.5f );
+            }
+            else if ( clazz == double.class ) {
+                value = Double.valueOf( v * 0.25 );
+            }
+            else {
+                value = Integer.toString( v );
+            }
+            Array.set( array, i, value );
+        }
+        return array;
+    }
+
+    private static void assertArrayEquals( Object a1, Object a2 ) {
+        int n = Array.getLength( a1 );
+        assert Array.getLength( a2 ) == n;
+        for ( int i = 0; i < n; i++ ) {
+            assert Array.get( a1, i ).equals( Array.get( a2, i ) );
+        }
+    }
+
+    private static boolean[] trueArray( int n ) {
+        boolean[] a = new boolean[ n ];
+        Arrays.fill( a, true );
+        return a;
+    }
+
+    private static boolean checkAssertions() {
+        assertionsOn_ = true;
+        return true;
+    }
+
+    private static void runTests() {
+        assert checkAssertions();
+        if ( ! assertionsOn_ ) {
+            throw new RuntimeException( "Assertions disabled - bit pointless" );
+        }
+        ShaperTest test = new ShaperTest();
+        test.testTranspose();
+        test.testGeneral();
+    }
+
+    /**
+     * Main method.  Runs tests; if the <code>-bench</code> flag is
+     * given, timings are reported as well.
+     */
+    public static void main( String[] args ) {
+        runTests();
+        if ( args.length > 0 && args[ 0 ].equals( "-bench" ) ) {
+            new ShaperTest().benchTranspose();
+        }
+    }
+}
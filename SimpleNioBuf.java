@@ -17,7 +17,7 @@ import java.nio.channels.ReadableByteChannel;
  * @since    18 Jun 2013
  * @see      java.nio.ByteBuffer
  */
-public class SimpleNioBuf implements Buf {
+public class SimpleNioBuf implements ArrayReadBuf {
 
     private final ByteBuffer byteBuf_;
     private final ByteBuffer dataBuf_;
@@ -87,27 +87,58 @@ public class SimpleNioBuf implements Buf {
     }
 
     public void readDataBytes( long offset, int count, byte[] array ) {
-        Bufs.readBytes( dataBuf_, toInt( offset ), count, array );
+        readDataBytes( offset, count, array, 0 );
+    }
+
+    public void readDataBytes( long offset, int count, byte[] array,
+                               int arrayOffset ) {
+        Bufs.readBytes( dataBuf_, toInt( offset ), count, array, arrayOffset );
     }
 
     public void readDataShorts( long offset, int count, short[] array ) {
-        Bufs.readShorts( dataBuf_, toInt( offset ), count, array );
+        readDataShorts( offset, count, array, 0 );
+    }
+
+    public void readDataShorts( long offset, int count, short[] array,
+                                int arrayOffset ) {
+        Bufs.readShorts( dataBuf_, toInt( offset ), count, array, arrayOffset );
     }
 
     public void readDataInts( long offset, int count, int[] array ) {
-        Bufs.readInts( dataBuf_, toInt( offset ), count, array );
+        readDataInts( offset, count, array, 0 );
+    }
+
+    public void readDataInts( long offset, int count, int[] array,
+                              int arrayOffset ) {
+        Bufs.readInts( dataBuf_, toInt( offset ), count, array, arrayOffset );
     }
 
     public void readDataLongs( long offset, int count, long[] array ) {
-        Bufs.readLongs( dataBuf_, toInt( offset ), count, array );
+        readDataLongs( offset, count, array, 0 );
+    }
+
+    public void readDataLongs( long offset, int count, long[] array,
+                               int arrayOffset ) {
+        Bufs.readLongs( dataBuf_, toInt( offset ), count, array, arrayOffset );
     }
 
     public void readDataFloats( long offset, int count, float[] array ) {
-        Bufs.readFloats( dataBuf_, toInt( offset ), count, array );
+        readDataFloats( offset, count, array, 0 );
+    }
+
+    public void readDataFloats( long offset, int count, float[] array,
+                                int arrayOffset ) {
+        Bufs.readFloats( dataBuf_, toInt( offset ), count, array, arrayOffset );
     }
 
     public void readDataDoubles( long offset, int count, double[] array ) {
-        Bufs.readDoubles( dataBuf_, toInt( offset ), count, array );
+        readDataDoubles( offset, count, array, 0 );
+    }
+
+    public void readDataDoubles( long offset, int count, double[] array,
+                                 int arrayOffset ) {
+        Bufs.readDoubles( dataBuf_, toInt( offset ), count,
+                          array, arrayOffset );
     }
 
     public InputStream createInputStream( long offset ) {
@@ -132,6 +163,19 @@ public class SimpleNioBuf implements Buf {
         return new SimpleNioBuf( bbuf, isBit64_, isBigendian_ );
     }
 
+    /**
+     * Returns a read-only view of a range of bytes in this buf
+     * without copying.
+     *
+     * @param  offset  offset of first byte
+     * @param  count  number of bytes
+     * @return  view ordered for application data
+     * @see   Bufs#createDataView
+     */
+    ByteBuffer createDataView( long offset, int count ) {
+        return Bufs.readOnlySlice( dataBuf_, toInt( offset ), count );
+    }
+
     /**
      * Downcasts a long to an int.
      * If the value is too large, an unchecked exception is thrown.
@@ -0,0 +1,292 @@
+package uk.ac.bristol.star.cdf;
+
+import java.io.IOException;
+import java.lang.reflect.Array;
+import uk.ac.bristol.star.cdf.record.RecordMap;
+
+/**
+ * Locates records by value in a variable holding monotonically
+ * increasing times.
+ *
+ * <p>Values are read directly from the variable's record map,
+ * one record at a time, so a search takes a number of reads
+ * logarithmic in the number of records.
+ * Records in sparse regions, which have no stored value, are ignored.
+ * Optionally, the times of a regularly spaced sample of the records
+ * are held in memory, so that each search only has to read records
+ * from between two adjacent samples.
+ *
+ * <p>Instances of this class are immutable and thread-safe.
+ *
+ * @author   Mark Taylor
+ * @since    17 Oct 2026
+ */
+class TimeSearch {
+
+    private final Variable var_;
+    private final DataType dataType_;
+    private final int nval_;
+    private final int recLimit_;
+    private final int step_;
+    private final int[] sampleRecs_;
+    private final Object sampleTimes_;
+
+    /**
+     * Constructor.
+     *
+     * @param  var  variable of type EPOCH, EPOCH16 or TIME_TT2000,
+     *              with scalar values
+     * @param  step  interval in records between sampled times
+     *               held in memory, or 0 for no sampling
+     * @throws  IllegalArgumentException  if the variable is not a
+     *          scalar time variable
+     */
+    TimeSearch( Variable var, int step ) throws IOException {
+        var_ = var;
+        dataType_ = var.getDataType();
+        String typeName = dataType_.getName();
+        boolean isTime = typeName.equals( DataType.EPOCH.getName() )
+                      || typeName.equals( DataType.EPOCH16.getName() )
+                      || typeName.equals( DataType.TIME_TT2000.getName() );
+        nval_ = dataType_.getGroupSize();
+        if ( ! isTime ||
+             Array.getLength( var.createRawValueArray() ) != nval_ ) {
+            throw new IllegalArgumentException( "Variable " + var.getName()
+                                              + " is not a scalar "
+                                              + "time variable" );
+        }
+        if ( step < 0 ) {
+            throw new IllegalArgumentException( "Bad step " + step );
+        }
+        recLimit_ = var.getStoredRecordLimit();
+        step_ = step;
+
+        // Read the sampled times if required.
+        if ( step > 0 ) {
+            RecordMap recMap = var.createRecordMapView();
+            int nmax = (int) ( ( recLimit_ + (long) step - 1 ) / step );
+            int[] recs = new int[ nmax ];
+            Object times = Array.newInstance( dataType_
+                                             .getArrayElementClass(),
+                                              nmax * nval_ );
+            int ns = 0;
+            long irec = 0;
+            while ( irec < recLimit_ ) {
+                int srec = getStoredRecord( recMap, (int) irec );
+                if ( srec < 0 ) {
+                    break;
+                }
+                readTime( recMap, srec, times, ns * nval_ );
+                recs[ ns++ ] = srec;
+                irec = srec + (long) step;
+            }
+            sampleRecs_ = new int[ ns ];
+            System.arraycopy( recs, 0, sampleRecs_, 0, ns );
+            sampleTimes_ = Array.newInstance( dataType_
+                                             .getArrayElementClass(),
+                                              ns * nval_ );
+            System.arraycopy( times, 0, sampleTimes_, 0, ns * nval_ );
+        }
+        else {
+            sampleRecs_ = new int[ 0 ];
+            sampleTimes_ = null;
+        }
+    }
+
+    /**
+     * Returns the interval between sampled records.
+     *
+     * @return   sample step, or 0 for no sampling
+     */
+    public int getStep() {
+        return step_;
+    }
+
+    /**
+     * Returns the range of stored records with times in a given
+     * closed interval.
+     *
+     * @param  t0  lower bound, as a single-item raw value array
+     * @param  t1  upper bound, as a single-item raw value array
+     * @return  2-element array giving the first and last record indices,
+     *          or null if no stored records are in range
+     * @see   Variable#findRecordRange
+     */
+    public int[] findRecordRange( Object t0, Object t1 ) throws IOException {
+        checkTime( t0 );
+        checkTime( t1 );
+        RecordMap recMap = var_.createRecordMapView();
+        Object work = var_.createRawValueArray();
+        int x0 = search( recMap, t0, false, work );
+        int first = x0 < recLimit_ ? getStoredRecord( recMap, x0 ) : -1;
+        if ( first < 0 ) {
+            return null;
+        }
+        int x1 = search( recMap, t1, true, work );
+        int last = getStoredRecordBefore( recMap, x1 );
+        return last >= first ? new int[] { first, last } : null;
+    }
+
+    /**
+     * Returns the smallest record index <code>x</code> for which
+     * the next stored record at or after <code>x</code>
+     * has a time greater than (or equal to) a given value.
+     * Non-existent records at and beyond the record limit are
+     * considered to have infinitely late times.
+     *
+     * @param  recMap  record map
+     * @param  t   time value as a single-item raw value array
+     * @param  strict  true for greater than, false for greater or equal
+     * @param  work   workspace raw value array
+     * @return   record index, no greater than the record limit
+     */
+    private int search( RecordMap recMap, Object t, boolean strict,
+                        Object work )
+            throws IOException {
+
+        // Use the samples, if any, to narrow the range.
+        // Sample times are monotonic, so find the first one
+        // which satisfies the condition.
+        int ns = sampleRecs_.length;
+        int klo = 0;
+        int khi = ns;
+        while ( klo < khi ) {
+            int kmid = ( klo + khi ) >>> 1;
+            if ( isAfter( sampleTimes_, kmid * nval_, t, strict ) ) {
+                khi = kmid;
+            }
+            else {
+                klo = kmid + 1;
+            }
+        }
+        int lo = klo > 0 ? sampleRecs_[ klo - 1 ] + 1 : 0;
+        int hi = klo < ns ? sampleRecs_[ klo ] : recLimit_;
+
+        // Binary search of records in the remaining range.
+        while ( lo < hi ) {
+            int mid = lo + ( hi - lo ) / 2;
+            int srec = getStoredRecord( recMap, mid );
+            boolean after;
+            if ( srec < 0 ) {
+                after = true;
+            }
+            else {
+                readTime( recMap, srec, work, 0 );
+                after = isAfter( work, 0, t, strict );
+            }
+            if ( after ) {
+                hi = mid;
+            }
+            else {
+                lo = mid + 1;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Returns the index of the first stored record at or after
+     * a given record.
+     *
+     * @param  recMap  record map
+     * @param  irec  record index
+     * @return  stored record index, or -1 if there are no more
+     *          stored records
+     */
+    private int getStoredRecord( RecordMap recMap, int irec )
+            throws IOException {
+        long jrec = irec;
+        while ( jrec < recLimit_ ) {
+            if ( recMap.findEntry( (int) jrec ) != null ) {
+                return (int) jrec;
+            }
+            jrec = recMap.getNextBlockStart( (int) jrec );
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the index of the last stored record before a given record.
+     *
+     * @param  recMap  record map
+     * @param  irec  record index, no greater than the record limit
+     * @return   stored record index, or -1 if there are no earlier
+     *           stored records
+     */
+    private int getStoredRecordBefore( RecordMap recMap, int irec )
+            throws IOException {
+        if ( irec <= 0 ) {
+            return -1;
+        }
+        RecordMap.Entry entry = recMap.findEntryAtOrBefore( irec - 1 );
+        return entry == null ? -1
+                             : Math.min( irec - 1, entry.getLastRecord() );
+    }
+
+    /**
+     * Reads the time value of a stored record.
+     *
+     * @param  recMap  record map
+     * @param  irec   index of a stored record
+     * @param  array  raw value array to receive the value
+     * @param  ia   index into <code>array</code> at which to write it
+     */
+    private void readTime( RecordMap recMap, int irec, Object array, int ia )
+            throws IOException {
+        RecordMap.Entry entry = recMap.findEntry( irec );
+        dataType_.readValues( entry.getBuf(), entry.getOffset( irec ), 1,
+                              array, ia, 1 );
+    }
+
+    /**
+     * Compares a time value in an array with a given time.
+     *
+     * @param  array  raw value array
+     * @param  ia   index of the time value in <code>array</code>
+     * @param  t   single-item raw value array giving the comparison time
+     * @param  strict  true to test for later than, false for
+     *                 later than or equal to
+     * @return   true iff the value in the array is later
+     *           (or the same, if not strict) than <code>t</code>
+     */
+    private boolean isAfter( Object array, int ia, Object t,
+                             boolean strict ) {
+        int cmp;
+        if ( array instanceof long[] ) {
+            long v = ((long[]) array)[ ia ];
+            long tv = ((long[]) t)[ 0 ];
+            cmp = v < tv ? -1 : ( v > tv ? 1 : 0 );
+        }
+        else {
+
+            // Compare EPOCH16 values by seconds then picoseconds.
+            double[] darray = (double[]) array;
+            double[] dt = (double[]) t;
+            cmp = 0;
+            for ( int i = 0; i < nval_ && cmp == 0; i++ ) {
+                double v = darray[ ia + i ];
+                double tv = dt[ i ];
+                cmp = v < tv ? -1 : ( v > tv ? 1 : 0 );
+            }
+        }
+        return strict ? cmp > 0 : cmp >= 0;
+    }
+
+    /**
+     * Checks that a supplied object is a suitable time value
+     * for this search.
+     *
+     * @param  t  time value
+     * @throws  IllegalArgumentException  if not
+     */
+    private void checkTime( Object t ) {
+        if ( t == null ||
+             t.getClass().getComponentType()
+             != dataType_.getArrayElementClass() ||
+             Array.getLength( t ) != nval_ ) {
+            throw new IllegalArgumentException( "Time bound is not a "
+                                              + dataType_.getName()
+                                              + " raw value array" );
+        }
+    }
+}
@@ -36,6 +36,8 @@ public abstract class TtScaler {
     private final double scaleFactor_;
     private final long fromTt2kMillis_;
     private final long toTt2kMillis_;
+    private final boolean isExact_;
+    private final long unixMinusTt2kNanos_;
 
     /** Number of milliseconds in a day. */
     private static final double MILLIS_PER_DAY = 1000 * 60 * 60 * 24;
@@ -49,6 +51,15 @@ public abstract class TtScaler {
     /** TT is ahead of TAI by approximately 32.184 seconds. */
     private static final double TT_TAI_MILLIS = 32184;
 
+    /** Number of nanoseconds in a day. */
+    private static final double NANOS_PER_DAY = MILLIS_PER_DAY * 1e6;
+
+    /** J2000 epoch as Unix time in nanoseconds. */
+    private static final long J2000_UNIXNANOS = 946728000000000000L;
+
+    /** TT-TAI in nanoseconds. */
+    private static final long TT_TAI_NANOS = 32184000000L;
+
     /** Fixed time zone. */
     private static final TimeZone UTC = TimeZone.getTimeZone( "UTC" );
 
@@ -140,6 +151,12 @@ public abstract class TtScaler {
         scaleFactor_ = scaleFactor;
         fromTt2kMillis_ = fromTt2kMillis;
         toTt2kMillis_ = toTt2kMillis;
+
+        // Since 1972 the UTC offset is a whole number of seconds,
+        // so conversion can be done exactly in integer nanoseconds.
+        isExact_ = scaleFactor == 0 && fixOffset == Math.rint( fixOffset );
+        unixMinusTt2kNanos_ = J2000_UNIXNANOS - TT_TAI_NANOS
+                            - Math.round( fixOffset * 1e9 );
     }
 
     /**
@@ -154,6 +171,105 @@ public abstract class TtScaler {
                                  fixOffset_, scaleBase_, scaleFactor_ );
     }
 
+    /**
+     * Converts time in nanoseconds from TT since J2000 to UTC since 1970
+     * for this scaler.
+     * The result is exact if the UTC offset for this scaler
+     * is a whole number of seconds, as it is for all times since 1972.
+     *
+     * @param  tt2kNanos  TT nanoseconds since J2000
+     * @return  UTC nanoseconds since Unix epoch
+     */
+    public long tt2kToUnixNanos( long tt2kNanos ) {
+        if ( isExact_ ) {
+            return tt2kNanos + unixMinusTt2kNanos_;
+        }
+        else {
+            double mjd = tt2kNanos / NANOS_PER_DAY + J2000_MJD;
+            return tt2kNanos + J2000_UNIXNANOS - TT_TAI_NANOS
+                 - Math.round( getUtcOffsetSec( mjd ) * 1e9 );
+        }
+    }
+
+    /**
+     * Converts time in nanoseconds from UTC since 1970 to TT since J2000
+     * for this scaler.  This is the inverse of {@link #tt2kToUnixNanos(long)}.
+     *
+     * @param  unixNanos  UTC nanoseconds since Unix epoch
+     * @return  TT nanoseconds since J2000
+     */
+    public long unixToTt2kNanos( long unixNanos ) {
+        if ( isExact_ ) {
+            return unixNanos - unixMinusTt2kNanos_;
+        }
+        else {
+
+            // The forward conversion evaluates the offset at the TT date,
+            // so estimate that and then evaluate the offset there.
+            long base = unixNanos - J2000_UNIXNANOS + TT_TAI_NANOS;
+            double mjd0 = unixNanos / NANOS_PER_DAY + UNIXEPOCH_MJD;
+            long tt2k0 = base + Math.round( getUtcOffsetSec( mjd0 ) * 1e9 );
+            double mjd1 = tt2k0 / NANOS_PER_DAY + J2000_MJD;
+            return base + Math.round( getUtcOffsetSec( mjd1 ) * 1e9 );
+        }
+    }
+
+    /**
+     * Returns TAI-UTC for this scaler at a given date.
+     *
+     * @param  mjd  modified Julian date
+     * @return   TAI-UTC in seconds
+     */
+    private double getUtcOffsetSec( double mjd ) {
+        return fixOffset_ + ( mjd - scaleBase_ ) * scaleFactor_;
+    }
+
+    /**
+     * Converts a run of values from this scaler's TT nanoseconds since
+     * J2000 to UTC nanoseconds since 1970.
+     *
+     * @param  src  input TT2000 values
+     * @param  dst  output Unix nanosecond values; may be the same as src
+     * @param  i0   index of first element to convert
+     * @param  i1   index after last element to convert
+     */
+    private void tt2kToUnixNanos( long[] src, long[] dst, int i0, int i1 ) {
+        if ( isExact_ ) {
+            long delta = unixMinusTt2kNanos_;
+            for ( int i = i0; i < i1; i++ ) {
+                dst[ i ] = src[ i ] + delta;
+            }
+        }
+        else {
+            for ( int i = i0; i < i1; i++ ) {
+                dst[ i ] = tt2kToUnixNanos( src[ i ] );
+            }
+        }
+    }
+
+    /**
+     * Converts a run of values from UTC nanoseconds since 1970 to
+     * this scaler's TT nanoseconds since J2000.
+     *
+     * @param  src  input Unix nanosecond values
+     * @param  dst  output TT2000 values; may be the same as src
+     * @param  i0   index of first element to convert
+     * @param  i1   index after last element to convert
+     */
+    private void unixToTt2kNanos( long[] src, long[] dst, int i0, int i1 ) {
+        if ( isExact_ ) {
+            long delta = unixMinusTt2kNanos_;
+            for ( int i = i0; i < i1; i++ ) {
+                dst[ i ] = src[ i ] - delta;
+            }
+        }
+        else {
+            for ( int i = i0; i < i1; i++ ) {
+                dst[ i ] = unixToTt2kNanos( src[ i ] );
+            }
+        }
+    }
+
     /**
      * Returns the start of the validity range of this scaler
      * in TT milliseconds since J2000.
@@ -225,6 +341,164 @@ public abstract class TtScaler {
                                    i0 >= 0 ? i0 : ns / 2, 0, ns - 1 );
     }
 
+    /**
+     * Converts an array of TIME_TT2000 values to Unix times in nanoseconds,
+     * that is UTC nanoseconds since 1970-01-01T00:00:00.
+     * For each element this gives the same result as
+     * {@link #tt2kToUnixNanos(long)} on the scaler valid for that time,
+     * but it is much faster for large arrays.
+     * The input is processed in runs of values covered by the same
+     * scaler, and the work for each run is a simple addition,
+     * which is exact for all times since 1972.
+     * Input values in time order can be converted
+     * with very little searching, but any order is permitted.
+     *
+     * <p>As for Unix time generally, the Unix times during a leap second
+     * are the same as those of the following second.
+     * The TIME_TT2000 special values <code>Long.MIN_VALUE</code> and
+     * <code>Long.MIN_VALUE+1</code> are copied unchanged.
+     * Results are not meaningful for times outside the range
+     * representable as Unix nanoseconds (roughly years 1678 to 2262).
+     *
+     * @param  src  array of TIME_TT2000 values (TT nanoseconds since J2000)
+     * @param  dst  array to receive Unix nanosecond values;
+     *              may be the same as <code>src</code>
+     * @param  n   number of elements to convert
+     */
+    public static void tt2kToUnixNanos( long[] src, long[] dst, int n ) {
+        TtScaler[] scalers = InstancesHolder.ORDERED_INSTANCES;
+        int ns = scalers.length;
+        int is = -1;
+        int i = 0;
+        while ( i < n ) {
+            long tt2k = src[ i ];
+            if ( tt2k == Long.MIN_VALUE || tt2k == Long.MIN_VALUE + 1 ) {
+                dst[ i++ ] = tt2k;
+                continue;
+            }
+
+            // Find the scaler for this value.  Usually, for sorted input,
+            // it's the next one along from the last one used.
+            long tt2kMillis = floorDiv( tt2k, 1000000 );
+            is = is >= 0 && is + 1 < ns &&
+                 scalers[ is + 1 ].compareTt2kMillis( tt2kMillis ) == 0
+               ? is + 1
+               : getScalerIndex( tt2kMillis, scalers, is );
+            TtScaler scaler = scalers[ is ];
+
+            // Find the run of values covered by the same scaler,
+            // and convert them all together.
+            long lo = millisToNanos( scaler.fromTt2kMillis_ );
+            long hi = millisToNanos( scaler.toTt2kMillis_ );
+            int j = i + 1;
+            while ( j < n && src[ j ] >= lo && src[ j ] < hi &&
+                    src[ j ] > Long.MIN_VALUE + 1 ) {
+                j++;
+            }
+            scaler.tt2kToUnixNanos( src, dst, i, j );
+            i = j;
+        }
+    }
+
+    /**
+     * Converts an array of Unix times in nanoseconds, that is
+     * UTC nanoseconds since 1970-01-01T00:00:00, to TIME_TT2000 values.
+     * This is the inverse of {@link #tt2kToUnixNanos(long[],long[],int)},
+     * except that, since Unix time does not distinguish a leap second
+     * from the second following it, Unix times within the second
+     * following a leap second are always converted to
+     * the later of the two possible TIME_TT2000 values.
+     * The conversion is exact for all times since 1972.
+     * The special value <code>Long.MIN_VALUE</code> is copied unchanged.
+     *
+     * @param  src  array of Unix nanosecond values
+     * @param  dst  array to receive TIME_TT2000 values
+     *              (TT nanoseconds since J2000);
+     *              may be the same as <code>src</code>
+     * @param  n   number of elements to convert
+     */
+    public static void unixNanosToTt2k( long[] src, long[] dst, int n ) {
+        TtScaler[] scalers = InstancesHolder.UNIX_INSTANCES;
+        long[] starts = InstancesHolder.UNIX_STARTS;
+        int ns = scalers.length;
+        int is = 0;
+        int i = 0;
+        while ( i < n ) {
+            long unixNanos = src[ i ];
+            if ( unixNanos == Long.MIN_VALUE ) {
+                dst[ i++ ] = unixNanos;
+                continue;
+            }
+
+            // Find the last scaler starting at or before this value,
+            // trying the next one along before doing a binary search.
+            if ( ! ( unixNanos >= starts[ is ] &&
+                     ( is + 1 == ns || unixNanos < starts[ is + 1 ] ) ) ) {
+                if ( is + 1 < ns && unixNanos >= starts[ is + 1 ] &&
+                     ( is + 2 == ns || unixNanos < starts[ is + 2 ] ) ) {
+                    is++;
+                }
+                else {
+                    int lo = 0;
+                    int hi = ns - 1;
+                    while ( lo < hi ) {
+                        int mid = ( lo + hi + 1 ) >>> 1;
+                        if ( starts[ mid ] <= unixNanos ) {
+                            lo = mid;
+                        }
+                        else {
+                            hi = mid - 1;
+                        }
+                    }
+                    is = lo;
+                }
+            }
+
+            // Find the run of values covered by the same scaler,
+            // and convert them all together.
+            long lo = starts[ is ];
+            long hi = is + 1 < ns ? starts[ is + 1 ] : Long.MAX_VALUE;
+            int j = i + 1;
+            while ( j < n && src[ j ] >= lo && src[ j ] < hi &&
+                    src[ j ] != Long.MIN_VALUE ) {
+                j++;
+            }
+            scalers[ is ].unixToTt2kNanos( src, dst, i, j );
+            i = j;
+        }
+    }
+
+    /**
+     * Integer division rounding towards negative infinity.
+     *
+     * @param  a  dividend
+     * @param  b  positive divisor
+     * @return  floor(a/b)
+     */
+    static long floorDiv( long a, long b ) {
+        long q = a / b;
+        return a % b < 0 ? q - 1 : q;
+    }
+
+    /**
+     * Converts a millisecond value to nanoseconds, saturating at the
+     * ends of the long range.
+     *
+     * @param  millis  time in milliseconds
+     * @return  time in nanoseconds
+     */
+    private static long millisToNanos( long millis ) {
+        if ( millis <= Long.MIN_VALUE / 1000000 ) {
+            return Long.MIN_VALUE;
+        }
+        else if ( millis >= Long.MAX_VALUE / 1000000 ) {
+            return Long.MAX_VALUE;
+        }
+        else {
+            return millis * 1000000;
+        }
+    }
+
     /**
      * Recursive binary search of an ordered array of scaler instances
      * for one that covers a given point in time.
@@ -465,6 +739,47 @@ public abstract class TtScaler {
      */
     private static class InstancesHolder {
         static final TtScaler[] ORDERED_INSTANCES = createTtScalers();
+        static final TtScaler[] UNIX_INSTANCES =
+            createUnixScalers( ORDERED_INSTANCES );
+        static final long[] UNIX_STARTS = getUnixStarts( UNIX_INSTANCES );
+    }
+
+    /**
+     * Returns the scalers to use for conversion from Unix time.
+     * These are the ordered scalers without those representing
+     * leap seconds, so that their ranges in Unix time do not overlap
+     * (at least since 1972).
+     *
+     * @param  scalers  ordered list of all scalers
+     * @return   ordered list of scalers excluding leap second scalers
+     */
+    private static TtScaler[] createUnixScalers( TtScaler[] scalers ) {
+        List<TtScaler> list = new ArrayList<TtScaler>();
+        for ( int i = 0; i < scalers.length; i++ ) {
+            if ( ! ( scalers[ i ] instanceof LeapDurationTtScaler ) ) {
+                list.add( scalers[ i ] );
+            }
+        }
+        return list.toArray( new TtScaler[ 0 ] );
+    }
+
+    /**
+     * Returns the start times in Unix nanoseconds of the validity
+     * ranges of an ordered list of scalers.
+     *
+     * @param  scalers  ordered list of scalers
+     * @return  Unix nanosecond start times, the first being Long.MIN_VALUE
+     */
+    private static long[] getUnixStarts( TtScaler[] scalers ) {
+        long[] starts = new long[ scalers.length ];
+        starts[ 0 ] = Long.MIN_VALUE;
+        for ( int i = 1; i < scalers.length; i++ ) {
+            TtScaler scaler = scalers[ i ];
+            starts[ i ] = scaler.tt2kToUnixNanos(
+                              millisToNanos( scaler.fromTt2kMillis_ ) );
+            assert starts[ i ] > starts[ i - 1 ];
+        }
+        return starts;
     }
 
     /**
@@ -2,10 +2,13 @@ package uk.ac.bristol.star.cdf;
 
 import java.io.IOException;
 import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import uk.ac.bristol.star.cdf.record.Buf;
+import uk.ac.bristol.star.cdf.record.Bufs;
 import uk.ac.bristol.star.cdf.record.DataReader;
 import uk.ac.bristol.star.cdf.record.Record;
 import uk.ac.bristol.star.cdf.record.RecordFactory;
@@ -19,12 +22,13 @@ import uk.ac.bristol.star.cdf.record.VariableDescriptorRecord;
  * constructed, but the record data itself is not read unless or until
  * one of the <code>read</code> methods is called.
  *
- * <p>This interface does not currently support data reading in such
- * a flexible way as the official CDF interface.
- * You can read a record's worth of data at a time using either
+ * <p>You can read a record's worth of data at a time using either
  * {@link #readRawRecord readRawRecord} (which should be fairly efficient) or
  * {@link #readShapedRecord readShapedRecord} (which may have to copy and
  * possibly re-order the array, and may not be so efficient).
+ * Runs of records can be read using {@link #readRawRecords readRawRecords},
+ * and rectangular subsets of the data, like the official CDF library's
+ * HyperRead functions, using {@link #readHyperSlab readHyperSlab}.
  *
  * @author   Mark Taylor
  * @since    20 Jun 2013
@@ -44,7 +48,9 @@ public class Variable {
     private final Object shapedPadValueRowMajor_;
     private final Object shapedPadValueColumnMajor_;
     private final String summaryTxt_;
+    private final CdfIndex index_;
     private volatile RecordReader recordReader_;
+    private volatile TimeSearch timeSearch_;
 
     /**
      * Constructor.
@@ -55,9 +61,23 @@ public class Variable {
      */
     public Variable( VariableDescriptorRecord vdr, CdfInfo cdfInfo,
                      RecordFactory recFact ) throws IOException {
+        this( vdr, cdfInfo, recFact, null );
+    }
+
+    /**
+     * Constructs a variable which may get its record map from an index.
+     *
+     * @param   vdr   variable descriptor record for the variable
+     * @param   cdfInfo  global CDF information
+     * @param   recFact  record factory
+     * @param   index   index of the CDF, or null
+     */
+    Variable( VariableDescriptorRecord vdr, CdfInfo cdfInfo,
+              RecordFactory recFact, CdfIndex index ) throws IOException {
 
         // Prepare state for reading data.
         vdr_ = vdr;
+        index_ = index;
         buf_ = vdr.getBuf();
         recFact_ = recFact;
         isZVariable_ = vdr.getRecordType() == 8;
@@ -138,6 +158,32 @@ public class Variable {
             .toString();
     }
 
+    /**
+     * Constructs a variable which shares the metadata of an existing one,
+     * but reads record data using a given record map.
+     *
+     * @param  base  variable supplying metadata
+     * @param  recMap  record map for reading data
+     */
+    private Variable( Variable base, RecordMap recMap ) throws IOException {
+        vdr_ = base.vdr_;
+        buf_ = base.buf_;
+        recFact_ = base.recFact_;
+        isZVariable_ = base.isZVariable_;
+        recordVariance_ = base.recordVariance_;
+        shaper_ = base.shaper_;
+        rvaleng_ = base.rvaleng_;
+        dataType_ = base.dataType_;
+        dataReader_ = base.dataReader_;
+        padRawValueArray_ = base.padRawValueArray_;
+        shapedPadValueRowMajor_ = base.shapedPadValueRowMajor_;
+        shapedPadValueColumnMajor_ = base.shapedPadValueColumnMajor_;
+        summaryTxt_ = base.summaryTxt_;
+        index_ = base.index_;
+        timeSearch_ = base.timeSearch_;
+        recordReader_ = createRecordReader( recMap );
+    }
+
     /**
      * Returns this variable's name.
      *
@@ -265,6 +311,337 @@ public class Variable {
          getRecordReader().readRawRecord( irec, rawValueArray );
     }
 
+    /**
+     * Reads the data from a contiguous sequence of records into
+     * a supplied raw value array.
+     * The result is the same as calling {@link #readRawRecord readRawRecord}
+     * for each record in turn and concatenating the resulting arrays,
+     * but runs of records stored together in the file are transferred
+     * with a single bulk read, so this is much more efficient
+     * if many records are required.
+     *
+     * <p>The supplied array must be of the same type as that returned by
+     * {@link #createRawValueArray}, and its length must be at least
+     * <code>count</code> times the length of that array.
+     * The values for record <code>firstRec+i</code> are written
+     * starting at element <code>i*n</code>, where <code>n</code>
+     * is the length of the array returned by <code>createRawValueArray</code>.
+     *
+     * @param  firstRec  index of first record to read
+     * @param  count  number of records to read
+     * @param  rawValueArray  array to receive values
+     */
+    public void readRawRecords( int firstRec, int count, Object rawValueArray )
+            throws IOException {
+        getRecordReader().readRawRecords( firstRec, count, rawValueArray );
+    }
+
+    /**
+     * Hints that a range of records will shortly be read.
+     * If this variable's data is compressed, and the compressed blocks
+     * are managed by a {@link uk.ac.bristol.star.cdf.record.BlockCache}
+     * with an executor, the blocks covering the given records
+     * are uncompressed concurrently in the background.
+     * Otherwise, this does nothing.
+     *
+     * @param  firstRec  index of first record
+     * @param  count  number of records
+     */
+    public void prefetchRecords( int firstRec, int count )
+            throws IOException {
+        getRecordReader().getRecordMap().prefetchRecords( firstRec, count );
+    }
+
+    /**
+     * Locates the records with times in a given interval,
+     * for a scalar variable of type EPOCH, EPOCH16 or TIME_TT2000
+     * whose stored values are monotonically non-decreasing.
+     * This is a binary search reading individual record values,
+     * so it only needs a number of reads logarithmic in the record count;
+     * calling {@link #indexRecordTimes indexRecordTimes} first
+     * can reduce that further if many searches will be made.
+     * Only records actually stored in the file are considered,
+     * so sparse records do not affect the result.
+     * If the values are not monotonic, the result is undefined.
+     *
+     * <p>The time bounds are given as single-item raw value arrays
+     * of the kind returned by {@link #createRawValueArray},
+     * that is <code>double[]{ms}</code> for EPOCH,
+     * <code>double[]{sec,psec}</code> for EPOCH16,
+     * and <code>long[]{nanos}</code> for TIME_TT2000.
+     *
+     * @param  t0  earliest time required (inclusive)
+     * @param  t1  latest time required (inclusive)
+     * @return  2-element array giving the indices of the first and last
+     *          stored records with times in the range
+     *          <code>t0</code>..<code>t1</code>,
+     *          or null if there are none
+     * @throws  IllegalArgumentException  if this is not a scalar time
+     *          variable, or the bounds are of the wrong type
+     */
+    public int[] findRecordRange( Object t0, Object t1 )
+            throws IOException {
+        TimeSearch search = timeSearch_;
+        if ( search == null ) {
+            search = new TimeSearch( this, 0 );
+            timeSearch_ = search;
+        }
+        return search.findRecordRange( t0, t1 );
+    }
+
+    /**
+     * Reads and retains in memory the times of a regular sample of
+     * this variable's records, to speed up subsequent calls of
+     * {@link #findRecordRange findRecordRange}.
+     * A search then only has to read records lying between
+     * two adjacent samples.
+     * The samples are shared with variables later created by
+     * {@link #fork}.
+     *
+     * @param  step  interval in records between samples;
+     *               zero discards any existing samples
+     * @throws  IllegalArgumentException  if this is not a scalar time
+     *          variable
+     */
+    public void indexRecordTimes( int step ) throws IOException {
+        timeSearch_ = new TimeSearch( this, step );
+    }
+
+    /**
+     * Returns read-only views of this variable's stored record data,
+     * backed directly by the file bytes without copying.
+     * There is one view for each contiguous run of records stored
+     * together in the file, in record order; records which are
+     * not stored, for instance because the variable is sparse,
+     * appear in none of the views.
+     * The views therefore cover exactly the records for which
+     * {@link #hasRecord hasRecord} returns true.
+     *
+     * <p>This is only possible if the stored bytes can be used as they
+     * are: the data must be uncompressed, of a type whose file
+     * representation is the same as the java one (not unsigned or
+     * character types), and encoded with the requested byte order.
+     * Nor can a run of records be viewed if it straddles the boundary
+     * between two of the buffers into which a large file is mapped.
+     * If any of the records cannot be viewed, null is returned,
+     * and the data must be read in the usual way.
+     *
+     * @param  order  required byte order, or null to accept the
+     *                file's own encoding
+     * @return  array of record views, or null if views are not available
+     */
+    public RecordView[] getRecordViews( ByteOrder order ) throws IOException {
+        Class<?> clazz = dataType_.getArrayElementClass();
+        int elSize = clazz == byte.class ? 1
+                   : clazz == short.class ? 2
+                   : clazz == int.class || clazz == float.class ? 4
+                   : clazz == long.class || clazz == double.class ? 8
+                   : -1;
+        if ( elSize < 0 ||
+             dataType_.getByteCount() != dataType_.getGroupSize() * elSize ) {
+            return null;
+        }
+        int nval = Array.getLength( createRawValueArray() );
+        long recBytes = (long) nval * elSize;
+        RecordMap recMap = createRecordMapView();
+        int recLimit = getStoredRecordLimit();
+        List<RecordView> views = new ArrayList<RecordView>();
+        long irec = 0;
+        while ( irec < recLimit ) {
+            RecordMap.Entry entry = recMap.findEntry( (int) irec );
+            long nextRec = Math.min( recMap.getNextBlockStart( (int) irec ),
+                                     recLimit );
+            if ( entry != null ) {
+                int first = (int) irec;
+                int nrec = (int) ( nextRec - irec );
+                long nbyte = nrec * recBytes;
+                if ( nbyte > Integer.MAX_VALUE ) {
+                    return null;
+                }
+                ByteBuffer bbuf =
+                    Bufs.createDataView( entry.getBuf(),
+                                         entry.getOffset( first ),
+                                         (int) nbyte );
+                if ( bbuf == null ||
+                     ( order != null && ! order.equals( bbuf.order() ) ) ) {
+                    return null;
+                }
+                views.add( new RecordView( first, nrec, nval, clazz, bbuf ) );
+            }
+            irec = nextRec;
+        }
+        return views.toArray( new RecordView[ 0 ] );
+    }
+
+    /**
+     * Reads a rectangular subset of the data from a sequence of records,
+     * in the manner of the official CDF library's HyperRead functions.
+     * The records read are
+     * <code>recStart + i * recInterval</code> for
+     * <code>0 &lt;= i &lt; recCount</code>,
+     * and within each record, the elements read along dimension
+     * <code>idim</code> are
+     * <code>dimStarts[idim] + j * dimIntervals[idim]</code> for
+     * <code>0 &lt;= j &lt; dimCounts[idim]</code>.
+     *
+     * <p>Only the bytes required for the selected elements are read
+     * from the file; elements which are adjacent in storage are read
+     * together.  This can be much more efficient than reading
+     * whole records when a small part of a large array-valued record
+     * is required.
+     *
+     * <p>The result is a new array with the same element type as that
+     * returned by {@link #createRawValueArray}.
+     * It contains the selected values for each record in turn,
+     * and within each record the elements are ordered according to the
+     * <code>rowMajor</code> parameter, as for
+     * {@link #readShapedRecord readShapedRecord}.
+     * Elements along dimensions with false dimension variance are
+     * duplicated as required.
+     *
+     * @param  recStart  index of first record to read
+     * @param  recCount  number of records to read
+     * @param  recInterval  step between records read, at least 1
+     * @param  dimStarts  per-dimension index of first element to read
+     * @param  dimCounts  per-dimension number of elements to read
+     * @param  dimIntervals  per-dimension step between elements read,
+     *                       each at least 1
+     * @param  rowMajor  required majority of elements within each record
+     *                   in the output array;
+     *                   true for row major, false for column major
+     * @return  new array containing selected values
+     * @throws  IllegalArgumentException  if the selection is out of range,
+     *          or if the result would have more than
+     *          <code>Integer.MAX_VALUE</code> elements
+     */
+    public Object readHyperSlab( int recStart, int recCount, int recInterval,
+                                 int[] dimStarts, int[] dimCounts,
+                                 int[] dimIntervals, boolean rowMajor )
+            throws IOException {
+
+        // Check the selection is legal.
+        int[] dimSizes = shaper_.getDimSizes();
+        int ndim = dimSizes.length;
+        if ( recStart < 0 || recCount < 0 || recInterval < 1 ||
+             ( recCount > 0 &&
+               recStart + ( recCount - 1L ) * recInterval
+               > Integer.MAX_VALUE ) ) {
+            throw new IllegalArgumentException( "Bad record selection" );
+        }
+        if ( dimStarts.length != ndim || dimCounts.length != ndim ||
+             dimIntervals.length != ndim ) {
+            throw new IllegalArgumentException( "Dimensionality mismatch" );
+        }
+        int nItem = 1;
+        for ( int idim = 0; idim < ndim; idim++ ) {
+            int start = dimStarts[ idim ];
+            int count = dimCounts[ idim ];
+            int step = dimIntervals[ idim ];
+            if ( start < 0 || count < 0 || step < 1 ||
+                 ( count > 0 &&
+                   start + ( count - 1L ) * step >= dimSizes[ idim ] ) ) {
+                throw new IllegalArgumentException( "Bad selection for "
+                                                  + "dimension " + idim );
+            }
+            nItem *= count;
+        }
+
+        // Work out the raw array index for each selected item, in output
+        // order, by looking it up in the shaper's gather index.
+        int[] gather = shaper_.getGatherIndex( rowMajor );
+        int shapedIndex = 0;
+        int[] shapedSteps = new int[ ndim ];
+        int shapedStride = 1;
+        for ( int i = 0; i < ndim; i++ ) {
+            int jdim = rowMajor ? ndim - i - 1 : i;
+            shapedIndex += dimStarts[ jdim ] * shapedStride;
+            shapedSteps[ jdim ] = dimIntervals[ jdim ] * shapedStride;
+            shapedStride *= dimSizes[ jdim ];
+        }
+        int[] rawIndices = new int[ nItem ];
+        int[] icoords = new int[ ndim ];
+        for ( int ix = 0; ix < nItem; ix++ ) {
+            rawIndices[ ix ] = gather[ shapedIndex ];
+            for ( int i = 0; i < ndim; i++ ) {
+                int jdim = rowMajor ? ndim - i - 1 : i;
+                if ( ++icoords[ jdim ] < dimCounts[ jdim ] ) {
+                    shapedIndex += shapedSteps[ jdim ];
+                    break;
+                }
+                else {
+                    icoords[ jdim ] = 0;
+                    shapedIndex -= ( dimCounts[ jdim ] - 1 )
+                                 * shapedSteps[ jdim ];
+                }
+            }
+        }
+
+        // Coalesce items that are adjacent in both the raw and output
+        // arrays into runs, so that each run can be read in one go.
+        int grp = dataType_.getGroupSize();
+        int[] runStarts = new int[ nItem ];
+        int[] runLengths = new int[ nItem ];
+        int nrun = 0;
+        for ( int ix = 0; ix < nItem; ix++ ) {
+            if ( nrun > 0 && rawIndices[ ix ] ==
+                             runStarts[ nrun - 1 ]
+                           + runLengths[ nrun - 1 ] * grp ) {
+                runLengths[ nrun - 1 ]++;
+            }
+            else {
+                runStarts[ nrun ] = rawIndices[ ix ];
+                runLengths[ nrun ] = 1;
+                nrun++;
+            }
+        }
+
+        // Read the data for each record.  Stored records are read
+        // directly from the data buffer; records not present in the file
+        // are read as a whole and the selected items copied out.
+        RecordReader rdr = getRecordReader();
+        RecordMap recMap = rdr.getRecordMap();
+        int nelPerItem = vdr_.numElems;
+        int itemBytes = dataType_.getByteCount() * nelPerItem;
+        int outRecSize = nItem * grp;
+        if ( (long) recCount * outRecSize > Integer.MAX_VALUE ) {
+            throw new IllegalArgumentException( "Selection too large: "
+                                              + recCount + " * "
+                                              + outRecSize + " elements" );
+        }
+        Object out = Array.newInstance( dataType_.getArrayElementClass(),
+                                        recCount * outRecSize );
+        Object work = null;
+        for ( int ir = 0; ir < recCount; ir++ ) {
+            int irec = recStart + ir * recInterval;
+            int iout = ir * outRecSize;
+            if ( rdr.hasRecord( irec ) ) {
+                RecordMap.Entry entry = recMap.findEntry( irec );
+                Buf buf = entry.getBuf();
+                long recOffset = entry.getOffset( irec );
+                for ( int irun = 0; irun < nrun; irun++ ) {
+                    int nr = runLengths[ irun ];
+                    long offset = recOffset
+                            + ( runStarts[ irun ] / grp ) * (long) itemBytes;
+                    dataType_.readValues( buf, offset, nelPerItem,
+                                          out, iout, nr );
+                    iout += nr * grp;
+                }
+            }
+            else {
+                if ( work == null ) {
+                    work = createRawValueArray();
+                }
+                rdr.readRawRecord( irec, work );
+                for ( int irun = 0; irun < nrun; irun++ ) {
+                    int nel = runLengths[ irun ] * grp;
+                    System.arraycopy( work, runStarts[ irun ], out, iout, nel );
+                    iout += nel;
+                }
+            }
+        }
+        return out;
+    }
+
     /**
      * Reads the data from a single record and returns it as an object
      * of a suitable type for this variable.
@@ -294,7 +671,91 @@ public class Variable {
                                     Object rawValueArrayWorkspace )
              throws IOException {
          return getRecordReader()
-               .readShapedRecord( irec, rowMajor, rawValueArrayWorkspace );
+               .readShapedRecord( irec, rowMajor, rawValueArrayWorkspace,
+                                  null );
+    }
+
+    /**
+     * Reads the data from a single record into a supplied array of
+     * a suitable type for this variable.
+     * This does the same as
+     * {@link #readShapedRecord(int,boolean,java.lang.Object)
+     *        readShapedRecord(irec,rowMajor,rawValueArrayWorkspace)},
+     * except that if the result is an array, it is written into
+     * the supplied <code>shapedValueArray</code> rather than into
+     * a newly allocated array.  It is therefore suitable for reading
+     * large numbers of array-valued records without generating garbage.
+     *
+     * <p>If the {@link Shaper#getShapeClass shape class} is an array type,
+     * <code>shapedValueArray</code> must be an array of that type
+     * with the same length as the results of the other
+     * <code>readShapedRecord</code> method,
+     * and it is normally populated and returned.
+     * If the shape class is a scalar type,
+     * <code>shapedValueArray</code> is ignored and the scalar value
+     * is returned.
+     * As with the other method, null may be returned for
+     * records that do not exist.
+     *
+     * @param  irec  record index
+     * @param  rowMajor  required majority of output array; true for row major,
+     *                   false for column major; only has an effect for
+     *                   dimensionality &gt;=2
+     * @param  rawValueArrayWorkspace  workspace array, as created by the
+     *                                 <code>createRawValueArray</code> method
+     * @param  shapedValueArray  array to receive the shaped result
+     *                           if it is array-valued, otherwise ignored
+     * @return   <code>shapedValueArray</code> populated with the result,
+     *           or the scalar result, or null
+     */
+    public Object readShapedRecord( int irec, boolean rowMajor,
+                                    Object rawValueArrayWorkspace,
+                                    Object shapedValueArray )
+             throws IOException {
+         return getRecordReader()
+               .readShapedRecord( irec, rowMajor, rawValueArrayWorkspace,
+                                  shapedValueArray );
+    }
+
+    /**
+     * Returns a new Variable instance with the same metadata and data
+     * as this one, but which keeps its own record lookup state.
+     * This is cheap: the file is not re-read or re-mapped, and
+     * the map of where record data is stored is shared with this object.
+     *
+     * <p>The read methods of a Variable may be used from multiple threads
+     * concurrently in any case, but if many threads are reading from the
+     * same variable at once, it may be more efficient to give each one
+     * its own fork, since that way they do not contend for shared state.
+     *
+     * @return  new variable giving the same results as this one
+     */
+    public Variable fork() throws IOException {
+        return new Variable( this, getRecordReader().getRecordMap()
+                                                    .createView() );
+    }
+
+    /**
+     * Returns a record map for this variable with its own lookup state,
+     * suitable for use by a single reading thread.
+     *
+     * @return  new record map view
+     */
+    RecordMap createRecordMapView() throws IOException {
+        return getRecordReader().getRecordMap().createView();
+    }
+
+    /**
+     * Returns the index of the first record for which data is not read
+     * from the record map, even if present there.
+     * Records below this limit that have an entry in the record map
+     * are read directly from the map; others have their values
+     * supplied by {@link #readRawRecord readRawRecord}.
+     *
+     * @return  stored record limit
+     */
+    int getStoredRecordLimit() throws IOException {
+        return getRecordReader().getRecordLimit();
     }
 
     /**
@@ -311,7 +772,7 @@ public class Variable {
             synchronized ( this ) {
                 rdr = recordReader_;
                 if ( rdr == null ) {
-                    rdr = createRecordReader();
+                    rdr = createRecordReader( createRecordMap() );
                     recordReader_ = rdr;
                 }
             }
@@ -319,15 +780,31 @@ public class Variable {
         return rdr;
     }
 
+    /**
+     * Constructs a map of where this variable's records are stored.
+     * If an index is available it is used, otherwise the map is
+     * read from the file.
+     *
+     * @return  new record map
+     */
+    private RecordMap createRecordMap() throws IOException {
+        int recSize = dataReader_.getRecordSize();
+        RecordMap recMap = index_ == null
+                         ? null
+                         : index_.createRecordMap( vdr_, recFact_, recSize );
+        return recMap != null
+             ? recMap
+             : RecordMap.createRecordMap( vdr_, recFact_, recSize );
+    }
+
     /**
      * Constructs a record reader.
      *
+     * @param  recMap  record map
      * @return  new record reader
      */
-    private RecordReader createRecordReader() throws IOException {
-        RecordMap recMap =
-            RecordMap.createRecordMap( vdr_, recFact_,
-                                       dataReader_.getRecordSize() );
+    private RecordReader createRecordReader( RecordMap recMap )
+            throws IOException {
         if ( ! recordVariance_ ) {
             return new NoVaryRecordReader( recMap );
         }
@@ -356,12 +833,132 @@ public class Variable {
         }
     }
 
+    /**
+     * Reads a contiguous sequence of records into a raw value array
+     * using a given record map.
+     * Each run of records stored in a single map entry is read
+     * with a single bulk read.  The values of records not stored
+     * in the map are obtained from a supplied record reader;
+     * the value is assumed to be the same for every record in a given
+     * gap between entries, so it is only read once per gap.
+     *
+     * @param  rdr  record reader supplying values for unstored records
+     * @param  recMap  record map
+     * @param  firstRec  index of first record to read
+     * @param  count  number of records to read
+     * @param  rawValueArray  destination array
+     */
+    private void readMappedRecords( RecordReader rdr, RecordMap recMap,
+                                    int firstRec, int count,
+                                    Object rawValueArray )
+            throws IOException {
+        int recLimit = rdr.getRecordLimit();
+        Object fillValue = null;
+        int iout = 0;
+        while ( iout < count ) {
+            int irec = firstRec + iout;
+            RecordMap.Entry entry = recMap.findEntry( irec );
+            boolean isStored = irec < recLimit && entry != null;
+
+            // Work out the index of the first record after this one
+            // which is not covered by the same entry or gap.
+            long nextRec = irec < recLimit ? recMap.getNextBlockStart( irec )
+                                           : Long.MAX_VALUE;
+            if ( irec < recLimit ) {
+                nextRec = Math.min( nextRec, recLimit );
+            }
+            int n = (int) Math.min( count - iout, nextRec - irec );
+
+            // Either read the whole run straight from the entry's buffer,
+            // or replicate the gap value.
+            if ( isStored ) {
+                dataReader_.readValues( entry.getBuf(),
+                                        entry.getOffset( irec ), n,
+                                        rawValueArray, iout );
+            }
+            else {
+                if ( fillValue == null ) {
+                    fillValue = createRawValueArray();
+                }
+                rdr.readRawRecord( irec, fillValue );
+                fillRecords( fillValue, rawValueArray, iout, n );
+            }
+            iout += n;
+        }
+    }
+
+    /**
+     * Shapes a raw value array, optionally into a supplied output array.
+     *
+     * @param  rawValue  raw value array
+     * @param  rowMajor  required majority of result
+     * @param  out  array to receive result, or null for a new object
+     * @return  shaped value
+     */
+    private Object shape( Object rawValue, boolean rowMajor, Object out ) {
+        return out == null ? shaper_.shape( rawValue, rowMajor )
+                           : shaper_.shapeInto( rawValue, rowMajor, out );
+    }
+
+    /**
+     * Returns a precomputed shaped value, optionally copying it into
+     * a supplied output array.
+     *
+     * @param  value  shaped value
+     * @param  out  array to receive result if array-valued,
+     *              or null to return <code>value</code> itself
+     * @return  shaped value
+     */
+    private Object copyShaped( Object value, Object out ) {
+        if ( out != null && value != null && value.getClass().isArray() ) {
+            System.arraycopy( value, 0, out, 0, Array.getLength( value ) );
+            return out;
+        }
+        else {
+            return value;
+        }
+    }
+
+    /**
+     * Copies a single record's raw value repeatedly into
+     * a contiguous sequence of record slots in a raw value array.
+     *
+     * @param  recValue  raw value array for a single record
+     * @param  rawValueArray  destination array
+     * @param  iout  index in units of records of first slot to fill
+     * @param  n  number of slots to fill
+     */
+    private void fillRecords( Object recValue, Object rawValueArray,
+                              int iout, int n ) {
+        for ( int i = 0; i < n; i++ ) {
+            System.arraycopy( recValue, 0, rawValueArray,
+                              ( iout + i ) * rvaleng_, rvaleng_ );
+        }
+    }
+
     /**
      * Object which can read record values for this variable.
      * This provides the implementations of several of the Variable methods.
      */
     private interface RecordReader {
 
+        /**
+         * Returns the record map used by this reader.
+         *
+         * @return  record map
+         */
+        RecordMap getRecordMap();
+
+        /**
+         * Returns the index of the first record for which data stored
+         * in the record map is not used, even if present.
+         * Records below this limit with data present in the record map
+         * are read directly from the map.
+         *
+         * @return  stored record limit
+         */
+        int getRecordLimit();
+
         /**
          * Indicates whether a real file-based record exists for the given
          * record index.
@@ -369,7 +966,7 @@ public class Variable {
          * @param  irec  record index
          * @return  true iff a file-based record exists for irec
          */
-        boolean hasRecord( int irec );
+        boolean hasRecord( int irec ) throws IOException;
 
         /**
          * Reads the data from a single record into a supplied raw value array.
@@ -380,17 +977,33 @@ public class Variable {
         void readRawRecord( int irec, Object rawValueArray )
             throws IOException;
 
+        /**
+         * Reads the data from a contiguous sequence of records
+         * into a supplied raw value array.
+         *
+         * @param  firstRec  index of first record
+         * @param  count  number of records
+         * @param  rawValueArray  array with room for <code>count</code>
+         *                        records' worth of raw values
+         */
+        void readRawRecords( int firstRec, int count, Object rawValueArray )
+            throws IOException;
+
         /**
          * Reads the data from a single record and returns it as an object
          * of a suitable type for this variable.
+         * If an output array is supplied and the result is array-valued,
+         * it is written into that array.
          *
          * @param  irec  record index
          * @param  rowMajor  required majority of output array
          * @param  rawValueArrayWorkspace  workspace array
-         * @return   a new object containing shaped result
+         * @param  out  array to receive shaped result, or null for
+         *              a new object
+         * @return   object containing shaped result
          */
         Object readShapedRecord( int irec, boolean rowMajor,
-                                 Object rawValueArrayWorkspace )
+                                 Object rawValueArrayWorkspace, Object out )
             throws IOException;
     }
 
@@ -398,6 +1011,7 @@ public class Variable {
      * RecordReader implementation for non-record-varying variables.
      */
     private class NoVaryRecordReader implements RecordReader {
+        private final RecordMap recMap_;
         private final Object rawValue_;
         private final Object rowMajorValue_;
         private final Object colMajorValue_;
@@ -413,21 +1027,33 @@ public class Variable {
             // to be located where you would otherwise expect to find record #0.
             // Read it once and store it in raw, row-major and column-major
             // versions for later use.
+            recMap_ = recMap;
             RecordReader rt = new UnsparseRecordReader( recMap );
             rawValue_ = createRawValueArray();
             rt.readRawRecord( 0, rawValue_ );
             rowMajorValue_ = shaper_.shape( rawValue_, true );
             colMajorValue_ = shaper_.shape( rawValue_, false );
         }
+        public RecordMap getRecordMap() {
+            return recMap_;
+        }
+        public int getRecordLimit() {
+            return 0;
+        }
         public boolean hasRecord( int irec ) {
             return false;
         }
         public void readRawRecord( int irec, Object rawValueArray ) {
             System.arraycopy( rawValue_, 0, rawValueArray, 0, rvaleng_ );
         }
+        public void readRawRecords( int firstRec, int count,
+                                    Object rawValueArray ) {
+            fillRecords( rawValue_, rawValueArray, 0, count );
+        }
         public Object readShapedRecord( int irec, boolean rowMajor,
-                                        Object work ) {
-            return rowMajor ? rowMajorValue_ : colMajorValue_;
+                                        Object work, Object out ) {
+            return copyShaped( rowMajor ? rowMajorValue_ : colMajorValue_,
+                               out );
         }
     }
 
@@ -449,30 +1075,42 @@ public class Variable {
             nrec_ = vdr_.maxRec + 1;
             zeros_ = createRawValueArray();
         }
+        public RecordMap getRecordMap() {
+            return recMap_;
+        }
+        public int getRecordLimit() {
+            return nrec_;
+        }
         public boolean hasRecord( int irec ) {
             return irec < nrec_;
         }
         public void readRawRecord( int irec, Object rawValueArray )
                 throws IOException {
             if ( hasRecord( irec ) ) {
-                int ient = recMap_.getEntryIndex( irec );
-                dataReader_.readValue( recMap_.getBuf( ient ),
-                                       recMap_.getOffset( ient, irec ),
+                RecordMap.Entry entry = recMap_.findEntry( irec );
+                dataReader_.readValue( entry.getBuf(),
+                                       entry.getOffset( irec ),
                                        rawValueArray );
             }
             else {
                 System.arraycopy( zeros_, 0, rawValueArray, 0, rvaleng_ );
             }
         }
+        public void readRawRecords( int firstRec, int count,
+                                    Object rawValueArray )
+                throws IOException {
+            readMappedRecords( this, recMap_, firstRec, count,
+                               rawValueArray );
+        }
         public Object readShapedRecord( int irec, boolean rowMajor,
-                                        Object work )
+                                        Object work, Object out )
                 throws IOException {
             if ( hasRecord( irec ) ) {
-                int ient = recMap_.getEntryIndex( irec );
-                dataReader_.readValue( recMap_.getBuf( ient ),
-                                       recMap_.getOffset( ient, irec ),
+                RecordMap.Entry entry = recMap_.findEntry( irec );
+                dataReader_.readValue( entry.getBuf(),
+                                       entry.getOffset( irec ),
                                        work );
-                return shaper_.shape( work, rowMajor );
+                return shape( work, rowMajor, out );
             }
             else {
                 return null;
@@ -495,15 +1133,21 @@ public class Variable {
         PadRecordReader( RecordMap recMap ) {
             recMap_ = recMap;
         }
-        public boolean hasRecord( int irec ) {
-            return hasRecord( irec, recMap_.getEntryIndex( irec ) );
+        public RecordMap getRecordMap() {
+            return recMap_;
+        }
+        public int getRecordLimit() {
+            return getRecordCount();
+        }
+        public boolean hasRecord( int irec ) throws IOException {
+            return hasRecord( irec, recMap_.findEntry( irec ) );
         }
         public void readRawRecord( int irec, Object rawValueArray )
                 throws IOException {
-            int ient = recMap_.getEntryIndex( irec );
-            if ( hasRecord( irec, ient ) ) {
-                dataReader_.readValue( recMap_.getBuf( ient ),
-                                       recMap_.getOffset( ient, irec ),
+            RecordMap.Entry entry = recMap_.findEntry( irec );
+            if ( hasRecord( irec, entry ) ) {
+                dataReader_.readValue( entry.getBuf(),
+                                       entry.getOffset( irec ),
                                        rawValueArray );
             }
             else {
@@ -511,24 +1155,30 @@ public class Variable {
                                   rvaleng_ );
             }
         }
+        public void readRawRecords( int firstRec, int count,
+                                    Object rawValueArray )
+                throws IOException {
+            readMappedRecords( this, recMap_, firstRec, count,
+                               rawValueArray );
+        }
         public Object readShapedRecord( int irec, boolean rowMajor,
-                                        Object work )
+                                        Object work, Object out )
                 throws IOException {
-            int ient = recMap_.getEntryIndex( irec );
-            if ( hasRecord( irec, ient ) ) {
-                dataReader_.readValue( recMap_.getBuf( ient ),
-                                       recMap_.getOffset( ient, irec ),
+            RecordMap.Entry entry = recMap_.findEntry( irec );
+            if ( hasRecord( irec, entry ) ) {
+                dataReader_.readValue( entry.getBuf(),
+                                       entry.getOffset( irec ),
                                        work );
-                return shaper_.shape( work, rowMajor );
+                return shape( work, rowMajor, out );
             }
             else {
-                return rowMajor ? shapedPadValueRowMajor_
-                                : shapedPadValueColumnMajor_;
+                return copyShaped( rowMajor ? shapedPadValueRowMajor_
+                                            : shapedPadValueColumnMajor_,
+                                   out );
             }
         }
-        private boolean hasRecord( int irec, int ient ) {
-            return ient >= 0 && ient < recMap_.getEntryCount()
-                && irec < getRecordCount();
+        private boolean hasRecord( int irec, RecordMap.Entry entry ) {
+            return entry != null && irec < getRecordCount();
         }
     }
 
@@ -547,53 +1197,55 @@ public class Variable {
         PreviousRecordReader( RecordMap recMap ) {
             recMap_ = recMap;
         }
-        public boolean hasRecord( int irec ) {
+        public RecordMap getRecordMap() {
+            return recMap_;
+        }
+        public int getRecordLimit() {
+            return Integer.MAX_VALUE;
+        }
+        public boolean hasRecord( int irec ) throws IOException {
             // I'm not sure whether the constraint on getRecordCount ought
             // to be applied here - maybe for previous padding, non-existent
             // records are OK??
-            return recMap_.getEntryIndex( irec ) >= 0
+            return recMap_.findEntry( irec ) != null
                 && irec < getRecordCount();
         }
         public void readRawRecord( int irec, Object rawValueArray )
                 throws IOException {
-            int ient = recMap_.getEntryIndex( irec );
-            if ( ient >= 0 ) {
-                dataReader_.readValue( recMap_.getBuf( ient ),
-                                       recMap_.getOffset( ient, irec ),
-                                       rawValueArray );
-            }
-            else if ( ient == -1 ) {
+            RecordMap.Entry entry = recMap_.findEntryAtOrBefore( irec );
+            if ( entry == null ) {
                 System.arraycopy( padRawValueArray_, 0, rawValueArray, 0,
                                   rvaleng_ );
             }
             else {
-                int iPrevEnt = -ient - 2;
-                long offset = recMap_.getFinalOffsetInEntry( iPrevEnt );
-                dataReader_.readValue( recMap_.getBuf( iPrevEnt ), offset,
+                long offset = irec <= entry.getLastRecord()
+                            ? entry.getOffset( irec )
+                            : entry.getFinalOffset();
+                dataReader_.readValue( entry.getBuf(), offset,
                                        rawValueArray );
             }
         }
+        public void readRawRecords( int firstRec, int count,
+                                    Object rawValueArray )
+                throws IOException {
+            readMappedRecords( this, recMap_, firstRec, count,
+                               rawValueArray );
+        }
         public Object readShapedRecord( int irec, boolean rowMajor,
-                                        Object work )
+                                        Object work, Object out )
                 throws IOException {
-            int ient = recMap_.getEntryIndex( irec );
-            if ( ient >= 0 ) {
-                dataReader_.readValue( recMap_.getBuf( ient ),
-                                       recMap_.getOffset( ient, irec ),
-                                       work );
-                return shaper_.shape( work, rowMajor );
-            }
-            else if ( ient == -1 ) {
-                return rowMajor ? shapedPadValueRowMajor_
-                                : shapedPadValueColumnMajor_;
+            RecordMap.Entry entry = recMap_.findEntryAtOrBefore( irec );
+            if ( entry == null ) {
+                return copyShaped( rowMajor ? shapedPadValueRowMajor_
+                                            : shapedPadValueColumnMajor_,
+                                   out );
             }
             else {
-                int iPrevEnt = -ient - 2;
-                long offset = recMap_.getFinalOffsetInEntry( iPrevEnt );
-                dataReader_.readValue( recMap_.getBuf( ient ),
-                                       recMap_.getOffset( ient, irec ),
-                                       work );
-                return shaper_.shape( work, rowMajor );
+                long offset = irec <= entry.getLastRecord()
+                            ? entry.getOffset( irec )
+                            : entry.getFinalOffset();
+                dataReader_.readValue( entry.getBuf(), offset, work );
+                return shape( work, rowMajor, out );
             }
         }
     }